@@ -0,0 +1,92 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.security.samples.mail;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.support.GenericXmlApplicationContext;
+import org.springframework.security.samples.mail.JdbcMailUserService.MailUserRowMapper;
+
+/**
+ * Measures the cost of mapping a single row with the {@link MailUserRowMapper}, without the cost of the query. The
+ * row is read from an open H2 {@link ResultSet} that is positioned on the row once. The {@code prefix} parameter
+ * selects the column labels used for the {@link MailUser} itself ({@code ""}) or for the sender of a {@link Message}
+ * ({@code "from_"}).
+ *
+ * @author Rob Winch
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MailUserRowMapperBenchmark {
+
+    @Param({ "", "from_" })
+    private String prefix;
+
+    private GenericXmlApplicationContext context;
+    private Connection connection;
+    private ResultSet resultSet;
+    private MailUserRowMapper rowMapper;
+
+    @Setup(Level.Trial)
+    public void setup() throws SQLException {
+        this.context = new GenericXmlApplicationContext("file:src/main/webapp/WEB-INF/spring/*.xml");
+        this.connection = this.context.getBean("dataSource", DataSource.class).getConnection();
+        String p = this.prefix;
+        PreparedStatement ps = this.connection.prepareStatement("select id as " + p + "id, email as " + p
+                + "email, password as " + p + "password, firstName as " + p + "firstName, lastName as " + p
+                + "lastName from mail_user where id = 1");
+        this.resultSet = ps.executeQuery();
+        if (!this.resultSet.next()) {
+            throw new IllegalStateException("Could not find MailUser with id 1");
+        }
+        this.rowMapper = new MailUserRowMapper(this.prefix);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        this.resultSet.getStatement().close();
+        this.connection.close();
+        this.context.close();
+    }
+
+    @Benchmark
+    public MailUser mapRow() throws SQLException {
+        return this.rowMapper.mapRow(this.resultSet, 0);
+    }
+}
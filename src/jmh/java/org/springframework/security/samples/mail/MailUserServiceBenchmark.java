@@ -0,0 +1,97 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.security.samples.mail;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.support.GenericXmlApplicationContext;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Measures {@link JdbcMailUserService#findUserByEmail(String)} against the embedded H2 database of the default
+ * profile after {@code users} additional {@link MailUser}'s have been inserted. The cached {@link MailUserService}
+ * is bypassed, so every invocation queries the database.
+ *
+ * @author Rob Winch
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MailUserServiceBenchmark {
+    // all seeded users share a password hash, hashing each of them would dominate the setup
+    private static final String PASSWORD_HASH = "$2a$10$Fb4Hd2KDgBNpLDJmhdTqvOUHDSnxw3JtNmpRNhuAK8uqxNzfXMVma";
+
+    @Param({ "10", "100000" })
+    private int users;
+
+    private GenericXmlApplicationContext context;
+    private MailUserService userService;
+    private String email;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        this.context = new GenericXmlApplicationContext("file:src/main/webapp/WEB-INF/spring/*.xml");
+        this.userService = this.context.getBean("jdbcMailUserService", MailUserService.class);
+        this.context.getBean(JdbcTemplate.class).batchUpdate(
+                "insert into mail_user (email, password, firstName, lastName) values (?, ?, ?, ?)",
+                new BatchPreparedStatementSetter() {
+                    public void setValues(PreparedStatement ps, int i) throws SQLException {
+                        ps.setString(1, email(i));
+                        ps.setString(2, PASSWORD_HASH);
+                        ps.setString(3, "User" + i);
+                        ps.setString(4, "Benchmark");
+                    }
+
+                    public int getBatchSize() {
+                        return MailUserServiceBenchmark.this.users;
+                    }
+                });
+        this.email = email(this.users / 2);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.context.close();
+    }
+
+    @Benchmark
+    public MailUser findUserByEmail() {
+        return this.userService.findUserByEmail(this.email);
+    }
+
+    private static String email(int i) {
+        return "user" + i + "@example.com";
+    }
+}
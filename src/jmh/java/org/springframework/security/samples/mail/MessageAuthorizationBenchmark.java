@@ -0,0 +1,106 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.security.samples.mail;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.support.GenericXmlApplicationContext;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+/**
+ * Compares authorizing access to a {@link Message} with {@link MessageService#getMessage(int)}, which loads the
+ * {@link Message} and then evaluates a SpEL expression, to {@link MessageService#getMessageForUser(int, int)}, which
+ * puts the owner in the where clause. The {@code principal} parameter selects if the current user is allowed to
+ * see the {@link Message} ({@code owner}) or not ({@code stranger}).
+ *
+ * @author Rob Winch
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MessageAuthorizationBenchmark {
+    private static final int MESSAGE_ID = 1;
+
+    @Param({ "owner", "stranger" })
+    private String principal;
+
+    private GenericXmlApplicationContext context;
+    private MessageService messageService;
+    private MailUser user;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        this.context = new GenericXmlApplicationContext("file:src/main/webapp/WEB-INF/spring/*.xml");
+        this.messageService = this.context.getBean("jdbcMessageService", MessageService.class);
+        MailUserService userService = this.context.getBean("cachingMailUserService", MailUserService.class);
+        if ("owner".equals(this.principal)) {
+            this.user = userService.getUser(1);
+        } else {
+            this.user = new MailUser();
+            this.user.setEmail("stranger@example.com");
+            this.user.setFirstName("Stranger");
+            this.user.setLastName("User");
+            this.user.setPassword("password");
+            this.user.setId(userService.createUser(this.user));
+        }
+        SecurityContextHolder.getContext().setAuthentication(
+                new UsernamePasswordAuthenticationToken(this.user, "notused", AuthorityUtils
+                        .createAuthorityList("ROLE_USER")));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        SecurityContextHolder.clearContext();
+        this.context.close();
+    }
+
+    @Benchmark
+    public Object postAuthorize() {
+        try {
+            return this.messageService.getMessage(MESSAGE_ID);
+        } catch (AccessDeniedException denied) {
+            return denied;
+        }
+    }
+
+    @Benchmark
+    public Object ownerScopedQuery() {
+        try {
+            return this.messageService.getMessageForUser(MESSAGE_ID, this.user.getId());
+        } catch (AccessDeniedException denied) {
+            return denied;
+        }
+    }
+}
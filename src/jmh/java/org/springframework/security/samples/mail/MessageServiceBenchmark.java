@@ -0,0 +1,148 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.security.samples.mail;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.support.GenericXmlApplicationContext;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+/**
+ * Measures the {@link JdbcMessageService} against the embedded H2 database of the default profile. For every trial a
+ * sender and a recipient are created and the sender sends {@code mailboxSize} {@link Message}'s to the recipient, so
+ * the inbox of the recipient and the sent mail of the sender hold {@code mailboxSize} {@link Message}'s.
+ * <p>
+ * The page benchmarks load what the inbox and sent views display, the {@code All} benchmarks load the whole mailbox.
+ * {@link #createMessage()} adds a {@link Message} to the inbox on every invocation, so its mailbox keeps growing while
+ * it runs.
+ * </p>
+ *
+ * @author Rob Winch
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MessageServiceBenchmark {
+    private static final int SEED_BATCH_SIZE = 1000;
+    // the page size of the inbox and sent views
+    private static final int PAGE_SIZE = 25;
+
+    @Param({ "10", "1000", "100000" })
+    private int mailboxSize;
+
+    private GenericXmlApplicationContext context;
+    private MessageService messageService;
+    private MailUser sender;
+    private MailUser recipient;
+    private int messageId;
+    private MessagePageRequest firstPage;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        this.context = new GenericXmlApplicationContext("file:src/main/webapp/WEB-INF/spring/*.xml");
+        this.messageService = this.context.getBean("jdbcMessageService", MessageService.class);
+        MailUserService userService = this.context.getBean("jdbcMailUserService", MailUserService.class);
+        this.sender = userService.getUser(userService.createUser(user("sender")));
+        this.recipient = userService.getUser(userService.createUser(user("recipient")));
+        Message message = message("Seeded");
+        for (int sent = 0; sent < this.mailboxSize; sent += SEED_BATCH_SIZE) {
+            int batchSize = Math.min(SEED_BATCH_SIZE, this.mailboxSize - sent);
+            this.messageService.createMessages(message, Collections.nCopies(batchSize, this.recipient));
+        }
+        List<MessageSummary> newest = this.messageService.findInboxPageForUser(this.recipient.getId(),
+                MessagePageRequest.first(1)).getContent();
+        this.messageId = newest.get(0).getId();
+        this.firstPage = MessagePageRequest.first(PAGE_SIZE);
+        SecurityContextHolder.getContext().setAuthentication(
+                new UsernamePasswordAuthenticationToken(this.recipient, "notused", AuthorityUtils
+                        .createAuthorityList("ROLE_USER")));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        SecurityContextHolder.clearContext();
+        this.context.close();
+    }
+
+    @Benchmark
+    public Message getMessage() {
+        return this.messageService.getMessage(this.messageId);
+    }
+
+    @Benchmark
+    public MessagePage<MessageSummary> inboxPage() {
+        return this.messageService.findInboxPageForUser(this.recipient.getId(), this.firstPage);
+    }
+
+    @Benchmark
+    public MessagePage<MessageSummary> sentPage() {
+        return this.messageService.findSentPageForUser(this.sender.getId(), this.firstPage);
+    }
+
+    @Benchmark
+    public List<Message> inboxAll() {
+        return this.messageService.findInboxMessageForUser(this.recipient.getId());
+    }
+
+    @Benchmark
+    public List<Message> sentAll() {
+        return this.messageService.findSentForUser(this.sender.getId());
+    }
+
+    @Benchmark
+    public int createMessage() {
+        Message message = message("Benchmark");
+        message.setToUser(this.recipient);
+        return this.messageService.createMessage(message);
+    }
+
+    private Message message(String subject) {
+        Message message = new Message();
+        message.setFromUser(this.sender);
+        message.setSubject(subject);
+        message.setMessage("A message sent by " + getClass().getSimpleName());
+        return message;
+    }
+
+    private static MailUser user(String name) {
+        MailUser user = new MailUser();
+        user.setEmail(name + "-" + System.nanoTime() + "@example.com");
+        user.setFirstName(name);
+        user.setLastName("Benchmark");
+        user.setPassword("password");
+        return user;
+    }
+}
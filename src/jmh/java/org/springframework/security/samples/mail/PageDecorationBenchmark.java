@@ -0,0 +1,208 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.security.samples.mail;
+
+import java.io.BufferedWriter;
+import java.io.CharArrayWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.opensymphony.module.sitemesh.Page;
+import com.opensymphony.module.sitemesh.PageParser;
+import com.opensymphony.module.sitemesh.parser.HTMLPageParser;
+
+/**
+ * Compares decorating a page the way SiteMesh did, which buffers the whole view and parses it to find the title and
+ * the body before the decorator is written, to the {@code layout} tag, which writes and flushes the header before the
+ * view renders its body. The markup is what the inbox renders with {@code rows} messages.
+ * <p>
+ * {@link #render()} measures the time to produce the whole page. Run it with {@code -prof gc} to compare the
+ * allocation per page. {@link #firstByte()} stops at the first character that reaches the response, so it measures
+ * the work done on the server before the browser can start loading the style sheet.
+ * </p>
+ *
+ * @author Rob Winch
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PageDecorationBenchmark {
+    // the default buffer of a JspWriter
+    private static final int JSP_BUFFER_SIZE = 8192;
+
+    private static final String HEAD = "<!DOCTYPE HTML SYSTEM \"about:legacy-compat\"><html><head><title>SecureMail: ";
+
+    private static final String HEADER = "</title><meta content=\"text/html;charset=utf-8\" http-equiv=\"content-type\" />"
+            + "<link media=\"screen\" type=\"text/css\" href=\"/mail/resources/css/main.css\" rel=\"stylesheet\" /></head>"
+            + "<body><div id=\"header-container\"><div id=\"header\"><h1><a href=\"/mail/\" title=\"SecureMail\">"
+            + "<img title=\"SecureMail Logo\" alt=\"SecureMail Logo\" src=\"/mail/resources/img/email.png\" /></a>"
+            + " SecureMail </h1></div></div><div id=\"nav-container\"><div id=\"nav\"><ul class=\"nav\">"
+            + "<li>Welcome rob&#64;example&#46;org</li><li><a href=\"/mail/logout\">Logout</a></li></ul></div></div>"
+            + "<div id=\"content-container\"><div id=\"sub-nav\"><ul class=\"nav\">"
+            + "<li class=\"tab selected\"><a href=\"/mail/messages/inbox\">Inbox</a></li>"
+            + "<li class=\"tab\"><a href=\"/mail/messages/?form\">Compose</a></li>"
+            + "<li class=\"tab\"><a href=\"/mail/messages/sent\">Sent</a></li></ul></div>"
+            + "<div id=\"content\"><div id=\"sub-content\">";
+
+    private static final String FOOTER = "</div></div></div><div id=\"footer-container\"><div id=\"footer\">"
+            + "<a href=\"http://static.springsource.org/spring-security/site/\" id=\"springsecurity\">Spring Security</a>"
+            + "</div></div></body></html>";
+
+    private static final String TITLE = "Inbox";
+
+    @Param({ "25", "1000" })
+    private int rows;
+
+    @Param({ "sitemesh", "layout" })
+    private String decoration;
+
+    private PageParser parser;
+    private String[] senders;
+    private String[] subjects;
+    private ResponseWriter response;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        this.parser = new HTMLPageParser();
+        this.senders = new String[this.rows];
+        this.subjects = new String[this.rows];
+        for (int i = 0; i < this.rows; i++) {
+            this.senders[i] = "Taylor, Luke";
+            this.subjects[i] = "Vulnerabilities Found? " + i;
+        }
+        this.response = new ResponseWriter();
+    }
+
+    @Benchmark
+    public int render() throws IOException {
+        this.response.reset(false);
+        render(this.response);
+        return this.response.count;
+    }
+
+    @Benchmark
+    public int firstByte() throws IOException {
+        this.response.reset(true);
+        try {
+            render(this.response);
+        } catch (FirstByteException success) {
+        }
+        return this.response.count;
+    }
+
+    private void render(ResponseWriter response) throws IOException {
+        Writer out = new BufferedWriter(response, JSP_BUFFER_SIZE);
+        if ("sitemesh".equals(this.decoration)) {
+            // the view renders a complete document into the buffer of the filter
+            CharArrayWriter view = new CharArrayWriter(JSP_BUFFER_SIZE);
+            view.write("<html><head><title>");
+            view.write(TITLE);
+            view.write("</title></head><body>");
+            writeBody(view);
+            view.write("</body></html>");
+            Page page = this.parser.parse(view.toCharArray());
+            out.write(HEAD);
+            out.write(page.getTitle());
+            out.write(HEADER);
+            page.writeBody(out);
+            out.write(FOOTER);
+        } else {
+            out.write(HEAD);
+            out.write(TITLE);
+            out.write(HEADER);
+            out.flush();
+            writeBody(out);
+            out.write(FOOTER);
+        }
+        out.flush();
+    }
+
+    private void writeBody(Writer out) throws IOException {
+        out.write("<h1>Inbox</h1><table><thead><tr><th>From</th><th>Subject</th></tr></thead><tbody>");
+        for (int i = 0; i < this.rows; i++) {
+            out.write("<tr><td>");
+            out.write(this.senders[i]);
+            out.write("</td><td><a href=\"/mail/messages/");
+            out.write(Integer.toString(i));
+            out.write("\">");
+            out.write(this.subjects[i]);
+            out.write("</a></td></tr>");
+        }
+        out.write("</tbody></table>");
+    }
+
+    /**
+     * Stands in for the output of the response. Counts the characters that are written and optionally stops the
+     * rendering at the first one.
+     */
+    private static final class ResponseWriter extends Writer {
+        private static final FirstByteException FIRST_BYTE = new FirstByteException();
+
+        private boolean stopAtFirstByte;
+        private int count;
+
+        void reset(boolean stopAtFirstByte) {
+            this.stopAtFirstByte = stopAtFirstByte;
+            this.count = 0;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            if (this.stopAtFirstByte && len > 0) {
+                this.count = len;
+                throw FIRST_BYTE;
+            }
+            this.count += len;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private static final class FirstByteException extends IOException {
+        FirstByteException() {
+            super(null, null);
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+}
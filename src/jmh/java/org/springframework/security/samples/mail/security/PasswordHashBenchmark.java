@@ -0,0 +1,85 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.security.samples.mail.security;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>
+ * Measures how many logins a second the {@link BoundedBCryptPasswordEncoder} can verify for a given BCrypt
+ * {@code cost} and pool size ({@code threads}). More request threads than the largest pool submit passwords, like a
+ * burst of logins, so the result is the throughput of the pool rather than of the callers. Use the result to pick the
+ * {@code securemail.password.strength} and {@code securemail.password.threads} for a target login rate.
+ * </p>
+ * <p>
+ * The rows with a single thread are the logins a second of one core. The throughput only grows with the pool while
+ * there are idle cores, so dividing by {@code min(threads, cores)} shows how well the pool scales on the machine.
+ * </p>
+ *
+ * @author Rob Winch
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(PasswordHashBenchmark.REQUEST_THREADS)
+@State(Scope.Benchmark)
+public class PasswordHashBenchmark {
+    static final int REQUEST_THREADS = 16;
+
+    @Param({ "4", "8", "10", "12" })
+    private int cost;
+
+    @Param({ "1", "2", "4", "8" })
+    private int threads;
+
+    private BoundedBCryptPasswordEncoder encoder;
+    private String encoded;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        this.encoder = new BoundedBCryptPasswordEncoder(this.cost, this.threads, REQUEST_THREADS);
+        // at cost 12 a request may wait for every other request on a single thread
+        this.encoder.setTimeoutMillis(TimeUnit.MINUTES.toMillis(1));
+        this.encoded = this.encoder.encode("penguin");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.encoder.destroy();
+    }
+
+    @Benchmark
+    public boolean matches() {
+        return this.encoder.matches("penguin", this.encoded);
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.security.samples.mail.security;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.samples.mail.MailUser;
+import org.springframework.security.samples.mail.Message;
+
+/**
+ * Compares the compact serialized forms of {@link MailUser}, {@link Message} and {@link MailUserDetails} to the
+ * default serialization they used before ({@code legacy}). The legacy encoding is reproduced by classes with the same
+ * fields as the original classes. The serialized sizes are printed during the setup.
+ *
+ * @author Rob Winch
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SerializationBenchmark {
+
+    @Param({ "mailUser", "message", "mailUserDetails" })
+    private String type;
+
+    @Param({ "compact", "legacy" })
+    private String format;
+
+    private Object value;
+    private byte[] serialized;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        boolean legacy = "legacy".equals(this.format);
+        MailUser rob = user(1, "rob@example.org", "Rob", "Winch", "$2a$10$Fb4Hd2KDgBNpLDJmhdTqvOUHDSnxw3JtNmpRNhuAK8uqxNzfXMVma");
+        MailUser luke = user(2, "luke@example.com", "Luke", "Taylor", "$2a$10$QHJg2kE8mwIxJ8s3ZHhKkO8ztxD6y5RcMQk.a1NUxnIq5Ym9dnuNW");
+        if ("mailUser".equals(this.type)) {
+            this.value = legacy ? new LegacyMailUser(rob) : rob;
+        } else if ("message".equals(this.type)) {
+            this.value = legacy ? new LegacyMessage(rob, luke) : message(rob, luke);
+        } else {
+            this.value = legacy ? new LegacyMailUserDetails(luke) : new MailUserDetails(luke);
+        }
+        this.serialized = serialize(this.value);
+        System.out.println(this.type + " " + this.format + " serialized size " + this.serialized.length + " bytes");
+    }
+
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        return serialize(this.value);
+    }
+
+    @Benchmark
+    public Object deserialize() throws IOException, ClassNotFoundException {
+        return new ObjectInputStream(new ByteArrayInputStream(this.serialized)).readObject();
+    }
+
+    private static byte[] serialize(Object value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(value);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static MailUser user(int id, String email, String firstName, String lastName, String password) {
+        MailUser user = new MailUser();
+        user.setId(id);
+        user.setEmail(email);
+        user.setFirstName(firstName);
+        user.setLastName(lastName);
+        user.setPassword(password);
+        return user;
+    }
+
+    private static Message message(MailUser to, MailUser from) {
+        Message message = new Message();
+        message.setId(1);
+        message.setSubject("Vulnerabilities Found?");
+        message.setMessage("I believe I found some vulnerabilities in the message application.");
+        message.setToUser(to);
+        message.setFromUser(from);
+        return message;
+    }
+
+    /**
+     * Has the same fields as {@link MailUser} and uses the default serialization.
+     */
+    static class LegacyMailUser implements Serializable {
+        private String email;
+        private String firstName;
+        private String lastName;
+        private String password;
+        private Integer id;
+
+        LegacyMailUser(MailUser user) {
+            this.email = user.getEmail();
+            this.firstName = user.getFirstName();
+            this.lastName = user.getLastName();
+            this.password = user.getPassword();
+            this.id = user.getId();
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Has the same fields as {@link Message} and uses the default serialization.
+     */
+    static class LegacyMessage implements Serializable {
+        private String message;
+        private String subject;
+        private LegacyMailUser toUser;
+        private LegacyMailUser fromUser;
+        private Integer id;
+
+        LegacyMessage(MailUser to, MailUser from) {
+            Message message = message(to, from);
+            this.message = message.getMessage();
+            this.subject = message.getSubject();
+            this.toUser = new LegacyMailUser(to);
+            this.fromUser = new LegacyMailUser(from);
+            this.id = message.getId();
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Has the same fields as the original {@link MailUserDetails} (including the authorities of every instance).
+     */
+    static class LegacyMailUserDetails extends LegacyMailUser {
+        private final List<GrantedAuthority> USER_ROLES = Collections.unmodifiableList(AuthorityUtils
+                .createAuthorityList("ROLE_USER"));
+        private final List<GrantedAuthority> ADMIN_ROLES = Collections.unmodifiableList(AuthorityUtils
+                .createAuthorityList("ROLE_USER", "ROLE_ADMIN"));
+
+        LegacyMailUserDetails(MailUser user) {
+            super(user);
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+}
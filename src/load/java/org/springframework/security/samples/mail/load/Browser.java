@@ -0,0 +1,179 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.security.samples.mail.load;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A minimal browser for a single virtual user. It keeps its own cookies (so that every virtual user has its own
+ * session), does not follow redirects and reads every response completely so that the connection can be reused.
+ *
+ * @author Rob Winch
+ */
+final class Browser {
+    private final String baseUrl;
+    private final Map<String, String> cookies = new LinkedHashMap<String, String>();
+    private final byte[] buffer = new byte[8192];
+
+    /**
+     * Creates a new instance
+     * @param baseUrl the url of the application (i.e. http://localhost:8080/mail). Cannot be null.
+     */
+    Browser(String baseUrl) {
+        if (baseUrl == null) {
+            throw new IllegalArgumentException("baseUrl cannot be null");
+        }
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+    }
+
+    Response get(String path) throws IOException {
+        return send(open(path, "GET"));
+    }
+
+    /**
+     * Submits a form
+     * @param path the path relative to the base url
+     * @param parameters the names and values of the parameters
+     * @return the {@link Response}
+     */
+    Response post(String path, String... parameters) throws IOException {
+        StringBuilder form = new StringBuilder();
+        for (int i = 0; i < parameters.length; i += 2) {
+            if (i > 0) {
+                form.append('&');
+            }
+            form.append(encode(parameters[i])).append('=').append(encode(parameters[i + 1]));
+        }
+        byte[] body = form.toString().getBytes("UTF-8");
+        HttpURLConnection connection = open(path, "POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+        connection.setFixedLengthStreamingMode(body.length);
+        OutputStream out = connection.getOutputStream();
+        try {
+            out.write(body);
+        } finally {
+            out.close();
+        }
+        return send(connection);
+    }
+
+    /**
+     * Forgets the cookies, which is what happens when a browser is closed.
+     */
+    void clearCookies() {
+        this.cookies.clear();
+    }
+
+    private HttpURLConnection open(String path, String method) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(this.baseUrl + path).openConnection();
+        connection.setRequestMethod(method);
+        connection.setInstanceFollowRedirects(false);
+        connection.setUseCaches(false);
+        if (!this.cookies.isEmpty()) {
+            StringBuilder cookie = new StringBuilder();
+            for (Map.Entry<String, String> entry : this.cookies.entrySet()) {
+                if (cookie.length() > 0) {
+                    cookie.append("; ");
+                }
+                cookie.append(entry.getKey()).append('=').append(entry.getValue());
+            }
+            connection.setRequestProperty("Cookie", cookie.toString());
+        }
+        return connection;
+    }
+
+    private Response send(HttpURLConnection connection) throws IOException {
+        int status = connection.getResponseCode();
+        List<String> setCookies = connection.getHeaderFields().get("Set-Cookie");
+        if (setCookies != null) {
+            for (String setCookie : setCookies) {
+                storeCookie(setCookie);
+            }
+        }
+        InputStream in = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        if (in != null) {
+            try {
+                for (int read; (read = in.read(this.buffer)) != -1;) {
+                    body.write(this.buffer, 0, read);
+                }
+            } finally {
+                in.close();
+            }
+        }
+        return new Response(status, connection.getHeaderField("Location"), body.toString("UTF-8"));
+    }
+
+    private void storeCookie(String setCookie) {
+        int end = setCookie.indexOf(';');
+        String pair = end < 0 ? setCookie : setCookie.substring(0, end);
+        int equals = pair.indexOf('=');
+        if (equals <= 0) {
+            return;
+        }
+        String name = pair.substring(0, equals).trim();
+        String value = pair.substring(equals + 1).trim();
+        if (value.length() == 0 || setCookie.toLowerCase().contains("max-age=0")) {
+            this.cookies.remove(name);
+        } else {
+            this.cookies.put(name, value);
+        }
+    }
+
+    private static String encode(String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * The parts of a response the scripts need.
+     */
+    static final class Response {
+        final int status;
+        final String location;
+        final String body;
+
+        Response(int status, String location, String body) {
+            this.status = status;
+            this.location = location;
+            this.body = body;
+        }
+
+        boolean isRedirectTo(String path) {
+            return this.status == HttpURLConnection.HTTP_MOVED_TEMP && this.location != null
+                    && this.location.contains(path);
+        }
+
+        @Override
+        public String toString() {
+            return this.status + (this.location == null ? "" : " " + this.location);
+        }
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.security.samples.mail.load;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+
+/**
+ * Drives SecureMail with many concurrent {@link VirtualUser}'s and reports the throughput and the latency of every
+ * step of their script. The application must already be running, for example with ./gradlew jettyRunWar.
+ * <p>
+ * The arguments are name=value pairs:
+ * </p>
+ * <ul>
+ * <li>url - the url of the application (default http://localhost:8080/mail)</li>
+ * <li>users - the number of virtual users (default 20)</li>
+ * <li>duration - the seconds that are measured (default 60)</li>
+ * <li>rampUp - the seconds over which the virtual users are started before the measurement begins (default 10)</li>
+ * <li>thinkTime - the average milliseconds a virtual user pauses between two requests (default 1000)</li>
+ * <li>report - a directory to write the summary and a HdrHistogram percentile distribution (.hgrm) per step to</li>
+ * </ul>
+ * <p>
+ * Every virtual user signs up its own account, since a user may only have a single session. Only the requests that
+ * are started after the ramp up and before the end of the run are recorded.
+ * </p>
+ *
+ * @author Rob Winch
+ */
+public final class LoadGenerator {
+    static final String LOGIN_PAGE = "login page";
+    static final String LOGIN = "login";
+    static final String INBOX = "inbox";
+    static final String SHOW_MESSAGE = "show message";
+    static final String COMPOSE = "compose";
+    static final String SEND = "send";
+    static final String LOGOUT = "logout";
+
+    private static final String PASSWORD = "password";
+    private static final long REPORT_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    private final String baseUrl;
+    private final int users;
+    private final long durationMillis;
+    private final long rampUpMillis;
+    private final long thinkTimeMillis;
+    private final File reportDir;
+    private final Map<String, StepStatistics> steps = new LinkedHashMap<String, StepStatistics>();
+    private final List<String> accounts = new CopyOnWriteArrayList<String>();
+    private volatile long measurementStartNanos;
+    private volatile long endNanos;
+
+    LoadGenerator(Map<String, String> options) {
+        this.baseUrl = option(options, "url", "http://localhost:8080/mail");
+        this.users = Integer.parseInt(option(options, "users", "20"));
+        this.durationMillis = TimeUnit.SECONDS.toMillis(Long.parseLong(option(options, "duration", "60")));
+        this.rampUpMillis = TimeUnit.SECONDS.toMillis(Long.parseLong(option(options, "rampUp", "10")));
+        this.thinkTimeMillis = Long.parseLong(option(options, "thinkTime", "1000"));
+        String report = options.remove("report");
+        this.reportDir = report == null ? null : new File(report);
+        if (!options.isEmpty()) {
+            throw new IllegalArgumentException("Unknown options " + options.keySet());
+        }
+        if (this.users < 1) {
+            throw new IllegalArgumentException("users must be at least 1");
+        }
+        for (String step : new String[] { LOGIN_PAGE, LOGIN, INBOX, SHOW_MESSAGE, COMPOSE, SEND, LOGOUT }) {
+            this.steps.put(step, new StepStatistics(step));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<String, String>();
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (equals <= 0) {
+                throw new IllegalArgumentException("Arguments must be name=value pairs but got " + arg);
+            }
+            options.put(arg.substring(0, equals), arg.substring(equals + 1));
+        }
+        new LoadGenerator(options).run();
+    }
+
+    void run() throws InterruptedException, IOException {
+        // keep a connection per virtual user alive instead of the default of 5
+        System.setProperty("http.maxConnections", String.valueOf(this.users));
+        long start = System.nanoTime();
+        this.measurementStartNanos = start + TimeUnit.MILLISECONDS.toNanos(this.rampUpMillis);
+        this.endNanos = this.measurementStartNanos + TimeUnit.MILLISECONDS.toNanos(this.durationMillis);
+        System.out.println("Running " + this.users + " virtual users against " + this.baseUrl + " for "
+                + TimeUnit.MILLISECONDS.toSeconds(this.durationMillis) + "s after a ramp up of "
+                + TimeUnit.MILLISECONDS.toSeconds(this.rampUpMillis) + "s");
+
+        String runId = Long.toString(System.currentTimeMillis(), 36);
+        ExecutorService executor = Executors.newFixedThreadPool(this.users);
+        for (int i = 0; i < this.users; i++) {
+            String email = "load-" + runId + "-" + i + "@example.com";
+            executor.execute(new VirtualUser(this, email, PASSWORD, this.rampUpMillis * i / this.users));
+        }
+
+        sleepUntil(this.measurementStartNanos);
+        System.out.println("Ramp up complete, " + this.accounts.size() + " virtual users signed up");
+        long intervalStart = System.nanoTime();
+        while (intervalStart < this.endNanos) {
+            sleepUntil(Math.min(intervalStart + TimeUnit.MILLISECONDS.toNanos(REPORT_INTERVAL_MILLIS), this.endNanos));
+            long now = System.nanoTime();
+            printInterval(now - this.measurementStartNanos, now - intervalStart);
+            intervalStart = now;
+        }
+
+        // stop thinking virtual users, requests in flight are completed and recorded
+        executor.shutdownNow();
+        if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+            System.err.println("Some virtual users did not stop");
+        }
+        for (StepStatistics step : this.steps.values()) {
+            step.nextInterval();
+        }
+        printSummary(System.out);
+        if (this.reportDir != null) {
+            writeReport();
+        }
+    }
+
+    String getBaseUrl() {
+        return this.baseUrl;
+    }
+
+    long getThinkTimeMillis() {
+        return this.thinkTimeMillis;
+    }
+
+    StepStatistics getStep(String name) {
+        return this.steps.get(name);
+    }
+
+    boolean isFinished() {
+        return System.nanoTime() >= this.endNanos;
+    }
+
+    /**
+     * Records a request if it was started within the measurement.
+     */
+    void record(StepStatistics step, long startNanos, boolean success) {
+        if (startNanos >= this.measurementStartNanos && startNanos < this.endNanos) {
+            step.record(startNanos, success);
+        }
+    }
+
+    void addAccount(String email) {
+        this.accounts.add(email);
+    }
+
+    /**
+     * Picks the recipient of a message. Can only be invoked after a virtual user was added with
+     * {@link #addAccount(String)}.
+     */
+    String randomAccount(Random random) {
+        return this.accounts.get(random.nextInt(this.accounts.size()));
+    }
+
+    private void printInterval(long elapsedNanos, long intervalNanos) {
+        Histogram all = new Histogram(StepStatistics.HIGHEST_LATENCY_MICROS, 3);
+        for (StepStatistics step : this.steps.values()) {
+            all.add(step.nextInterval());
+        }
+        System.out.printf("%5ds %9.1f req/s   p50 %8.1f ms   p99 %8.1f ms   max %8.1f ms%n",
+                TimeUnit.NANOSECONDS.toSeconds(elapsedNanos), perSecond(all.getTotalCount(), intervalNanos),
+                millis(all.getValueAtPercentile(50)), millis(all.getValueAtPercentile(99)),
+                millis(all.getMaxValue()));
+    }
+
+    private void printSummary(PrintStream out) {
+        long durationNanos = TimeUnit.MILLISECONDS.toNanos(this.durationMillis);
+        out.printf("%n%-14s %8s %7s %9s %9s %9s %9s %9s%n", "step", "count", "errors", "req/s", "p50 ms", "p95 ms",
+                "p99 ms", "max ms");
+        for (StepStatistics step : this.steps.values()) {
+            Histogram total = step.getTotal();
+            out.printf("%-14s %8d %7d %9.1f %9.1f %9.1f %9.1f %9.1f%n", step.getName(), total.getTotalCount(),
+                    step.getErrors(), perSecond(total.getTotalCount(), durationNanos),
+                    millis(total.getValueAtPercentile(50)), millis(total.getValueAtPercentile(95)),
+                    millis(total.getValueAtPercentile(99)), millis(total.getMaxValue()));
+        }
+    }
+
+    private void writeReport() throws IOException {
+        if (!this.reportDir.isDirectory() && !this.reportDir.mkdirs()) {
+            throw new IOException("Could not create " + this.reportDir);
+        }
+        PrintStream summary = new PrintStream(new FileOutputStream(new File(this.reportDir, "summary.txt")), false,
+                "UTF-8");
+        try {
+            printSummary(summary);
+        } finally {
+            summary.close();
+        }
+        for (StepStatistics step : this.steps.values()) {
+            File file = new File(this.reportDir, step.getName().replace(' ', '-') + ".hgrm");
+            PrintStream out = new PrintStream(new FileOutputStream(file), false, "UTF-8");
+            try {
+                // the values are recorded in microseconds, the distribution is written in milliseconds
+                step.getTotal().outputPercentileDistribution(out, 1000.0);
+            } finally {
+                out.close();
+            }
+        }
+        System.out.println("\nThe percentile distributions were written to " + this.reportDir);
+    }
+
+    private static void sleepUntil(long nanos) throws InterruptedException {
+        long remaining = nanos - System.nanoTime();
+        if (remaining > 0) {
+            TimeUnit.NANOSECONDS.sleep(remaining);
+        }
+    }
+
+    private static double perSecond(long count, long nanos) {
+        return nanos == 0 ? 0 : count * (double) TimeUnit.SECONDS.toNanos(1) / nanos;
+    }
+
+    private static double millis(long micros) {
+        return micros / 1000.0;
+    }
+
+    private static String option(Map<String, String> options, String name, String defaultValue) {
+        String value = options.remove(name);
+        return value == null ? defaultValue : value;
+    }
+}
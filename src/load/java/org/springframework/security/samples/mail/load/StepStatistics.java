@@ -0,0 +1,79 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.security.samples.mail.load;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * The latencies and errors of one step of the script. Latencies are recorded in microseconds by any number of virtual
+ * users into a {@link Recorder}. The reporting thread periodically moves them into the interval and total
+ * {@link Histogram}'s.
+ *
+ * @author Rob Winch
+ */
+final class StepStatistics {
+    static final long HIGHEST_LATENCY_MICROS = TimeUnit.MINUTES.toMicros(5);
+
+    private final String name;
+    private final Recorder recorder = new Recorder(HIGHEST_LATENCY_MICROS, 3);
+    private final AtomicLong errors = new AtomicLong();
+    private final Histogram total = new Histogram(HIGHEST_LATENCY_MICROS, 3);
+    private Histogram interval;
+
+    StepStatistics(String name) {
+        this.name = name;
+    }
+
+    String getName() {
+        return this.name;
+    }
+
+    /**
+     * Records the latency of a successful or failed request.
+     * @param startNanos the {@link System#nanoTime()} when the request was started
+     * @param success false if the response was not the expected one
+     */
+    void record(long startNanos, boolean success) {
+        long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+        this.recorder.recordValue(Math.min(micros, HIGHEST_LATENCY_MICROS));
+        if (!success) {
+            this.errors.incrementAndGet();
+        }
+    }
+
+    /**
+     * Moves everything recorded since the last invocation into the interval and the total histogram. Only the
+     * reporting thread may invoke this.
+     * @return the {@link Histogram} of the interval
+     */
+    Histogram nextInterval() {
+        this.interval = this.recorder.getIntervalHistogram(this.interval);
+        this.total.add(this.interval);
+        return this.interval;
+    }
+
+    Histogram getTotal() {
+        return this.total;
+    }
+
+    long getErrors() {
+        return this.errors.get();
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.security.samples.mail.load;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.springframework.security.samples.mail.load.Browser.Response;
+
+/**
+ * A scripted user of SecureMail. The user signs up once and then repeats a session until the run is over: open the
+ * login page, log in, view the inbox, read one of the messages in it, open the compose form, send a message to
+ * another virtual user and log out. Between the requests the user pauses for a random think time.
+ * <p>
+ * Every virtual user has its own account, since a user may only have one session at a time.
+ * </p>
+ *
+ * @author Rob Winch
+ */
+final class VirtualUser implements Runnable {
+    private static final Pattern MESSAGE_LINK = Pattern.compile("/messages/(\\d+)\"");
+
+    private final LoadGenerator generator;
+    private final Browser browser;
+    private final String email;
+    private final String password;
+    private final long startDelayMillis;
+    private final Random random = new Random();
+    private int sent;
+
+    VirtualUser(LoadGenerator generator, String email, String password, long startDelayMillis) {
+        this.generator = generator;
+        this.browser = new Browser(generator.getBaseUrl());
+        this.email = email;
+        this.password = password;
+        this.startDelayMillis = startDelayMillis;
+    }
+
+    public void run() {
+        try {
+            Thread.sleep(this.startDelayMillis);
+            while (!signup()) {
+                if (this.generator.isFinished()) {
+                    return;
+                }
+                Thread.sleep(1000);
+            }
+            this.generator.addAccount(this.email);
+            while (!this.generator.isFinished()) {
+                try {
+                    if (!session()) {
+                        abandonSession();
+                    }
+                } catch (IOException e) {
+                    abandonSession();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Creates the account of the user. This is not a step of the script, so it is not measured.
+     */
+    private boolean signup() {
+        try {
+            Response response = this.browser.post("/signup", "firstName", "Virtual", "lastName", "User", "email",
+                    this.email, "password", this.password);
+            if (response.isRedirectTo("/messages/inbox")) {
+                return true;
+            }
+            System.err.println("Could not sign up " + this.email + ": " + response);
+        } catch (IOException e) {
+            System.err.println("Could not sign up " + this.email + ": " + e);
+        }
+        return false;
+    }
+
+    /**
+     * Runs a single session
+     * @return false if a request did not get the expected response
+     */
+    private boolean session() throws IOException, InterruptedException {
+        this.browser.clearCookies();
+        if (get(this.generator.getStep(LoadGenerator.LOGIN_PAGE), "/login", null) == null) {
+            return false;
+        }
+        think();
+        if (post(this.generator.getStep(LoadGenerator.LOGIN), "/j_spring_security_check", "/default", "j_username",
+                this.email, "j_password", this.password) == null) {
+            return false;
+        }
+        think();
+        Response inbox = get(this.generator.getStep(LoadGenerator.INBOX), "/messages/inbox", null);
+        if (inbox == null) {
+            return false;
+        }
+        List<String> messageIds = messageIds(inbox.body);
+        if (!messageIds.isEmpty()) {
+            think();
+            String messageId = messageIds.get(this.random.nextInt(messageIds.size()));
+            if (get(this.generator.getStep(LoadGenerator.SHOW_MESSAGE), "/messages/" + messageId, null) == null) {
+                return false;
+            }
+        }
+        think();
+        if (get(this.generator.getStep(LoadGenerator.COMPOSE), "/messages?form", null) == null) {
+            return false;
+        }
+        think();
+        this.sent++;
+        if (post(this.generator.getStep(LoadGenerator.SEND), "/messages", "/messages/sent", "toEmail",
+                this.generator.randomAccount(this.random), "subject", "Message " + this.sent + " from " + this.email,
+                "message", "Sent by the load generator") == null) {
+            return false;
+        }
+        think();
+        return get(this.generator.getStep(LoadGenerator.LOGOUT), "/logout", "/login?logout") != null;
+    }
+
+    /**
+     * Logs out without recording it, so that the next session can log in again (the account may only have a single
+     * session), and waits a second so that a failing server is not flooded.
+     */
+    private void abandonSession() throws InterruptedException {
+        try {
+            this.browser.get("/logout");
+        } catch (IOException ignored) {
+        }
+        Thread.sleep(1000);
+    }
+
+    private Response get(StepStatistics step, String path, String expectedRedirect) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return check(step, start, this.browser.get(path), expectedRedirect);
+        } catch (IOException e) {
+            this.generator.record(step, start, false);
+            throw e;
+        }
+    }
+
+    private Response post(StepStatistics step, String path, String expectedRedirect, String... parameters)
+            throws IOException {
+        long start = System.nanoTime();
+        try {
+            return check(step, start, this.browser.post(path, parameters), expectedRedirect);
+        } catch (IOException e) {
+            this.generator.record(step, start, false);
+            throw e;
+        }
+    }
+
+    /**
+     * Records the request
+     * @param expectedRedirect the path that the response must redirect to or null if a 200 is expected
+     * @return the {@link Response} or null if it is not the expected one
+     */
+    private Response check(StepStatistics step, long start, Response response, String expectedRedirect) {
+        boolean success = expectedRedirect == null ? response.status == 200 : response.isRedirectTo(expectedRedirect);
+        this.generator.record(step, start, success);
+        return success ? response : null;
+    }
+
+    private void think() throws InterruptedException {
+        long thinkTime = this.generator.getThinkTimeMillis();
+        if (thinkTime > 0) {
+            // between half and one and a half times the configured think time
+            Thread.sleep(thinkTime / 2 + (long) (this.random.nextDouble() * thinkTime));
+        }
+    }
+
+    private static List<String> messageIds(String inbox) {
+        List<String> ids = new ArrayList<String>();
+        Matcher matcher = MESSAGE_LINK.matcher(inbox);
+        while (matcher.find()) {
+            ids.add(matcher.group(1));
+        }
+        return ids;
+    }
+}
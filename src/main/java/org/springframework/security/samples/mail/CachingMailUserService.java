@@ -0,0 +1,194 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.security.samples.mail;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * <p>
+ * A {@link MailUserService} that caches the {@link MailUser}'s found by
+ * another {@link MailUserService}. {@link MailUser}'s are read far more often
+ * (every login, every message sent, etc) than they are written, so most
+ * lookups can be answered without a query.
+ * </p>
+ * <p>
+ * Each {@link MailUser} is cached by both its id and its email so that either
+ * lookup benefits. The cache is bounded in size, evicts the least recently
+ * used {@link MailUser}'s and expires entries so that changes made directly in
+ * the database are eventually seen. Copies are returned so that callers cannot
+ * modify the cached instances.
+ * </p>
+ *
+ * @author Rob Winch
+ */
+@Primary
+@Service
+public class CachingMailUserService implements MailUserService {
+    /**
+     * The default maximum number of cache entries. Each {@link MailUser} uses two entries.
+     */
+    public static final int DEFAULT_MAX_SIZE = 10000;
+
+    /**
+     * The default number of milliseconds a {@link MailUser} is cached for.
+     */
+    public static final long DEFAULT_TIME_TO_LIVE_MILLIS = 5 * 60 * 1000;
+
+    private final MailUserService delegate;
+    private final LruCache<Object, MailUser> cache;
+
+    /**
+     * Creates a new {@link CachingMailUserService} with a maximum size of {@link #DEFAULT_MAX_SIZE} and a time to
+     * live of {@link #DEFAULT_TIME_TO_LIVE_MILLIS}.
+     * @param delegate the {@link MailUserService} to cache results for. Cannot be null.
+     * @throws IllegalArgumentException if delegate is null.
+     */
+    @Autowired
+    public CachingMailUserService(@Qualifier("jdbcMailUserService") MailUserService delegate) {
+        this(delegate, DEFAULT_MAX_SIZE, DEFAULT_TIME_TO_LIVE_MILLIS);
+    }
+
+    /**
+     * Creates a new {@link CachingMailUserService}
+     * @param delegate the {@link MailUserService} to cache results for. Cannot be null.
+     * @param maxSize the maximum number of entries. Each {@link MailUser} uses two entries (one for the id and one for
+     *        the email). Must be greater than 0.
+     * @param timeToLiveMillis the number of milliseconds that a {@link MailUser} is cached for. Must be greater than 0.
+     * @throws IllegalArgumentException if delegate is null or maxSize or timeToLiveMillis is not greater than 0.
+     */
+    public CachingMailUserService(MailUserService delegate, int maxSize, long timeToLiveMillis) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("delegate cannot be null");
+        }
+        this.delegate = delegate;
+        this.cache = new LruCache<Object, MailUser>(maxSize, timeToLiveMillis);
+    }
+
+    public MailUser getUser(int id) {
+        MailUser user = this.cache.get(id);
+        if (user == null) {
+            user = this.delegate.getUser(id);
+            cache(user);
+        }
+        return copy(user);
+    }
+
+    public MailUser findUserByEmail(String email) {
+        if (email == null) {
+            throw new IllegalArgumentException("email cannot be null");
+        }
+        MailUser user = this.cache.get(email);
+        if (user == null) {
+            user = this.delegate.findUserByEmail(email);
+            if (user == null) {
+                return null;
+            }
+            cache(user);
+        }
+        return copy(user);
+    }
+
+    public List<MailUser> findUsersByEmail(Collection<String> emails) {
+        if (emails == null) {
+            throw new IllegalArgumentException("emails cannot be null");
+        }
+        List<MailUser> result = new ArrayList<MailUser>(emails.size());
+        List<String> missing = new ArrayList<String>();
+        for (String email : emails) {
+            MailUser user = this.cache.get(email);
+            if (user == null) {
+                missing.add(email);
+            } else {
+                result.add(copy(user));
+            }
+        }
+        if (!missing.isEmpty()) {
+            for (MailUser user : this.delegate.findUsersByEmail(missing)) {
+                cache(user);
+                result.add(copy(user));
+            }
+        }
+        return result;
+    }
+
+    public int createUser(MailUser mailUser) {
+        int id = this.delegate.createUser(mailUser);
+        evict(id);
+        return id;
+    }
+
+    public void updatePassword(MailUser mailUser, String password) {
+        this.delegate.updatePassword(mailUser, password);
+        final int id = mailUser.getId();
+        evict(id);
+        // a concurrent lookup may cache the old row again until the update is committed
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    evict(id);
+                }
+            });
+        }
+    }
+
+    /**
+     * Removes a {@link MailUser} from the cache. This should be used if the {@link MailUser} is
+     * modified without using this {@link MailUserService}. The email that is removed is the one
+     * cached for the id, since the caller's {@link MailUser} may be out of date.
+     *
+     * @param id the {@link MailUser#getId()}
+     */
+    public void evict(int id) {
+        MailUser user = this.cache.remove(id);
+        if (user != null) {
+            this.cache.remove(user.getEmail());
+        }
+    }
+
+    /**
+     * Gets the {@link LruCache} used to cache {@link MailUser}'s so that its
+     * statistics can be inspected.
+     * @return
+     */
+    public LruCache<Object, MailUser> getCache() {
+        return this.cache;
+    }
+
+    private void cache(MailUser user) {
+        this.cache.put(user.getId(), user);
+        this.cache.put(user.getEmail(), user);
+    }
+
+    private static MailUser copy(MailUser user) {
+        MailUser copy = new MailUser();
+        copy.setId(user.getId());
+        copy.setEmail(user.getEmail());
+        copy.setPassword(user.getPassword());
+        copy.setFirstName(user.getFirstName());
+        copy.setLastName(user.getLastName());
+        return copy;
+    }
+}
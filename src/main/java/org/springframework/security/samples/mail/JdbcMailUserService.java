@@ -19,38 +19,60 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.ApplicationEventPublisherAware;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.PreparedStatementCreator;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 /**
- * A jdbc implementation of the {@link MailUserService}.
+ * A jdbc implementation of the {@link MailUserService}. A
+ * {@link MailUserChangedEvent} is published whenever a {@link MailUser} is
+ * created or its password is updated.
  *
  * @author rw012795
  */
 @Repository
-public class JdbcMailUserService implements MailUserService {
+public class JdbcMailUserService implements MailUserService, ApplicationEventPublisherAware {
     private final JdbcTemplate jdbcTemplate;
+    private final PasswordEncoder passwordEncoder;
+    private ApplicationEventPublisher eventPublisher;
 
+    /**
+     * Creates a new instance
+     * @param jdbcTemplate the {@link JdbcTemplate} to use. Cannot be null.
+     * @param passwordEncoder the {@link PasswordEncoder} used to hash passwords before they are stored. Cannot be null.
+     * @throws IllegalArgumentException if jdbcTemplate or passwordEncoder is null.
+     */
     @Autowired
-    public JdbcMailUserService(JdbcTemplate jdbcTemplate) {
+    public JdbcMailUserService(JdbcTemplate jdbcTemplate, PasswordEncoder passwordEncoder) {
         if (jdbcTemplate == null) {
             throw new IllegalArgumentException("jdbcTemplate cannot be null");
         }
+        if (passwordEncoder == null) {
+            throw new IllegalArgumentException("passwordEncoder cannot be null");
+        }
         this.jdbcTemplate = jdbcTemplate;
+        this.passwordEncoder = passwordEncoder;
     }
 
     public MailUser getUser(int id) {
         try {
-            return this.jdbcTemplate.queryForObject(
-                    "select id, email, password, firstName, lastName from mail_user where id = ?",
-                    USER_ROWMAPPER, id);
+            return this.jdbcTemplate.queryForObject(USER_BY_ID_QUERY, USER_ROWMAPPER, id);
         } catch (EmptyResultDataAccessException e) {
             throw new NotFoundException("Could not find MailUser with id " + id, e);
         }
@@ -63,6 +85,7 @@ public class JdbcMailUserService implements MailUserService {
         if (mailUser.getId() != null) {
             throw new IllegalArgumentException("mailUser.getId() must be null when creating a message");
         }
+        final String password = this.passwordEncoder.encode(mailUser.getPassword());
         KeyHolder keyHolder = new GeneratedKeyHolder();
         this.jdbcTemplate.update(new PreparedStatementCreator() {
             public PreparedStatement createPreparedStatement(Connection connection) throws SQLException {
@@ -70,13 +93,56 @@ public class JdbcMailUserService implements MailUserService {
                         "insert into mail_user (email, password, firstName, lastName) values (?, ?, ?, ?)",
                         new String[] { "id" });
                 ps.setString(1, mailUser.getEmail());
-                ps.setString(2, mailUser.getPassword());
+                ps.setString(2, password);
                 ps.setString(3, mailUser.getFirstName());
                 ps.setString(4, mailUser.getLastName());
                 return ps;
             }
         }, keyHolder);
-        return keyHolder.getKey().intValue();
+        int id = keyHolder.getKey().intValue();
+        publishChanged(id, mailUser.getEmail());
+        return id;
+    }
+
+    public void updatePassword(MailUser mailUser, String password) {
+        if (mailUser == null) {
+            throw new IllegalArgumentException("mailUser cannot be null");
+        }
+        if (mailUser.getId() == null) {
+            throw new IllegalArgumentException("mailUser.getId() cannot be null");
+        }
+        if (password == null) {
+            throw new IllegalArgumentException("password cannot be null");
+        }
+        int id = mailUser.getId();
+        if (this.jdbcTemplate.update(UPDATE_PASSWORD, this.passwordEncoder.encode(password), id) == 0) {
+            throw new NotFoundException("Could not find MailUser with id " + id);
+        }
+        publishChanged(id, mailUser.getEmail());
+    }
+
+    public void setApplicationEventPublisher(ApplicationEventPublisher eventPublisher) {
+        this.eventPublisher = eventPublisher;
+    }
+
+    /**
+     * Publishes the {@link MailUserChangedEvent} immediately and, if there is a transaction, again once it commits.
+     * A cache that is populated by a concurrent lookup before the commit would otherwise keep the old row.
+     */
+    private void publishChanged(int id, String email) {
+        if (this.eventPublisher == null) {
+            return;
+        }
+        final MailUserChangedEvent event = new MailUserChangedEvent(this, id, email);
+        this.eventPublisher.publishEvent(event);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    JdbcMailUserService.this.eventPublisher.publishEvent(event);
+                }
+            });
+        }
     }
 
     public MailUser findUserByEmail(String email) {
@@ -84,14 +150,45 @@ public class JdbcMailUserService implements MailUserService {
             throw new IllegalArgumentException("email cannot be null");
         }
         try {
-            return this.jdbcTemplate.queryForObject(
-                    "select id, email, password, firstName, lastName from mail_user where email = ?",
-                    USER_ROWMAPPER, email);
+            return this.jdbcTemplate.queryForObject(USER_BY_EMAIL_QUERY, USER_ROWMAPPER, email);
         } catch (EmptyResultDataAccessException e) {
             return null;
         }
     }
 
+    public List<MailUser> findUsersByEmail(Collection<String> emails) {
+        if (emails == null) {
+            throw new IllegalArgumentException("emails cannot be null");
+        }
+        if (emails.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<String> distinct = new ArrayList<String>(new LinkedHashSet<String>(emails));
+        List<MailUser> result = new ArrayList<MailUser>(distinct.size());
+        for (int start = 0; start < distinct.size(); start += USERS_BY_EMAIL_CHUNK_SIZE) {
+            List<String> chunk = distinct.subList(start, Math.min(start + USERS_BY_EMAIL_CHUNK_SIZE,
+                    distinct.size()));
+            // the last chunk is padded with nulls, which never match, so that every lookup uses the same statement
+            Object[] args = chunk.toArray(new Object[USERS_BY_EMAIL_CHUNK_SIZE]);
+            result.addAll(this.jdbcTemplate.query(USERS_BY_EMAIL_QUERY, USER_ROWMAPPER, args));
+        }
+        return result;
+    }
+
+    /**
+     * Creates the query to find {@link MailUser}'s with any of {@code count} email addresses.
+     * @param count the number of email addresses
+     * @return the query
+     */
+    static String usersByEmailQuery(int count) {
+        StringBuilder query = new StringBuilder(
+                "select id, email, password, firstName, lastName from mail_user where email in (");
+        for (int i = 0; i < count; i++) {
+            query.append(i == 0 ? "?" : ", ?");
+        }
+        return query.append(")").toString();
+    }
+
     /**
      * A RowMapper for {@link MailUser}'s that can accept a prefix for the jdbc
      * column label. This allows the RowMapper to be used in different contexts.
@@ -99,7 +196,7 @@ public class JdbcMailUserService implements MailUserService {
      * @author Rob Winch
      *
      */
-    static final class MailUserRowMapper implements RowMapper<MailUser> {
+    public static final class MailUserRowMapper implements RowMapper<MailUser> {
         private final String prefix;
 
         public MailUserRowMapper(String prefix) {
@@ -120,6 +217,15 @@ public class JdbcMailUserService implements MailUserService {
         }
     }
 
+    static final String USER_BY_ID_QUERY = "select id, email, password, firstName, lastName from mail_user where id = ?";
+    static final String UPDATE_PASSWORD = "update mail_user set password = ? where id = ?";
+    /**
+     * The number of email addresses {@link #findUsersByEmail(Collection)} looks up with a single query.
+     */
+    static final int USERS_BY_EMAIL_CHUNK_SIZE = 100;
+    static final String USERS_BY_EMAIL_QUERY = usersByEmailQuery(USERS_BY_EMAIL_CHUNK_SIZE);
+    static final String USER_BY_EMAIL_QUERY = "select id, email, password, firstName, lastName from mail_user where email = ?";
+
     /**
      * Maps {@link MailUser}'s for the {@link JdbcMailUserService}.
      */
@@ -15,19 +15,29 @@
  */
 package org.springframework.security.samples.mail;
 
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.security.access.AccessDeniedException;
 import org.springframework.security.access.prepost.PostAuthorize;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
@@ -41,30 +51,49 @@ import org.springframework.transaction.annotation.Transactional;
 public class JdbcMessageService implements MessageService {
 
     private final JdbcTemplate jdbcTemplate;
+    private final MailboxNotificationHub notificationHub;
 
     /**
      * Creates a new instance of {@link JdbcMailUserService}
      * @param jdbcTemplate the {@link JdbcTemplate} to use. Cannot be null.
-     * @throws IllegalArgumentException if {@code jdbcTemplate} is null.
+     * @param notificationHub the {@link MailboxNotificationHub} that is notified of new {@link Message}'s after
+     *        they are committed. Cannot be null.
+     * @throws IllegalArgumentException if {@code jdbcTemplate} or {@code notificationHub} is null.
      */
     @Autowired
-    public JdbcMessageService(JdbcTemplate jdbcTemplate) {
+    public JdbcMessageService(JdbcTemplate jdbcTemplate, MailboxNotificationHub notificationHub) {
         if (jdbcTemplate == null) {
             throw new IllegalArgumentException("jdbcTemplate cannot be null");
         }
+        if (notificationHub == null) {
+            throw new IllegalArgumentException("notificationHub cannot be null");
+        }
         this.jdbcTemplate = jdbcTemplate;
+        this.notificationHub = notificationHub;
     }
 
     @PostAuthorize("returnObject.fromUser.id == principal.id or returnObject.toUser.id == principal.id")
     public Message getMessage(int id) {
-        String messageQuery = MESSAGE_QUERY + " where m.id = ? and m.fromUser = fromUser.id and m.toUser = toUser.id";
         try {
-            return this.jdbcTemplate.queryForObject(messageQuery, this.MESSAGE_ROW_MAPPER, id);
+            return this.jdbcTemplate.queryForObject(MESSAGE_BY_ID_QUERY, this.MESSAGE_ROW_MAPPER, id);
         } catch (EmptyResultDataAccessException e) {
             throw new NotFoundException("Could not find a Message by id "+id, e);
         }
     }
 
+    public Message getMessageForUser(int id, int userId) {
+        List<Message> messages = this.jdbcTemplate.query(MESSAGE_BY_ID_FOR_USER_QUERY, this.MESSAGE_ROW_MAPPER, id,
+                userId, userId);
+        if (!messages.isEmpty()) {
+            return messages.get(0);
+        }
+        // only pay for the additional probe to report the same error as getMessage
+        if (this.jdbcTemplate.queryForInt(MESSAGE_EXISTS_QUERY, id) == 0) {
+            throw new NotFoundException("Could not find a Message by id " + id);
+        }
+        throw new AccessDeniedException("Access is denied");
+    }
+
     @Transactional
     public int createMessage(final Message message) {
         if (message == null) {
@@ -76,9 +105,7 @@ public class JdbcMessageService implements MessageService {
         KeyHolder keyHolder = new GeneratedKeyHolder();
         this.jdbcTemplate.update(new PreparedStatementCreator() {
             public PreparedStatement createPreparedStatement(Connection connection) throws SQLException {
-                PreparedStatement ps = connection.prepareStatement(
-                        "insert into message (fromUser,toUser,subject,message) values (?, ?, ?, ?)",
-                        new String[] { "id" });
+                PreparedStatement ps = connection.prepareStatement(INSERT_MESSAGE, new String[] { "id" });
                 ps.setInt(1, message.getFromUser().getId());
                 ps.setInt(2, message.getToUser().getId());
                 ps.setString(3, message.getSubject());
@@ -86,19 +113,376 @@ public class JdbcMessageService implements MessageService {
                 return ps;
             }
         }, keyHolder);
+        Map<Integer, MailboxChange> changes = new TreeMap<Integer, MailboxChange>();
+        addChange(changes, message.getFromUser().getId(), 0, 1);
+        addChange(changes, message.getToUser().getId(), 1, 0);
+        bumpMailboxVersions(changes);
+        this.notificationHub.publishAfterCommit(Collections.singleton(message.getToUser().getId()));
         return keyHolder.getKey().intValue();
     }
 
+    @Transactional
+    public int createMessages(final Message message, Collection<MailUser> toUsers) {
+        if (message == null) {
+            throw new IllegalArgumentException("message cannot be null");
+        }
+        if (toUsers == null) {
+            throw new IllegalArgumentException("toUsers cannot be null");
+        }
+        if (message.getId() != null) {
+            throw new IllegalArgumentException("Message.getId() must be null when creating a new Message");
+        }
+        List<MailUser> recipients = new ArrayList<MailUser>(toUsers);
+        for (int start = 0; start < recipients.size(); start += BATCH_SIZE) {
+            final List<MailUser> batch = recipients.subList(start, Math.min(start + BATCH_SIZE, recipients.size()));
+            this.jdbcTemplate.batchUpdate(INSERT_MESSAGE, new BatchPreparedStatementSetter() {
+                public void setValues(PreparedStatement ps, int i) throws SQLException {
+                    ps.setInt(1, message.getFromUser().getId());
+                    ps.setInt(2, batch.get(i).getId());
+                    ps.setString(3, message.getSubject());
+                    ps.setString(4, message.getMessage());
+                }
+
+                public int getBatchSize() {
+                    return batch.size();
+                }
+            });
+        }
+        Map<Integer, MailboxChange> changes = new TreeMap<Integer, MailboxChange>();
+        if (!recipients.isEmpty()) {
+            addChange(changes, message.getFromUser().getId(), 0, recipients.size());
+        }
+        List<Integer> recipientIds = new ArrayList<Integer>(recipients.size());
+        for (MailUser recipient : recipients) {
+            addChange(changes, recipient.getId(), 1, 0);
+            recipientIds.add(recipient.getId());
+        }
+        bumpMailboxVersions(changes);
+        this.notificationHub.publishAfterCommit(recipientIds);
+        return recipients.size();
+    }
+
+    public long getInboxVersion(int userId) {
+        return getMailboxVersion(INBOX_VERSION_QUERY, userId);
+    }
+
+    public long getSentVersion(int userId) {
+        return getMailboxVersion(SENT_VERSION_QUERY, userId);
+    }
+
+    private long getMailboxVersion(String query, int userId) {
+        List<Long> versions = this.jdbcTemplate.queryForList(query, Long.class, userId);
+        return versions.isEmpty() ? 0 : versions.get(0);
+    }
+
+    private static void addChange(Map<Integer, MailboxChange> changes, int userId, int inbox, int sent) {
+        MailboxChange change = changes.get(userId);
+        if (change == null) {
+            change = new MailboxChange(userId);
+            changes.put(userId, change);
+        }
+        change.inbox += inbox;
+        change.sent += sent;
+    }
+
+    /**
+     * Increments the mailbox versions in the same transaction as the
+     * {@link Message}'s were inserted. The rows are updated in the order of the
+     * user id so that concurrent transactions that change the same mailboxes
+     * cannot deadlock. A mailbox that has no row yet is inserted.
+     *
+     * @param changes the changes to apply keyed and sorted by the user id
+     */
+    private void bumpMailboxVersions(Map<Integer, MailboxChange> changes) {
+        List<MailboxChange> batch = new ArrayList<MailboxChange>(changes.values());
+        for (int start = 0; start < batch.size(); start += BATCH_SIZE) {
+            List<MailboxChange> chunk = batch.subList(start, Math.min(start + BATCH_SIZE, batch.size()));
+            int[] counts = this.jdbcTemplate.batchUpdate(UPDATE_MAILBOX_VERSION, new MailboxChangeSetter(chunk));
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] == 0) {
+                    insertMailboxVersion(chunk.get(i));
+                }
+            }
+        }
+    }
+
+    private void insertMailboxVersion(MailboxChange change) {
+        try {
+            this.jdbcTemplate.update(INSERT_MAILBOX_VERSION, change.userId, change.inbox, change.sent);
+        } catch (DuplicateKeyException e) {
+            // another transaction created the mailbox first
+            this.jdbcTemplate.update(UPDATE_MAILBOX_VERSION, change.inbox, change.sent, change.userId);
+        }
+    }
+
+    /**
+     * The number of {@link Message}'s a single mailbox received and sent within a transaction.
+     */
+    private static final class MailboxChange {
+        private final int userId;
+        private int inbox;
+        private int sent;
+
+        private MailboxChange(int userId) {
+            this.userId = userId;
+        }
+    }
+
+    private static final class MailboxChangeSetter implements BatchPreparedStatementSetter {
+        private final List<MailboxChange> changes;
+
+        private MailboxChangeSetter(List<MailboxChange> changes) {
+            this.changes = changes;
+        }
+
+        public void setValues(PreparedStatement ps, int i) throws SQLException {
+            MailboxChange change = this.changes.get(i);
+            ps.setInt(1, change.inbox);
+            ps.setInt(2, change.sent);
+            ps.setInt(3, change.userId);
+        }
+
+        public int getBatchSize() {
+            return this.changes.size();
+        }
+    }
+
     public List<Message> findSentForUser(int userId) {
-        String messageQuery = MESSAGE_QUERY
-                + " where m.fromUser = ? and m.fromUser = fromUser.id and m.toUser = toUser.id order by id desc";
-        return this.jdbcTemplate.query(messageQuery, this.MESSAGE_ROW_MAPPER, userId);
+        return this.jdbcTemplate.query(SENT_QUERY, this.MESSAGE_ROW_MAPPER, userId);
     }
 
     public List<Message> findInboxMessageForUser(int userId) {
-        String messageQuery = MESSAGE_QUERY
-                + " where m.toUser = ? and m.fromUser = fromUser.id and m.toUser = toUser.id order by id desc";
-        return this.jdbcTemplate.query(messageQuery, this.MESSAGE_ROW_MAPPER, userId);
+        return this.jdbcTemplate.query(INBOX_QUERY, this.MESSAGE_ROW_MAPPER, userId);
+    }
+
+    public MessagePage<MessageSummary> findSentPageForUser(int userId, MessagePageRequest pageRequest) {
+        return findPage(SENT_SUMMARY_QUERY, SENT_OWNER, SUMMARY_ROW_MAPPER, userId, pageRequest);
+    }
+
+    public MessagePage<MessageSummary> findInboxPageForUser(int userId, MessagePageRequest pageRequest) {
+        return findPage(INBOX_SUMMARY_QUERY, INBOX_OWNER, SUMMARY_ROW_MAPPER, userId, pageRequest);
+    }
+
+    public MessagePage<MessageSummary> streamSentPageForUser(int userId, MessagePageRequest pageRequest,
+            MessageSummaryCallback callback) throws IOException {
+        return streamPage(SENT_SUMMARY_QUERY, SENT_OWNER, userId, pageRequest, callback);
+    }
+
+    public MessagePage<MessageSummary> streamInboxPageForUser(int userId, MessagePageRequest pageRequest,
+            MessageSummaryCallback callback) throws IOException {
+        return streamPage(INBOX_SUMMARY_QUERY, INBOX_OWNER, userId, pageRequest, callback);
+    }
+
+    /**
+     * Streams a single page using the same keyset paging as
+     * {@link #findPage(String, String, RowMapper, int, MessagePageRequest)}. A page
+     * newer than a cursor is read oldest first, so it is loaded (it is bounded
+     * by the page size) and reversed before it is passed to the callback.
+     * Note that the connection is held until the callback processed the page.
+     *
+     * @param query the query with a where clause that has a single parameter for the user id
+     * @param ownerColumn the column compared to the user id
+     * @param userId the user id
+     * @param pageRequest the {@link MessagePageRequest}. Cannot be null.
+     * @param callback the {@link MessageSummaryCallback}. Cannot be null.
+     * @return the {@link MessagePage} with the cursors and no content
+     */
+    private MessagePage<MessageSummary> streamPage(String query, String ownerColumn, int userId,
+            MessagePageRequest pageRequest, MessageSummaryCallback callback) throws IOException {
+        if (pageRequest == null) {
+            throw new IllegalArgumentException("pageRequest cannot be null");
+        }
+        if (callback == null) {
+            throw new IllegalArgumentException("callback cannot be null");
+        }
+        List<MessageSummary> empty = Collections.emptyList();
+        if (pageRequest.getAfterId() != null) {
+            MessagePage<MessageSummary> page = findPage(query, ownerColumn, SUMMARY_ROW_MAPPER, userId, pageRequest);
+            for (MessageSummary summary : page.getContent()) {
+                callback.processSummary(summary);
+            }
+            return new MessagePage<MessageSummary>(empty, page.getOlderCursor(), page.getNewerCursor());
+        }
+        List<Object> args = new ArrayList<Object>(3);
+        args.add(userId);
+        if (pageRequest.getBeforeId() != null) {
+            args.add(pageRequest.getBeforeId());
+        }
+        args.add(pageRequest.getSize() + 1);
+
+        StreamingRowCallbackHandler handler = new StreamingRowCallbackHandler(callback, pageRequest.getSize());
+        try {
+            this.jdbcTemplate.query(keysetQuery(query, ownerColumn, pageRequest), args.toArray(), handler);
+        } catch (CallbackIOException e) {
+            throw e.getCause();
+        }
+        if (handler.count == 0) {
+            return emptyPage(empty, pageRequest);
+        }
+        return new MessagePage<MessageSummary>(empty, handler.hasMore ? handler.oldest : null,
+                pageRequest.getBeforeId() == null ? null : handler.newest);
+    }
+
+    /**
+     * Passes every row up to the page size to a {@link MessageSummaryCallback}
+     * and records the cursors. The additional row that is selected only
+     * determines if there is another page.
+     */
+    private static final class StreamingRowCallbackHandler implements RowCallbackHandler {
+        private final MessageSummaryCallback callback;
+        private final int size;
+        private int count;
+        private boolean hasMore;
+        private Integer newest;
+        private Integer oldest;
+
+        private StreamingRowCallbackHandler(MessageSummaryCallback callback, int size) {
+            this.callback = callback;
+            this.size = size;
+        }
+
+        public void processRow(ResultSet rs) throws SQLException {
+            if (this.count == this.size) {
+                this.hasMore = true;
+                return;
+            }
+            MessageSummary summary = SUMMARY_ROW_MAPPER.mapRow(rs, this.count);
+            if (this.count == 0) {
+                this.newest = summary.getId();
+            }
+            this.oldest = summary.getId();
+            this.count++;
+            try {
+                this.callback.processSummary(summary);
+            } catch (IOException e) {
+                throw new CallbackIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Tunnels an {@link IOException} of a {@link MessageSummaryCallback} through the {@link JdbcTemplate}.
+     */
+    private static final class CallbackIOException extends RuntimeException {
+        private CallbackIOException(IOException cause) {
+            super(cause);
+        }
+
+        @Override
+        public IOException getCause() {
+            return (IOException) super.getCause();
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Loads a single page using keyset paging on message.id. One more row than
+     * the page size is selected to determine if there is another page without
+     * having to count the rows.
+     *
+     * @param query the query with a where clause that has a single parameter for the user id
+     * @param ownerColumn the column compared to the user id
+     * @param rowMapper the {@link RowMapper} used for the content
+     * @param userId the user id
+     * @param pageRequest the {@link MessagePageRequest}. Cannot be null.
+     * @return the {@link MessagePage}
+     */
+    private <T> MessagePage<T> findPage(String query, String ownerColumn, RowMapper<T> rowMapper, int userId,
+            MessagePageRequest pageRequest) {
+        if (pageRequest == null) {
+            throw new IllegalArgumentException("pageRequest cannot be null");
+        }
+        boolean newer = pageRequest.getAfterId() != null;
+        List<Object> args = new ArrayList<Object>(3);
+        args.add(userId);
+        if (pageRequest.getBeforeId() != null) {
+            args.add(pageRequest.getBeforeId());
+        } else if (newer) {
+            args.add(pageRequest.getAfterId());
+        }
+        args.add(pageRequest.getSize() + 1);
+
+        KeysetRowMapper<T> keysetRowMapper = new KeysetRowMapper<T>(rowMapper);
+        List<T> content = this.jdbcTemplate.query(keysetQuery(query, ownerColumn, pageRequest), keysetRowMapper,
+                args.toArray());
+        List<Integer> ids = keysetRowMapper.ids;
+        boolean hasMore = content.size() > pageRequest.getSize();
+        if (hasMore) {
+            content = new ArrayList<T>(content.subList(0, pageRequest.getSize()));
+            ids = ids.subList(0, pageRequest.getSize());
+        }
+        if (content.isEmpty()) {
+            return emptyPage(content, pageRequest);
+        }
+        Integer newest = newer ? ids.get(ids.size() - 1) : ids.get(0);
+        Integer oldest = newer ? ids.get(0) : ids.get(ids.size() - 1);
+        if (newer) {
+            // we paged forward from an older page so there is always an older page
+            Collections.reverse(content);
+            return new MessagePage<T>(content, oldest, hasMore ? newest : null);
+        }
+        return new MessagePage<T>(content, hasMore ? oldest : null, pageRequest.getBeforeId() == null ? null : newest);
+    }
+
+    /**
+     * Creates the {@link MessagePage} for a {@link MessagePageRequest} that found no messages (i.e. a cursor past the
+     * oldest message). The cursor of the request is turned around so that the page links back to the messages on the
+     * other side of it rather than being a dead end. The cursor is inclusive so the message it names is shown again.
+     *
+     * @param content the empty content
+     * @param pageRequest the {@link MessagePageRequest}
+     * @return the {@link MessagePage}
+     */
+    private static <T> MessagePage<T> emptyPage(List<T> content, MessagePageRequest pageRequest) {
+        Integer olderCursor = pageRequest.getAfterId() == null ? null : pageRequest.getAfterId() + 1;
+        Integer newerCursor = pageRequest.getBeforeId() == null ? null : pageRequest.getBeforeId() - 1;
+        return new MessagePage<T>(content, olderCursor, newerCursor);
+    }
+
+    /**
+     * Appends the keyset condition, ordering, and limit for a {@link MessagePageRequest} to a query. The rows are
+     * ordered by the owner column and the id even though the owner is fixed by the where clause, since H2 only reads
+     * the rows in the order of an index (and stops after the limit) if the order by lists the columns of the index in
+     * the same directions. Ordering by the id alone sorts every message of the mailbox for each page. H2 does not
+     * scan an index backwards, so the pages newer than a cursor use the (owner, id) rather than the (owner, id desc)
+     * index.
+     *
+     * @param query the query with a where clause that has a single parameter for the user id
+     * @param ownerColumn the column compared to the user id (i.e. m.toUser)
+     * @param pageRequest the {@link MessagePageRequest}
+     * @return the query for the page. The parameters are the user id, the
+     *         cursor (if present) and the maximum number of rows.
+     */
+    static String keysetQuery(String query, String ownerColumn, MessagePageRequest pageRequest) {
+        if (pageRequest.getBeforeId() != null) {
+            return query + " and m.id < ? order by " + ownerColumn + ", m.id desc limit ?";
+        }
+        if (pageRequest.getAfterId() != null) {
+            return query + " and m.id > ? order by " + ownerColumn + ", m.id limit ?";
+        }
+        return query + " order by " + ownerColumn + ", m.id desc limit ?";
+    }
+
+    /**
+     * Delegates to another {@link RowMapper} and records the message.id of
+     * every row so that the cursors of a {@link MessagePage} can be calculated
+     * without knowing the type of the content.
+     *
+     * @param <T>
+     */
+    private static final class KeysetRowMapper<T> implements RowMapper<T> {
+        private final RowMapper<T> delegate;
+        private final List<Integer> ids = new ArrayList<Integer>();
+
+        private KeysetRowMapper(RowMapper<T> delegate) {
+            this.delegate = delegate;
+        }
+
+        public T mapRow(ResultSet rs, int rowNum) throws SQLException {
+            this.ids.add(rs.getInt("message.id"));
+            return this.delegate.mapRow(rs, rowNum);
+        }
     }
 
     /**
@@ -120,6 +504,40 @@ public class JdbcMessageService implements MessageService {
      * The query for a message to be reused with different where clauses.
      */
     private static final String MESSAGE_QUERY = "select m.id, m.subject, m.message, fromUser.id as from_id, fromUser.email as from_email, fromUser.password as from_password, fromUser.firstName as from_firstName, fromUser.lastName as from_lastName, toUser.id as to_id, toUser.email as to_email, toUser.password as to_password, toUser.firstName as to_firstName, toUser.lastName as to_lastName from message as m, mail_user as fromUser, mail_user as toUser";
+    /**
+     * The query for a {@link MessageSummary}. The counterpart must be joined by the where clause.
+     */
+    private static final String SUMMARY_QUERY = "select m.id, m.subject, counterpart.firstName as counterpart_firstName, counterpart.lastName as counterpart_lastName from message as m, mail_user as counterpart";
+
+    private static final String INSERT_MESSAGE = "insert into message (fromUser,toUser,subject,message) values (?, ?, ?, ?)";
+    /**
+     * The maximum number of rows sent to the database in a single jdbc batch.
+     */
+    private static final int BATCH_SIZE = 500;
+    private static final String UPDATE_MAILBOX_VERSION = "update mailbox_version set inbox_version = inbox_version + ?, sent_version = sent_version + ? where user_id = ?";
+    private static final String INSERT_MAILBOX_VERSION = "insert into mailbox_version (user_id, inbox_version, sent_version) values (?, ?, ?)";
+    static final String INBOX_VERSION_QUERY = "select inbox_version from mailbox_version where user_id = ?";
+    static final String SENT_VERSION_QUERY = "select sent_version from mailbox_version where user_id = ?";
+
+    static final String MESSAGE_BY_ID_QUERY = MESSAGE_QUERY + " where m.id = ? and m.fromUser = fromUser.id and m.toUser = toUser.id";
+    static final String MESSAGE_BY_ID_FOR_USER_QUERY = MESSAGE_BY_ID_QUERY + " and (m.fromUser = ? or m.toUser = ?)";
+    static final String MESSAGE_EXISTS_QUERY = "select count(*) from message where id = ?";
+    static final String SENT_QUERY = MESSAGE_QUERY + " where m.fromUser = ? and m.fromUser = fromUser.id and m.toUser = toUser.id order by id desc";
+    static final String INBOX_QUERY = MESSAGE_QUERY + " where m.toUser = ? and m.fromUser = fromUser.id and m.toUser = toUser.id order by id desc";
+    static final String SENT_SUMMARY_QUERY = SUMMARY_QUERY + " where m.fromUser = ? and m.toUser = counterpart.id";
+    static final String INBOX_SUMMARY_QUERY = SUMMARY_QUERY + " where m.toUser = ? and m.fromUser = counterpart.id";
+    static final String SENT_OWNER = "m.fromUser";
+    static final String INBOX_OWNER = "m.toUser";
+
+    /**
+     * A RowMapper for mapping a {@link MessageSummary}
+     */
+    private static final RowMapper<MessageSummary> SUMMARY_ROW_MAPPER = new RowMapper<MessageSummary>() {
+        public MessageSummary mapRow(ResultSet rs, int rowNum) throws SQLException {
+            return new MessageSummary(rs.getInt("message.id"), rs.getString("message.subject"),
+                    rs.getString("counterpart_firstName"), rs.getString("counterpart_lastName"));
+        }
+    };
     private static RowMapper<MailUser> FROM_USER_ROWMAPPER = new JdbcMailUserService.MailUserRowMapper("from_");
     private static RowMapper<MailUser> TO_USER_ROWMAPPER = new JdbcMailUserService.MailUserRowMapper("to_");
 }
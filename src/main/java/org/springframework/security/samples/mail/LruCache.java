@@ -0,0 +1,194 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.security.samples.mail;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * A small thread safe cache that is bounded in size and evicts the least
+ * recently used entry when it is full. Entries also expire after a fixed time
+ * to live so that changes made outside of the application are eventually seen.
+ * </p>
+ * <p>
+ * Hits, misses and evictions are counted so that the size and time to live can
+ * be tuned.
+ * </p>
+ *
+ * @author Rob Winch
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the values
+ */
+public class LruCache<K, V> {
+    private final int maxSize;
+    private final long timeToLiveMillis;
+    private final LinkedHashMap<K, CacheEntry<V>> entries;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Creates a new {@link LruCache}
+     * @param maxSize the maximum number of entries. Must be greater than 0.
+     * @param timeToLiveMillis the number of milliseconds an entry is valid for. Must be greater than 0.
+     */
+    public LruCache(int maxSize, long timeToLiveMillis) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be greater than 0. Got " + maxSize);
+        }
+        if (timeToLiveMillis <= 0) {
+            throw new IllegalArgumentException("timeToLiveMillis must be greater than 0. Got " + timeToLiveMillis);
+        }
+        this.maxSize = maxSize;
+        this.timeToLiveMillis = timeToLiveMillis;
+        this.entries = new LinkedHashMap<K, CacheEntry<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, CacheEntry<V>> eldest) {
+                if (size() > LruCache.this.maxSize) {
+                    LruCache.this.evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Gets the value for a key.
+     * @param key the key to look up
+     * @return the value or null if it was not found or has expired
+     */
+    public synchronized V get(K key) {
+        CacheEntry<V> entry = this.entries.get(key);
+        if (entry != null && entry.expires <= currentTimeMillis()) {
+            this.entries.remove(key);
+            entry = null;
+        }
+        if (entry == null) {
+            this.misses++;
+            return null;
+        }
+        this.hits++;
+        return entry.value;
+    }
+
+    /**
+     * Adds or replaces the value for a key.
+     * @param key the key. Cannot be null.
+     * @param value the value. Cannot be null.
+     */
+    public synchronized void put(K key, V value) {
+        if (key == null) {
+            throw new IllegalArgumentException("key cannot be null");
+        }
+        if (value == null) {
+            throw new IllegalArgumentException("value cannot be null");
+        }
+        this.entries.put(key, new CacheEntry<V>(value, currentTimeMillis() + this.timeToLiveMillis));
+    }
+
+    /**
+     * Removes the value for a key if present.
+     * @param key the key to remove
+     * @return the value that was removed (even if it had expired) or null if the key was not present
+     */
+    public synchronized V remove(K key) {
+        CacheEntry<V> entry = this.entries.remove(key);
+        return entry == null ? null : entry.value;
+    }
+
+    /**
+     * Removes all entries, including the expired ones.
+     */
+    public synchronized void clear() {
+        this.entries.clear();
+    }
+
+    /**
+     * Removes the expired entries.
+     * @return the number of entries that were removed
+     */
+    public synchronized int removeExpired() {
+        long now = currentTimeMillis();
+        int removed = 0;
+        for (Iterator<CacheEntry<V>> i = this.entries.values().iterator(); i.hasNext();) {
+            if (i.next().expires <= now) {
+                i.remove();
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Gets the number of entries including entries that have expired but not
+     * been removed yet.
+     * @return
+     */
+    public synchronized int size() {
+        return this.entries.size();
+    }
+
+    public int getMaxSize() {
+        return this.maxSize;
+    }
+
+    public long getTimeToLiveMillis() {
+        return this.timeToLiveMillis;
+    }
+
+    public synchronized long getHits() {
+        return this.hits;
+    }
+
+    public synchronized long getMisses() {
+        return this.misses;
+    }
+
+    public synchronized long getEvictions() {
+        return this.evictions;
+    }
+
+    /**
+     * Gets the ratio of hits to lookups or 0 if there have not been any lookups.
+     * @return
+     */
+    public synchronized double getHitRatio() {
+        long lookups = this.hits + this.misses;
+        return lookups == 0 ? 0 : (double) this.hits / lookups;
+    }
+
+    /**
+     * Gets the current time. Allows tests to control expiration.
+     * @return
+     */
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    private static final class CacheEntry<V> {
+        private final V value;
+        private final long expires;
+
+        private CacheEntry(V value, long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+    }
+}
@@ -15,6 +15,11 @@
  */
 package org.springframework.security.samples.mail;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 
 import javax.validation.constraints.Size;
@@ -24,6 +29,12 @@ import org.hibernate.validator.constraints.NotBlank;
 
 /**
  * A {@link MailUser} represents a user in the secure mail application.
+ * <p>
+ * A {@link MailUser} is written to an {@link ObjectOutputStream} in a compact
+ * form that only contains the values (not the field names and types) since it
+ * is stored in every session. {@link MailUser}'s that were serialized before
+ * the compact form was introduced can still be read.
+ * </p>
  * @author Rob Winch
  *
  */
@@ -146,5 +157,64 @@ public class MailUser implements Serializable {
         return getClass().getName()+" [id=" + this.id + "]";
     }
 
+    /**
+     * Writes the values of this {@link MailUser} for a compact serialized form.
+     * @param out the {@link DataOutput} to write to
+     * @throws IOException
+     */
+    protected final void writeFields(DataOutput out) throws IOException {
+        SerializationSupport.writeInteger(out, this.id);
+        SerializationSupport.writeString(out, this.email);
+        SerializationSupport.writeString(out, this.firstName);
+        SerializationSupport.writeString(out, this.lastName);
+        SerializationSupport.writeString(out, this.password);
+    }
+
+    /**
+     * Reads the values written by {@link #writeFields(DataOutput)}.
+     * @param in the {@link DataInput} to read from
+     * @throws IOException
+     */
+    protected final void readFields(DataInput in) throws IOException {
+        this.id = SerializationSupport.readInteger(in);
+        this.email = SerializationSupport.readString(in);
+        this.firstName = SerializationSupport.readString(in);
+        this.lastName = SerializationSupport.readString(in);
+        this.password = SerializationSupport.readString(in);
+    }
+
+    private Object writeReplace() {
+        return new SerializationProxy(this);
+    }
+
     private static final long serialVersionUID = -8114411764534562374L;
+
+    /**
+     * The compact serialized form of a {@link MailUser}. All of the fields are
+     * transient so the class descriptor does not describe any fields.
+     */
+    private static final class SerializationProxy implements Serializable {
+        private transient MailUser user;
+
+        private SerializationProxy(MailUser user) {
+            this.user = user;
+        }
+
+        private void writeObject(ObjectOutputStream out) throws IOException {
+            out.defaultWriteObject();
+            this.user.writeFields(out);
+        }
+
+        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+            in.defaultReadObject();
+            this.user = new MailUser();
+            this.user.readFields(in);
+        }
+
+        private Object readResolve() {
+            return this.user;
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
 }
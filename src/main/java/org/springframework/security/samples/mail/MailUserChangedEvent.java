@@ -0,0 +1,55 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.security.samples.mail;
+
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * Published when a {@link MailUser} is created or its credentials change so
+ * that anything caching a copy of the {@link MailUser} can discard it.
+ *
+ * @author Rob Winch
+ */
+public class MailUserChangedEvent extends ApplicationEvent {
+    private final int userId;
+    private final String email;
+
+    /**
+     * Creates a new {@link MailUserChangedEvent}
+     * @param source the {@link MailUserService} that changed the {@link MailUser}. Cannot be null.
+     * @param userId the {@link MailUser#getId()}
+     * @param email the {@link MailUser#getEmail()}. Cannot be null.
+     * @throws IllegalArgumentException if email is null.
+     */
+    public MailUserChangedEvent(MailUserService source, int userId, String email) {
+        super(source);
+        if (email == null) {
+            throw new IllegalArgumentException("email cannot be null");
+        }
+        this.userId = userId;
+        this.email = email;
+    }
+
+    public int getUserId() {
+        return this.userId;
+    }
+
+    public String getEmail() {
+        return this.email;
+    }
+
+    private static final long serialVersionUID = -3212874465470519318L;
+}
@@ -15,6 +15,8 @@
  */
 package org.springframework.security.samples.mail;
 
+import java.util.Collection;
+import java.util.List;
 
 /**
  * Used for managing users for the secure mail aplication.
@@ -42,10 +44,29 @@ public interface MailUserService {
     MailUser findUserByEmail(String email);
 
     /**
-     * Creates a new {@link MailUser}.
+     * Finds all the {@link MailUser}'s with the given email addresses in bulk rather than with a lookup per address.
+     * @param emails the email addresses to find {@link MailUser}'s for. Cannot be null.
+     * @return the {@link MailUser}'s that were found in no particular order. Email addresses that do not
+     *         belong to a {@link MailUser} are omitted. Cannot be null.
+     * @throws IllegalArgumentException if emails is null.
+     */
+    List<MailUser> findUsersByEmail(Collection<String> emails);
+
+    /**
+     * Creates a new {@link MailUser}. The {@link MailUser#getPassword()} is hashed before it is stored.
      * @param mailUser the new {@link MailUser} to create. The {@link MailUser#getId()} must be null.
      * @return the new {@link MailUser#getId()}.
      * @throws IllegalArgumentException if {@link MailUser#getId()} is non-null.
      */
     int createUser(MailUser mailUser);
+
+    /**
+     * Changes the password of a {@link MailUser}. The password is hashed before it is stored.
+     * @param mailUser the {@link MailUser} to update, as it was found. Only the {@link MailUser#getId()} and
+     *            {@link MailUser#getEmail()} are used. Cannot be null.
+     * @param password the new password in plain text. Cannot be null.
+     * @throws IllegalArgumentException if mailUser, its {@link MailUser#getId()} or password is null.
+     * @throws NotFoundException if the {@link MailUser} cannot be found
+     */
+    void updatePassword(MailUser mailUser, String password);
 }
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.security.samples.mail;
+
+/**
+ * <p>
+ * Notified by the {@link MailboxNotificationHub} when a {@link MailUser} receives a new {@link Message}.
+ * </p>
+ *
+ * @author Rob Winch
+ */
+public interface MailboxListener {
+
+    /**
+     * Invoked after the transaction that created a {@link Message} for the {@link MailUser} committed. A listener is
+     * notified at most once and is removed before it is notified, so it must be added again to receive further
+     * notifications. The method is invoked on the thread of the {@link MailboxNotificationHub} and must not block.
+     * @param userId the {@link MailUser#getId()} that received a {@link Message}
+     */
+    void onNewMessage(int userId);
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.security.samples.mail;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * <p>
+ * An in process hub that notifies {@link MailboxListener}'s when a {@link MailUser} receives a new {@link Message}.
+ * The listeners are notified on a single dedicated thread so that the thread sending a {@link Message} is not
+ * delayed by the number of users that are waiting for new mail.
+ * </p>
+ * <p>
+ * Listeners are one shot (i.e. they are removed when they are notified), which is what a long poll needs and keeps
+ * the memory used proportional to the number of waiting requests.
+ * </p>
+ *
+ * @author Rob Winch
+ */
+@Component
+@ManagedResource(description = "New mail notifications")
+public class MailboxNotificationHub implements DisposableBean {
+    private static final Logger logger = LoggerFactory.getLogger(MailboxNotificationHub.class);
+
+    private final Map<Integer, List<MailboxListener>> listeners = new HashMap<Integer, List<MailboxListener>>();
+    private int listenerCount;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "MailboxNotificationHub");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * Adds a {@link MailboxListener} that is notified the next time the {@link MailUser} receives a {@link Message}.
+     * @param userId the {@link MailUser#getId()} to listen for
+     * @param listener the {@link MailboxListener} to add. Cannot be null.
+     */
+    public void addListener(int userId, MailboxListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("listener cannot be null");
+        }
+        synchronized (this.listeners) {
+            List<MailboxListener> userListeners = this.listeners.get(userId);
+            if (userListeners == null) {
+                userListeners = new ArrayList<MailboxListener>(1);
+                this.listeners.put(userId, userListeners);
+            }
+            userListeners.add(listener);
+            this.listenerCount++;
+        }
+    }
+
+    /**
+     * Removes a {@link MailboxListener} that was not notified (i.e. because the request timed out).
+     * @param userId the {@link MailUser#getId()} the listener was added for
+     * @param listener the {@link MailboxListener} to remove
+     * @return true if the listener was removed, false if it was already notified or never added
+     */
+    public boolean removeListener(int userId, MailboxListener listener) {
+        synchronized (this.listeners) {
+            List<MailboxListener> userListeners = this.listeners.get(userId);
+            if (userListeners == null || !userListeners.remove(listener)) {
+                return false;
+            }
+            if (userListeners.isEmpty()) {
+                this.listeners.remove(userId);
+            }
+            this.listenerCount--;
+            return true;
+        }
+    }
+
+    /**
+     * Notifies the {@link MailboxListener}'s of the given users once the current transaction commits. If there is no
+     * transaction the listeners are notified immediately. Nothing is published if the transaction rolls back, so a
+     * notified listener will always find the new {@link Message}'s.
+     * @param userIds the {@link MailUser#getId()}'s that received a {@link Message}. Cannot be null.
+     */
+    public void publishAfterCommit(Collection<Integer> userIds) {
+        if (userIds == null) {
+            throw new IllegalArgumentException("userIds cannot be null");
+        }
+        final Set<Integer> recipients = new LinkedHashSet<Integer>(userIds);
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            publish(recipients);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                publish(recipients);
+            }
+        });
+    }
+
+    private void publish(Set<Integer> userIds) {
+        final List<MailboxListener> notify = new ArrayList<MailboxListener>();
+        final List<Integer> notifyUserIds = new ArrayList<Integer>();
+        synchronized (this.listeners) {
+            if (this.listenerCount == 0) {
+                return;
+            }
+            for (Integer userId : userIds) {
+                List<MailboxListener> userListeners = this.listeners.remove(userId);
+                if (userListeners != null) {
+                    this.listenerCount -= userListeners.size();
+                    for (MailboxListener listener : userListeners) {
+                        notify.add(listener);
+                        notifyUserIds.add(userId);
+                    }
+                }
+            }
+        }
+        if (notify.isEmpty()) {
+            return;
+        }
+        try {
+            this.executor.execute(new Runnable() {
+                public void run() {
+                    for (int i = 0; i < notify.size(); i++) {
+                        try {
+                            notify.get(i).onNewMessage(notifyUserIds.get(i));
+                        } catch (RuntimeException e) {
+                            logger.error("Failed to notify " + notify.get(i), e);
+                        }
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            logger.debug("Dropping new mail notifications since the hub is shutting down", e);
+        }
+    }
+
+    /**
+     * Gets the number of {@link MailboxListener}'s waiting for new mail.
+     * @return the number of waiting listeners
+     */
+    @ManagedAttribute(description = "The number of listeners waiting for new mail")
+    public int getListenerCount() {
+        synchronized (this.listeners) {
+            return this.listenerCount;
+        }
+    }
+
+    public void destroy() {
+        this.executor.shutdownNow();
+    }
+}
@@ -15,6 +15,9 @@
  */
 package org.springframework.security.samples.mail;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 
 
@@ -25,6 +28,10 @@ import java.io.Serializable;
  * <p>
  * In order to keep the example simple only a single {@link MailUser} can receive a {@link Message}.
  * </p>
+ * <p>
+ * Like {@link MailUser}, a {@link Message} is serialized in a compact form that only contains the values. Messages
+ * that were serialized before the compact form was introduced can still be read.
+ * </p>
  * @author rw012795
  *
  */
@@ -132,5 +139,45 @@ public class Message implements Serializable {
         return getClass().getName()+" [id=" + this.id + "]";
     }
 
+    private Object writeReplace() {
+        return new SerializationProxy(this);
+    }
+
     private static final long serialVersionUID = 6618767246921777380L;
+
+    /**
+     * The compact serialized form of a {@link Message}.
+     */
+    private static final class SerializationProxy implements Serializable {
+        private transient Message message;
+
+        private SerializationProxy(Message message) {
+            this.message = message;
+        }
+
+        private void writeObject(ObjectOutputStream out) throws IOException {
+            out.defaultWriteObject();
+            SerializationSupport.writeInteger(out, this.message.id);
+            SerializationSupport.writeString(out, this.message.subject);
+            SerializationSupport.writeString(out, this.message.message);
+            out.writeObject(this.message.toUser);
+            out.writeObject(this.message.fromUser);
+        }
+
+        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+            in.defaultReadObject();
+            this.message = new Message();
+            this.message.id = SerializationSupport.readInteger(in);
+            this.message.subject = SerializationSupport.readString(in);
+            this.message.message = SerializationSupport.readString(in);
+            this.message.toUser = (MailUser) in.readObject();
+            this.message.fromUser = (MailUser) in.readObject();
+        }
+
+        private Object readResolve() {
+            return this.message;
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
 }
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.security.samples.mail;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A single page of a mailbox that was loaded using a {@link MessagePageRequest}.
+ * The content is always ordered newest first.
+ *
+ * @author Rob Winch
+ *
+ * @param <T> the type of the content
+ */
+public final class MessagePage<T> {
+    private final List<T> content;
+    private final Integer olderCursor;
+    private final Integer newerCursor;
+
+    /**
+     * Creates a new {@link MessagePage}
+     * @param content the content of the page ordered newest first. Cannot be null.
+     * @param olderCursor the id to use with {@link MessagePageRequest#olderThan(int, int)} or null if there are no older items.
+     * @param newerCursor the id to use with {@link MessagePageRequest#newerThan(int, int)} or null if there are no newer items.
+     */
+    public MessagePage(List<T> content, Integer olderCursor, Integer newerCursor) {
+        if (content == null) {
+            throw new IllegalArgumentException("content cannot be null");
+        }
+        this.content = Collections.unmodifiableList(content);
+        this.olderCursor = olderCursor;
+        this.newerCursor = newerCursor;
+    }
+
+    /**
+     * Gets the content of this page ordered newest first.
+     * @return a non-null {@link List}
+     */
+    public List<T> getContent() {
+        return this.content;
+    }
+
+    /**
+     * Gets the cursor used to request the next page of older items or null
+     * if there are no older items.
+     * @return
+     */
+    public Integer getOlderCursor() {
+        return this.olderCursor;
+    }
+
+    /**
+     * Gets the cursor used to request the previous page of newer items or
+     * null if this is the newest page.
+     * @return
+     */
+    public Integer getNewerCursor() {
+        return this.newerCursor;
+    }
+}
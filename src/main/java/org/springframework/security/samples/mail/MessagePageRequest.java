@@ -0,0 +1,122 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.security.samples.mail;
+
+/**
+ * <p>
+ * Describes which page of a mailbox to load. Pages are located with a cursor
+ * on {@link Message#getId()} (keyset paging) rather than an offset so that the
+ * cost of loading a page does not grow with the size of the mailbox.
+ * </p>
+ * <p>
+ * A request is either for the first (newest) page, the page of
+ * {@link Message}'s older than a given id, or the page of {@link Message}'s
+ * newer than a given id.
+ * </p>
+ *
+ * @author Rob Winch
+ * @see MessagePage
+ */
+public final class MessagePageRequest {
+    private final Integer beforeId;
+    private final Integer afterId;
+    private final int size;
+
+    private MessagePageRequest(Integer beforeId, Integer afterId, int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("size must be greater than 0. Got " + size);
+        }
+        this.beforeId = beforeId;
+        this.afterId = afterId;
+        this.size = size;
+    }
+
+    /**
+     * Creates a request for the newest {@link Message}'s.
+     * @param size the maximum number of {@link Message}'s to return. Must be greater than 0.
+     * @return the {@link MessagePageRequest}
+     */
+    public static MessagePageRequest first(int size) {
+        return new MessagePageRequest(null, null, size);
+    }
+
+    /**
+     * Creates a request for the {@link Message}'s with an id less than {@code id}.
+     * @param id the {@link Message#getId()} to page before. Typically {@link MessagePage#getOlderCursor()}.
+     * @param size the maximum number of {@link Message}'s to return. Must be greater than 0.
+     * @return the {@link MessagePageRequest}
+     */
+    public static MessagePageRequest olderThan(int id, int size) {
+        return new MessagePageRequest(id, null, size);
+    }
+
+    /**
+     * Creates a request for the {@link Message}'s with an id greater than {@code id}.
+     * @param id the {@link Message#getId()} to page after. Typically {@link MessagePage#getNewerCursor()}.
+     * @param size the maximum number of {@link Message}'s to return. Must be greater than 0.
+     * @return the {@link MessagePageRequest}
+     */
+    public static MessagePageRequest newerThan(int id, int size) {
+        return new MessagePageRequest(null, id, size);
+    }
+
+    /**
+     * Creates a {@link MessagePageRequest} from optional request parameters.
+     * If both are null the first page is requested.
+     *
+     * @param beforeId the id to page before or null
+     * @param afterId the id to page after or null
+     * @param size the maximum number of {@link Message}'s to return. Must be greater than 0.
+     * @return the {@link MessagePageRequest}
+     * @throws IllegalArgumentException if both beforeId and afterId are non-null
+     */
+    public static MessagePageRequest of(Integer beforeId, Integer afterId, int size) {
+        if (beforeId != null && afterId != null) {
+            throw new IllegalArgumentException("Only one of beforeId and afterId can be specified");
+        }
+        return new MessagePageRequest(beforeId, afterId, size);
+    }
+
+    /**
+     * Gets the id that all {@link Message}'s must be less than or null.
+     * @return
+     */
+    public Integer getBeforeId() {
+        return this.beforeId;
+    }
+
+    /**
+     * Gets the id that all {@link Message}'s must be greater than or null.
+     * @return
+     */
+    public Integer getAfterId() {
+        return this.afterId;
+    }
+
+    /**
+     * Gets the maximum number of {@link Message}'s to return.
+     * @return
+     */
+    public int getSize() {
+        return this.size;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getName() + " [beforeId=" + this.beforeId + ", afterId=" + this.afterId + ", size="
+                + this.size + "]";
+    }
+}
@@ -15,8 +15,12 @@
  */
 package org.springframework.security.samples.mail;
 
+import java.io.IOException;
+import java.util.Collection;
 import java.util.List;
 
+import org.springframework.security.access.AccessDeniedException;
+
 
 /**
  * <p>
@@ -35,6 +39,18 @@ public interface MessageService {
      */
     Message getMessage(int messageId);
 
+    /**
+     * Given an id gets a {@link Message} that was either sent or received by a specific {@link MailUser}. Unlike
+     * {@link #getMessage(int)} the ownership is verified by the query, so a {@link Message} that the user is not
+     * allowed to see is never loaded.
+     * @param messageId the {@link Message#getId()}
+     * @param userId the {@link MailUser#getId()} that must be the sender or the recipient of the {@link Message}
+     * @return the {@link Message}. Cannot be null.
+     * @throws NotFoundException if the {@link Message} cannot be found.
+     * @throws AccessDeniedException if the {@link Message} was neither sent nor received by the user.
+     */
+    Message getMessageForUser(int messageId, int userId);
+
     /**
      * Creates a {@link Message} and returns the new id for that {@link Message}.
      * @param message the {@link Message} to create. Note that the {@link Message#getId()} should be null.
@@ -43,6 +59,17 @@ public interface MessageService {
      */
     int createMessage(Message message);
 
+    /**
+     * Sends a copy of a {@link Message} to each of the given {@link MailUser}'s in a single transaction.
+     * This is much more efficient than invoking {@link #createMessage(Message)} for every recipient.
+     * @param message the {@link Message} to send. The {@link Message#getId()} and {@link Message#getToUser()}
+     *        should be null. Cannot be null.
+     * @param toUsers the recipients of the {@link Message}. Cannot be null.
+     * @return the number of {@link Message}'s that were created
+     * @throws IllegalArgumentException if message or toUsers is null or {@link Message#getId()} is non-null.
+     */
+    int createMessages(Message message, Collection<MailUser> toUsers);
+
     /**
      * Finds the {@link Message}'s that were sent by a specific {@link MailUser}.
      * @param userId the {@link MailUser#getId()} to search for sent {@link Message}'s for.
@@ -56,4 +83,69 @@ public interface MessageService {
      * @return a non-null {@link List} of {@link Message}'s received by the specified {@link MailUser}
      */
     List<Message> findInboxMessageForUser(int userId);
+
+    /**
+     * Finds a single page of summaries of the {@link Message}'s that were sent by a specific {@link MailUser}.
+     * Unlike {@link #findSentForUser(int)} the cost does not grow with the number of {@link Message}'s sent and
+     * the body of the {@link Message}'s is not loaded.
+     * @param userId the {@link MailUser#getId()} to search for sent {@link Message}'s for.
+     * @param pageRequest the {@link MessagePageRequest} describing the page to load. Cannot be null.
+     * @return a non-null {@link MessagePage} of {@link MessageSummary}'s where the counterpart is the {@link Message#getToUser()}
+     */
+    MessagePage<MessageSummary> findSentPageForUser(int userId, MessagePageRequest pageRequest);
+
+    /**
+     * Finds a single page of summaries of the {@link Message}'s that were received by a specific {@link MailUser}.
+     * Unlike {@link #findInboxMessageForUser(int)} the cost does not grow with the number of {@link Message}'s
+     * received and the body of the {@link Message}'s is not loaded.
+     * @param userId the {@link MailUser#getId()} to search for {@link Message}'s received by.
+     * @param pageRequest the {@link MessagePageRequest} describing the page to load. Cannot be null.
+     * @return a non-null {@link MessagePage} of {@link MessageSummary}'s where the counterpart is the {@link Message#getFromUser()}
+     */
+    MessagePage<MessageSummary> findInboxPageForUser(int userId, MessagePageRequest pageRequest);
+
+    /**
+     * Streams a single page of summaries of the {@link Message}'s that were sent by a specific {@link MailUser}.
+     * Unlike {@link #findSentPageForUser(int, MessagePageRequest)} each {@link MessageSummary} is passed to the
+     * callback as soon as it is read, so the page is never held in memory.
+     * @param userId the {@link MailUser#getId()} to search for sent {@link Message}'s for.
+     * @param pageRequest the {@link MessagePageRequest} describing the page to load. Cannot be null.
+     * @param callback the {@link MessageSummaryCallback} that receives the {@link MessageSummary}'s newest first.
+     *        Cannot be null.
+     * @return a {@link MessagePage} with the cursors of the page. The content is always empty.
+     * @throws IOException if the callback throws an {@link IOException}
+     */
+    MessagePage<MessageSummary> streamSentPageForUser(int userId, MessagePageRequest pageRequest,
+            MessageSummaryCallback callback) throws IOException;
+
+    /**
+     * Streams a single page of summaries of the {@link Message}'s that were received by a specific {@link MailUser}.
+     * @param userId the {@link MailUser#getId()} to search for {@link Message}'s received by.
+     * @param pageRequest the {@link MessagePageRequest} describing the page to load. Cannot be null.
+     * @param callback the {@link MessageSummaryCallback} that receives the {@link MessageSummary}'s newest first.
+     *        Cannot be null.
+     * @return a {@link MessagePage} with the cursors of the page. The content is always empty.
+     * @throws IOException if the callback throws an {@link IOException}
+     * @see #streamSentPageForUser(int, MessagePageRequest, MessageSummaryCallback)
+     */
+    MessagePage<MessageSummary> streamInboxPageForUser(int userId, MessagePageRequest pageRequest,
+            MessageSummaryCallback callback) throws IOException;
+
+    /**
+     * Gets the version of the inbox of a specific {@link MailUser}. The version changes every time a {@link Message}
+     * is received by the {@link MailUser}, so it can be used to determine if the inbox changed without querying the
+     * {@link Message}'s.
+     * @param userId the {@link MailUser#getId()} to get the inbox version for.
+     * @return the version of the inbox. A {@link MailUser} that has never received a {@link Message} has a version of 0.
+     */
+    long getInboxVersion(int userId);
+
+    /**
+     * Gets the version of the sent mail of a specific {@link MailUser}. The version changes every time a
+     * {@link Message} is sent by the {@link MailUser}.
+     * @param userId the {@link MailUser#getId()} to get the sent mail version for.
+     * @return the version of the sent mail. A {@link MailUser} that has never sent a {@link Message} has a version of 0.
+     * @see #getInboxVersion(int)
+     */
+    long getSentVersion(int userId);
 }
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.security.samples.mail;
+
+import java.io.Serializable;
+
+/**
+ * <p>
+ * A read only summary of a {@link Message} that is used when displaying a
+ * list of {@link Message}'s. It contains only what is necessary to render a
+ * row (i.e. the body of the {@link Message} and the details of the
+ * {@link MailUser}'s are not loaded).
+ * </p>
+ * <p>
+ * The counterpart is the other {@link MailUser} involved in the
+ * {@link Message}. For the inbox this is the {@link Message#getFromUser()} and
+ * for sent mail this is the {@link Message#getToUser()}.
+ * </p>
+ *
+ * @author Rob Winch
+ */
+public class MessageSummary implements Serializable {
+    private final int id;
+    private final String subject;
+    private final String counterpartFirstName;
+    private final String counterpartLastName;
+
+    public MessageSummary(int id, String subject, String counterpartFirstName, String counterpartLastName) {
+        this.id = id;
+        this.subject = subject;
+        this.counterpartFirstName = counterpartFirstName;
+        this.counterpartLastName = counterpartLastName;
+    }
+
+    /**
+     * Gets the {@link Message#getId()}.
+     * @return
+     */
+    public int getId() {
+        return this.id;
+    }
+
+    /**
+     * Gets the {@link Message#getSubject()}.
+     * @return
+     */
+    public String getSubject() {
+        return this.subject;
+    }
+
+    public String getCounterpartFirstName() {
+        return this.counterpartFirstName;
+    }
+
+    public String getCounterpartLastName() {
+        return this.counterpartLastName;
+    }
+
+    /**
+     * Gets the name of the counterpart to display in the form "lastName, firstName".
+     * @return
+     */
+    public String getCounterpartName() {
+        return this.counterpartLastName + ", " + this.counterpartFirstName;
+    }
+
+    @Override
+    public int hashCode() {
+        return this.id;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof MessageSummary)) {
+            return false;
+        }
+        return this.id == ((MessageSummary) obj).id;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getName() + " [id=" + this.id + "]";
+    }
+
+    private static final long serialVersionUID = 2963312150306178437L;
+}
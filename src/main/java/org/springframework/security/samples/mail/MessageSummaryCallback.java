@@ -0,0 +1,37 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.security.samples.mail;
+
+import java.io.IOException;
+
+/**
+ * <p>
+ * Receives the {@link MessageSummary}'s of a mailbox one at a time as they are read, so that they can be written
+ * without holding the whole page in memory.
+ * </p>
+ *
+ * @author Rob Winch
+ * @see MessageService#streamInboxPageForUser(int, MessagePageRequest, MessageSummaryCallback)
+ */
+public interface MessageSummaryCallback {
+
+    /**
+     * Processes a single {@link MessageSummary}. The summaries are passed newest first.
+     * @param summary the {@link MessageSummary}. Cannot be null.
+     * @throws IOException if the {@link MessageSummary} could not be written. Reading the page is stopped.
+     */
+    void processSummary(MessageSummary summary) throws IOException;
+}
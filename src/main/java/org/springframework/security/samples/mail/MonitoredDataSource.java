@@ -0,0 +1,156 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.security.samples.mail;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.dbcp.BasicDataSource;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+/**
+ * <p>
+ * A {@link DataSource} that records how long it takes to obtain a {@link Connection} from a pooled
+ * {@link BasicDataSource} and exposes those statistics along with the occupancy of the pool over JMX.
+ * </p>
+ * <p>
+ * A request for a {@link Connection} that fails (i.e. the pool was exhausted for longer than
+ * {@link BasicDataSource#getMaxWait()}) is counted as a failure rather than a request.
+ * </p>
+ *
+ * @author Rob Winch
+ */
+@ManagedResource(objectName = "securemail:type=DataSource,name=dataSource", description = "Connection pool statistics")
+public class MonitoredDataSource extends DelegatingDataSource {
+    private final BasicDataSource pool;
+    private final AtomicLong connectionRequests = new AtomicLong();
+    private final AtomicLong connectionFailures = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    /**
+     * Creates a new instance
+     * @param pool the {@link BasicDataSource} to obtain {@link Connection}'s from. Cannot be null.
+     * @throws IllegalArgumentException if {@code pool} is null.
+     */
+    public MonitoredDataSource(BasicDataSource pool) {
+        if (pool == null) {
+            throw new IllegalArgumentException("pool cannot be null");
+        }
+        this.pool = pool;
+        setTargetDataSource(pool);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        long start = System.nanoTime();
+        try {
+            Connection connection = super.getConnection();
+            recordWait(System.nanoTime() - start);
+            return connection;
+        } catch (SQLException e) {
+            this.connectionFailures.incrementAndGet();
+            throw e;
+        } catch (RuntimeException e) {
+            this.connectionFailures.incrementAndGet();
+            throw e;
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            Connection connection = super.getConnection(username, password);
+            recordWait(System.nanoTime() - start);
+            return connection;
+        } catch (SQLException e) {
+            this.connectionFailures.incrementAndGet();
+            throw e;
+        } catch (RuntimeException e) {
+            this.connectionFailures.incrementAndGet();
+            throw e;
+        }
+    }
+
+    private void recordWait(long waitNanos) {
+        this.connectionRequests.incrementAndGet();
+        this.totalWaitNanos.addAndGet(waitNanos);
+        long max = this.maxWaitNanos.get();
+        while (waitNanos > max && !this.maxWaitNanos.compareAndSet(max, waitNanos)) {
+            max = this.maxWaitNanos.get();
+        }
+    }
+
+    @ManagedAttribute(description = "The number of connections currently borrowed from the pool")
+    public int getActiveConnections() {
+        return this.pool.getNumActive();
+    }
+
+    @ManagedAttribute(description = "The number of connections currently idle in the pool")
+    public int getIdleConnections() {
+        return this.pool.getNumIdle();
+    }
+
+    @ManagedAttribute(description = "The maximum number of connections that can be borrowed at the same time")
+    public int getMaxActiveConnections() {
+        return this.pool.getMaxActive();
+    }
+
+    @ManagedAttribute(description = "The number of connections that were successfully obtained")
+    public long getConnectionRequests() {
+        return this.connectionRequests.get();
+    }
+
+    @ManagedAttribute(description = "The number of times a connection could not be obtained (i.e. the pool was exhausted)")
+    public long getConnectionFailures() {
+        return this.connectionFailures.get();
+    }
+
+    @ManagedAttribute(description = "The total time in milliseconds spent waiting for connections")
+    public double getTotalWaitMillis() {
+        return toMillis(this.totalWaitNanos.get());
+    }
+
+    @ManagedAttribute(description = "The average time in milliseconds spent waiting for a connection")
+    public double getAverageWaitMillis() {
+        long requests = this.connectionRequests.get();
+        return requests == 0 ? 0 : toMillis(this.totalWaitNanos.get()) / requests;
+    }
+
+    @ManagedAttribute(description = "The longest time in milliseconds spent waiting for a connection")
+    public double getMaxWaitMillis() {
+        return toMillis(this.maxWaitNanos.get());
+    }
+
+    @ManagedOperation(description = "Resets the wait time statistics")
+    public void resetStatistics() {
+        this.connectionRequests.set(0);
+        this.connectionFailures.set(0);
+        this.totalWaitNanos.set(0);
+        this.maxWaitNanos.set(0);
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / 1000000d;
+    }
+}
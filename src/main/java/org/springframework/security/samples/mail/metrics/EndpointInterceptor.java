@@ -0,0 +1,60 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.security.samples.mail.metrics;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+/**
+ * Names the endpoint of a request that is recorded by the {@link RequestMetricsFilter} after the method and the
+ * pattern of the mapping that matched it (i.e. "GET /messages/{id}" rather than "GET /messages/42"), so that the
+ * number of endpoints does not grow with the data. The method is the one the handler sees, which includes the
+ * methods that are overridden by the {@code HiddenHttpMethodFilter}. A mapping without a method condition accepts
+ * any method a client sends, so the methods that are not a {@link RequestMethod} are all named {@link #OTHER_METHOD}.
+ *
+ * @author Rob Winch
+ */
+public class EndpointInterceptor extends HandlerInterceptorAdapter {
+    /**
+     * The method of the endpoints of requests whose method is not a {@link RequestMethod}.
+     */
+    public static final String OTHER_METHOD = "OTHER";
+
+    private static final Set<String> METHODS = new HashSet<String>();
+
+    static {
+        for (RequestMethod method : RequestMethod.values()) {
+            METHODS.add(method.name());
+        }
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        if (pattern != null) {
+            String method = METHODS.contains(request.getMethod()) ? request.getMethod() : OTHER_METHOD;
+            RequestMetricsFilter.setEndpoint(request, method + " " + pattern);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.security.samples.mail.metrics;
+
+import org.HdrHistogram.Histogram;
+
+/**
+ * An immutable snapshot of the requests to a single endpoint since startup. The latencies are in milliseconds.
+ *
+ * @author Rob Winch
+ */
+public final class EndpointStatistics {
+    private final String endpoint;
+    private final long count;
+    private final long errors;
+    private final int inFlight;
+    private final double meanMillis;
+    private final double p50Millis;
+    private final double p95Millis;
+    private final double p99Millis;
+    private final double maxMillis;
+
+    EndpointStatistics(String endpoint, Histogram micros, long errors, int inFlight) {
+        this.endpoint = endpoint;
+        this.count = micros.getTotalCount();
+        this.errors = errors;
+        this.inFlight = inFlight;
+        this.meanMillis = this.count == 0 ? 0 : micros.getMean() / 1000;
+        this.p50Millis = millis(micros.getValueAtPercentile(50));
+        this.p95Millis = millis(micros.getValueAtPercentile(95));
+        this.p99Millis = millis(micros.getValueAtPercentile(99));
+        this.maxMillis = millis(micros.getMaxValue());
+    }
+
+    /**
+     * The name of the endpoint (i.e. "GET /messages/{id}")
+     */
+    public String getEndpoint() {
+        return this.endpoint;
+    }
+
+    /**
+     * The number of completed requests
+     */
+    public long getCount() {
+        return this.count;
+    }
+
+    /**
+     * The number of completed requests that threw an exception or responded with a 5xx status
+     */
+    public long getErrors() {
+        return this.errors;
+    }
+
+    /**
+     * The number of requests that are currently processed or suspended
+     */
+    public int getInFlight() {
+        return this.inFlight;
+    }
+
+    public double getMeanMillis() {
+        return this.meanMillis;
+    }
+
+    public double getP50Millis() {
+        return this.p50Millis;
+    }
+
+    public double getP95Millis() {
+        return this.p95Millis;
+    }
+
+    public double getP99Millis() {
+        return this.p99Millis;
+    }
+
+    public double getMaxMillis() {
+        return this.maxMillis;
+    }
+
+    private static double millis(long micros) {
+        return micros / 1000.0;
+    }
+}
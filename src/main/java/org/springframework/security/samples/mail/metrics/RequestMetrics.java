@@ -0,0 +1,163 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.security.samples.mail.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+/**
+ * <p>
+ * Latency histograms, error counts and in flight gauges per endpoint. The {@link RequestMetricsFilter} records every
+ * request, an endpoint is named by the {@link EndpointInterceptor} (i.e. "GET /messages/{id}") or by the
+ * {@link RequestMetricsFilter} for the requests Spring Security answers itself (i.e. the login).
+ * </p>
+ * <p>
+ * Latencies are recorded in microseconds into a {@link Recorder}, which does not block the request threads. They are
+ * only moved into the {@link Histogram} since startup when the statistics are read. Requests that are not matched to
+ * an endpoint and the requests to more than {@link #setMaxEndpoints(int)} different endpoints are counted as
+ * {@link #OTHER}.
+ * </p>
+ *
+ * @author Rob Winch
+ */
+@Component
+@ManagedResource(description = "Request latency statistics")
+public class RequestMetrics {
+    /**
+     * The endpoint of the requests that are not matched to an endpoint (i.e. a redirect to the login page).
+     */
+    public static final String OTHER = "other";
+
+    /**
+     * Long polls take up to 30 seconds, everything slower than an hour is recorded as an hour.
+     */
+    static final long HIGHEST_LATENCY_MICROS = TimeUnit.HOURS.toMicros(1);
+    /**
+     * A precision of 1% keeps the three histograms of an endpoint at about 25KB each.
+     */
+    private static final int SIGNIFICANT_DIGITS = 2;
+
+    private final ConcurrentMap<String, Endpoint> endpoints = new ConcurrentHashMap<String, Endpoint>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private int maxEndpoints = 200;
+
+    /**
+     * The maximum number of endpoints that are recorded separately. This bounds the memory that is used if the
+     * endpoints are named after something clients control (i.e. the method of a request). Default is 200.
+     * @param maxEndpoints the maximum. Must be greater than 0.
+     */
+    public void setMaxEndpoints(int maxEndpoints) {
+        if (maxEndpoints <= 0) {
+            throw new IllegalArgumentException("maxEndpoints must be greater than 0. Got " + maxEndpoints);
+        }
+        this.maxEndpoints = maxEndpoints;
+    }
+
+    /**
+     * The statistics of every endpoint that was requested since startup, ordered by the name of the endpoint.
+     */
+    public List<EndpointStatistics> getStatistics() {
+        List<EndpointStatistics> statistics = new ArrayList<EndpointStatistics>(this.endpoints.size());
+        for (Endpoint endpoint : this.endpoints.values()) {
+            statistics.add(endpoint.getStatistics());
+        }
+        Collections.sort(statistics, new Comparator<EndpointStatistics>() {
+            public int compare(EndpointStatistics first, EndpointStatistics second) {
+                return first.getEndpoint().compareTo(second.getEndpoint());
+            }
+        });
+        return statistics;
+    }
+
+    @ManagedAttribute(description = "The number of requests that are currently processed or suspended")
+    public int getInFlight() {
+        return this.inFlight.get();
+    }
+
+    Endpoint getEndpoint(String name) {
+        Endpoint endpoint = this.endpoints.get(name);
+        if (endpoint != null) {
+            return endpoint;
+        }
+        if (this.endpoints.size() >= this.maxEndpoints && !OTHER.equals(name)) {
+            return getEndpoint(OTHER);
+        }
+        Endpoint created = new Endpoint(name);
+        endpoint = this.endpoints.putIfAbsent(name, created);
+        return endpoint == null ? created : endpoint;
+    }
+
+    void requestStarted() {
+        this.inFlight.incrementAndGet();
+    }
+
+    void requestCompleted() {
+        this.inFlight.decrementAndGet();
+    }
+
+    /**
+     * The metrics of a single endpoint. Any thread may record, reading the statistics is synchronized.
+     */
+    static final class Endpoint {
+        private final String name;
+        private final Recorder recorder = new Recorder(HIGHEST_LATENCY_MICROS, SIGNIFICANT_DIGITS);
+        private final AtomicLong errors = new AtomicLong();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final Histogram total = new Histogram(HIGHEST_LATENCY_MICROS, SIGNIFICANT_DIGITS);
+        private Histogram interval;
+
+        private Endpoint(String name) {
+            this.name = name;
+        }
+
+        void enter() {
+            this.inFlight.incrementAndGet();
+        }
+
+        /**
+         * Records a request that was started with {@link #enter()}
+         * @param startNanos the {@link System#nanoTime()} when the request was started
+         * @param error true if the request failed
+         */
+        void exit(long startNanos, boolean error) {
+            long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+            this.recorder.recordValue(Math.min(micros, HIGHEST_LATENCY_MICROS));
+            if (error) {
+                this.errors.incrementAndGet();
+            }
+            this.inFlight.decrementAndGet();
+        }
+
+        synchronized EndpointStatistics getStatistics() {
+            this.interval = this.recorder.getIntervalHistogram(this.interval);
+            this.total.add(this.interval);
+            return new EndpointStatistics(this.name, this.total, this.errors.get(), this.inFlight.get());
+        }
+    }
+}
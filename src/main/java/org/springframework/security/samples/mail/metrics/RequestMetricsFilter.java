@@ -0,0 +1,200 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.security.samples.mail.metrics;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import org.eclipse.jetty.continuation.Continuation;
+import org.eclipse.jetty.continuation.ContinuationListener;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+/**
+ * <p>
+ * Records the latency of every request in the {@link RequestMetrics}. The filter must be mapped before the Spring
+ * Security filter chain, so that the time spent in Spring Security is included and the requests it answers itself
+ * are recorded. The endpoint of those requests is looked up by their path in {@link #setFilterEndpoints(Map)}, every
+ * other request is named by the {@link EndpointInterceptor} once it is mapped to a handler.
+ * </p>
+ * <p>
+ * A request that threw an exception or responded with a 5xx status is counted as an error. A request that is
+ * suspended with a {@link Continuation} (i.e. a long poll) stays in flight until it is completed.
+ * </p>
+ *
+ * @author Rob Winch
+ */
+public class RequestMetricsFilter extends OncePerRequestFilter {
+    private static final String TIMING_ATTRIBUTE = RequestMetricsFilter.class.getName() + ".TIMING";
+
+    private final RequestMetrics requestMetrics;
+    private Map<String, String> filterEndpoints = Collections.emptyMap();
+
+    /**
+     * Creates a new instance
+     * @param requestMetrics the {@link RequestMetrics} to record to. Cannot be null.
+     * @throws IllegalArgumentException if {@code requestMetrics} is null.
+     */
+    public RequestMetricsFilter(RequestMetrics requestMetrics) {
+        if (requestMetrics == null) {
+            throw new IllegalArgumentException("requestMetrics cannot be null");
+        }
+        this.requestMetrics = requestMetrics;
+    }
+
+    /**
+     * Names the endpoints of the requests that are answered by a filter rather than a handler.
+     * @param filterEndpoints the name of the endpoint by the path within the application (i.e. "/logout" to "GET
+     * /logout"). Cannot be null.
+     */
+    public void setFilterEndpoints(Map<String, String> filterEndpoints) {
+        if (filterEndpoints == null) {
+            throw new IllegalArgumentException("filterEndpoints cannot be null");
+        }
+        this.filterEndpoints = new HashMap<String, String>(filterEndpoints);
+    }
+
+    /**
+     * Names the endpoint of a request that is recorded by a {@link RequestMetricsFilter}. Only the first name of a
+     * request is used, so a forward (i.e. to the access denied page) is recorded as the endpoint that was requested.
+     * @param request the request
+     * @param endpoint the name of the endpoint
+     */
+    static void setEndpoint(ServletRequest request, String endpoint) {
+        RequestTiming timing = (RequestTiming) request.getAttribute(TIMING_ATTRIBUTE);
+        if (timing != null) {
+            timing.setEndpoint(endpoint);
+        }
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        RequestTiming timing = new RequestTiming(this.requestMetrics);
+        request.setAttribute(TIMING_ATTRIBUTE, timing);
+        String filterEndpoint = this.filterEndpoints.get(getPathWithinApplication(request));
+        if (filterEndpoint != null) {
+            timing.setEndpoint(filterEndpoint);
+        }
+        StatusResponse statusResponse = new StatusResponse(response);
+        boolean error = true;
+        try {
+            chain.doFilter(request, statusResponse);
+            error = statusResponse.status >= HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+        } finally {
+            Object continuation = request.getAttribute(Continuation.ATTRIBUTE);
+            if (!error && continuation instanceof Continuation && ((Continuation) continuation).isSuspended()) {
+                ((Continuation) continuation).addContinuationListener(timing);
+            } else {
+                timing.complete(error);
+            }
+        }
+    }
+
+    private static String getPathWithinApplication(HttpServletRequest request) {
+        String uri = request.getRequestURI();
+        int pathParameters = uri.indexOf(';');
+        if (pathParameters >= 0) {
+            uri = uri.substring(0, pathParameters);
+        }
+        return uri.substring(Math.min(request.getContextPath().length(), uri.length()));
+    }
+
+    /**
+     * The start and the endpoint of a single request. It is completed either when the request leaves the filter or
+     * when its {@link Continuation} is completed.
+     */
+    private static final class RequestTiming implements ContinuationListener {
+        private final RequestMetrics requestMetrics;
+        private final long startNanos = System.nanoTime();
+        private RequestMetrics.Endpoint endpoint;
+
+        private RequestTiming(RequestMetrics requestMetrics) {
+            this.requestMetrics = requestMetrics;
+            requestMetrics.requestStarted();
+        }
+
+        private void setEndpoint(String name) {
+            if (this.endpoint == null) {
+                this.endpoint = this.requestMetrics.getEndpoint(name);
+                this.endpoint.enter();
+            }
+        }
+
+        private void complete(boolean error) {
+            setEndpoint(RequestMetrics.OTHER);
+            this.endpoint.exit(this.startNanos, error);
+            this.requestMetrics.requestCompleted();
+        }
+
+        public void onComplete(Continuation continuation) {
+            complete(false);
+        }
+
+        public void onTimeout(Continuation continuation) {
+        }
+    }
+
+    /**
+     * Remembers the status, since {@link HttpServletResponse} has no getter for it before Servlet 3.
+     */
+    private static final class StatusResponse extends HttpServletResponseWrapper {
+        private int status = SC_OK;
+
+        private StatusResponse(HttpServletResponse response) {
+            super(response);
+        }
+
+        @Override
+        public void setStatus(int status) {
+            super.setStatus(status);
+            this.status = status;
+        }
+
+        @SuppressWarnings("deprecation")
+        @Override
+        public void setStatus(int status, String message) {
+            super.setStatus(status, message);
+            this.status = status;
+        }
+
+        @Override
+        public void sendError(int status) throws IOException {
+            super.sendError(status);
+            this.status = status;
+        }
+
+        @Override
+        public void sendError(int status, String message) throws IOException {
+            super.sendError(status, message);
+            this.status = status;
+        }
+
+        @Override
+        public void sendRedirect(String location) throws IOException {
+            super.sendRedirect(location);
+            this.status = SC_MOVED_TEMPORARILY;
+        }
+    }
+}
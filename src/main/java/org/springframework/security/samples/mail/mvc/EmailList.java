@@ -0,0 +1,57 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.security.samples.mail.mvc;
+
+import static java.lang.annotation.ElementType.FIELD;
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import javax.validation.Constraint;
+import javax.validation.Payload;
+
+/**
+ * Validates that a String is a list of valid email addresses separated by
+ * commas, semicolons, or whitespace, with at most {@link #max()} distinct
+ * addresses. A null value is considered valid.
+ *
+ * @author Rob Winch
+ * @see MessageForm#getToEmails()
+ */
+@Documented
+@Constraint(validatedBy = EmailListValidator.class)
+@Target({ METHOD, FIELD })
+@Retention(RUNTIME)
+public @interface EmailList {
+    String message() default "Must be a list of valid email addresses.";
+
+    /**
+     * The maximum number of distinct email addresses.
+     */
+    int max() default Integer.MAX_VALUE;
+
+    /**
+     * The message if there are more than {@link #max()} distinct email addresses.
+     */
+    String maxMessage() default "Cannot have more than {max} email addresses.";
+
+    Class<?>[] groups() default {};
+
+    Class<? extends Payload>[] payload() default {};
+}
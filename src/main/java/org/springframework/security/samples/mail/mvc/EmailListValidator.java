@@ -0,0 +1,58 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.security.samples.mail.mvc;
+
+import java.util.List;
+
+import javax.validation.ConstraintValidator;
+import javax.validation.ConstraintValidatorContext;
+
+import org.hibernate.validator.constraints.impl.EmailValidator;
+
+/**
+ * Validates {@link EmailList} by validating each address with the same
+ * rules as {@link org.hibernate.validator.constraints.Email}.
+ *
+ * @author Rob Winch
+ */
+public class EmailListValidator implements ConstraintValidator<EmailList, String> {
+    private final EmailValidator emailValidator = new EmailValidator();
+    private int max;
+    private String maxMessage;
+
+    public void initialize(EmailList constraintAnnotation) {
+        this.max = constraintAnnotation.max();
+        this.maxMessage = constraintAnnotation.maxMessage();
+    }
+
+    public boolean isValid(String value, ConstraintValidatorContext context) {
+        if (value == null) {
+            return true;
+        }
+        List<String> emails = MessageForm.parseEmails(value);
+        if (emails.size() > this.max) {
+            context.disableDefaultConstraintViolation();
+            context.buildConstraintViolationWithTemplate(this.maxMessage).addConstraintViolation();
+            return false;
+        }
+        for (String email : emails) {
+            if (!this.emailValidator.isValid(email, context)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.security.samples.mail.mvc;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.ServletResponse;
+import javax.servlet.ServletResponseWrapper;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.continuation.Continuation;
+import org.eclipse.jetty.continuation.ContinuationListener;
+import org.eclipse.jetty.continuation.ContinuationSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.samples.mail.MailUserContext;
+import org.springframework.security.samples.mail.MailboxListener;
+import org.springframework.security.samples.mail.MailboxNotificationHub;
+import org.springframework.security.samples.mail.MessageService;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+
+/**
+ * <p>
+ * A long poll that answers as soon as the inbox of the current user no longer has the version the client knows
+ * about. While waiting the request is suspended with a Jetty {@link Continuation}, so no thread is held for an idle
+ * client. On a Servlet 3 container the {@link Continuation} uses asynchronous requests and on Jetty 6 it requires the
+ * {@code ContinuationFilter} that is configured in the web.xml.
+ * </p>
+ * <p>
+ * The response is the plain text {@link #CHANGED} or {@link #UNCHANGED}. The client reloads the inbox when it is
+ * changed and otherwise polls again.
+ * </p>
+ *
+ * @author Rob Winch
+ */
+@Controller
+public class InboxPollController {
+    static final String CHANGED = "changed";
+    static final String UNCHANGED = "unchanged";
+    /**
+     * How long a request waits for new mail. This is well below the timeouts of common proxies.
+     */
+    static final long POLL_TIMEOUT_MILLIS = 30000;
+
+    private static final Logger logger = LoggerFactory.getLogger(InboxPollController.class);
+
+    @Autowired
+    private MessageService messageRespository;
+    @Autowired
+    private MailboxNotificationHub notificationHub;
+    @Autowired
+    private MailUserContext userContext;
+
+    @RequestMapping(value = "/messages/inbox/poll", method = RequestMethod.GET)
+    public void poll(@RequestParam("version") long version, HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        int userId = this.userContext.getCurrentUser().getId();
+        if (this.messageRespository.getInboxVersion(userId) != version) {
+            write(response, CHANGED);
+            return;
+        }
+        Continuation continuation = ContinuationSupport.getContinuation(request);
+        PollListener listener = new PollListener(userId, continuation);
+        continuation.setTimeout(POLL_TIMEOUT_MILLIS);
+        continuation.addContinuationListener(listener);
+        // the wrappers added by the filters must not be used once the request left them (i.e. Spring Security would
+        // save an empty SecurityContext from the notifying thread)
+        continuation.suspend(unwrap(response));
+        this.notificationHub.addListener(userId, listener);
+        // a message may have been committed before the listener was added
+        if (this.messageRespository.getInboxVersion(userId) != version) {
+            this.notificationHub.removeListener(userId, listener);
+            listener.respond(CHANGED);
+        }
+    }
+
+    private static ServletResponse unwrap(ServletResponse response) {
+        while (response instanceof ServletResponseWrapper) {
+            response = ((ServletResponseWrapper) response).getResponse();
+        }
+        return response;
+    }
+
+    private static void write(ServletResponse response, String result) throws IOException {
+        response.setContentType("text/plain");
+        response.setCharacterEncoding("UTF-8");
+        if (response instanceof HttpServletResponse) {
+            ((HttpServletResponse) response).setHeader("Cache-Control", "no-cache");
+        }
+        PrintWriter writer = response.getWriter();
+        writer.write(result);
+        writer.flush();
+    }
+
+    /**
+     * Responds to a suspended request exactly once, either when new mail arrives or the request times out.
+     */
+    private final class PollListener implements MailboxListener, ContinuationListener {
+        private final int userId;
+        private final Continuation continuation;
+        private final AtomicBoolean responded = new AtomicBoolean();
+
+        private PollListener(int userId, Continuation continuation) {
+            this.userId = userId;
+            this.continuation = continuation;
+        }
+
+        public void onNewMessage(int userId) {
+            respond(CHANGED);
+        }
+
+        public void onTimeout(Continuation continuation) {
+            notificationHub.removeListener(this.userId, this);
+            respond(UNCHANGED);
+        }
+
+        public void onComplete(Continuation continuation) {
+            notificationHub.removeListener(this.userId, this);
+        }
+
+        private void respond(String result) {
+            if (!this.responded.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                write(this.continuation.getServletResponse(), result);
+            } catch (IOException e) {
+                logger.debug("Could not write the poll result since the client went away", e);
+            } finally {
+                this.continuation.complete();
+            }
+        }
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.security.samples.mail.mvc;
+
+import java.io.IOException;
+import java.util.List;
+
+import javax.servlet.http.HttpServletResponse;
+import javax.validation.Valid;
+
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.security.samples.mail.MailUser;
+import org.springframework.security.samples.mail.MailUserContext;
+import org.springframework.security.samples.mail.MailUserService;
+import org.springframework.security.samples.mail.Message;
+import org.springframework.security.samples.mail.MessagePage;
+import org.springframework.security.samples.mail.MessagePageRequest;
+import org.springframework.security.samples.mail.MessageService;
+import org.springframework.security.samples.mail.MessageSummary;
+import org.springframework.security.samples.mail.MessageSummaryCallback;
+import org.springframework.security.samples.mail.NotFoundException;
+import org.springframework.stereotype.Controller;
+import org.springframework.validation.BeanPropertyBindingResult;
+import org.springframework.validation.Errors;
+import org.springframework.validation.FieldError;
+import org.springframework.web.bind.MethodArgumentNotValidException;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.context.request.WebRequest;
+
+/**
+ * <p>
+ * A JSON API for the mailboxes of the current user. The JSON is written with a {@link JsonGenerator} directly to the
+ * response, and the inbox and sent pages are streamed from the database as they are read, so neither the page nor a
+ * tree of the JSON is held in memory.
+ * </p>
+ * <p>
+ * The same {@link MessageService} methods as the {@link MessageController} are used, so a {@link Message} can only be
+ * read by its sender or recipient.
+ * </p>
+ *
+ * @author Rob Winch
+ */
+@Controller
+@RequestMapping("/api/messages")
+public class MessageApiController {
+    /**
+     * The largest page that can be requested.
+     */
+    static final int MAX_PAGE_SIZE = 1000;
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    @Autowired
+    private MessageService messageRespository;
+    @Autowired
+    private MailUserService userRepository;
+    @Autowired
+    private MailUserContext userContext;
+
+    @RequestMapping(value = "/inbox", method = RequestMethod.GET)
+    public void inbox(@RequestParam(value = "before", required = false) Integer before,
+            @RequestParam(value = "after", required = false) Integer after,
+            @RequestParam(value = "size", defaultValue = "25") int size, WebRequest request,
+            HttpServletResponse response) throws IOException {
+        MessagePageRequest pageRequest = pageRequest(before, after, size, response);
+        if (pageRequest == null) {
+            return;
+        }
+        int userId = this.userContext.getCurrentUser().getId();
+        if (request.checkNotModified(MessageController.eTag("inbox-json", userId,
+                this.messageRespository.getInboxVersion(userId)))) {
+            return;
+        }
+        JsonGenerator json = createGenerator(response, HttpServletResponse.SC_OK);
+        json.writeStartObject();
+        json.writeArrayFieldStart("messages");
+        MessagePage<MessageSummary> page = this.messageRespository.streamInboxPageForUser(userId, pageRequest,
+                new JsonSummaryCallback(json));
+        writePageEnd(json, page);
+    }
+
+    @RequestMapping(value = "/sent", method = RequestMethod.GET)
+    public void sent(@RequestParam(value = "before", required = false) Integer before,
+            @RequestParam(value = "after", required = false) Integer after,
+            @RequestParam(value = "size", defaultValue = "25") int size, WebRequest request,
+            HttpServletResponse response) throws IOException {
+        MessagePageRequest pageRequest = pageRequest(before, after, size, response);
+        if (pageRequest == null) {
+            return;
+        }
+        int userId = this.userContext.getCurrentUser().getId();
+        if (request.checkNotModified(MessageController.eTag("sent-json", userId,
+                this.messageRespository.getSentVersion(userId)))) {
+            return;
+        }
+        JsonGenerator json = createGenerator(response, HttpServletResponse.SC_OK);
+        json.writeStartObject();
+        json.writeArrayFieldStart("messages");
+        MessagePage<MessageSummary> page = this.messageRespository.streamSentPageForUser(userId, pageRequest,
+                new JsonSummaryCallback(json));
+        writePageEnd(json, page);
+    }
+
+    @RequestMapping(value = "/{id}", method = RequestMethod.GET)
+    public void show(@PathVariable int id, HttpServletResponse response) throws IOException {
+        Message message = this.messageRespository.getMessageForUser(id, this.userContext.getCurrentUser().getId());
+        JsonGenerator json = createGenerator(response, HttpServletResponse.SC_OK);
+        json.writeStartObject();
+        json.writeNumberField("id", message.getId());
+        json.writeStringField("subject", message.getSubject());
+        json.writeStringField("message", message.getMessage());
+        writeUser(json, "from", message.getFromUser());
+        writeUser(json, "to", message.getToUser());
+        json.writeEndObject();
+        json.close();
+    }
+
+    @RequestMapping(method = RequestMethod.POST)
+    public void create(@Valid @RequestBody MessageForm messageForm, HttpServletResponse response) throws IOException {
+        Errors errors = new BeanPropertyBindingResult(messageForm, "messageForm");
+        List<MailUser> toUsers = MessageController.findRecipients(messageForm, this.userRepository, errors);
+        if (toUsers == null) {
+            writeErrors(response, errors);
+            return;
+        }
+        Message message = new Message();
+        message.setFromUser(this.userContext.getCurrentUser());
+        message.setSubject(messageForm.getSubject());
+        message.setMessage(messageForm.getMessage());
+        int sent = this.messageRespository.createMessages(message, toUsers);
+
+        JsonGenerator json = createGenerator(response, HttpServletResponse.SC_OK);
+        json.writeStartObject();
+        json.writeNumberField("sent", sent);
+        json.writeEndObject();
+        json.close();
+    }
+
+    @ExceptionHandler(MethodArgumentNotValidException.class)
+    public void invalid(MethodArgumentNotValidException e, HttpServletResponse response) throws IOException {
+        writeErrors(response, e.getBindingResult());
+    }
+
+    @ExceptionHandler(HttpMessageNotReadableException.class)
+    public void unreadable(HttpServletResponse response) throws IOException {
+        writeError(response, HttpServletResponse.SC_BAD_REQUEST, "The request body is not a valid message.");
+    }
+
+    @ExceptionHandler(NotFoundException.class)
+    public void notFound(HttpServletResponse response) throws IOException {
+        writeError(response, HttpServletResponse.SC_NOT_FOUND, "The message was not found.");
+    }
+
+    @ExceptionHandler(AccessDeniedException.class)
+    public void accessDenied(HttpServletResponse response) throws IOException {
+        writeError(response, HttpServletResponse.SC_FORBIDDEN, "Access is denied.");
+    }
+
+    /**
+     * Creates the {@link MessagePageRequest} or writes a bad request if the parameters are invalid.
+     * @return the {@link MessagePageRequest} or null if the parameters are invalid
+     */
+    private static MessagePageRequest pageRequest(Integer before, Integer after, int size,
+            HttpServletResponse response) throws IOException {
+        if (size <= 0 || size > MAX_PAGE_SIZE) {
+            writeError(response, HttpServletResponse.SC_BAD_REQUEST, "size must be between 1 and " + MAX_PAGE_SIZE
+                    + ".");
+            return null;
+        }
+        if (before != null && after != null) {
+            writeError(response, HttpServletResponse.SC_BAD_REQUEST, "Only one of before and after can be specified.");
+            return null;
+        }
+        return MessagePageRequest.of(before, after, size);
+    }
+
+    private static void writePageEnd(JsonGenerator json, MessagePage<?> page) throws IOException {
+        json.writeEndArray();
+        writeCursor(json, "olderCursor", page.getOlderCursor());
+        writeCursor(json, "newerCursor", page.getNewerCursor());
+        json.writeEndObject();
+        json.close();
+    }
+
+    private static void writeCursor(JsonGenerator json, String name, Integer cursor) throws IOException {
+        if (cursor == null) {
+            json.writeNullField(name);
+        } else {
+            json.writeNumberField(name, cursor);
+        }
+    }
+
+    /**
+     * Writes the public fields of a {@link MailUser}. The password is never written.
+     */
+    private static void writeUser(JsonGenerator json, String name, MailUser user) throws IOException {
+        json.writeObjectFieldStart(name);
+        json.writeNumberField("id", user.getId());
+        json.writeStringField("email", user.getEmail());
+        json.writeStringField("firstName", user.getFirstName());
+        json.writeStringField("lastName", user.getLastName());
+        json.writeEndObject();
+    }
+
+    private static void writeErrors(HttpServletResponse response, Errors errors) throws IOException {
+        JsonGenerator json = createGenerator(response, HttpServletResponse.SC_BAD_REQUEST);
+        json.writeStartObject();
+        json.writeObjectFieldStart("errors");
+        for (FieldError error : errors.getFieldErrors()) {
+            json.writeStringField(error.getField(), error.getDefaultMessage());
+        }
+        json.writeEndObject();
+        json.writeEndObject();
+        json.close();
+    }
+
+    private static void writeError(HttpServletResponse response, int status, String message) throws IOException {
+        JsonGenerator json = createGenerator(response, status);
+        json.writeStartObject();
+        json.writeStringField("error", message);
+        json.writeEndObject();
+        json.close();
+    }
+
+    private static JsonGenerator createGenerator(HttpServletResponse response, int status) throws IOException {
+        response.setStatus(status);
+        response.setContentType("application/json;charset=UTF-8");
+        return JSON_FACTORY.createJsonGenerator(response.getOutputStream(), JsonEncoding.UTF8);
+    }
+
+    /**
+     * Writes every {@link MessageSummary} as it is read from the database.
+     */
+    private static final class JsonSummaryCallback implements MessageSummaryCallback {
+        private final JsonGenerator json;
+
+        private JsonSummaryCallback(JsonGenerator json) {
+            this.json = json;
+        }
+
+        public void processSummary(MessageSummary summary) throws IOException {
+            this.json.writeStartObject();
+            this.json.writeNumberField("id", summary.getId());
+            this.json.writeStringField("subject", summary.getSubject());
+            this.json.writeStringField("counterpartFirstName", summary.getCounterpartFirstName());
+            this.json.writeStringField("counterpartLastName", summary.getCounterpartLastName());
+            this.json.writeEndObject();
+        }
+    }
+}
@@ -15,6 +15,7 @@
  */
 package org.springframework.security.samples.mail.mvc;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import javax.validation.Valid;
@@ -24,17 +25,34 @@ import org.springframework.security.samples.mail.MailUser;
 import org.springframework.security.samples.mail.MailUserContext;
 import org.springframework.security.samples.mail.MailUserService;
 import org.springframework.security.samples.mail.Message;
+import org.springframework.security.samples.mail.MessagePage;
+import org.springframework.security.samples.mail.MessagePageRequest;
 import org.springframework.security.samples.mail.MessageService;
+import org.springframework.security.samples.mail.MessageSummary;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.ModelMap;
+import org.springframework.util.StringUtils;
 import org.springframework.validation.BindingResult;
+import org.springframework.validation.Errors;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.context.request.WebRequest;
 
 @Controller
 @RequestMapping("/messages")
 public class MessageController {
+    /**
+     * The number of {@link Message}'s displayed on a single page of the inbox or sent mail.
+     */
+    static final int PAGE_SIZE = 25;
+    /**
+     * The versions of the mailboxes start over when the in memory database is recreated and the markup changes with a
+     * deploy, so the ETags of a previous start must never match.
+     */
+    private static final long STARTUP_EPOCH = System.currentTimeMillis();
+
     @Autowired
     private MessageService messageRespository;
     @Autowired
@@ -52,20 +70,15 @@ public class MessageController {
         if (result.hasErrors()) {
             return "messages/compose";
         }
-        MailUser toUser = this.userRepository.findUserByEmail(messageForm
-                .getToEmail());
-        if (toUser == null) {
-            result.rejectValue("toEmail", "errors.toEmail.notfound",
-                    "A user with email " + messageForm.getToEmail()
-                    + " was not found.");
+        List<MailUser> toUsers = findRecipients(messageForm, this.userRepository, result);
+        if (toUsers == null) {
             return "messages/compose";
         }
         Message message = new Message();
         message.setFromUser(this.userContext.getCurrentUser());
         message.setSubject(messageForm.getSubject());
         message.setMessage(messageForm.getMessage());
-        message.setToUser(toUser);
-        this.messageRespository.createMessage(message);
+        this.messageRespository.createMessages(message, toUsers);
         return "redirect:/messages/sent";
     }
 
@@ -76,27 +89,87 @@ public class MessageController {
     }
 
     @RequestMapping(value = "/inbox")
-    public String inbox(ModelMap model) {
+    public String inbox(@RequestParam(value = "before", required = false) Integer before,
+            @RequestParam(value = "after", required = false) Integer after, WebRequest request, ModelMap model) {
         Integer userId = this.userContext.getCurrentUser().getId();
-        List<Message> messages = this.messageRespository
-                .findInboxMessageForUser(userId);
-        model.addAttribute("messages", messages);
+        // the version must be read before the page so that the ETag is never newer than the content
+        long version = this.messageRespository.getInboxVersion(userId);
+        if (request.checkNotModified(eTag("inbox", userId, version))) {
+            return null;
+        }
+        MessagePage<MessageSummary> page = this.messageRespository.findInboxPageForUser(userId,
+                MessagePageRequest.of(before, after, PAGE_SIZE));
+        model.addAttribute("inboxVersion", version);
+        model.addAttribute("messages", page.getContent());
+        model.addAttribute("page", page);
         return "messages/inbox";
     }
 
     @RequestMapping("/sent")
-    public String sent(ModelMap model) {
+    public String sent(@RequestParam(value = "before", required = false) Integer before,
+            @RequestParam(value = "after", required = false) Integer after, WebRequest request, ModelMap model) {
         Integer userId = this.userContext.getCurrentUser().getId();
-        List<Message> messages = this.messageRespository
-                .findSentForUser(userId);
-        model.addAttribute("messages", messages);
+        if (request.checkNotModified(eTag("sent", userId, this.messageRespository.getSentVersion(userId)))) {
+            return null;
+        }
+        MessagePage<MessageSummary> page = this.messageRespository.findSentPageForUser(userId,
+                MessagePageRequest.of(before, after, PAGE_SIZE));
+        model.addAttribute("messages", page.getContent());
+        model.addAttribute("page", page);
         return "messages/sent";
     }
 
     @RequestMapping("/{id}")
     public String show(@PathVariable int id, ModelMap model) {
-        Message message = this.messageRespository.getMessage(id);
+        Message message = this.messageRespository.getMessageForUser(id, this.userContext.getCurrentUser().getId());
         model.addAttribute("message", message);
         return "messages/show";
     }
+
+    /**
+     * Finds the {@link MailUser}'s a {@link MessageForm} is addressed to.
+     *
+     * @param messageForm the {@link MessageForm} that passed validation
+     * @param userService the {@link MailUserService} used to find the recipients
+     * @param errors the {@link Errors} that the toEmail field is rejected with if a recipient cannot be found
+     * @return the recipients or null if the toEmail field was rejected
+     */
+    static List<MailUser> findRecipients(MessageForm messageForm, MailUserService userService, Errors errors) {
+        List<String> toEmails = messageForm.getToEmails();
+        if (toEmails.isEmpty()) {
+            errors.rejectValue("toEmail", "errors.toEmail.required", "To is required.");
+            return null;
+        }
+        List<MailUser> toUsers = userService.findUsersByEmail(toEmails);
+        if (toUsers.size() != toEmails.size()) {
+            List<String> notFound = new ArrayList<String>(toEmails);
+            for (MailUser toUser : toUsers) {
+                notFound.remove(toUser.getEmail());
+            }
+            String emails = StringUtils.collectionToDelimitedString(notFound, ", ");
+            errors.rejectValue("toEmail", "errors.toEmail.notfound", notFound.size() == 1 ? "A user with email "
+                    + emails + " was not found." : "Users with emails " + emails + " were not found.");
+            return null;
+        }
+        return toUsers;
+    }
+
+    /**
+     * Creates the ETag for a mailbox. The user id is included so that a page cached for one user is never
+     * considered current for another user that logs in with the same browser. The paging parameters are part of
+     * the URL, so they do not need to be included. The time the application was started is included so that an
+     * ETag of a previous start is never considered current.
+     *
+     * @param mailbox the name of the mailbox
+     * @param userId the {@link MailUser#getId()} that owns the mailbox
+     * @param version the version of the mailbox
+     * @return the quoted ETag
+     */
+    static String eTag(String mailbox, Integer userId, long version) {
+        return eTag(mailbox, userId, version, STARTUP_EPOCH);
+    }
+
+    static String eTag(String mailbox, Integer userId, long version, long epoch) {
+        return "\"" + mailbox + "-" + userId + "-" + version + "-" + Long.toString(epoch, 36) + "\"";
+    }
 }
@@ -15,7 +15,11 @@
  */
 package org.springframework.security.samples.mail.mvc;
 
-import org.hibernate.validator.constraints.Email;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
 import org.hibernate.validator.constraints.NotBlank;
 import org.springframework.security.samples.mail.Message;
 
@@ -25,11 +29,18 @@ import org.springframework.security.samples.mail.Message;
  * @author Rob Winch
  */
 public class MessageForm {
+    /**
+     * The maximum number of recipients of a single {@link Message}. Every recipient is a row that is inserted in the
+     * same transaction, so the limit bounds the time the transaction takes.
+     */
+    static final int MAX_RECIPIENTS = 1000;
+
     @NotBlank(message = "Subject is required.")
     private String subject;
     @NotBlank(message = "Message is required.")
     private String message;
-    @Email(message = "To must be a valid email address.")
+    @EmailList(message = "To must be a valid email address.", max = MAX_RECIPIENTS,
+            maxMessage = "To cannot have more than {max} email addresses.")
     @NotBlank(message = "To is required.")
     private String toEmail;
 
@@ -56,4 +67,25 @@ public class MessageForm {
     public void setToEmail(String toEmail) {
         this.toEmail = toEmail;
     }
+
+    /**
+     * Gets the distinct recipients of the {@link Message}. Multiple recipients
+     * can be specified in {@link #getToEmail()} by separating them with commas,
+     * semicolons, or whitespace.
+     *
+     * @return the email addresses in the order they were entered. Cannot be null.
+     */
+    public List<String> getToEmails() {
+        return this.toEmail == null ? new ArrayList<String>() : parseEmails(this.toEmail);
+    }
+
+    static List<String> parseEmails(String emails) {
+        Set<String> result = new LinkedHashSet<String>();
+        for (String email : emails.split("[,;\\s]+")) {
+            if (email.length() > 0) {
+                result.add(email);
+            }
+        }
+        return new ArrayList<String>(result);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.security.samples.mail.mvc;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.math.BigDecimal;
+import java.util.List;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.samples.mail.metrics.EndpointStatistics;
+import org.springframework.security.samples.mail.metrics.RequestMetrics;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.servlet.ModelAndView;
+
+/**
+ * <p>
+ * Displays the {@link RequestMetrics} to administrators. The page is below /users so it is protected like the
+ * administration of the sessions.
+ * </p>
+ * <p>
+ * {@link #scrape(HttpServletResponse)} renders the same statistics in the plain text format of Prometheus, with the
+ * latencies as a summary in seconds.
+ * </p>
+ *
+ * @author Rob Winch
+ */
+@Controller
+public class MetricsController {
+    static final String SCRAPE_CONTENT_TYPE = "text/plain; version=0.0.4";
+
+    private static final double[] QUANTILES = { 0.5, 0.95, 0.99 };
+
+    private final RequestMetrics requestMetrics;
+
+    /**
+     * Creates a new {@link MetricsController}
+     *
+     * @param requestMetrics the {@link RequestMetrics} to display. Cannot be null.
+     * @throws IllegalArgumentException if requestMetrics is null.
+     */
+    @Autowired
+    public MetricsController(RequestMetrics requestMetrics) {
+        if (requestMetrics == null) {
+            throw new IllegalArgumentException("requestMetrics cannot be null");
+        }
+        this.requestMetrics = requestMetrics;
+    }
+
+    @RequestMapping(value = "/users/metrics", method = RequestMethod.GET)
+    public ModelAndView metrics() {
+        return new ModelAndView("user/metrics", "endpoints", this.requestMetrics.getStatistics()).addObject(
+                "inFlight", this.requestMetrics.getInFlight());
+    }
+
+    @RequestMapping(value = "/users/metrics/scrape", method = RequestMethod.GET)
+    public void scrape(HttpServletResponse response) throws IOException {
+        List<EndpointStatistics> endpoints = this.requestMetrics.getStatistics();
+        response.setContentType(SCRAPE_CONTENT_TYPE);
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Cache-Control", "no-cache");
+        PrintWriter writer = response.getWriter();
+        line(writer, "# HELP securemail_request_duration_seconds The latency of the requests to an endpoint.");
+        line(writer, "# TYPE securemail_request_duration_seconds summary");
+        for (EndpointStatistics endpoint : endpoints) {
+            String label = "endpoint=\"" + escape(endpoint.getEndpoint()) + "\"";
+            double[] quantileMillis = { endpoint.getP50Millis(), endpoint.getP95Millis(), endpoint.getP99Millis() };
+            for (int i = 0; i < QUANTILES.length; i++) {
+                line(writer, "securemail_request_duration_seconds{" + label + ",quantile=\"" + QUANTILES[i]
+                        + "\"} " + seconds(quantileMillis[i]));
+            }
+            line(writer, "securemail_request_duration_seconds_sum{" + label + "} "
+                    + seconds(endpoint.getMeanMillis() * endpoint.getCount()));
+            line(writer, "securemail_request_duration_seconds_count{" + label + "} " + endpoint.getCount());
+        }
+        line(writer, "# HELP securemail_request_errors_total The requests that threw or returned a 5xx status.");
+        line(writer, "# TYPE securemail_request_errors_total counter");
+        for (EndpointStatistics endpoint : endpoints) {
+            line(writer, "securemail_request_errors_total{endpoint=\"" + escape(endpoint.getEndpoint()) + "\"} "
+                    + endpoint.getErrors());
+        }
+        line(writer, "# HELP securemail_requests_in_flight The requests that are processed or suspended.");
+        line(writer, "# TYPE securemail_requests_in_flight gauge");
+        for (EndpointStatistics endpoint : endpoints) {
+            line(writer, "securemail_requests_in_flight{endpoint=\"" + escape(endpoint.getEndpoint()) + "\"} "
+                    + endpoint.getInFlight());
+        }
+        writer.flush();
+    }
+
+    /**
+     * Writes a line that ends with \n on every platform, as the format requires.
+     */
+    private static void line(PrintWriter writer, String line) {
+        writer.print(line);
+        writer.print('\n');
+    }
+
+    /**
+     * Converts without the rounding errors of a division (i.e. 0.019455 rather than 0.019454999999999997).
+     */
+    private static String seconds(double millis) {
+        return BigDecimal.valueOf(millis).movePointLeft(3).toPlainString();
+    }
+
+    private static String escape(String labelValue) {
+        return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -15,6 +15,7 @@
  */
 package org.springframework.security.samples.mail.mvc;
 
+import java.util.Date;
 import java.util.List;
 
 import org.springframework.beans.factory.annotation.Autowired;
@@ -22,10 +23,13 @@ import org.springframework.security.core.session.SessionInformation;
 import org.springframework.security.core.session.SessionRegistry;
 import org.springframework.security.samples.mail.MailUser;
 import org.springframework.security.samples.mail.NotFoundException;
+import org.springframework.security.samples.mail.security.LoggedInUser;
+import org.springframework.security.samples.mail.security.MailUserSessionRegistry;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.servlet.ModelAndView;
 
 /**
@@ -36,67 +40,89 @@ import org.springframework.web.servlet.ModelAndView;
  * <pre>
  * &lt;http ...>
  *   &lt;session-management>
- *        &lt;concurrency-control error-if-maximum-exceeded="true" expired-url="/login?expired" max-sessions="1"/>
+ *        &lt;concurrency-control expired-url="/login?expired" max-sessions="1"
+ *            session-registry-ref="jdbcSessionRegistry"/>
  *      &lt;/session-management>
  * &lt;/http>
  * </pre>
  * <p>
- * Note that this method is not ideal in a real world application since Spring
- * Security's interface only exposes minimal methods that lack things like
- * paging support. This is so that if these things are not needed, users do not
- * need to implement them in order to get concurrency support. In a real world
- * situation it would be better to:
- * <ul>
- * <li>Write your own interface with the appropriate methods (i.e. with paging
- * logic)</li>
- * <li>Write a class that implements both SessionRegistry and the custom
- * interface</li>
- * <li>Interact with the class using the custom interface in your controller</li>
- * </ul>
+ * Spring Security's {@link SessionRegistry} interface only exposes minimal
+ * methods that lack things like paging support. This is so that if these
+ * things are not needed, users do not need to implement them in order to get
+ * concurrency support. Instead this controller uses the custom
+ * {@link MailUserSessionRegistry} interface which is implemented by the same
+ * class as the {@link SessionRegistry}. This allows looking up the sessions
+ * by user id and paging through the logged in users without loading every
+ * principal.
+ * </p>
  *
  * @author Rob Winch
  */
 @Controller
 public class UserSessionController {
+    /**
+     * The number of {@link LoggedInUser}'s displayed on a single page.
+     */
+    static final int PAGE_SIZE = 50;
 
-    private final SessionRegistry sessionRegistry;
+    private final MailUserSessionRegistry sessionRegistry;
 
     /**
      * Creates a new {@link UserSessionController}
      *
-     * @param sessionRegistry the {@link SessionRegistry} to use. Cannot be null.
+     * @param sessionRegistry the {@link MailUserSessionRegistry} to use. Cannot be null.
      * @throws IllegalArgumentException if sessionRegistry is null.
      */
     @Autowired
-    public UserSessionController(SessionRegistry sessionRegistry) {
+    public UserSessionController(MailUserSessionRegistry sessionRegistry) {
         if (sessionRegistry == null) {
             throw new IllegalArgumentException("sessionRegistry cannot be null");
         }
         this.sessionRegistry = sessionRegistry;
     }
 
-    @RequestMapping("/users/sessions")
-    public ModelAndView list() {
-        return new ModelAndView("user/session/list", "principals", this.sessionRegistry.getAllPrincipals());
+    @RequestMapping(value = "/users/sessions", method = RequestMethod.GET)
+    public ModelAndView list(@RequestParam(value = "sort", defaultValue = "NAME") MailUserSessionRegistry.Order order,
+            @RequestParam(value = "afterId", required = false) Integer afterId,
+            @RequestParam(value = "afterLastRequest", required = false) Long afterLastRequest) {
+        if (order == MailUserSessionRegistry.Order.LAST_REQUEST && afterLastRequest == null) {
+            afterId = null;
+        }
+        // one more than the page size is read to know if there is a next page without counting the logged in users
+        List<LoggedInUser> users = this.sessionRegistry.findLoggedInUsers(order, afterId,
+                afterLastRequest == null ? null : new Date(afterLastRequest), PAGE_SIZE + 1);
+        LoggedInUser next = null;
+        if (users.size() > PAGE_SIZE) {
+            users = users.subList(0, PAGE_SIZE);
+            next = users.get(PAGE_SIZE - 1);
+        }
+        return new ModelAndView("user/session/list", "users", users).addObject("next", next)
+                .addObject("first", afterId == null).addObject("sort", order);
     }
 
     @RequestMapping("/users/{userId}/sessions")
     public ModelAndView listForUser(@PathVariable int userId) {
-        for (Object principal : this.sessionRegistry.getAllPrincipals()) {
-            MailUser user = (MailUser) principal;
-            if (user.getId().equals(userId)) {
-                List<SessionInformation> sessionDetails = this.sessionRegistry.getAllSessions(principal, false);
-                return new ModelAndView("user/session/details", "sessionDetails", sessionDetails).addObject(
-                        "mailUser", user);
-            }
+        List<SessionInformation> sessionDetails = this.sessionRegistry.getSessionsForUser(userId, false);
+        if (sessionDetails.isEmpty()) {
+            throw new NotFoundException("Couldn't find sessions for user " + userId);
         }
-        throw new NotFoundException("Couldn't find sessions for user "+userId);
+        MailUser user = (MailUser) sessionDetails.get(0).getPrincipal();
+        return new ModelAndView("user/session/details", "sessionDetails", sessionDetails).addObject("mailUser", user);
+    }
+
+    @RequestMapping(value = "/users/sessions", method = RequestMethod.DELETE)
+    public String expireForUsers(@RequestParam(value = "userId", required = false) List<Integer> userIds) {
+        if (userIds != null) {
+            this.sessionRegistry.expireSessionsForUsers(userIds);
+        }
+        return "redirect:/users/sessions?expired";
     }
 
     @RequestMapping(value = "/sessions/{sessionId}", method = RequestMethod.DELETE)
     public String expireForm(@PathVariable String sessionId) {
-        SessionInformation sessionInfo = this.sessionRegistry.getSessionInformation(sessionId);
-        sessionInfo.expireNow();
+        if (!this.sessionRegistry.expireSession(sessionId)) {
+            throw new NotFoundException("Couldn't find session " + sessionId);
+        }
         return "redirect:/users/sessions?expired";
     }
 }
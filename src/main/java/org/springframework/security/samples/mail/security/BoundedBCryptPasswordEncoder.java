@@ -0,0 +1,247 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.security.samples.mail.security;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.security.authentication.AuthenticationServiceException;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.security.samples.mail.MailUser;
+
+/**
+ * <p>
+ * A {@link PasswordEncoder} that verifies passwords with BCrypt on a dedicated, bounded pool of threads. BCrypt is
+ * deliberately expensive, so running it on the request threads would allow a flood of logins to starve every other
+ * request. Instead at most {@code threads} passwords are verified at the same time and at most {@code queueCapacity}
+ * wait. When the queue is full or a password is not verified within the timeout a
+ * {@link PasswordVerificationRejectedException} is thrown immediately rather than tying up the request thread. New
+ * passwords (i.e. a signup or a password change) are encoded on the calling thread, so they never fail because of
+ * the login traffic.
+ * </p>
+ * <p>
+ * Passwords stored before hashing was introduced are plain text. They only match if
+ * {@link #setPlainTextMigration(boolean)} is enabled, and every such match is logged. Either way a stored password
+ * that is not a BCrypt hash costs a BCrypt verification, so the time of a login does not reveal the format that is
+ * stored. {@link #upgradeEncoding(String)} returns true for plain text passwords, as it does for hashes created with
+ * a different strength, so that they can be replaced when the {@link MailUser} logs in.
+ * </p>
+ *
+ * @author Rob Winch
+ */
+@ManagedResource(description = "Password hashing pool statistics")
+public class BoundedBCryptPasswordEncoder implements PasswordEncoder, DisposableBean {
+    private static final Pattern BCRYPT_PATTERN = Pattern.compile("\\A\\$2a?\\$(\\d\\d)\\$[./0-9A-Za-z]{53}");
+
+    private final int strength;
+    private final BCryptPasswordEncoder encoder;
+    private final ThreadPoolExecutor executor;
+    private static final Logger logger = LoggerFactory.getLogger(BoundedBCryptPasswordEncoder.class);
+
+    private final AtomicLong rejected = new AtomicLong();
+    /**
+     * Verified instead of a stored password that is not a BCrypt hash, so that every format costs the same.
+     */
+    private final String notHashedPassword;
+    private long timeoutMillis = 5000;
+    private boolean plainTextMigration;
+
+    /**
+     * Creates a new instance
+     * @param strength the BCrypt log rounds to hash new passwords with. Must be between 4 and 31.
+     * @param threads the maximum number of passwords hashed at the same time. Must be greater than 0.
+     * @param queueCapacity the maximum number of passwords waiting to be hashed. Must be greater than 0.
+     */
+    public BoundedBCryptPasswordEncoder(int strength, int threads, int queueCapacity) {
+        if (strength < 4 || strength > 31) {
+            throw new IllegalArgumentException("strength must be between 4 and 31. Got " + strength);
+        }
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads must be greater than 0. Got " + threads);
+        }
+        if (queueCapacity <= 0) {
+            throw new IllegalArgumentException("queueCapacity must be greater than 0. Got " + queueCapacity);
+        }
+        this.strength = strength;
+        this.encoder = new BCryptPasswordEncoder(strength);
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity), new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "BoundedBCryptPasswordEncoder-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        this.notHashedPassword = this.encoder.encode("notHashedPassword");
+    }
+
+    /**
+     * Sets the maximum number of milliseconds to wait for a password to be hashed, including the time spent in the
+     * queue. The default is 5 seconds.
+     * @param timeoutMillis the timeout. Must be greater than 0.
+     */
+    public void setTimeoutMillis(long timeoutMillis) {
+        if (timeoutMillis <= 0) {
+            throw new IllegalArgumentException("timeoutMillis must be greater than 0. Got " + timeoutMillis);
+        }
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Allows the passwords that were stored as plain text before hashing was introduced to match, so that they are
+     * replaced with a hash when the {@link MailUser} logs in. This should only be enabled while such passwords are
+     * migrated. The default is false.
+     * @param plainTextMigration true if plain text passwords may match
+     */
+    public void setPlainTextMigration(boolean plainTextMigration) {
+        this.plainTextMigration = plainTextMigration;
+    }
+
+    public String encode(CharSequence rawPassword) {
+        return this.encoder.encode(rawPassword);
+    }
+
+    public boolean matches(final CharSequence rawPassword, String encodedPassword) {
+        if (rawPassword == null || encodedPassword == null) {
+            return false;
+        }
+        final boolean hashed = isHashed(encodedPassword);
+        final String verified = hashed ? encodedPassword : this.notHashedPassword;
+        boolean matches = execute(new Callable<Boolean>() {
+            public Boolean call() {
+                return encoder.matches(rawPassword, verified);
+            }
+        });
+        if (hashed) {
+            return matches;
+        }
+        if (!this.plainTextMigration || !plainTextMatches(rawPassword.toString(), encodedPassword)) {
+            return false;
+        }
+        logger.warn("Matched a password that is stored as plain text. It should be replaced with a hash.");
+        return true;
+    }
+
+    /**
+     * Determines if a stored password should be encoded again (i.e. it is plain text or was hashed with a different
+     * strength).
+     * @param encodedPassword the stored password
+     * @return true if the password should be encoded again
+     */
+    public boolean upgradeEncoding(String encodedPassword) {
+        if (encodedPassword == null) {
+            return false;
+        }
+        Matcher matcher = BCRYPT_PATTERN.matcher(encodedPassword);
+        return !matcher.matches() || Integer.parseInt(matcher.group(1)) != this.strength;
+    }
+
+    public void destroy() {
+        this.executor.shutdownNow();
+    }
+
+    @ManagedAttribute(description = "The BCrypt log rounds used for new hashes")
+    public int getStrength() {
+        return this.strength;
+    }
+
+    @ManagedAttribute(description = "The number of passwords currently being hashed")
+    public int getActiveCount() {
+        return this.executor.getActiveCount();
+    }
+
+    @ManagedAttribute(description = "The number of passwords waiting to be hashed")
+    public int getQueueDepth() {
+        return this.executor.getQueue().size();
+    }
+
+    @ManagedAttribute(description = "The number of passwords that have been hashed")
+    public long getCompletedCount() {
+        return this.executor.getCompletedTaskCount();
+    }
+
+    @ManagedAttribute(description = "The number of requests rejected because the pool was saturated")
+    public long getRejectedCount() {
+        return this.rejected.get();
+    }
+
+    private <T> T execute(Callable<T> task) {
+        Future<T> result;
+        try {
+            result = this.executor.submit(task);
+        } catch (RejectedExecutionException e) {
+            this.rejected.incrementAndGet();
+            throw new PasswordVerificationRejectedException("Too many passwords are being verified", e);
+        }
+        try {
+            return result.get(this.timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            result.cancel(true);
+            this.rejected.incrementAndGet();
+            throw new PasswordVerificationRejectedException("Timed out waiting to verify the password", e);
+        } catch (InterruptedException e) {
+            result.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new AuthenticationServiceException("Interrupted while verifying the password", e);
+        } catch (ExecutionException e) {
+            throw new AuthenticationServiceException("Could not verify the password", e.getCause());
+        }
+    }
+
+    private static boolean isHashed(String encodedPassword) {
+        return BCRYPT_PATTERN.matcher(encodedPassword).matches();
+    }
+
+    private static boolean plainTextMatches(String rawPassword, String storedPassword) {
+        try {
+            return MessageDigest.isEqual(rawPassword.getBytes("UTF-8"), storedPassword.getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Thrown when the password could not be verified because too many passwords are already being verified.
+     */
+    public static class PasswordVerificationRejectedException extends AuthenticationServiceException {
+        public PasswordVerificationRejectedException(String msg, Throwable cause) {
+            super(msg, cause);
+        }
+
+        private static final long serialVersionUID = -4311446395711393305L;
+    }
+}
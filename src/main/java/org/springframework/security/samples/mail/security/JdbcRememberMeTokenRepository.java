@@ -0,0 +1,335 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.security.samples.mail.security;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.security.web.authentication.rememberme.AbstractRememberMeServices;
+import org.springframework.security.web.authentication.rememberme.JdbcTokenRepositoryImpl;
+import org.springframework.security.web.authentication.rememberme.PersistentRememberMeToken;
+import org.springframework.security.web.authentication.rememberme.PersistentTokenRepository;
+import org.springframework.stereotype.Component;
+
+/**
+ * <p>
+ * A {@link PersistentTokenRepository} that stores the remember-me tokens in the remember_me_token table. Unlike
+ * {@link JdbcTokenRepositoryImpl}, the time a token was last used can be recorded with {@link #touch(String, Date)}
+ * which only records the time in memory. The times are written in a single batch every
+ * {@link #setFlushIntervalMillis(long)}, so heavy cookie login traffic does not result in an update per request.
+ * {@link #getTokenForSeries(String)} includes the times that have not been written yet. Changing the token value
+ * with {@link #updateToken(String, String, Date)} is always written immediately. The time the current token value
+ * was issued is stored separately from the time it was last used, so {@link TouchingRememberMeServices} can decide
+ * when to rotate it.
+ * </p>
+ * <p>
+ * {@link #rotateToken(String, String, String, Date)} only replaces the token value if it was not replaced
+ * concurrently and keeps the value it replaced, so that requests that were sent with the previous cookie can still
+ * be recognized.
+ * </p>
+ * <p>
+ * Tokens that have not been used within {@link #setTokenValiditySeconds(int)} can no longer be used to log in, so
+ * they are periodically deleted in chunks of {@link #setSweepChunkSize(int)} to avoid long running transactions.
+ * </p>
+ *
+ * @author Rob Winch
+ * @see TouchingRememberMeServices
+ */
+@Component
+public class JdbcRememberMeTokenRepository implements PersistentTokenRepository, InitializingBean, DisposableBean {
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 10 * 1000;
+    public static final int DEFAULT_SWEEP_CHUNK_SIZE = 500;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final JdbcTemplate jdbcTemplate;
+    private final ConcurrentMap<String, Long> pendingLastUsed = new ConcurrentHashMap<String, Long>();
+    private long flushIntervalMillis = DEFAULT_FLUSH_INTERVAL_MILLIS;
+    private int tokenValiditySeconds = AbstractRememberMeServices.TWO_WEEKS_S;
+    private int sweepChunkSize = DEFAULT_SWEEP_CHUNK_SIZE;
+    private ScheduledExecutorService flushExecutor;
+
+    /**
+     * Creates a new instance
+     * @param jdbcTemplate the {@link JdbcTemplate} to use. Cannot be null.
+     * @throws IllegalArgumentException if {@code jdbcTemplate} is null.
+     */
+    @Autowired
+    public JdbcRememberMeTokenRepository(JdbcTemplate jdbcTemplate) {
+        if (jdbcTemplate == null) {
+            throw new IllegalArgumentException("jdbcTemplate cannot be null");
+        }
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public void afterPropertiesSet() {
+        this.flushExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "JdbcRememberMeTokenRepository-flush");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.flushExecutor.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    flush();
+                    removeExpiredTokens();
+                } catch (RuntimeException e) {
+                    logger.error("Could not flush the remember-me tokens", e);
+                }
+            }
+        }, this.flushIntervalMillis, this.flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void destroy() {
+        this.flushExecutor.shutdown();
+        flush();
+    }
+
+    public void createNewToken(PersistentRememberMeToken token) {
+        Timestamp issued = new Timestamp(token.getDate().getTime());
+        this.jdbcTemplate.update(INSERT_TOKEN, token.getSeries(), token.getUsername(), token.getTokenValue(), issued,
+                issued);
+    }
+
+    public void updateToken(String series, String tokenValue, Date lastUsed) {
+        this.pendingLastUsed.remove(series);
+        Timestamp issued = new Timestamp(lastUsed.getTime());
+        this.jdbcTemplate.update(UPDATE_TOKEN, tokenValue, issued, issued, series);
+    }
+
+    /**
+     * Replaces the token value unless another request replaced it first. The replaced value is kept as the previous
+     * token value.
+     * @param series the series of the token
+     * @param currentTokenValue the token value that is replaced
+     * @param newTokenValue the new token value
+     * @param issued the time the new token value is issued. Cannot be null.
+     * @return true if the token value was replaced, false if the current token value was no longer
+     * {@code currentTokenValue}
+     */
+    public boolean rotateToken(String series, String currentTokenValue, String newTokenValue, Date issued) {
+        if (issued == null) {
+            throw new IllegalArgumentException("issued cannot be null");
+        }
+        this.pendingLastUsed.remove(series);
+        Timestamp timestamp = new Timestamp(issued.getTime());
+        return this.jdbcTemplate.update(ROTATE_TOKEN, newTokenValue, timestamp, timestamp, series,
+                currentTokenValue) == 1;
+    }
+
+    public IssuedRememberMeToken getTokenForSeries(String seriesId) {
+        IssuedRememberMeToken token;
+        try {
+            token = this.jdbcTemplate.queryForObject(TOKEN_BY_SERIES_QUERY, TOKEN_ROW_MAPPER, seriesId);
+        } catch (EmptyResultDataAccessException e) {
+            return null;
+        }
+        Long lastUsed = this.pendingLastUsed.get(seriesId);
+        if (lastUsed != null && lastUsed > token.getDate().getTime()) {
+            return new IssuedRememberMeToken(token.getUsername(), token.getSeries(), token.getTokenValue(),
+                    token.getPreviousTokenValue(), token.getIssued(), new Date(lastUsed));
+        }
+        return token;
+    }
+
+    public void removeUserTokens(String username) {
+        this.jdbcTemplate.update(DELETE_USER_TOKENS, username);
+    }
+
+    /**
+     * Records that a token was used without changing its value. The time is written by the next {@link #flush()}.
+     * @param series the series of the token
+     * @param lastUsed the time the token was used. Cannot be null.
+     */
+    public void touch(String series, Date lastUsed) {
+        if (series == null) {
+            throw new IllegalArgumentException("series cannot be null");
+        }
+        if (lastUsed == null) {
+            throw new IllegalArgumentException("lastUsed cannot be null");
+        }
+        this.pendingLastUsed.put(series, lastUsed.getTime());
+    }
+
+    /**
+     * Writes the times recorded by {@link #touch(String, Date)} in a single batch.
+     */
+    public void flush() {
+        final List<Map.Entry<String, Long>> updates = new ArrayList<Map.Entry<String, Long>>();
+        for (String series : this.pendingLastUsed.keySet()) {
+            Long lastUsed = this.pendingLastUsed.remove(series);
+            if (lastUsed != null) {
+                updates.add(new AbstractMap.SimpleImmutableEntry<String, Long>(series, lastUsed));
+            }
+        }
+        if (updates.isEmpty()) {
+            return;
+        }
+        this.jdbcTemplate.batchUpdate(TOUCH_TOKEN, new BatchPreparedStatementSetter() {
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                Map.Entry<String, Long> update = updates.get(i);
+                Timestamp lastUsed = new Timestamp(update.getValue());
+                ps.setTimestamp(1, lastUsed);
+                ps.setString(2, update.getKey());
+                ps.setTimestamp(3, lastUsed);
+            }
+
+            public int getBatchSize() {
+                return updates.size();
+            }
+        });
+    }
+
+    /**
+     * Deletes the tokens that have not been used within the token validity in chunks of
+     * {@link #setSweepChunkSize(int)}.
+     * @return the number of tokens that were removed
+     */
+    public int removeExpiredTokens() {
+        Timestamp expiredBefore = new Timestamp(System.currentTimeMillis() - this.tokenValiditySeconds * 1000L);
+        int removed = 0;
+        List<String> chunk;
+        do {
+            chunk = this.jdbcTemplate.queryForList(EXPIRED_SERIES_QUERY, String.class, expiredBefore,
+                    this.sweepChunkSize);
+            if (!chunk.isEmpty()) {
+                final List<String> series = chunk;
+                this.jdbcTemplate.batchUpdate(DELETE_TOKEN, new BatchPreparedStatementSetter() {
+                    public void setValues(PreparedStatement ps, int i) throws SQLException {
+                        ps.setString(1, series.get(i));
+                    }
+
+                    public int getBatchSize() {
+                        return series.size();
+                    }
+                });
+                removed += chunk.size();
+            }
+        } while (chunk.size() == this.sweepChunkSize);
+        return removed;
+    }
+
+    /**
+     * Sets how often the times recorded by {@link #touch(String, Date)} are written and expired tokens are removed.
+     * Must be invoked before {@link #afterPropertiesSet()}.
+     * @param flushIntervalMillis the interval in milliseconds. Must be greater than 0.
+     */
+    public void setFlushIntervalMillis(long flushIntervalMillis) {
+        if (flushIntervalMillis <= 0) {
+            throw new IllegalArgumentException("flushIntervalMillis must be greater than 0. Got " + flushIntervalMillis);
+        }
+        this.flushIntervalMillis = flushIntervalMillis;
+    }
+
+    /**
+     * Sets the number of seconds after the last use that a token is removed. This should be the same as
+     * {@link AbstractRememberMeServices#setTokenValiditySeconds(int)}. The default is two weeks.
+     * @param tokenValiditySeconds the token validity in seconds. Must be greater than 0.
+     */
+    public void setTokenValiditySeconds(int tokenValiditySeconds) {
+        if (tokenValiditySeconds <= 0) {
+            throw new IllegalArgumentException("tokenValiditySeconds must be greater than 0. Got "
+                    + tokenValiditySeconds);
+        }
+        this.tokenValiditySeconds = tokenValiditySeconds;
+    }
+
+    /**
+     * Sets the maximum number of tokens that are removed in a single batch. The default is
+     * {@link #DEFAULT_SWEEP_CHUNK_SIZE}.
+     * @param sweepChunkSize the chunk size. Must be greater than 0.
+     */
+    public void setSweepChunkSize(int sweepChunkSize) {
+        if (sweepChunkSize <= 0) {
+            throw new IllegalArgumentException("sweepChunkSize must be greater than 0. Got " + sweepChunkSize);
+        }
+        this.sweepChunkSize = sweepChunkSize;
+    }
+
+    /**
+     * A {@link PersistentRememberMeToken} that also knows when the token value was issued and the value it replaced.
+     * The {@link #getDate()} is the time the token was last used.
+     *
+     * @author Rob Winch
+     */
+    public static final class IssuedRememberMeToken extends PersistentRememberMeToken {
+        private final String previousTokenValue;
+        private final Date issued;
+
+        public IssuedRememberMeToken(String username, String series, String tokenValue, String previousTokenValue,
+                Date issued, Date lastUsed) {
+            super(username, series, tokenValue, lastUsed);
+            this.previousTokenValue = previousTokenValue;
+            this.issued = issued;
+        }
+
+        /**
+         * Gets the token value that was replaced when the {@link #getTokenValue()} was issued.
+         * @return the previous token value or null if the token value was never rotated
+         */
+        public String getPreviousTokenValue() {
+            return this.previousTokenValue;
+        }
+
+        /**
+         * Gets the time the {@link #getTokenValue()} was issued.
+         * @return
+         */
+        public Date getIssued() {
+            return this.issued;
+        }
+    }
+
+    private static final RowMapper<IssuedRememberMeToken> TOKEN_ROW_MAPPER = new RowMapper<IssuedRememberMeToken>() {
+        public IssuedRememberMeToken mapRow(ResultSet rs, int rowNum) throws SQLException {
+            return new IssuedRememberMeToken(rs.getString("username"), rs.getString("series"), rs.getString("token"),
+                    rs.getString("previous_token"), rs.getTimestamp("issued"), rs.getTimestamp("last_used"));
+        }
+    };
+
+    static final String TOKEN_BY_SERIES_QUERY = "select series, username, token, previous_token, issued, last_used from remember_me_token where series = ?";
+    static final String EXPIRED_SERIES_QUERY = "select series from remember_me_token where last_used < ? limit ?";
+    private static final String INSERT_TOKEN = "insert into remember_me_token (series, username, token, issued, last_used) values (?, ?, ?, ?, ?)";
+    private static final String UPDATE_TOKEN = "update remember_me_token set token = ?, issued = ?, last_used = ? where series = ?";
+    private static final String ROTATE_TOKEN = "update remember_me_token set previous_token = token, token = ?, issued = ?, last_used = ? where series = ? and token = ?";
+    // never moves last_used backwards if the token was rotated by another node in the mean time
+    private static final String TOUCH_TOKEN = "update remember_me_token set last_used = ? where series = ? and last_used < ?";
+    private static final String DELETE_TOKEN = "delete from remember_me_token where series = ?";
+    private static final String DELETE_USER_TOKENS = "delete from remember_me_token where username = ?";
+}
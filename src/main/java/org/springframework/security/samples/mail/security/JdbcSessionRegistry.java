@@ -0,0 +1,483 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.security.samples.mail.security;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationListener;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.security.core.session.SessionDestroyedEvent;
+import org.springframework.security.core.session.SessionInformation;
+import org.springframework.security.core.session.SessionRegistry;
+import org.springframework.security.core.session.SessionRegistryImpl;
+import org.springframework.security.samples.mail.JdbcMailUserService;
+import org.springframework.security.samples.mail.LruCache;
+import org.springframework.security.samples.mail.MailUser;
+import org.springframework.stereotype.Component;
+
+/**
+ * <p>
+ * A {@link SessionRegistry} that stores the {@link SessionInformation} in the user_session table rather than in
+ * memory (i.e. {@link SessionRegistryImpl}). Since every node of a cluster shares the table, concurrency control (i.e.
+ * max-sessions) and the administration of sessions work no matter which node a user is logged into.
+ * </p>
+ * <p>
+ * To avoid a query and an update on every request:
+ * </p>
+ * <ul>
+ * <li>{@link #getSessionInformation(String)} is answered from a small local cache. This means a session that is
+ * expired by another node is noticed after at most {@link #setCacheTimeToLiveMillis(long)}.</li>
+ * <li>{@link #refreshLastRequest(String)} only records the time in memory. The times are written in a single batch
+ * every {@link #setFlushIntervalMillis(long)}.</li>
+ * </ul>
+ * <p>
+ * A node that crashes never removes its sessions, so sessions whose last request is older than
+ * {@link #setSessionTimeoutMillis(long)} are ignored and periodically deleted. The session timeout should be the
+ * same as the session timeout of the servlet container and much larger than the flush interval.
+ * </p>
+ * <p>
+ * The principals must be {@link MailUser}'s. Only the {@link MailUser#getId()} is stored and the {@link MailUser} is
+ * loaded again when reading the sessions. The {@link MailUserSessionRegistry} methods use the index on the user id
+ * and page in the database, so administering sessions does not require loading every principal.
+ * </p>
+ *
+ * @author Rob Winch
+ */
+@Component
+public class JdbcSessionRegistry implements SessionRegistry, MailUserSessionRegistry,
+        ApplicationListener<SessionDestroyedEvent>, InitializingBean, DisposableBean {
+    public static final int DEFAULT_CACHE_MAX_SIZE = 10000;
+    public static final long DEFAULT_CACHE_TIME_TO_LIVE_MILLIS = 5 * 1000;
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 10 * 1000;
+    public static final long DEFAULT_SESSION_TIMEOUT_MILLIS = 30 * 60 * 1000;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final JdbcTemplate jdbcTemplate;
+    private final ConcurrentMap<String, Long> pendingLastRequests = new ConcurrentHashMap<String, Long>();
+    private LruCache<String, CachedSession> cache = new LruCache<String, CachedSession>(DEFAULT_CACHE_MAX_SIZE,
+            DEFAULT_CACHE_TIME_TO_LIVE_MILLIS);
+    private long flushIntervalMillis = DEFAULT_FLUSH_INTERVAL_MILLIS;
+    private long sessionTimeoutMillis = DEFAULT_SESSION_TIMEOUT_MILLIS;
+    private ScheduledExecutorService flushExecutor;
+
+    /**
+     * Creates a new instance
+     * @param jdbcTemplate the {@link JdbcTemplate} to use. Cannot be null.
+     * @throws IllegalArgumentException if {@code jdbcTemplate} is null.
+     */
+    @Autowired
+    public JdbcSessionRegistry(JdbcTemplate jdbcTemplate) {
+        if (jdbcTemplate == null) {
+            throw new IllegalArgumentException("jdbcTemplate cannot be null");
+        }
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public void afterPropertiesSet() {
+        this.flushExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "JdbcSessionRegistry-flush");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.flushExecutor.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    flush();
+                    removeStaleSessions();
+                } catch (RuntimeException e) {
+                    logger.error("Could not flush the session registry", e);
+                }
+            }
+        }, this.flushIntervalMillis, this.flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void destroy() {
+        this.flushExecutor.shutdown();
+        flush();
+    }
+
+    public List<Object> getAllPrincipals() {
+        return new ArrayList<Object>(this.jdbcTemplate.query(ALL_PRINCIPALS_QUERY, PRINCIPAL_ROW_MAPPER,
+                staleBefore()));
+    }
+
+    public List<SessionInformation> getAllSessions(Object principal, boolean includeExpiredSessions) {
+        return getSessionsForUser(getUserId(principal), includeExpiredSessions);
+    }
+
+    public List<SessionInformation> getSessionsForUser(int userId, boolean includeExpiredSessions) {
+        String query = includeExpiredSessions ? SESSIONS_FOR_USER_QUERY : ACTIVE_SESSIONS_FOR_USER_QUERY;
+        List<JdbcSessionInformation> sessions = this.jdbcTemplate.query(query, this.sessionRowMapper, userId,
+                staleBefore());
+        return new ArrayList<SessionInformation>(sessions);
+    }
+
+    /**
+     * Finds a page of the logged in users. Note that {@link LoggedInUser#getLastRequest()} only includes the requests
+     * that have been flushed.
+     */
+    public List<LoggedInUser> findLoggedInUsers(Order order, Integer afterUserId, Date afterLastRequest, int size) {
+        if (order == null) {
+            throw new IllegalArgumentException("order cannot be null");
+        }
+        if (size <= 0) {
+            throw new IllegalArgumentException("size must be greater than 0. Got " + size);
+        }
+        Timestamp staleBefore = staleBefore();
+        if (order == Order.NAME) {
+            if (afterUserId == null) {
+                return this.jdbcTemplate.query(LOGGED_IN_USERS_BY_NAME_QUERY, LOGGED_IN_USER_ROW_MAPPER, staleBefore,
+                        staleBefore, staleBefore, size);
+            }
+            // the name is read separately since H2 only reads mail_user in the order of the index if it is not joined
+            List<Map<String, Object>> after = this.jdbcTemplate.queryForList(NAME_BY_ID_QUERY, afterUserId);
+            if (after.isEmpty()) {
+                return new ArrayList<LoggedInUser>();
+            }
+            Object lastName = after.get(0).get("lastName");
+            Object firstName = after.get(0).get("firstName");
+            return this.jdbcTemplate.query(LOGGED_IN_USERS_BY_NAME_AFTER_QUERY, LOGGED_IN_USER_ROW_MAPPER,
+                    staleBefore, staleBefore, lastName, lastName, firstName, firstName, afterUserId, staleBefore, size);
+        }
+        if (afterUserId == null) {
+            return this.jdbcTemplate.query(LOGGED_IN_USERS_BY_LAST_REQUEST_QUERY, LOGGED_IN_USER_ROW_MAPPER,
+                    staleBefore, staleBefore, size);
+        }
+        if (afterLastRequest == null) {
+            throw new IllegalArgumentException("afterLastRequest cannot be null when ordering by "
+                    + Order.LAST_REQUEST + " after a user");
+        }
+        Timestamp after = new Timestamp(afterLastRequest.getTime());
+        return this.jdbcTemplate.query(LOGGED_IN_USERS_BY_LAST_REQUEST_AFTER_QUERY, LOGGED_IN_USER_ROW_MAPPER,
+                staleBefore, staleBefore, after, after, afterUserId, size);
+    }
+
+    public boolean expireSession(String sessionId) {
+        SessionInformation session = getSessionInformation(sessionId);
+        if (session == null) {
+            return false;
+        }
+        session.expireNow();
+        return true;
+    }
+
+    public int expireSessionsForUsers(Collection<Integer> userIds) {
+        if (userIds == null) {
+            throw new IllegalArgumentException("userIds cannot be null");
+        }
+        List<Integer> ids = new ArrayList<Integer>(userIds);
+        int expired = 0;
+        for (int start = 0; start < ids.size(); start += MAX_IN_PARAMETERS) {
+            List<Integer> chunk = ids.subList(start, Math.min(start + MAX_IN_PARAMETERS, ids.size()));
+            expired += this.jdbcTemplate.update(expireForUsersQuery(chunk.size()), chunk.toArray());
+        }
+        if (expired > 0) {
+            // the expired session ids are not known, other nodes will notice within the cache time to live
+            this.cache.clear();
+        }
+        return expired;
+    }
+
+    /**
+     * Creates the update that expires the sessions for {@code count} user ids.
+     * @param count the number of user ids
+     * @return the update
+     */
+    static String expireForUsersQuery(int count) {
+        StringBuilder query = new StringBuilder(
+                "update user_session set expired = true where expired = false and user_id in (");
+        for (int i = 0; i < count; i++) {
+            query.append(i == 0 ? "?" : ", ?");
+        }
+        return query.append(")").toString();
+    }
+
+    public SessionInformation getSessionInformation(String sessionId) {
+        if (sessionId == null) {
+            throw new IllegalArgumentException("sessionId cannot be null");
+        }
+        CachedSession cached = this.cache.get(sessionId);
+        if (cached == null) {
+            List<JdbcSessionInformation> sessions = this.jdbcTemplate.query(SESSION_BY_ID_QUERY,
+                    this.sessionRowMapper, sessionId);
+            // unknown ids are cached too since anonymous sessions are looked up on every request
+            cached = new CachedSession(sessions.isEmpty() ? null : sessions.get(0));
+            this.cache.put(sessionId, cached);
+        }
+        return cached.session;
+    }
+
+    public void refreshLastRequest(String sessionId) {
+        if (sessionId == null) {
+            throw new IllegalArgumentException("sessionId cannot be null");
+        }
+        SessionInformation session = getSessionInformation(sessionId);
+        if (session != null) {
+            session.refreshLastRequest();
+            this.pendingLastRequests.put(sessionId, session.getLastRequest().getTime());
+        }
+    }
+
+    public void registerNewSession(String sessionId, Object principal) {
+        if (sessionId == null) {
+            throw new IllegalArgumentException("sessionId cannot be null");
+        }
+        int userId = getUserId(principal);
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        if (this.jdbcTemplate.update(REREGISTER_SESSION, userId, now, sessionId) == 0) {
+            this.jdbcTemplate.update(INSERT_SESSION, sessionId, userId, now);
+        }
+        this.pendingLastRequests.remove(sessionId);
+        this.cache.remove(sessionId);
+    }
+
+    public void removeSessionInformation(String sessionId) {
+        if (sessionId == null) {
+            throw new IllegalArgumentException("sessionId cannot be null");
+        }
+        this.jdbcTemplate.update(DELETE_SESSION, sessionId);
+        this.pendingLastRequests.remove(sessionId);
+        this.cache.remove(sessionId);
+    }
+
+    public void onApplicationEvent(SessionDestroyedEvent event) {
+        removeSessionInformation(event.getId());
+    }
+
+    /**
+     * Writes the last request times recorded by {@link #refreshLastRequest(String)} in a single batch.
+     */
+    public void flush() {
+        final List<Map.Entry<String, Long>> updates = new ArrayList<Map.Entry<String, Long>>();
+        for (String sessionId : this.pendingLastRequests.keySet()) {
+            Long lastRequest = this.pendingLastRequests.remove(sessionId);
+            if (lastRequest != null) {
+                updates.add(new AbstractMap.SimpleImmutableEntry<String, Long>(sessionId, lastRequest));
+            }
+        }
+        if (updates.isEmpty()) {
+            return;
+        }
+        this.jdbcTemplate.batchUpdate(UPDATE_LAST_REQUEST, new BatchPreparedStatementSetter() {
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                Map.Entry<String, Long> update = updates.get(i);
+                ps.setTimestamp(1, new Timestamp(update.getValue()));
+                ps.setString(2, update.getKey());
+            }
+
+            public int getBatchSize() {
+                return updates.size();
+            }
+        });
+    }
+
+    /**
+     * Deletes the sessions that have not been used within the session timeout (i.e. the node they were created on
+     * stopped without removing them).
+     * @return the number of sessions that were removed
+     */
+    public int removeStaleSessions() {
+        return this.jdbcTemplate.update(DELETE_STALE_SESSIONS, staleBefore());
+    }
+
+    /**
+     * Marks a session as expired for every node. Invoked by {@link JdbcSessionInformation#expireNow()}.
+     * @param sessionId the session id to expire
+     */
+    void expire(String sessionId) {
+        this.jdbcTemplate.update(EXPIRE_SESSION, sessionId);
+        this.cache.remove(sessionId);
+    }
+
+    /**
+     * Sets the maximum number of sessions that are cached locally. Clears the cache.
+     * @param maxSize the maximum size. Must be greater than 0.
+     */
+    public void setCacheMaxSize(int maxSize) {
+        this.cache = new LruCache<String, CachedSession>(maxSize, this.cache.getTimeToLiveMillis());
+    }
+
+    /**
+     * Sets the number of milliseconds a session is cached locally. This is the longest time it takes for a node to
+     * notice that a session was expired by another node. Clears the cache.
+     * @param timeToLiveMillis the time to live. Must be greater than 0.
+     */
+    public void setCacheTimeToLiveMillis(long timeToLiveMillis) {
+        this.cache = new LruCache<String, CachedSession>(this.cache.getMaxSize(), timeToLiveMillis);
+    }
+
+    /**
+     * Sets how often the last request times are written and stale sessions are removed. Must be invoked before
+     * {@link #afterPropertiesSet()}.
+     * @param flushIntervalMillis the interval in milliseconds. Must be greater than 0.
+     */
+    public void setFlushIntervalMillis(long flushIntervalMillis) {
+        if (flushIntervalMillis <= 0) {
+            throw new IllegalArgumentException("flushIntervalMillis must be greater than 0. Got " + flushIntervalMillis);
+        }
+        this.flushIntervalMillis = flushIntervalMillis;
+    }
+
+    /**
+     * Sets the number of milliseconds after the last request that a session is considered to no longer exist.
+     * @param sessionTimeoutMillis the session timeout in milliseconds. Must be greater than 0.
+     */
+    public void setSessionTimeoutMillis(long sessionTimeoutMillis) {
+        if (sessionTimeoutMillis <= 0) {
+            throw new IllegalArgumentException("sessionTimeoutMillis must be greater than 0. Got "
+                    + sessionTimeoutMillis);
+        }
+        this.sessionTimeoutMillis = sessionTimeoutMillis;
+    }
+
+    /**
+     * Gets the {@link LruCache} used for {@link #getSessionInformation(String)}, which exposes the cache statistics.
+     * @return the {@link LruCache}
+     */
+    public LruCache<String, CachedSession> getCache() {
+        return this.cache;
+    }
+
+    private Timestamp staleBefore() {
+        return new Timestamp(System.currentTimeMillis() - this.sessionTimeoutMillis);
+    }
+
+    private static int getUserId(Object principal) {
+        if (!(principal instanceof MailUser)) {
+            throw new IllegalArgumentException("principal must be a MailUser. Got " + principal);
+        }
+        return ((MailUser) principal).getId();
+    }
+
+    /**
+     * A {@link SessionInformation} that records {@link #expireNow()} in the user_session table so that every node
+     * sees that the session is expired.
+     */
+    static final class JdbcSessionInformation extends SessionInformation {
+        private final transient JdbcSessionRegistry registry;
+
+        private JdbcSessionInformation(JdbcSessionRegistry registry, MailUser principal, String sessionId,
+                Date lastRequest, boolean expired) {
+            super(principal, sessionId, lastRequest);
+            this.registry = registry;
+            if (expired) {
+                super.expireNow();
+            }
+        }
+
+        @Override
+        public void expireNow() {
+            super.expireNow();
+            if (this.registry != null) {
+                this.registry.expire(getSessionId());
+            }
+        }
+
+        private static final long serialVersionUID = 1730426402470128476L;
+    }
+
+    /**
+     * The value of the local cache, which allows caching that a session id is unknown.
+     */
+    static final class CachedSession {
+        private final JdbcSessionInformation session;
+
+        private CachedSession(JdbcSessionInformation session) {
+            this.session = session;
+        }
+    }
+
+    private final RowMapper<JdbcSessionInformation> sessionRowMapper = new RowMapper<JdbcSessionInformation>() {
+        public JdbcSessionInformation mapRow(ResultSet rs, int rowNum) throws SQLException {
+            return new JdbcSessionInformation(JdbcSessionRegistry.this, PRINCIPAL_ROW_MAPPER.mapRow(rs, rowNum),
+                    rs.getString("session_id"), rs.getTimestamp("last_request"), rs.getBoolean("expired"));
+        }
+    };
+
+    private static final RowMapper<LoggedInUser> LOGGED_IN_USER_ROW_MAPPER = new RowMapper<LoggedInUser>() {
+        public LoggedInUser mapRow(ResultSet rs, int rowNum) throws SQLException {
+            return new LoggedInUser(PRINCIPAL_ROW_MAPPER.mapRow(rs, rowNum), rs.getInt("session_count"),
+                    rs.getTimestamp("last_request"));
+        }
+    };
+
+    private static final RowMapper<MailUser> PRINCIPAL_ROW_MAPPER = new JdbcMailUserService.MailUserRowMapper("user_");
+
+    private static final String USER_COLUMNS = "u.id as user_id, u.email as user_email, u.password as user_password, u.firstName as user_firstName, u.lastName as user_lastName";
+    private static final String SESSION_QUERY = "select s.session_id, s.last_request, s.expired, " + USER_COLUMNS + " from user_session as s, mail_user as u";
+
+    static final String SESSION_BY_ID_QUERY = SESSION_QUERY + " where s.session_id = ? and s.user_id = u.id";
+    static final String SESSIONS_FOR_USER_QUERY = SESSION_QUERY + " where s.user_id = ? and s.user_id = u.id and s.last_request > ?";
+    static final String ACTIVE_SESSIONS_FOR_USER_QUERY = SESSIONS_FOR_USER_QUERY + " and s.expired = false";
+    static final String ALL_PRINCIPALS_QUERY = "select " + USER_COLUMNS + " from mail_user as u where u.id in (select s.user_id from user_session as s where s.last_request > ?) order by u.lastName, u.firstName, u.id";
+
+    /*
+     * The pages are read with a keyset rather than an offset so that neither the pages nor a total count require
+     * reading every session. Like JdbcMessageService the order by lists the columns of the index (including the
+     * columns fixed by the where clause) in the same directions, so that H2 stops reading the index after the limit.
+     */
+    private static final String ACTIVE_SESSION_COUNT = "(select count(*) from user_session as c where c.user_id = u.id and c.expired = false and c.last_request > ?) as session_count";
+
+    // walks the mail_user_name index and looks up the sessions of each user with the user_session_user_id_expired index
+    private static final String LOGGED_IN_USERS_BY_NAME = "select " + USER_COLUMNS + ", " + ACTIVE_SESSION_COUNT + ", (select max(l.last_request) from user_session as l where l.user_id = u.id and l.expired = false and l.last_request > ?) as last_request from mail_user as u";
+    private static final String LOGGED_IN_BY_NAME = " exists (select 1 from user_session as s where s.user_id = u.id and s.expired = false and s.last_request > ?)";
+    private static final String ORDER_BY_NAME = " order by u.lastName, u.firstName, u.id limit ?";
+    static final String LOGGED_IN_USERS_BY_NAME_QUERY = LOGGED_IN_USERS_BY_NAME + " where" + LOGGED_IN_BY_NAME + ORDER_BY_NAME;
+    static final String LOGGED_IN_USERS_BY_NAME_AFTER_QUERY = LOGGED_IN_USERS_BY_NAME + " where u.lastName >= ? and (u.lastName > ? or u.firstName > ? or (u.firstName = ? and u.id > ?)) and" + LOGGED_IN_BY_NAME + ORDER_BY_NAME;
+    private static final String NAME_BY_ID_QUERY = "select lastName, firstName from mail_user where id = ?";
+
+    // walks the user_session_expired_last_request index and keeps only the most recent session of each user
+    private static final String LOGGED_IN_USERS_BY_LAST_REQUEST = "select " + USER_COLUMNS + ", " + ACTIVE_SESSION_COUNT + ", s.last_request from user_session as s, mail_user as u where s.expired = false and s.last_request > ? and s.user_id = u.id and not exists (select 1 from user_session as n where n.user_id = s.user_id and n.expired = false and (n.last_request > s.last_request or (n.last_request = s.last_request and n.session_id > s.session_id)))";
+    private static final String ORDER_BY_LAST_REQUEST = " order by s.expired, s.last_request desc, s.user_id desc limit ?";
+    static final String LOGGED_IN_USERS_BY_LAST_REQUEST_QUERY = LOGGED_IN_USERS_BY_LAST_REQUEST + ORDER_BY_LAST_REQUEST;
+    static final String LOGGED_IN_USERS_BY_LAST_REQUEST_AFTER_QUERY = LOGGED_IN_USERS_BY_LAST_REQUEST + " and s.last_request <= ? and (s.last_request < ? or s.user_id < ?)" + ORDER_BY_LAST_REQUEST;
+
+    /**
+     * The maximum number of user ids expired with a single update.
+     */
+    private static final int MAX_IN_PARAMETERS = 500;
+
+    private static final String INSERT_SESSION = "insert into user_session (session_id, user_id, last_request, expired) values (?, ?, ?, false)";
+    private static final String REREGISTER_SESSION = "update user_session set user_id = ?, last_request = ?, expired = false where session_id = ?";
+    private static final String UPDATE_LAST_REQUEST = "update user_session set last_request = ? where session_id = ?";
+    private static final String EXPIRE_SESSION = "update user_session set expired = true where session_id = ?";
+    private static final String DELETE_SESSION = "delete from user_session where session_id = ?";
+    private static final String DELETE_STALE_SESSIONS = "delete from user_session where last_request <= ?";
+}
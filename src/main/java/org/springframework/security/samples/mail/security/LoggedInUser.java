@@ -0,0 +1,62 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.security.samples.mail.security;
+
+import java.util.Date;
+
+import org.springframework.security.samples.mail.MailUser;
+
+/**
+ * A {@link MailUser} that is logged in along with a summary of the {@link MailUser}'s sessions.
+ *
+ * @author Rob Winch
+ * @see MailUserSessionRegistry#findLoggedInUsers(MailUserSessionRegistry.Order, Integer, Date, int)
+ */
+public final class LoggedInUser {
+    private final MailUser user;
+    private final int sessionCount;
+    private final Date lastRequest;
+
+    /**
+     * Creates a new instance
+     * @param user the {@link MailUser}. Cannot be null.
+     * @param sessionCount the number of sessions that are not expired
+     * @param lastRequest the most recent request of any of the sessions. Cannot be null.
+     */
+    public LoggedInUser(MailUser user, int sessionCount, Date lastRequest) {
+        if (user == null) {
+            throw new IllegalArgumentException("user cannot be null");
+        }
+        if (lastRequest == null) {
+            throw new IllegalArgumentException("lastRequest cannot be null");
+        }
+        this.user = user;
+        this.sessionCount = sessionCount;
+        this.lastRequest = lastRequest;
+    }
+
+    public MailUser getUser() {
+        return this.user;
+    }
+
+    public int getSessionCount() {
+        return this.sessionCount;
+    }
+
+    public Date getLastRequest() {
+        return this.lastRequest;
+    }
+}
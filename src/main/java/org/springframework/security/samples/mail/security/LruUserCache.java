@@ -0,0 +1,134 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.security.samples.mail.security;
+
+import org.springframework.context.ApplicationListener;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.security.core.userdetails.UserCache;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.samples.mail.LruCache;
+import org.springframework.security.samples.mail.MailUserChangedEvent;
+import org.springframework.stereotype.Component;
+
+/**
+ * <p>
+ * A {@link UserCache} that is bounded in size, evicts the least recently used
+ * {@link UserDetails} and expires entries after a fixed time to live. This
+ * allows {@link MailUserDetailsService} to answer the lookups made by
+ * remember-me for every cookie authenticated request without a query.
+ * </p>
+ * <p>
+ * Entries are removed when a {@link MailUserChangedEvent} is published (i.e.
+ * on sign up or when the password is changed) so that stale credentials are
+ * not used. The hit ratio is exposed over JMX so the size and time to live can
+ * be tuned.
+ * </p>
+ *
+ * @author Rob Winch
+ */
+@Component
+@ManagedResource(description = "UserDetails cache statistics")
+public class LruUserCache implements UserCache, ApplicationListener<MailUserChangedEvent> {
+    /**
+     * The default maximum number of {@link UserDetails} that are cached.
+     */
+    public static final int DEFAULT_MAX_SIZE = 10000;
+
+    /**
+     * The default number of milliseconds a {@link UserDetails} is cached for.
+     */
+    public static final long DEFAULT_TIME_TO_LIVE_MILLIS = 5 * 60 * 1000;
+
+    private LruCache<String, UserDetails> cache = new LruCache<String, UserDetails>(DEFAULT_MAX_SIZE,
+            DEFAULT_TIME_TO_LIVE_MILLIS);
+
+    public UserDetails getUserFromCache(String username) {
+        return username == null ? null : this.cache.get(username);
+    }
+
+    public void putUserInCache(UserDetails user) {
+        this.cache.put(user.getUsername(), user);
+    }
+
+    public void removeUserFromCache(String username) {
+        this.cache.remove(username);
+    }
+
+    public void onApplicationEvent(MailUserChangedEvent event) {
+        removeUserFromCache(event.getEmail());
+    }
+
+    /**
+     * Sets the maximum number of {@link UserDetails} that are cached. Changing
+     * the size clears the cache. The default is {@link #DEFAULT_MAX_SIZE}.
+     * @param maxSize the maximum number of entries. Must be greater than 0.
+     */
+    public void setMaxSize(int maxSize) {
+        this.cache = new LruCache<String, UserDetails>(maxSize, this.cache.getTimeToLiveMillis());
+    }
+
+    /**
+     * Sets the number of milliseconds that a {@link UserDetails} is cached
+     * for. Changing the time to live clears the cache. The default is
+     * {@link #DEFAULT_TIME_TO_LIVE_MILLIS}.
+     * @param timeToLiveMillis the time to live. Must be greater than 0.
+     */
+    public void setTimeToLiveMillis(long timeToLiveMillis) {
+        this.cache = new LruCache<String, UserDetails>(this.cache.getMaxSize(), timeToLiveMillis);
+    }
+
+    @ManagedAttribute(description = "The number of cached entries including expired entries that were not removed yet")
+    public int getSize() {
+        return this.cache.size();
+    }
+
+    @ManagedAttribute(description = "The maximum number of cached entries")
+    public int getMaxSize() {
+        return this.cache.getMaxSize();
+    }
+
+    @ManagedAttribute(description = "The number of milliseconds an entry is cached for")
+    public long getTimeToLiveMillis() {
+        return this.cache.getTimeToLiveMillis();
+    }
+
+    @ManagedAttribute(description = "The number of lookups that were found in the cache")
+    public long getHits() {
+        return this.cache.getHits();
+    }
+
+    @ManagedAttribute(description = "The number of lookups that were not found in the cache")
+    public long getMisses() {
+        return this.cache.getMisses();
+    }
+
+    @ManagedAttribute(description = "The number of entries removed because the cache was full")
+    public long getEvictions() {
+        return this.cache.getEvictions();
+    }
+
+    @ManagedAttribute(description = "The ratio of hits to lookups")
+    public double getHitRatio() {
+        return this.cache.getHitRatio();
+    }
+
+    @ManagedOperation(description = "Removes every entry from the cache")
+    public void clear() {
+        this.cache.clear();
+    }
+}
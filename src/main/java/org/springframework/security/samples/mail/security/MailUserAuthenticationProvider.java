@@ -18,47 +18,82 @@ package org.springframework.security.samples.mail.security;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.authentication.AuthenticationProvider;
 import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.authentication.ProviderManager;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.AuthenticationException;
-import org.springframework.security.core.authority.AuthorityUtils;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.samples.mail.MailUser;
 import org.springframework.security.samples.mail.MailUserService;
 import org.springframework.stereotype.Component;
 
 /**
+ * <p>
  * Demonstrates how to provide custom authentication with Spring Security. An
  * advantage to using an {@link AuthenticationProvider} rather than a
  * {@link UserDetailsService} it can authenticate more than just a
  * {@link UsernamePasswordAuthenticationToken} and even more than just a
  * username / password (i.e. it could be a X509 certificate).
+ * </p>
+ * <p>
+ * This is the only {@link AuthenticationProvider}, so every attempt performs
+ * exactly one lookup of the {@link MailUser}. An unknown username is rejected
+ * with the same {@link BadCredentialsException} as a wrong password rather
+ * than returning null, which would allow the {@link ProviderManager} to
+ * try other providers.
+ * </p>
+ * <p>
+ * Passwords are verified with the {@link BoundedBCryptPasswordEncoder}. When
+ * the stored password is plain text or was hashed with a different strength it
+ * is hashed again with the current strength after a successful login. An
+ * unknown username is verified against a hash created at startup, so it takes
+ * as long to reject as a wrong password and the response time does not reveal
+ * which email addresses have an account.
+ * </p>
  *
  * @author Rob Winch
  */
 @Component
 public class MailUserAuthenticationProvider implements AuthenticationProvider {
     private final MailUserService userRepository;
+    private final BoundedBCryptPasswordEncoder passwordEncoder;
+    private final String userNotFoundPassword;
 
+    /**
+     * Creates a new instance
+     * @param userRepository the {@link MailUserService} used to find the {@link MailUser}. Cannot be null.
+     * @param passwordEncoder the {@link BoundedBCryptPasswordEncoder} used to verify the password. Cannot be null.
+     * @throws IllegalArgumentException if userRepository or passwordEncoder is null.
+     */
     @Autowired
-    public MailUserAuthenticationProvider(MailUserService userRepository) {
+    public MailUserAuthenticationProvider(MailUserService userRepository, BoundedBCryptPasswordEncoder passwordEncoder) {
         if (userRepository == null) {
             throw new IllegalArgumentException("userRepository cannot be null");
         }
+        if (passwordEncoder == null) {
+            throw new IllegalArgumentException("passwordEncoder cannot be null");
+        }
         this.userRepository = userRepository;
+        this.passwordEncoder = passwordEncoder;
+        this.userNotFoundPassword = passwordEncoder.encode("userNotFoundPassword");
     }
 
     public Authentication authenticate(Authentication authentication) throws AuthenticationException {
         UsernamePasswordAuthenticationToken token = (UsernamePasswordAuthenticationToken) authentication;
         MailUser user = this.userRepository.findUserByEmail(token.getName());
+        String password = token.getCredentials() == null ? null : token.getCredentials().toString();
         if (user == null) {
-            return null;
+            this.passwordEncoder.matches(password, this.userNotFoundPassword);
+            throw new BadCredentialsException("Username / Password was not found");
         }
-        if (!user.getPassword().equals(token.getCredentials())) {
+        if (!this.passwordEncoder.matches(password, user.getPassword())) {
             throw new BadCredentialsException("Username / Password was not found");
         }
-        return new UsernamePasswordAuthenticationToken(user, user.getPassword(),
-                AuthorityUtils.createAuthorityList("ROLE_USER"));
+        if (this.passwordEncoder.upgradeEncoding(user.getPassword())) {
+            this.userRepository.updatePassword(user, password);
+        }
+        MailUserDetails principal = new MailUserDetails(user);
+        return new UsernamePasswordAuthenticationToken(principal, token.getCredentials(), principal.getAuthorities());
     }
 
     public boolean supports(Class<?> authentication) {
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.security.samples.mail.security;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.samples.mail.MailUser;
+
+/**
+ * {@link MailUserDetails} implements both {@link UserDetails} (so that
+ * Spring Security can treat it as a {@link UserDetails}) and
+ * {@link MailUser} (so that the {@link Authentication}'s principal can be
+ * cast to a {@link MailUser} which provides the application access to
+ * additional custom attributes and decouples it from Spring Security).
+ *
+ * <p>
+ * The implementation always returns true for the boolean methods on
+ * {@link UserDetails} and always returns ROLE_ADMIN and ROLE_USER for users
+ * with username of "luke@example.com" else returns ROLE_USER.
+ * </p>
+ *
+ * @author Rob Winch
+ *
+ */
+final class MailUserDetails extends MailUser implements UserDetails {
+    private static final List<GrantedAuthority> USER_ROLES = Collections.unmodifiableList(AuthorityUtils
+            .createAuthorityList("ROLE_USER"));
+    private static final List<GrantedAuthority> ADMIN_ROLES = Collections.unmodifiableList(AuthorityUtils
+            .createAuthorityList("ROLE_USER", "ROLE_ADMIN"));
+
+    /**
+     * Creates a new {@link MailUserDetails}
+     *
+     * @param user
+     *            the {@link MailUser} to use. Cannot be null.
+     * @throws IllegalArgumentException
+     *             if user is null.
+     */
+    MailUserDetails(MailUser user) {
+        if (user == null) {
+            throw new IllegalArgumentException("user cannot be null");
+        }
+        setId(user.getId());
+        setEmail(user.getEmail());
+        setPassword(user.getPassword());
+        setFirstName(user.getFirstName());
+        setLastName(user.getLastName());
+    }
+
+    private MailUserDetails() {
+    }
+
+    public Collection<? extends GrantedAuthority> getAuthorities() {
+        return "luke@example.com".equals(getUsername()) ? ADMIN_ROLES : USER_ROLES;
+    }
+
+    public boolean isAccountNonExpired() {
+        return true;
+    }
+
+    public boolean isAccountNonLocked() {
+        return true;
+    }
+
+    public boolean isCredentialsNonExpired() {
+        return true;
+    }
+
+    public boolean isEnabled() {
+        return true;
+    }
+
+    private Object writeReplace() {
+        return new SerializationProxy(this);
+    }
+
+    private static final long serialVersionUID = 6657212226407069272L;
+
+    /**
+     * The compact serialized form of a {@link MailUserDetails}. The authorities are derived from the username, so
+     * only the {@link MailUser} values are written.
+     */
+    private static final class SerializationProxy implements Serializable {
+        private transient MailUserDetails user;
+
+        private SerializationProxy(MailUserDetails user) {
+            this.user = user;
+        }
+
+        private void writeObject(ObjectOutputStream out) throws IOException {
+            out.defaultWriteObject();
+            this.user.writeFields(out);
+        }
+
+        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+            in.defaultReadObject();
+            this.user = new MailUserDetails();
+            this.user.readFields(in);
+        }
+
+        private Object readResolve() {
+            return this.user;
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+}
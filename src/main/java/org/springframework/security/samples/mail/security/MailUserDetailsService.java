@@ -15,17 +15,11 @@
  */
 package org.springframework.security.samples.mail.security;
 
-import java.util.Collection;
-import java.util.Collections;
-import java.util.List;
-
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.authentication.AuthenticationProvider;
 import org.springframework.security.authentication.ProviderManager;
 import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
-import org.springframework.security.core.Authentication;
-import org.springframework.security.core.GrantedAuthority;
-import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.userdetails.UserCache;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
@@ -47,6 +41,10 @@ import org.springframework.stereotype.Component;
  * RememberMeServices) utilize UserDetailsService this will also allow for using
  * them</li>
  * </ul>
+ * <p>
+ * The {@link UserDetails} are cached in a {@link UserCache} since
+ * remember-me loads the user for every cookie authenticated request.
+ * </p>
  *
  * @author Rob Winch
  * @see MailUser
@@ -54,82 +52,56 @@ import org.springframework.stereotype.Component;
 @Component
 public class MailUserDetailsService implements UserDetailsService {
     private final MailUserService userRepository;
+    private final UserCache userCache;
 
+    /**
+     * Creates a new instance
+     * @param userRepository the {@link MailUserService} to look up the {@link MailUser}'s with. Cannot be null.
+     * @param userCache the {@link UserCache} for the {@link UserDetails} that are found. Cannot be null.
+     * @throws IllegalArgumentException if userRepository or userCache is null.
+     */
     @Autowired
-    public MailUserDetailsService(MailUserService userRepository) {
+    public MailUserDetailsService(MailUserService userRepository, UserCache userCache) {
         if (userRepository == null) {
             throw new IllegalArgumentException("userRepository cannot be null");
         }
+        if (userCache == null) {
+            throw new IllegalArgumentException("userCache cannot be null");
+        }
         this.userRepository = userRepository;
+        this.userCache = userCache;
     }
 
     public UserDetails loadUserByUsername(String username) throws UsernameNotFoundException {
+        UserDetails cached = this.userCache.getUserFromCache(username);
+        if (cached instanceof MailUser) {
+            // copy so that callers cannot modify the cached instance
+            return copy((MailUser) cached);
+        }
         MailUser user = this.userRepository.findUserByEmail(username);
         if (user == null) {
             throw new UsernameNotFoundException("Could not find user with username '" + username + "'");
         }
-        return new MailUserDetails(user);
+        UserDetails result = copy(user);
+        this.userCache.putUserInCache(result);
+        return copy(user);
+    }
+
+    private static UserDetails copy(MailUser user) {
+        // fully qualified since the legacy nested class below has the same simple name
+        return new org.springframework.security.samples.mail.security.MailUserDetails(user);
     }
 
     /**
-     * {@link MailUserDetails} implements both {@link UserDetails} (so that
-     * Spring Security can treat it as a {@link UserDetails}) and
-     * {@link MailUser} (so that the {@link Authentication}'s principal can be
-     * cast to a {@link MailUser} which provides the application access to
-     * additional custom attributes and decouples it from Spring Security).
-     *
-     * <p>
-     * The implementation always returns true for the boolean methods on
-     * {@link UserDetails} and always returns ROLE_ADMIN and ROLE_USER for users
-     * with username of "luke@example.com" else returns ROLE_USER.
-     * </p>
+     * Sessions that were serialized before MailUserDetails became a top level
+     * class contain this class. It is only used to read those sessions and is
+     * replaced with the top level class when it is deserialized.
      *
      * @author Rob Winch
-     *
      */
-    private static class MailUserDetails extends MailUser implements UserDetails {
-        private final List<GrantedAuthority> USER_ROLES = Collections.unmodifiableList(AuthorityUtils
-                .createAuthorityList("ROLE_USER"));
-        private final List<GrantedAuthority> ADMIN_ROLES = Collections.unmodifiableList(AuthorityUtils
-                .createAuthorityList("ROLE_USER", "ROLE_ADMIN"));
-
-        /**
-         * Creates a new {@link MailUserDetails}
-         *
-         * @param user
-         *            the {@link MailUser} to use. Cannot be null.
-         * @throws IllegalArgumentException
-         *             if user is null.
-         */
-        public MailUserDetails(MailUser user) {
-            if (user == null) {
-                throw new IllegalArgumentException("user cannot be null");
-            }
-            setId(user.getId());
-            setEmail(user.getEmail());
-            setPassword(user.getPassword());
-            setFirstName(user.getFirstName());
-            setLastName(user.getLastName());
-        }
-
-        public Collection<? extends GrantedAuthority> getAuthorities() {
-            return "luke@example.com".equals(getUsername()) ? this.ADMIN_ROLES : this.USER_ROLES;
-        }
-
-        public boolean isAccountNonExpired() {
-            return true;
-        }
-
-        public boolean isAccountNonLocked() {
-            return true;
-        }
-
-        public boolean isCredentialsNonExpired() {
-            return true;
-        }
-
-        public boolean isEnabled() {
-            return true;
+    private static final class MailUserDetails extends MailUser {
+        private Object readResolve() {
+            return copy(this);
         }
 
         private static final long serialVersionUID = 6657212226407069272L;
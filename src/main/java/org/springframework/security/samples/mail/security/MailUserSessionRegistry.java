@@ -0,0 +1,86 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.security.samples.mail.security;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+import org.springframework.security.core.session.SessionInformation;
+import org.springframework.security.core.session.SessionRegistry;
+import org.springframework.security.samples.mail.MailUser;
+
+/**
+ * <p>
+ * Administers the sessions of logged in {@link MailUser}'s. Unlike {@link SessionRegistry}, which only provides
+ * what Spring Security needs for concurrency control, the lookups are by {@link MailUser#getId()} and the listings
+ * are paged so that the cost does not grow with the number of logged in users.
+ * </p>
+ *
+ * @author Rob Winch
+ */
+public interface MailUserSessionRegistry {
+
+    /**
+     * The order of {@link #findLoggedInUsers(Order, Integer, Date, int)}.
+     */
+    enum Order {
+        /**
+         * By last name, then first name.
+         */
+        NAME,
+        /**
+         * The most recently active {@link MailUser}'s first.
+         */
+        LAST_REQUEST
+    }
+
+    /**
+     * Gets the sessions of a specific {@link MailUser}.
+     * @param userId the {@link MailUser#getId()}
+     * @param includeExpiredSessions true if sessions that have been expired (but not yet removed) should be included
+     * @return a non-null {@link List} of the {@link SessionInformation} for the {@link MailUser}
+     */
+    List<SessionInformation> getSessionsForUser(int userId, boolean includeExpiredSessions);
+
+    /**
+     * Finds a single page of the {@link MailUser}'s that have at least one session that is not expired. The pages are
+     * read with a keyset (the last {@link LoggedInUser} of the previous page) rather than a page number, so there is
+     * no total count. A page that contains {@code size} {@link LoggedInUser}'s may be followed by another page.
+     * @param order the {@link Order}. Cannot be null.
+     * @param afterUserId the {@link MailUser#getId()} of the last {@link LoggedInUser} of the previous page or null
+     *        for the first page
+     * @param afterLastRequest the {@link LoggedInUser#getLastRequest()} of the last {@link LoggedInUser} of the
+     *        previous page. Cannot be null if the order is {@link Order#LAST_REQUEST} and afterUserId is not null.
+     * @param size the maximum number of {@link LoggedInUser}'s on a page. Must be greater than 0.
+     * @return a non-null {@link List} of {@link LoggedInUser}'s
+     */
+    List<LoggedInUser> findLoggedInUsers(Order order, Integer afterUserId, Date afterLastRequest, int size);
+
+    /**
+     * Expires a single session.
+     * @param sessionId the id of the session to expire. Cannot be null.
+     * @return true if the session was found and expired, else false
+     */
+    boolean expireSession(String sessionId);
+
+    /**
+     * Expires every session of the given {@link MailUser}'s.
+     * @param userIds the {@link MailUser#getId()}'s. Cannot be null.
+     * @return the number of sessions that were expired
+     */
+    int expireSessionsForUsers(Collection<Integer> userIds);
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.security.samples.mail.security;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.security.samples.mail.LruCache;
+import org.springframework.security.samples.mail.MailUser;
+import org.springframework.security.samples.mail.Message;
+import org.springframework.security.samples.mail.MessageService;
+import org.springframework.stereotype.Component;
+
+/**
+ * <p>
+ * Finds the sender and recipient of a {@link Message} by its id without loading the {@link Message} itself. This
+ * allows authorizing access to a {@link Message} when only the id is known (i.e. {@code hasPermission(#id,
+ * 'Message', 'read')}).
+ * </p>
+ * <p>
+ * The owners of a {@link Message} never change once it is created, so they are cached. Ids that are not found are
+ * not cached since the {@link Message} may be created later. The {@link JdbcTemplate} is used directly rather than
+ * the {@link MessageService} since the {@link MessageService} is itself secured by method security which depends on
+ * this class.
+ * </p>
+ *
+ * @author Rob Winch
+ */
+@Component
+public class MessageOwnerLookup {
+    /**
+     * The default maximum number of {@link Message}'s to cache the owners of.
+     */
+    public static final int DEFAULT_MAX_SIZE = 10000;
+
+    /**
+     * The default number of milliseconds the owners of a {@link Message} are cached for.
+     */
+    public static final long DEFAULT_TIME_TO_LIVE_MILLIS = 60 * 60 * 1000;
+
+    private final JdbcTemplate jdbcTemplate;
+    private LruCache<Integer, MessageOwners> cache = new LruCache<Integer, MessageOwners>(DEFAULT_MAX_SIZE,
+            DEFAULT_TIME_TO_LIVE_MILLIS);
+
+    /**
+     * Creates a new instance
+     * @param jdbcTemplate the {@link JdbcTemplate} to use. Cannot be null.
+     * @throws IllegalArgumentException if {@code jdbcTemplate} is null.
+     */
+    @Autowired
+    public MessageOwnerLookup(JdbcTemplate jdbcTemplate) {
+        if (jdbcTemplate == null) {
+            throw new IllegalArgumentException("jdbcTemplate cannot be null");
+        }
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Finds the owners of a {@link Message}.
+     * @param messageId the {@link Message#getId()}
+     * @return the {@link MessageOwners} or null if the {@link Message} does not exist.
+     */
+    public MessageOwners getOwners(int messageId) {
+        MessageOwners owners = this.cache.get(messageId);
+        if (owners == null) {
+            List<MessageOwners> result = this.jdbcTemplate.query(OWNERS_QUERY, OWNERS_ROW_MAPPER, messageId);
+            if (result.isEmpty()) {
+                return null;
+            }
+            owners = result.get(0);
+            this.cache.put(messageId, owners);
+        }
+        return owners;
+    }
+
+    /**
+     * Finds the owners of many {@link Message}'s. The ids that are not cached are looked up with a query per
+     * {@link #OWNERS_CHUNK_SIZE} ids rather than a query per id.
+     * @param messageIds the {@link Message#getId()}'s. Cannot be null.
+     * @return the {@link MessageOwners} by {@link Message#getId()}. The ids of {@link Message}'s that do not exist are
+     *         omitted.
+     */
+    public Map<Integer, MessageOwners> getOwners(Collection<Integer> messageIds) {
+        if (messageIds == null) {
+            throw new IllegalArgumentException("messageIds cannot be null");
+        }
+        final Map<Integer, MessageOwners> result = new HashMap<Integer, MessageOwners>();
+        List<Integer> missing = new ArrayList<Integer>();
+        for (Integer messageId : new LinkedHashSet<Integer>(messageIds)) {
+            MessageOwners owners = this.cache.get(messageId);
+            if (owners == null) {
+                missing.add(messageId);
+            } else {
+                result.put(messageId, owners);
+            }
+        }
+        for (int start = 0; start < missing.size(); start += OWNERS_CHUNK_SIZE) {
+            List<Integer> chunk = missing.subList(start, Math.min(start + OWNERS_CHUNK_SIZE, missing.size()));
+            // the last chunk is padded with nulls, which never match, so that every lookup uses the same statement
+            this.jdbcTemplate.query(OWNERS_BY_IDS_QUERY, chunk.toArray(new Object[OWNERS_CHUNK_SIZE]),
+                    new RowCallbackHandler() {
+                        public void processRow(ResultSet rs) throws SQLException {
+                            MessageOwners owners = OWNERS_ROW_MAPPER.mapRow(rs, 0);
+                            result.put(rs.getInt("id"), owners);
+                            MessageOwnerLookup.this.cache.put(rs.getInt("id"), owners);
+                        }
+                    });
+        }
+        return result;
+    }
+
+    /**
+     * Sets the maximum number of {@link Message}'s to cache the owners of. Clears the cache.
+     * @param maxSize the maximum size. Must be greater than 0.
+     */
+    public void setMaxSize(int maxSize) {
+        this.cache = new LruCache<Integer, MessageOwners>(maxSize, this.cache.getTimeToLiveMillis());
+    }
+
+    /**
+     * Gets the {@link LruCache} that is used, which exposes the cache statistics.
+     * @return the {@link LruCache}
+     */
+    public LruCache<Integer, MessageOwners> getCache() {
+        return this.cache;
+    }
+
+    /**
+     * The ids of the {@link MailUser}'s that sent and received a {@link Message}.
+     */
+    public static final class MessageOwners {
+        private final int fromUserId;
+        private final int toUserId;
+
+        MessageOwners(int fromUserId, int toUserId) {
+            this.fromUserId = fromUserId;
+            this.toUserId = toUserId;
+        }
+
+        public int getFromUserId() {
+            return this.fromUserId;
+        }
+
+        public int getToUserId() {
+            return this.toUserId;
+        }
+
+        /**
+         * Determines if a {@link MailUser} sent or received the {@link Message}.
+         * @param userId the {@link MailUser#getId()}
+         * @return true if the {@link MailUser} sent or received the {@link Message}
+         */
+        public boolean isOwner(int userId) {
+            return this.fromUserId == userId || this.toUserId == userId;
+        }
+    }
+
+    /**
+     * The number of ids {@link #getOwners(Collection)} looks up with a single query.
+     */
+    static final int OWNERS_CHUNK_SIZE = 100;
+    static final String OWNERS_QUERY = "select fromUser, toUser from message where id = ?";
+    static final String OWNERS_BY_IDS_QUERY = ownersByIdsQuery(OWNERS_CHUNK_SIZE);
+
+    private static String ownersByIdsQuery(int count) {
+        StringBuilder query = new StringBuilder("select id, fromUser, toUser from message where id in (");
+        for (int i = 0; i < count; i++) {
+            query.append(i == 0 ? "?" : ", ?");
+        }
+        return query.append(")").toString();
+    }
+
+    private static final RowMapper<MessageOwners> OWNERS_ROW_MAPPER = new RowMapper<MessageOwners>() {
+        public MessageOwners mapRow(ResultSet rs, int rowNum) throws SQLException {
+            return new MessageOwners(rs.getInt("fromUser"), rs.getInt("toUser"));
+        }
+    };
+}
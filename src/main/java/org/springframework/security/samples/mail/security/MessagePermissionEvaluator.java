@@ -16,55 +16,165 @@
 package org.springframework.security.samples.mail.security;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.access.PermissionEvaluator;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.samples.mail.MailUser;
 import org.springframework.security.samples.mail.Message;
+import org.springframework.security.samples.mail.MessageSummary;
+import org.springframework.security.samples.mail.security.MessageOwnerLookup.MessageOwners;
 import org.springframework.stereotype.Component;
 
 /**
+ * <p>
  * Demonstrates how to create a custom {@link PermissionEvaluator}. This can be
  * used to evaluate expressions that use hasPermission in a the Spring Security
  * annotations (i.e. @PostAuthorize). By using a {@link PermissionEvaluator}
  * logic can be more centralized that embedding the checks in annotations
  * themselves.
+ * </p>
+ * <p>
+ * A {@link MailUser} has permission to a {@link Message} if the {@link MailUser}
+ * sent or received it. The target can be a single {@link Message} or
+ * {@link MessageSummary}, an {@link Iterable} of them (all must be permitted),
+ * or the id of a {@link Message} with a target type of "Message". A
+ * {@link MessageSummary} and an id are checked by looking up the owners with
+ * the {@link MessageOwnerLookup}, so the {@link Message} itself is not loaded.
+ * </p>
+ * <p>
+ * {@link #filter(Authentication, Collection, Object)} removes the elements
+ * that are not permitted in a single pass, looking up the owners of all
+ * {@link MessageSummary}'s at once. The
+ * {@link MessageSecurityExpressionHandler} uses it for
+ * {@code @PostFilter("hasPermission(filterObject, 'read')")}, which would
+ * otherwise evaluate the expression and look up the owners once per element.
+ * </p>
  *
  * @author Rob Winch
  */
 @Component
 public class MessagePermissionEvaluator implements PermissionEvaluator {
+    private final MessageOwnerLookup ownerLookup;
 
-    @SuppressWarnings("unchecked")
-    public boolean hasPermission(Authentication authentication, Object targetDomainObject, Object permission) {
-        if (authentication == null) {
-            return false;
+    /**
+     * Creates a new instance
+     * @param ownerLookup the {@link MessageOwnerLookup} used to find the owners of a {@link Message} by id. Cannot be null.
+     * @throws IllegalArgumentException if {@code ownerLookup} is null.
+     */
+    @Autowired
+    public MessagePermissionEvaluator(MessageOwnerLookup ownerLookup) {
+        if (ownerLookup == null) {
+            throw new IllegalArgumentException("ownerLookup cannot be null");
         }
-        if (!(authentication.getPrincipal() instanceof MailUser)) {
+        this.ownerLookup = ownerLookup;
+    }
+
+    public boolean hasPermission(Authentication authentication, Object targetDomainObject, Object permission) {
+        Integer userId = getUserId(authentication);
+        if (userId == null) {
             return false;
         }
         if (targetDomainObject == null) {
             return true;
         }
-        if (!(targetDomainObject instanceof Message)) {
-            return false;
+        Iterable<?> targets = targetDomainObject instanceof Iterable ? (Iterable<?>) targetDomainObject : Collections
+                .singleton(targetDomainObject);
+        Map<Integer, MessageOwners> owners = getSummaryOwners(targets);
+        for (Object target : targets) {
+            if (target != null && !isPermitted(target, userId, owners)) {
+                return false;
+            }
         }
-        if (targetDomainObject instanceof Iterable) {
-            Iterable<Object> iTargets = (Iterable<Object>) targetDomainObject;
-            for (Object target : iTargets) {
-                if (!hasPermission(authentication, target, permission)) {
-                    return false;
-                }
+        return true;
+    }
+
+    /**
+     * Removes the elements that the {@link Authentication} has no permission to. This is the same as checking
+     * every element with {@link #hasPermission(Authentication, Object, Object)}, but the owners of all the
+     * {@link MessageSummary}'s are looked up at once.
+     * @param authentication the current {@link Authentication}
+     * @param targets the {@link Message}'s and {@link MessageSummary}'s to filter. Null elements are kept. Cannot be
+     *            null.
+     * @param permission the permission
+     * @return the {@code targets}, which are modified
+     * @throws IllegalArgumentException if {@code targets} is null.
+     */
+    public <T extends Collection<?>> T filter(Authentication authentication, T targets, Object permission) {
+        if (targets == null) {
+            throw new IllegalArgumentException("targets cannot be null");
+        }
+        Integer userId = getUserId(authentication);
+        if (userId == null) {
+            targets.clear();
+            return targets;
+        }
+        Map<Integer, MessageOwners> owners = getSummaryOwners(targets);
+        for (Iterator<?> i = targets.iterator(); i.hasNext();) {
+            Object target = i.next();
+            if (target != null && !isPermitted(target, userId, owners)) {
+                i.remove();
             }
-            return true;
         }
-        Message message = (Message) targetDomainObject;
-        MailUser currentUser = (MailUser) authentication.getPrincipal();
-        return currentUser.equals(message.getFromUser()) || currentUser.equals(message.getToUser());
+        return targets;
     }
 
     public boolean hasPermission(Authentication authentication, Serializable targetId, String targetType,
             Object permission) {
-        throw new UnsupportedOperationException();
+        Integer userId = getUserId(authentication);
+        if (userId == null || !(targetId instanceof Number) || !isMessageType(targetType)) {
+            return false;
+        }
+        MessageOwners owners = this.ownerLookup.getOwners(((Number) targetId).intValue());
+        return owners != null && owners.isOwner(userId);
+    }
+
+    private Map<Integer, MessageOwners> getSummaryOwners(Iterable<?> targets) {
+        List<Integer> ids = new ArrayList<Integer>();
+        for (Object target : targets) {
+            if (target instanceof MessageSummary) {
+                ids.add(((MessageSummary) target).getId());
+            }
+        }
+        return ids.isEmpty() ? Collections.<Integer, MessageOwners> emptyMap() : this.ownerLookup.getOwners(ids);
+    }
+
+    private static boolean isPermitted(Object target, int userId, Map<Integer, MessageOwners> summaryOwners) {
+        if (target instanceof Message) {
+            return isOwner((Message) target, userId);
+        }
+        if (target instanceof MessageSummary) {
+            MessageOwners owners = summaryOwners.get(((MessageSummary) target).getId());
+            return owners != null && owners.isOwner(userId);
+        }
+        return false;
+    }
+
+    private static boolean isMessageType(String targetType) {
+        return "Message".equals(targetType) || Message.class.getName().equals(targetType);
+    }
+
+    private static Integer getUserId(Authentication authentication) {
+        if (authentication == null) {
+            return null;
+        }
+        if (!(authentication.getPrincipal() instanceof MailUser)) {
+            return null;
+        }
+        return ((MailUser) authentication.getPrincipal()).getId();
+    }
+
+    private static boolean isOwner(Message message, int userId) {
+        return isUser(message.getFromUser(), userId) || isUser(message.getToUser(), userId);
+    }
+
+    private static boolean isUser(MailUser user, int userId) {
+        return user != null && user.getId() != null && user.getId() == userId;
     }
 }
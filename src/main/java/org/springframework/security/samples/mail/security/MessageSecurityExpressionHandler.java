@@ -0,0 +1,74 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.security.samples.mail.security;
+
+import java.util.Collection;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.expression.EvaluationContext;
+import org.springframework.expression.Expression;
+import org.springframework.security.access.expression.SecurityExpressionRoot;
+import org.springframework.security.access.expression.method.DefaultMethodSecurityExpressionHandler;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.samples.mail.Message;
+import org.springframework.security.samples.mail.MessageSummary;
+
+/**
+ * <p>
+ * A {@link DefaultMethodSecurityExpressionHandler} that evaluates permissions with the
+ * {@link MessagePermissionEvaluator}.
+ * </p>
+ * <p>
+ * {@code @PostFilter("hasPermission(filterObject, 'read')")} on a method that returns a {@link Collection} of
+ * {@link Message}'s or {@link MessageSummary}'s is filtered with
+ * {@link MessagePermissionEvaluator#filter(Authentication, Collection, Object)}, so the owners of all elements are
+ * looked up at once rather than once per element. Every other filter expression is evaluated per element as usual.
+ * </p>
+ *
+ * @author Rob Winch
+ */
+public class MessageSecurityExpressionHandler extends DefaultMethodSecurityExpressionHandler {
+    private static final Pattern HAS_PERMISSION_FILTER = Pattern
+            .compile("\\s*hasPermission\\(\\s*filterObject\\s*,\\s*'([^']*)'\\s*\\)\\s*");
+
+    private final MessagePermissionEvaluator permissionEvaluator;
+
+    /**
+     * Creates a new instance
+     * @param permissionEvaluator the {@link MessagePermissionEvaluator} to use. Cannot be null.
+     * @throws IllegalArgumentException if {@code permissionEvaluator} is null.
+     */
+    @Autowired
+    public MessageSecurityExpressionHandler(MessagePermissionEvaluator permissionEvaluator) {
+        if (permissionEvaluator == null) {
+            throw new IllegalArgumentException("permissionEvaluator cannot be null");
+        }
+        this.permissionEvaluator = permissionEvaluator;
+        setPermissionEvaluator(permissionEvaluator);
+    }
+
+    @Override
+    public Object filter(Object filterTarget, Expression filterExpression, EvaluationContext ctx) {
+        Matcher matcher = HAS_PERMISSION_FILTER.matcher(filterExpression.getExpressionString());
+        if (!(filterTarget instanceof Collection) || !matcher.matches()) {
+            return super.filter(filterTarget, filterExpression, ctx);
+        }
+        Authentication authentication = ((SecurityExpressionRoot) ctx.getRootObject().getValue()).getAuthentication();
+        return this.permissionEvaluator.filter(authentication, (Collection<?>) filterTarget, matcher.group(1));
+    }
+}
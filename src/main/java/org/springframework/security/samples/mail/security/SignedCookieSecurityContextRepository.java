@@ -0,0 +1,339 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.security.samples.mail.security;
+
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Method;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.authentication.AuthenticationTrustResolver;
+import org.springframework.security.authentication.AuthenticationTrustResolverImpl;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.crypto.codec.Base64;
+import org.springframework.security.samples.mail.MailUser;
+import org.springframework.security.samples.mail.MailUserService;
+import org.springframework.security.samples.mail.NotFoundException;
+import org.springframework.security.web.context.HttpRequestResponseHolder;
+import org.springframework.security.web.context.HttpSessionSecurityContextRepository;
+import org.springframework.security.web.context.SaveContextOnUpdateOrErrorResponseWrapper;
+import org.springframework.security.web.context.SecurityContextRepository;
+import org.springframework.util.ReflectionUtils;
+import org.springframework.util.StringUtils;
+
+/**
+ * <p>
+ * A {@link SecurityContextRepository} that stores the authenticated identity in a signed cookie instead of the
+ * {@link javax.servlet.http.HttpSession} (i.e. {@link HttpSessionSecurityContextRepository}). Any node that knows the
+ * secret can authenticate the request, so the application can be scaled horizontally without sticky sessions or
+ * replicating the {@link SecurityContext}.
+ * </p>
+ * <p>
+ * The cookie contains the {@link MailUser#getId()}, a stamp of the stored password and an expiration time which are
+ * signed with HmacSHA256. The principal is loaded with {@link MailUserService#getUser(int)} (which is cached), so the
+ * principal is still a {@link MailUser} and its authorities are always current. The stamp is a truncated HmacSHA256
+ * of the stored password hash, so changing the password invalidates every cookie that was issued before without
+ * revealing anything about the hash. The expiration slides: once half of the validity has passed a new cookie is
+ * issued when the context is loaded. The cookie is removed when the user logs out.
+ * </p>
+ *
+ * @author Rob Winch
+ */
+public class SignedCookieSecurityContextRepository implements SecurityContextRepository {
+    public static final String DEFAULT_COOKIE_NAME = "SECUREMAIL_AUTH";
+    public static final int DEFAULT_VALIDITY_SECONDS = 30 * 60;
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final int CREDENTIAL_STAMP_LENGTH = 16;
+    private static final Method SET_HTTP_ONLY = ReflectionUtils.findMethod(Cookie.class, "setHttpOnly", boolean.class);
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final AuthenticationTrustResolver trustResolver = new AuthenticationTrustResolverImpl();
+    private final MailUserService userService;
+    private final SecretKeySpec secret;
+    private String cookieName = DEFAULT_COOKIE_NAME;
+    private long validityMillis = DEFAULT_VALIDITY_SECONDS * 1000L;
+
+    /**
+     * Creates a new instance
+     * @param userService the {@link MailUserService} used to load the principal. Cannot be null.
+     * @param secret the secret used to sign the cookie. Every node must use the same secret. If empty a random
+     *        secret is generated, which only works for a single node and logs everyone out on a restart.
+     * @throws IllegalArgumentException if userService is null.
+     */
+    public SignedCookieSecurityContextRepository(MailUserService userService, String secret) {
+        if (userService == null) {
+            throw new IllegalArgumentException("userService cannot be null");
+        }
+        this.userService = userService;
+        byte[] key;
+        if (StringUtils.hasLength(secret)) {
+            key = utf8(secret);
+        } else {
+            this.logger.warn("No secret was configured, so a random secret is used. Cookies are only valid on this node until it is restarted.");
+            key = new byte[32];
+            new SecureRandom().nextBytes(key);
+        }
+        this.secret = new SecretKeySpec(key, ALGORITHM);
+    }
+
+    public SecurityContext loadContext(HttpRequestResponseHolder requestResponseHolder) {
+        HttpServletRequest request = requestResponseHolder.getRequest();
+        HttpServletResponse response = requestResponseHolder.getResponse();
+        SecurityContext context = SecurityContextHolder.createEmptyContext();
+        SignedIdentity identity = readIdentity(request);
+        if (identity != null) {
+            Authentication authentication = authenticate(identity);
+            if (authentication != null) {
+                context.setAuthentication(authentication);
+                if (identity.expires - System.currentTimeMillis() < this.validityMillis / 2) {
+                    writeCookie((MailUser) authentication.getPrincipal(), request, response);
+                }
+            }
+        }
+        requestResponseHolder.setResponse(new SaveToCookieResponseWrapper(request, response, context
+                .getAuthentication()));
+        return context;
+    }
+
+    public void saveContext(SecurityContext context, HttpServletRequest request, HttpServletResponse response) {
+        if (response instanceof SaveToCookieResponseWrapper) {
+            SaveToCookieResponseWrapper wrapper = (SaveToCookieResponseWrapper) response;
+            if (!wrapper.isContextSaved()) {
+                wrapper.saveContext(context);
+            }
+        }
+    }
+
+    public boolean containsContext(HttpServletRequest request) {
+        return readIdentity(request) != null;
+    }
+
+    /**
+     * Sets the name of the cookie. The default is {@link #DEFAULT_COOKIE_NAME}.
+     * @param cookieName the cookie name. Cannot be empty.
+     */
+    public void setCookieName(String cookieName) {
+        if (!StringUtils.hasText(cookieName)) {
+            throw new IllegalArgumentException("cookieName cannot be empty");
+        }
+        this.cookieName = cookieName;
+    }
+
+    /**
+     * Sets how long the cookie is valid for after it is issued. This plays the role of the session timeout. The
+     * default is {@link #DEFAULT_VALIDITY_SECONDS}.
+     * @param validitySeconds the validity in seconds. Must be greater than 0.
+     */
+    public void setValiditySeconds(int validitySeconds) {
+        if (validitySeconds <= 0) {
+            throw new IllegalArgumentException("validitySeconds must be greater than 0. Got " + validitySeconds);
+        }
+        this.validityMillis = validitySeconds * 1000L;
+    }
+
+    private Authentication authenticate(SignedIdentity identity) {
+        MailUser user;
+        try {
+            user = this.userService.getUser(identity.userId);
+        } catch (NotFoundException e) {
+            return null;
+        }
+        if (!MessageDigest.isEqual(utf8(credentialStamp(user.getPassword())), utf8(identity.credentialStamp))) {
+            return null;
+        }
+        MailUserDetails principal = new MailUserDetails(user);
+        return new UsernamePasswordAuthenticationToken(principal, null, principal.getAuthorities());
+    }
+
+    private SignedIdentity readIdentity(HttpServletRequest request) {
+        Cookie[] cookies = request.getCookies();
+        if (cookies == null) {
+            return null;
+        }
+        for (Cookie cookie : cookies) {
+            if (this.cookieName.equals(cookie.getName())) {
+                return decode(cookie.getValue());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Decodes and verifies a cookie value of the form base64(userId:expires:credentialStamp).base64(signature).
+     * @return the {@link SignedIdentity} or null if the value is malformed, forged or expired
+     */
+    SignedIdentity decode(String value) {
+        int separator = value == null ? -1 : value.indexOf('.');
+        if (separator < 0) {
+            return null;
+        }
+        String payload = value.substring(0, separator);
+        byte[] signature;
+        String[] fields;
+        try {
+            signature = base64Decode(value.substring(separator + 1));
+            fields = new String(base64Decode(payload), "UTF-8").split(":", 3);
+        } catch (IllegalArgumentException e) {
+            return null;
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        if (!MessageDigest.isEqual(sign(payload), signature) || fields.length != 3) {
+            return null;
+        }
+        try {
+            SignedIdentity identity = new SignedIdentity(Integer.parseInt(fields[0]), Long.parseLong(fields[1]),
+                    fields[2]);
+            return identity.expires > System.currentTimeMillis() ? identity : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Creates a signed cookie value for a {@link MailUser#getId()} and the password that is currently stored.
+     */
+    String encode(int userId, long expires, String password) {
+        String payload = base64Encode(utf8(userId + ":" + expires + ":" + credentialStamp(password)));
+        return payload + "." + base64Encode(sign(payload));
+    }
+
+    private String credentialStamp(String password) {
+        byte[] stamp = new byte[CREDENTIAL_STAMP_LENGTH];
+        System.arraycopy(sign("credentials:" + password), 0, stamp, 0, stamp.length);
+        return base64Encode(stamp);
+    }
+
+    /**
+     * Writes the cookie for a {@link MailUser} that was loaded with {@link MailUserService#getUser(int)}.
+     */
+    private void writeCookie(MailUser user, HttpServletRequest request, HttpServletResponse response) {
+        String value = encode(user.getId(), System.currentTimeMillis() + this.validityMillis, user.getPassword());
+        addCookie(value, -1, request, response);
+    }
+
+    private void addCookie(String value, int maxAge, HttpServletRequest request, HttpServletResponse response) {
+        Cookie cookie = new Cookie(this.cookieName, value);
+        cookie.setMaxAge(maxAge);
+        cookie.setPath(StringUtils.hasLength(request.getContextPath()) ? request.getContextPath() : "/");
+        cookie.setSecure(request.isSecure());
+        if (SET_HTTP_ONLY != null) {
+            ReflectionUtils.invokeMethod(SET_HTTP_ONLY, cookie, Boolean.TRUE);
+        }
+        response.addCookie(cookie);
+    }
+
+    private byte[] sign(String payload) {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(this.secret);
+            return mac.doFinal(utf8(payload));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Could not sign with " + ALGORITHM, e);
+        }
+    }
+
+    private static String base64Encode(byte[] bytes) {
+        // url safe and without padding so that the value does not need to be quoted in a cookie
+        return new String(Base64.encode(bytes)).replace('+', '-').replace('/', '_').replace("=", "");
+    }
+
+    private static byte[] base64Decode(String value) {
+        StringBuilder padded = new StringBuilder(value.replace('-', '+').replace('_', '/'));
+        while (padded.length() % 4 != 0) {
+            padded.append('=');
+        }
+        byte[] bytes = utf8(padded.toString());
+        if (!Base64.isBase64(bytes)) {
+            throw new IllegalArgumentException("Not base64 " + value);
+        }
+        return Base64.decode(bytes);
+    }
+
+    private static byte[] utf8(String value) {
+        try {
+            return value.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * The verified contents of a cookie.
+     */
+    static final class SignedIdentity {
+        final int userId;
+        final long expires;
+        final String credentialStamp;
+
+        private SignedIdentity(int userId, long expires, String credentialStamp) {
+            this.userId = userId;
+            this.expires = expires;
+            this.credentialStamp = credentialStamp;
+        }
+    }
+
+    /**
+     * Writes the cookie before the response is committed (i.e. when redirecting after a login or logout) or when the
+     * request completes.
+     */
+    private final class SaveToCookieResponseWrapper extends SaveContextOnUpdateOrErrorResponseWrapper {
+        private final HttpServletRequest request;
+        private final Authentication loaded;
+
+        private SaveToCookieResponseWrapper(HttpServletRequest request, HttpServletResponse response,
+                Authentication loaded) {
+            super(response, true);
+            this.request = request;
+            this.loaded = loaded;
+        }
+
+        @Override
+        protected void saveContext(SecurityContext context) {
+            Authentication authentication = context.getAuthentication();
+            if (authentication == this.loaded) {
+                return;
+            }
+            if (authentication == null || trustResolver.isAnonymous(authentication)
+                    || !(authentication.getPrincipal() instanceof MailUser)) {
+                if (this.loaded != null || containsContext(this.request)) {
+                    SignedCookieSecurityContextRepository.this.addCookie("", 0, this.request, this);
+                }
+                return;
+            }
+            MailUser user;
+            try {
+                // the principal of a login still has the password that was replaced if the login upgraded the hash
+                user = userService.getUser(((MailUser) authentication.getPrincipal()).getId());
+            } catch (NotFoundException e) {
+                return;
+            }
+            writeCookie(user, this.request, this);
+        }
+    }
+}
@@ -0,0 +1,347 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.security.samples.mail.security;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.security.authentication.AuthenticationProvider;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.security.web.authentication.WebAuthenticationDetails;
+
+/**
+ * <p>
+ * An {@link AuthenticationProvider} that rejects authentication attempts for an account or from an IP address once
+ * too many attempts have failed within a sliding window. The check is made before the attempt is passed to another
+ * {@link AuthenticationProvider}, so a credential stuffing burst does not result in a database lookup (and a
+ * connection) per attempt. A successful attempt clears the failures of the account.
+ * </p>
+ * <p>
+ * The failures are counted in memory using lock free counters that are divided into buckets so that old failures
+ * expire without a timer. The number of accounts and addresses that are tracked is bounded. When the bound is
+ * reached one of the few keys with the oldest last failure is removed, the one with the fewest failures in the window.
+ * A key that is currently throttled is never removed, if all of those keys are throttled the new key is not tracked.
+ * The IP address is taken from {@link WebAuthenticationDetails}, so attempts without it are only throttled per
+ * account.
+ * </p>
+ *
+ * @author Rob Winch
+ */
+@ManagedResource(description = "Login throttling statistics")
+public class ThrottlingAuthenticationProvider implements AuthenticationProvider {
+    public static final int DEFAULT_MAX_ACCOUNT_FAILURES = 10;
+    public static final int DEFAULT_MAX_ADDRESS_FAILURES = 50;
+    public static final long DEFAULT_WINDOW_MILLIS = 15 * 60 * 1000;
+    public static final int DEFAULT_MAX_KEYS = 10000;
+    private static final int BUCKETS = 15;
+    /**
+     * The number of keys with the oldest last failure that are considered for eviction.
+     */
+    private static final int EVICTION_CANDIDATES = 8;
+
+    private final AuthenticationProvider delegate;
+    private final FailureCounts accountFailures = new FailureCounts();
+    private final FailureCounts addressFailures = new FailureCounts();
+    private final AtomicLong accountRejections = new AtomicLong();
+    private final AtomicLong addressRejections = new AtomicLong();
+    private final AtomicLong keyEvictions = new AtomicLong();
+    private int maxAccountFailures = DEFAULT_MAX_ACCOUNT_FAILURES;
+    private int maxAddressFailures = DEFAULT_MAX_ADDRESS_FAILURES;
+    private long bucketMillis = DEFAULT_WINDOW_MILLIS / BUCKETS;
+    private int maxKeys = DEFAULT_MAX_KEYS;
+
+    /**
+     * Creates a new instance
+     * @param delegate the {@link AuthenticationProvider} to throttle. Cannot be null.
+     * @throws IllegalArgumentException if {@code delegate} is null.
+     */
+    public ThrottlingAuthenticationProvider(AuthenticationProvider delegate) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("delegate cannot be null");
+        }
+        this.delegate = delegate;
+    }
+
+    public Authentication authenticate(Authentication authentication) throws AuthenticationException {
+        long now = currentTimeMillis();
+        String account = account(authentication);
+        String address = address(authentication);
+        long bucket = now / this.bucketMillis;
+        if (this.accountFailures.sum(account, bucket) >= this.maxAccountFailures) {
+            this.accountRejections.incrementAndGet();
+            throw new LoginThrottledException("Too many failed attempts for this account. Please try again later.");
+        }
+        if (this.addressFailures.sum(address, bucket) >= this.maxAddressFailures) {
+            this.addressRejections.incrementAndGet();
+            throw new LoginThrottledException("Too many failed attempts from this address. Please try again later.");
+        }
+        try {
+            Authentication result = this.delegate.authenticate(authentication);
+            if (result != null && account != null) {
+                this.accountFailures.remove(account);
+            }
+            return result;
+        } catch (BadCredentialsException e) {
+            this.accountFailures.record(account, bucket, this.maxAccountFailures);
+            this.addressFailures.record(address, bucket, this.maxAddressFailures);
+            throw e;
+        }
+    }
+
+    public boolean supports(Class<?> authentication) {
+        return this.delegate.supports(authentication);
+    }
+
+    private static String account(Authentication authentication) {
+        Object principal = authentication.getPrincipal();
+        return principal == null ? null : principal.toString().toLowerCase(Locale.ENGLISH);
+    }
+
+    private static String address(Authentication authentication) {
+        Object details = authentication.getDetails();
+        return details instanceof WebAuthenticationDetails ? ((WebAuthenticationDetails) details).getRemoteAddress()
+                : null;
+    }
+
+    /**
+     * Sets the number of failures within the window after which attempts for an account are rejected. The default is
+     * {@link #DEFAULT_MAX_ACCOUNT_FAILURES}.
+     * @param maxAccountFailures the maximum failures. Must be greater than 0.
+     */
+    public void setMaxAccountFailures(int maxAccountFailures) {
+        if (maxAccountFailures <= 0) {
+            throw new IllegalArgumentException("maxAccountFailures must be greater than 0. Got " + maxAccountFailures);
+        }
+        this.maxAccountFailures = maxAccountFailures;
+    }
+
+    /**
+     * Sets the number of failures within the window after which attempts from an IP address are rejected. The default
+     * is {@link #DEFAULT_MAX_ADDRESS_FAILURES}.
+     * @param maxAddressFailures the maximum failures. Must be greater than 0.
+     */
+    public void setMaxAddressFailures(int maxAddressFailures) {
+        if (maxAddressFailures <= 0) {
+            throw new IllegalArgumentException("maxAddressFailures must be greater than 0. Got " + maxAddressFailures);
+        }
+        this.maxAddressFailures = maxAddressFailures;
+    }
+
+    /**
+     * Sets how long a failure is counted for. The window moves forward in steps of a fifteenth of its length. The
+     * default is {@link #DEFAULT_WINDOW_MILLIS}.
+     * @param windowMillis the length of the window in milliseconds. Must be at least 15.
+     */
+    public void setWindowMillis(long windowMillis) {
+        if (windowMillis < BUCKETS) {
+            throw new IllegalArgumentException("windowMillis must be at least " + BUCKETS + ". Got " + windowMillis);
+        }
+        this.bucketMillis = windowMillis / BUCKETS;
+    }
+
+    /**
+     * Sets the maximum number of accounts and the maximum number of IP addresses that are tracked. The default is
+     * {@link #DEFAULT_MAX_KEYS}.
+     * @param maxKeys the maximum number of keys. Must be greater than 0.
+     */
+    public void setMaxKeys(int maxKeys) {
+        if (maxKeys <= 0) {
+            throw new IllegalArgumentException("maxKeys must be greater than 0. Got " + maxKeys);
+        }
+        this.maxKeys = maxKeys;
+    }
+
+    @ManagedAttribute(description = "The number of attempts rejected because the account had too many failures")
+    public long getAccountRejections() {
+        return this.accountRejections.get();
+    }
+
+    @ManagedAttribute(description = "The number of attempts rejected because the IP address had too many failures")
+    public long getAddressRejections() {
+        return this.addressRejections.get();
+    }
+
+    @ManagedAttribute(description = "The number of accounts with recent failures")
+    public int getTrackedAccounts() {
+        return this.accountFailures.size();
+    }
+
+    @ManagedAttribute(description = "The number of IP addresses with recent failures")
+    public int getTrackedAddresses() {
+        return this.addressFailures.size();
+    }
+
+    @ManagedAttribute(description = "The number of accounts and IP addresses removed to bound the memory used")
+    public long getKeyEvictions() {
+        return this.keyEvictions.get();
+    }
+
+    @ManagedOperation(description = "Resets the statistics")
+    public void resetStatistics() {
+        this.accountRejections.set(0);
+        this.addressRejections.set(0);
+        this.keyEvictions.set(0);
+    }
+
+    @ManagedOperation(description = "Forgets every recorded failure, allowing all accounts and addresses to log in")
+    public void clear() {
+        this.accountFailures.clear();
+        this.addressFailures.clear();
+    }
+
+    /**
+     * Gets the current time. Allows tests to control the window.
+     * @return
+     */
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Thrown when an authentication attempt is rejected without being processed because of too many recent failures.
+     *
+     * @author Rob Winch
+     */
+    public static class LoginThrottledException extends AuthenticationException {
+        public LoginThrottledException(String msg) {
+            super(msg);
+        }
+
+        private static final long serialVersionUID = -1409183409553524866L;
+    }
+
+    /**
+     * The failures by account or IP address. Lookups are lock free. Keys are added and removed under a lock that also
+     * keeps them ordered by their last failure, so the key to evict is found without scanning every key.
+     */
+    private final class FailureCounts {
+        private final ConcurrentMap<String, SlidingWindow> windows = new ConcurrentHashMap<String, SlidingWindow>();
+        private final LinkedHashMap<String, SlidingWindow> byLastFailure = new LinkedHashMap<String, SlidingWindow>(
+                16, 0.75f, true);
+
+        long sum(String key, long bucket) {
+            if (key == null) {
+                return 0;
+            }
+            SlidingWindow window = this.windows.get(key);
+            return window == null ? 0 : window.sum(bucket);
+        }
+
+        void record(String key, long bucket, int maxFailures) {
+            if (key == null) {
+                return;
+            }
+            SlidingWindow window;
+            synchronized (this.byLastFailure) {
+                window = this.byLastFailure.get(key);
+                if (window == null) {
+                    if (this.byLastFailure.size() >= maxKeys && !evict(bucket, maxFailures)) {
+                        return;
+                    }
+                    window = new SlidingWindow();
+                    this.byLastFailure.put(key, window);
+                    this.windows.put(key, window);
+                }
+            }
+            window.increment(bucket);
+        }
+
+        /**
+         * Removes the key with the fewest failures among the {@link #EVICTION_CANDIDATES} keys with the oldest last
+         * failure, but never a key that is throttled.
+         * @return false if every candidate is throttled
+         */
+        private boolean evict(long bucket, int maxFailures) {
+            Map.Entry<String, SlidingWindow> evict = null;
+            long evictSum = maxFailures;
+            Iterator<Map.Entry<String, SlidingWindow>> entries = this.byLastFailure.entrySet().iterator();
+            for (int i = 0; i < EVICTION_CANDIDATES && evictSum > 0 && entries.hasNext(); i++) {
+                Map.Entry<String, SlidingWindow> entry = entries.next();
+                long sum = entry.getValue().sum(bucket);
+                if (sum < evictSum) {
+                    evict = entry;
+                    evictSum = sum;
+                }
+            }
+            if (evict == null) {
+                return false;
+            }
+            remove(evict.getKey());
+            keyEvictions.incrementAndGet();
+            return true;
+        }
+
+        void remove(String key) {
+            if (!this.windows.containsKey(key)) {
+                return;
+            }
+            synchronized (this.byLastFailure) {
+                this.byLastFailure.remove(key);
+                this.windows.remove(key);
+            }
+        }
+
+        void clear() {
+            synchronized (this.byLastFailure) {
+                this.byLastFailure.clear();
+                this.windows.clear();
+            }
+        }
+
+        int size() {
+            return this.windows.size();
+        }
+    }
+
+    /**
+     * Counts events in a ring of {@link #BUCKETS} buckets. Each bucket remembers the step of the window it counts, so
+     * a bucket that is reused for a later step is reset rather than requiring a timer.
+     */
+    private static final class SlidingWindow {
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final AtomicLongArray steps = new AtomicLongArray(BUCKETS);
+
+        void increment(long step) {
+            int i = (int) (step % BUCKETS);
+            long current = this.steps.get(i);
+            if (current != step && this.steps.compareAndSet(i, current, step)) {
+                this.counts.set(i, 0);
+            }
+            this.counts.incrementAndGet(i);
+        }
+
+        long sum(long step) {
+            long sum = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                if (step - this.steps.get(i) < BUCKETS) {
+                    sum += this.counts.get(i);
+                }
+            }
+            return sum;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.security.samples.mail.security;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.security.authentication.AuthenticationProvider;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.AuthenticationException;
+
+/**
+ * <p>
+ * An {@link AuthenticationProvider} that records how long another {@link AuthenticationProvider} takes and the
+ * outcome of every attempt. The statistics are exposed over JMX so that the cost of logins (i.e. under a credential
+ * stuffing attack) can be observed.
+ * </p>
+ * <p>
+ * Each attempt is counted as exactly one of:
+ * </p>
+ * <ul>
+ * <li>a success - an {@link Authentication} was returned</li>
+ * <li>a failure - a {@link BadCredentialsException} was thrown</li>
+ * <li>an error - any other exception was thrown (i.e. the database is down)</li>
+ * <li>an abstain - null was returned</li>
+ * </ul>
+ *
+ * @author Rob Winch
+ */
+@ManagedResource(description = "Authentication latency and outcome statistics")
+public class TimedAuthenticationProvider implements AuthenticationProvider {
+    private final AuthenticationProvider delegate;
+    private final AtomicLong successes = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong abstains = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * Creates a new instance
+     * @param delegate the {@link AuthenticationProvider} to time. Cannot be null.
+     * @throws IllegalArgumentException if {@code delegate} is null.
+     */
+    public TimedAuthenticationProvider(AuthenticationProvider delegate) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("delegate cannot be null");
+        }
+        this.delegate = delegate;
+    }
+
+    public Authentication authenticate(Authentication authentication) throws AuthenticationException {
+        long start = System.nanoTime();
+        AtomicLong outcome = this.errors;
+        try {
+            Authentication result = this.delegate.authenticate(authentication);
+            outcome = result == null ? this.abstains : this.successes;
+            return result;
+        } catch (BadCredentialsException e) {
+            outcome = this.failures;
+            throw e;
+        } finally {
+            outcome.incrementAndGet();
+            record(System.nanoTime() - start);
+        }
+    }
+
+    public boolean supports(Class<?> authentication) {
+        return this.delegate.supports(authentication);
+    }
+
+    private void record(long nanos) {
+        this.totalNanos.addAndGet(nanos);
+        long max = this.maxNanos.get();
+        while (nanos > max && !this.maxNanos.compareAndSet(max, nanos)) {
+            max = this.maxNanos.get();
+        }
+    }
+
+    @ManagedAttribute(description = "The class of the AuthenticationProvider that is timed")
+    public String getProvider() {
+        return this.delegate.getClass().getName();
+    }
+
+    @ManagedAttribute(description = "The total number of authentication attempts")
+    public long getAttempts() {
+        return this.successes.get() + this.failures.get() + this.errors.get() + this.abstains.get();
+    }
+
+    @ManagedAttribute(description = "The number of successful authentication attempts")
+    public long getSuccesses() {
+        return this.successes.get();
+    }
+
+    @ManagedAttribute(description = "The number of attempts rejected with bad credentials")
+    public long getFailures() {
+        return this.failures.get();
+    }
+
+    @ManagedAttribute(description = "The number of attempts that failed with an unexpected exception")
+    public long getErrors() {
+        return this.errors.get();
+    }
+
+    @ManagedAttribute(description = "The number of attempts the provider did not process")
+    public long getAbstains() {
+        return this.abstains.get();
+    }
+
+    @ManagedAttribute(description = "The average time in milliseconds of an attempt")
+    public double getAverageMillis() {
+        long attempts = getAttempts();
+        return attempts == 0 ? 0 : toMillis(this.totalNanos.get()) / attempts;
+    }
+
+    @ManagedAttribute(description = "The longest time in milliseconds of an attempt")
+    public double getMaxMillis() {
+        return toMillis(this.maxNanos.get());
+    }
+
+    @ManagedOperation(description = "Resets the statistics")
+    public void resetStatistics() {
+        this.successes.set(0);
+        this.failures.set(0);
+        this.errors.set(0);
+        this.abstains.set(0);
+        this.totalNanos.set(0);
+        this.maxNanos.set(0);
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / 1000000d;
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.springframework.security.samples.mail.security;
+
+import java.util.Arrays;
+import java.util.Date;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.security.samples.mail.security.JdbcRememberMeTokenRepository.IssuedRememberMeToken;
+import org.springframework.security.web.authentication.rememberme.CookieTheftException;
+import org.springframework.security.web.authentication.rememberme.InvalidCookieException;
+import org.springframework.security.web.authentication.rememberme.PersistentTokenBasedRememberMeServices;
+import org.springframework.security.web.authentication.rememberme.RememberMeAuthenticationException;
+
+/**
+ * <p>
+ * A {@link PersistentTokenBasedRememberMeServices} that only issues a new token value when the current one is older
+ * than {@link #setRotationIntervalSeconds(int)}. {@link PersistentTokenBasedRememberMeServices} updates the token on
+ * every cookie login, which means an update for every request of a client that does not keep the session and causes
+ * concurrent requests with the same cookie to be treated as cookie theft. Within the rotation interval the use is
+ * only recorded with {@link JdbcRememberMeTokenRepository#touch(String, Date)}, which is written in batches.
+ * </p>
+ * <p>
+ * Requests that were sent with the same cookie at the same time all find a token value that is due for rotation.
+ * Only the first one replaces it, the others send the value it was replaced with. The value that was replaced is
+ * accepted for {@link #setPreviousTokenGraceSeconds(int)} after the rotation, since requests that were sent before the
+ * browser received the new cookie still present it. Those requests receive the current value.
+ * </p>
+ * <p>
+ * Presenting any other outdated token value for a series still removes every token for the user, just as
+ * {@link PersistentTokenBasedRememberMeServices} does.
+ * </p>
+ *
+ * @author Rob Winch
+ */
+public class TouchingRememberMeServices extends PersistentTokenBasedRememberMeServices {
+    public static final int DEFAULT_ROTATION_INTERVAL_SECONDS = 60;
+    public static final int DEFAULT_PREVIOUS_TOKEN_GRACE_SECONDS = 10;
+
+    private final JdbcRememberMeTokenRepository tokenRepository;
+    private long rotationIntervalMillis = DEFAULT_ROTATION_INTERVAL_SECONDS * 1000L;
+    private long previousTokenGraceMillis = DEFAULT_PREVIOUS_TOKEN_GRACE_SECONDS * 1000L;
+
+    /**
+     * Creates a new instance
+     * @param key the key used to identify remember-me authentications. Cannot be null.
+     * @param userDetailsService the {@link UserDetailsService} used to load the user. Cannot be null.
+     * @param tokenRepository the {@link JdbcRememberMeTokenRepository} to use. Cannot be null.
+     * @throws IllegalArgumentException if tokenRepository is null.
+     */
+    public TouchingRememberMeServices(String key, UserDetailsService userDetailsService,
+            JdbcRememberMeTokenRepository tokenRepository) {
+        super(key, userDetailsService, tokenRepository);
+        if (tokenRepository == null) {
+            throw new IllegalArgumentException("tokenRepository cannot be null");
+        }
+        this.tokenRepository = tokenRepository;
+    }
+
+    @Override
+    protected UserDetails processAutoLoginCookie(String[] cookieTokens, HttpServletRequest request,
+            HttpServletResponse response) {
+        if (cookieTokens.length != 2) {
+            throw new InvalidCookieException("Cookie token did not contain 2 tokens, but contained '"
+                    + Arrays.asList(cookieTokens) + "'");
+        }
+        String series = cookieTokens[0];
+        IssuedRememberMeToken token = this.tokenRepository.getTokenForSeries(series);
+        if (token == null) {
+            throw new RememberMeAuthenticationException("No persistent token found for series id: " + series);
+        }
+        long now = System.currentTimeMillis();
+        boolean current = token.getTokenValue().equals(cookieTokens[1]);
+        if (!current && !isPreviousTokenValue(token, cookieTokens[1], now)) {
+            this.tokenRepository.removeUserTokens(token.getUsername());
+            throw new CookieTheftException("Invalid remember-me token (Series/token) mismatch. Implies previous cookie theft attack.");
+        }
+        if (token.getDate().getTime() + getTokenValiditySeconds() * 1000L < now) {
+            throw new RememberMeAuthenticationException("Remember-me login has expired");
+        }
+        String tokenValue = token.getTokenValue();
+        if (!current || token.getIssued().getTime() + this.rotationIntervalMillis > now) {
+            this.tokenRepository.touch(series, new Date(now));
+        } else {
+            String newTokenValue = generateTokenData();
+            if (this.tokenRepository.rotateToken(series, tokenValue, newTokenValue, new Date(now))) {
+                tokenValue = newTokenValue;
+            } else {
+                // a concurrent request rotated the token first
+                IssuedRememberMeToken rotated = this.tokenRepository.getTokenForSeries(series);
+                if (rotated == null) {
+                    throw new RememberMeAuthenticationException("No persistent token found for series id: " + series);
+                }
+                tokenValue = rotated.getTokenValue();
+            }
+        }
+        setCookie(new String[] { series, tokenValue }, getTokenValiditySeconds(), request, response);
+        return getUserDetailsService().loadUserByUsername(token.getUsername());
+    }
+
+    private boolean isPreviousTokenValue(IssuedRememberMeToken token, String tokenValue, long now) {
+        return tokenValue.equals(token.getPreviousTokenValue())
+                && token.getIssued().getTime() + this.previousTokenGraceMillis > now;
+    }
+
+    /**
+     * Sets how old a token value must be before a cookie login replaces it with a new one. The default is
+     * {@link #DEFAULT_ROTATION_INTERVAL_SECONDS}. A stolen cookie is detected once the victim uses the cookie after
+     * the thief, so a larger interval delays detection.
+     * @param rotationIntervalSeconds the interval in seconds. Cannot be negative.
+     */
+    public void setRotationIntervalSeconds(int rotationIntervalSeconds) {
+        if (rotationIntervalSeconds < 0) {
+            throw new IllegalArgumentException("rotationIntervalSeconds cannot be negative. Got "
+                    + rotationIntervalSeconds);
+        }
+        this.rotationIntervalMillis = rotationIntervalSeconds * 1000L;
+    }
+
+    /**
+     * Sets how long the token value that was replaced by a rotation is still accepted. The default is
+     * {@link #DEFAULT_PREVIOUS_TOKEN_GRACE_SECONDS}. A thief with a cookie that was just rotated can also log in
+     * within this time, so it should only cover the requests that were in flight during the rotation.
+     * @param previousTokenGraceSeconds the grace period in seconds. Cannot be negative.
+     */
+    public void setPreviousTokenGraceSeconds(int previousTokenGraceSeconds) {
+        if (previousTokenGraceSeconds < 0) {
+            throw new IllegalArgumentException("previousTokenGraceSeconds cannot be negative. Got "
+                    + previousTokenGraceSeconds);
+        }
+        this.previousTokenGraceMillis = previousTokenGraceSeconds * 1000L;
+    }
+}
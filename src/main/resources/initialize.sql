@@ -1,22 +1,60 @@
-create table mail_user (
+-- every statement can be run against an existing database so that a file based database can be initialized on each startup
+create table if not exists mail_user (
   id bigint identity,
   email varchar(256) not null unique,
   password varchar(256) not null,
   firstName varchar(256) not null,
   lastName varchar(256) not null
 );
-create table message (
+create table if not exists message (
   id bigint identity,
   subject varchar(256) not null,
   message varchar(500) not null,
   fromUser bigint,
-  toUser bigint,
-  FOREIGN KEY(fromUser) REFERENCES mail_user(id),
-  FOREIGN KEY(toUser) REFERENCES mail_user(id)
+  toUser bigint
 );
+-- created before the foreign keys so that they are reused rather than creating another index
+create index if not exists message_to_user_id on message(toUser, id desc);
+create index if not exists message_from_user_id on message(fromUser, id desc);
+-- the pages newer than a cursor are read oldest first, which H2 cannot do with the descending indexes
+create index if not exists message_to_user_id_asc on message(toUser, id);
+create index if not exists message_from_user_id_asc on message(fromUser, id);
+alter table message add constraint if not exists message_from_user_fk FOREIGN KEY(fromUser) REFERENCES mail_user(id);
+alter table message add constraint if not exists message_to_user_fk FOREIGN KEY(toUser) REFERENCES mail_user(id);
+create table if not exists user_session (
+  session_id varchar(256) not null primary key,
+  user_id bigint not null,
+  last_request timestamp not null,
+  expired boolean not null
+);
+create index if not exists user_session_user_id on user_session(user_id);
+create index if not exists user_session_last_request on user_session(last_request);
+-- the keysets of the logged in users, in the same order as the pages
+create index if not exists user_session_expired_last_request on user_session(expired, last_request desc, user_id desc);
+create index if not exists mail_user_name on mail_user(lastName, firstName, id);
+-- the sessions of each user on a page
+create index if not exists user_session_user_id_expired on user_session(user_id, expired, last_request);
+alter table user_session add constraint if not exists user_session_user_fk FOREIGN KEY(user_id) REFERENCES mail_user(id);
+create table if not exists remember_me_token (
+  series varchar(64) not null primary key,
+  username varchar(256) not null,
+  token varchar(64) not null,
+  issued timestamp not null,
+  last_used timestamp not null
+);
+-- a separate statement so that databases created before the column was introduced get it too
+alter table remember_me_token add column if not exists previous_token varchar(64);
+create index if not exists remember_me_token_username on remember_me_token(username);
+create index if not exists remember_me_token_last_used on remember_me_token(last_used);
+create table if not exists mailbox_version (
+  user_id bigint not null primary key,
+  inbox_version bigint not null,
+  sent_version bigint not null
+);
+alter table mailbox_version add constraint if not exists mailbox_version_user_fk FOREIGN KEY(user_id) REFERENCES mail_user(id);
 
-insert into mail_user(id,email,password,firstName,lastName) values (1,'rob@example.org','penguin','Rob','Winch');
-insert into mail_user(id,email,password,firstName,lastName) values (2,'luke@example.com','lion','Luke','Taylor');
+insert into mail_user(id,email,password,firstName,lastName) select 1,'rob@example.org','$2a$10$3yi14Kinm4Yp9zY0WOVg/e4G7m0XrNpWV5ihwBJexTRaMEkhePhre','Rob','Winch' from dual where not exists (select 1 from mail_user where id = 1);
+insert into mail_user(id,email,password,firstName,lastName) select 2,'luke@example.com','$2a$10$CxOmDIDukyfH3Ou0ByIrjOCdDGfevvyPUn0uK5gID.yd1nN.GuEzC','Luke','Taylor' from dual where not exists (select 1 from mail_user where id = 2);
 
-insert into message (id,subject,message,fromUser,toUser) values (1,'Vulnerabilities Found?','I believe I found some vulnerabilities in the message application. It may be good to ensure that you secure the application.',2,1);
-insert into message (id,subject,message,fromUser,toUser) values (2,'RE: Vulnerabilities Found?','Thanks you are right. I will get that fixed right away.',1,2);
\ No newline at end of file
+insert into message (id,subject,message,fromUser,toUser) select 1,'Vulnerabilities Found?','I believe I found some vulnerabilities in the message application. It may be good to ensure that you secure the application.',2,1 from dual where not exists (select 1 from message where id = 1);
+insert into message (id,subject,message,fromUser,toUser) select 2,'RE: Vulnerabilities Found?','Thanks you are right. I will get that fixed right away.',1,2 from dual where not exists (select 1 from message where id = 2);
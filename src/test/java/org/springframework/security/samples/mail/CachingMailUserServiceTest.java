@@ -0,0 +1,131 @@
+package org.springframework.security.samples.mail;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = "file:src/main/webapp/WEB-INF/spring/*.xml")
+public class CachingMailUserServiceTest {
+    @Autowired
+    private CachingMailUserService userService;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+    private LruCache<Object, MailUser> cache;
+
+    @Before
+    public void setUp() {
+        this.cache = this.userService.getCache();
+        this.cache.clear();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorNullDelegate() {
+        new CachingMailUserService(null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorZeroMaxSize() {
+        new CachingMailUserService(this.userService, 0, CachingMailUserService.DEFAULT_TIME_TO_LIVE_MILLIS);
+    }
+
+    @Test
+    public void getUserIsCachedByIdAndEmail() {
+        MailUser expected = JdbcMailUserServiceTest.getExistingUser();
+        JdbcMailUserServiceTest.assertEquals(expected, this.userService.getUser(expected.getId()));
+        long misses = this.cache.getMisses();
+
+        JdbcMailUserServiceTest.assertEquals(expected, this.userService.getUser(expected.getId()));
+        JdbcMailUserServiceTest.assertEquals(expected, this.userService.findUserByEmail(expected.getEmail()));
+        assertThat(this.cache.getMisses()).isEqualTo(misses);
+    }
+
+    @Test
+    public void findUserByEmailReturnsCopy() {
+        MailUser expected = JdbcMailUserServiceTest.getExistingUser();
+        this.userService.findUserByEmail(expected.getEmail()).setFirstName("Changed");
+        JdbcMailUserServiceTest.assertEquals(expected, this.userService.findUserByEmail(expected.getEmail()));
+    }
+
+    @Test
+    public void findUserByEmailNotFoundIsNotCached() {
+        assertThat(this.userService.findUserByEmail("cache-missing@example.com")).isNull();
+        assertThat(this.cache.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void findUsersByEmailUsesCache() {
+        this.userService.findUserByEmail("rob@example.org");
+        long hits = this.cache.getHits();
+
+        List<MailUser> users = this.userService.findUsersByEmail(Arrays.asList("rob@example.org", "luke@example.com"));
+        assertThat(users).hasSize(2);
+        assertThat(this.cache.getHits()).isEqualTo(hits + 1);
+        assertThat(this.userService.findUserByEmail("luke@example.com")).isNotNull();
+        assertThat(this.cache.getHits()).isEqualTo(hits + 2);
+    }
+
+    @Test
+    public void createUserEvicts() {
+        String email = "cached" + System.nanoTime() + "@example.com";
+        assertThat(this.userService.findUserByEmail(email)).isNull();
+
+        MailUser user = new MailUser();
+        user.setEmail(email);
+        user.setFirstName("Cached");
+        user.setLastName("User");
+        user.setPassword("password");
+        int id = this.userService.createUser(user);
+
+        assertThat(this.userService.findUserByEmail(email).getId()).isEqualTo(id);
+    }
+
+    @Test
+    public void updatePasswordEvictsAgainAfterCommit() {
+        final MailUser user = new MailUser();
+        user.setEmail("updated" + System.nanoTime() + "@example.com");
+        user.setFirstName("Updated");
+        user.setLastName("User");
+        user.setPassword("password");
+        user.setId(this.userService.createUser(user));
+        String password = this.userService.getUser(user.getId()).getPassword();
+
+        new TransactionTemplate(this.transactionManager).execute(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(TransactionStatus status) {
+                userService.updatePassword(user, "changed");
+                assertThat(cache.get(user.getId())).isNull();
+                // a lookup before the commit may cache the row again
+                userService.getUser(user.getId());
+                assertThat(cache.get(user.getId())).isNotNull();
+            }
+        });
+
+        assertThat(this.cache.get(user.getId())).isNull();
+        assertThat(this.cache.get(user.getEmail())).isNull();
+        assertThat(this.userService.getUser(user.getId()).getPassword()).isNotEqualTo(password);
+    }
+
+    @Test
+    public void evictRemovesCachedEmail() {
+        MailUser expected = JdbcMailUserServiceTest.getExistingUser();
+        this.userService.getUser(expected.getId());
+
+        this.userService.evict(expected.getId());
+
+        assertThat(this.cache.get(expected.getId())).isNull();
+        assertThat(this.cache.get(expected.getEmail())).isNull();
+    }
+}
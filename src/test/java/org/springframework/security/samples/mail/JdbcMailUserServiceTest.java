@@ -2,10 +2,16 @@ package org.springframework.security.samples.mail;
 
 import static org.fest.assertions.Assertions.assertThat;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.samples.mail.JdbcMailUserService;
 import org.springframework.security.samples.mail.MailUser;
 import org.springframework.security.samples.mail.MailUserService;
@@ -22,10 +28,17 @@ public class JdbcMailUserServiceTest {
     private MailUserService userService;
     @Autowired
     private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private PasswordEncoder passwordEncoder;
 
     @Test(expected = IllegalArgumentException.class)
     public void constructorNullTemplate() {
-        new JdbcMailUserService(null);
+        new JdbcMailUserService(null, passwordEncoder);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorNullPasswordEncoder() {
+        new JdbcMailUserService(jdbcTemplate, null);
     }
 
     @Test
@@ -64,7 +77,10 @@ public class JdbcMailUserServiceTest {
         MailUser saved = userService.findUserByEmail(toSave
                 .getEmail());
         assertThat(saved.getId()).isNotNull();
+        assertThat(saved.getPassword()).isNotEqualTo(toSave.getPassword());
+        assertThat(passwordEncoder.matches(toSave.getPassword(), saved.getPassword())).isTrue();
         toSave.setId(saved.getId());
+        toSave.setPassword(saved.getPassword());
         assertEquals(toSave, saved);
         assertEquals(toSave, userService.getUser(id));
     }
@@ -76,6 +92,74 @@ public class JdbcMailUserServiceTest {
         userService.createUser(toSave);
     }
 
+    @Test
+    public void updatePassword() {
+        MailUser toSave = new MailUser();
+        toSave.setEmail("password" + System.nanoTime() + "@example.com");
+        toSave.setFirstName("Password");
+        toSave.setLastName("User");
+        toSave.setPassword("old");
+        int id = userService.createUser(toSave);
+        MailUser found = userService.findUserByEmail(toSave.getEmail());
+
+        userService.updatePassword(found, "new");
+
+        String password = userService.findUserByEmail(toSave.getEmail()).getPassword();
+        assertThat(passwordEncoder.matches("new", password)).isTrue();
+        assertThat(userService.getUser(id).getPassword()).isEqualTo(password);
+    }
+
+    @Test(expected = NotFoundException.class)
+    public void updatePasswordNotFound() {
+        MailUser missing = new MailUser();
+        missing.setId(-1);
+        missing.setEmail("missing@example.com");
+        userService.updatePassword(missing, "new");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void updatePasswordNull() {
+        userService.updatePassword(getExistingUser(), null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void updatePasswordNullUser() {
+        userService.updatePassword(null, "new");
+    }
+
+    @Test
+    public void findUsersByEmail() {
+        List<MailUser> users = userService.findUsersByEmail(Arrays.asList("rob@example.org", "luke@example.com",
+                "nobody@example.com"));
+        assertThat(users).hasSize(2);
+        MailUser rob = users.get(0).getId() == 1 ? users.get(0) : users.get(1);
+        assertEquals(getExistingUser(), rob);
+    }
+
+    @Test
+    public void findUsersByEmailMoreThanChunk() {
+        List<String> emails = new ArrayList<String>();
+        for (int i = 0; i < JdbcMailUserService.USERS_BY_EMAIL_CHUNK_SIZE * 2; i++) {
+            emails.add("nobody" + i + "@example.com");
+        }
+        emails.add("rob@example.org");
+        emails.add("luke@example.com");
+
+        List<MailUser> users = userService.findUsersByEmail(emails);
+
+        assertThat(users).hasSize(2);
+    }
+
+    @Test
+    public void findUsersByEmailEmpty() {
+        assertThat(userService.findUsersByEmail(Collections.<String> emptyList())).isEmpty();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void findUsersByEmailNull() {
+        userService.findUsersByEmail(null);
+    }
+
     static void assertEquals(MailUser expected, MailUser actual) {
         assertThat(actual.getId()).isEqualTo(expected.getId());
         assertThat(actual.getEmail()).isEqualTo(expected.getEmail());
@@ -90,7 +174,7 @@ public class JdbcMailUserServiceTest {
         mailUser.setEmail("rob@example.org");
         mailUser.setFirstName("Rob");
         mailUser.setLastName("Winch");
-        mailUser.setPassword("penguin");
+        mailUser.setPassword("$2a$10$3yi14Kinm4Yp9zY0WOVg/e4G7m0XrNpWV5ihwBJexTRaMEkhePhre");
         return mailUser;
     }
 
@@ -1,6 +1,12 @@
 package org.springframework.security.samples.mail;
 
 import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import org.junit.After;
 import org.junit.Before;
@@ -8,6 +14,7 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.access.AccessDeniedException;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.authority.AuthorityUtils;
@@ -26,6 +33,8 @@ public class JdbcMessageServiceTest {
     @Autowired
     private MessageService messageRepository;
     @Autowired
+    private MailUserService userService;
+    @Autowired
     private JdbcTemplate jdbcTemplate;
 
     @Before
@@ -49,6 +58,25 @@ public class JdbcMessageServiceTest {
         assertEquals(expected, actual);
     }
 
+    @Test
+    public void getMessageForUser() {
+        Message expected = getExistingMessage();
+
+        assertEquals(expected, this.messageRepository.getMessageForUser(expected.getId(), expected.getFromUser().getId()));
+        assertEquals(expected, this.messageRepository.getMessageForUser(expected.getId(), expected.getToUser().getId()));
+    }
+
+    @Test(expected = AccessDeniedException.class)
+    public void getMessageForUserNotOwner() {
+        MailUser user = createUser("notowner");
+        this.messageRepository.getMessageForUser(getExistingMessage().getId(), user.getId());
+    }
+
+    @Test(expected = NotFoundException.class)
+    public void getMessageForUserNotFound() {
+        this.messageRepository.getMessageForUser(Integer.MAX_VALUE, getExistingMessage().getFromUser().getId());
+    }
+
     @Test
     public void createMessage() {
         int messageCount = countMessageRows();
@@ -65,6 +93,238 @@ public class JdbcMessageServiceTest {
         assertEquals(message, this.messageRepository.getMessage(id));
     }
 
+    @Test
+    public void createMessages() {
+        MailUser from = createUser("bulk");
+        List<MailUser> toUsers = new ArrayList<MailUser>();
+        for (int i = 0; i < 3; i++) {
+            toUsers.add(createUser("recipient"));
+        }
+        Message message = new Message();
+        message.setFromUser(from);
+        message.setSubject("Announcement");
+        message.setMessage("To everyone");
+
+        assertThat(this.messageRepository.createMessages(message, toUsers)).isEqualTo(3);
+
+        MessagePage<MessageSummary> sent = this.messageRepository.findSentPageForUser(from.getId(),
+                MessagePageRequest.first(10));
+        assertThat(sent.getContent()).hasSize(3);
+        for (MailUser toUser : toUsers) {
+            MessagePage<MessageSummary> inbox = this.messageRepository.findInboxPageForUser(toUser.getId(),
+                    MessagePageRequest.first(10));
+            assertThat(inbox.getContent()).hasSize(1);
+            assertThat(inbox.getContent().get(0).getSubject()).isEqualTo("Announcement");
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void createMessagesIdSpecified() {
+        Message message = getExistingMessage();
+        this.messageRepository.createMessages(message, new ArrayList<MailUser>());
+    }
+
+    @Test
+    public void findInboxMessageForUser() {
+        MailUser from = createUser("from");
+        MailUser to = createUser("to");
+        createMessages(from, to, 2);
+
+        assertThat(this.messageRepository.findInboxMessageForUser(to.getId())).hasSize(2);
+        assertThat(this.messageRepository.findSentForUser(from.getId())).hasSize(2);
+    }
+
+    @Test
+    public void findInboxPageForUser() {
+        MailUser from = JdbcMailUserServiceTest.getExistingUser();
+        MailUser to = createUser("inbox");
+        List<Integer> ids = createMessages(from, to, 5);
+
+        MessagePage<MessageSummary> first = this.messageRepository.findInboxPageForUser(to.getId(), MessagePageRequest.first(2));
+        assertPage(first, ids.get(3), null, ids.get(4), ids.get(3));
+        MessageSummary summary = first.getContent().get(0);
+        assertThat(summary.getSubject()).isEqualTo("Subject 4");
+        assertThat(summary.getCounterpartName()).isEqualTo(from.getLastName() + ", " + from.getFirstName());
+
+        MessagePage<MessageSummary> second = this.messageRepository.findInboxPageForUser(to.getId(),
+                MessagePageRequest.olderThan(first.getOlderCursor(), 2));
+        assertPage(second, ids.get(1), ids.get(2), ids.get(2), ids.get(1));
+
+        MessagePage<MessageSummary> last = this.messageRepository.findInboxPageForUser(to.getId(),
+                MessagePageRequest.olderThan(second.getOlderCursor(), 2));
+        assertPage(last, null, ids.get(0), ids.get(0));
+
+        MessagePage<MessageSummary> back = this.messageRepository.findInboxPageForUser(to.getId(),
+                MessagePageRequest.newerThan(last.getNewerCursor(), 2));
+        assertPage(back, ids.get(1), ids.get(2), ids.get(2), ids.get(1));
+
+        MessagePage<MessageSummary> newest = this.messageRepository.findInboxPageForUser(to.getId(),
+                MessagePageRequest.newerThan(back.getNewerCursor(), 2));
+        assertPage(newest, ids.get(3), null, ids.get(4), ids.get(3));
+    }
+
+    @Test
+    public void findSentPageForUser() {
+        MailUser from = createUser("sent");
+        List<Integer> ids = createMessages(from, JdbcMailUserServiceTest.getExistingUser(), 3);
+
+        MessagePage<MessageSummary> page = this.messageRepository.findSentPageForUser(from.getId(), MessagePageRequest.first(3));
+        assertPage(page, null, null, ids.get(2), ids.get(1), ids.get(0));
+        assertThat(page.getContent().get(0).getCounterpartName()).isEqualTo("Winch, Rob");
+    }
+
+    @Test
+    public void findInboxPageForUserEmpty() {
+        MailUser user = createUser("empty");
+        assertPage(this.messageRepository.findInboxPageForUser(user.getId(), MessagePageRequest.first(2)), null, null);
+    }
+
+    @Test
+    public void findInboxPageForUserOlderThanOldest() {
+        MailUser to = createUser("oldest");
+        List<Integer> ids = createMessages(JdbcMailUserServiceTest.getExistingUser(), to, 2);
+
+        MessagePage<MessageSummary> empty = this.messageRepository.findInboxPageForUser(to.getId(),
+                MessagePageRequest.olderThan(ids.get(0), 2));
+        assertPage(empty, null, ids.get(0) - 1);
+
+        MessagePage<MessageSummary> back = this.messageRepository.findInboxPageForUser(to.getId(),
+                MessagePageRequest.newerThan(empty.getNewerCursor(), 2));
+        assertPage(back, ids.get(0), null, ids.get(1), ids.get(0));
+    }
+
+    @Test
+    public void findInboxPageForUserNewerThanNewest() {
+        MailUser to = createUser("newest");
+        List<Integer> ids = createMessages(JdbcMailUserServiceTest.getExistingUser(), to, 2);
+
+        MessagePage<MessageSummary> empty = this.messageRepository.findInboxPageForUser(to.getId(),
+                MessagePageRequest.newerThan(ids.get(1), 2));
+        assertPage(empty, ids.get(1) + 1, null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void findInboxPageForUserNullRequest() {
+        this.messageRepository.findInboxPageForUser(1, null);
+    }
+
+    @Test
+    public void streamInboxPageForUser() throws Exception {
+        MailUser from = JdbcMailUserServiceTest.getExistingUser();
+        MailUser to = createUser("stream");
+        createMessages(from, to, 5);
+
+        List<MessagePageRequest> pageRequests = new ArrayList<MessagePageRequest>();
+        pageRequests.add(MessagePageRequest.first(2));
+        pageRequests.add(MessagePageRequest.first(5));
+        pageRequests.add(MessagePageRequest.first(10));
+        MessagePage<MessageSummary> first = this.messageRepository.findInboxPageForUser(to.getId(),
+                MessagePageRequest.first(2));
+        pageRequests.add(MessagePageRequest.olderThan(first.getOlderCursor(), 2));
+        pageRequests.add(MessagePageRequest.olderThan(first.getOlderCursor(), 3));
+        pageRequests.add(MessagePageRequest.newerThan(first.getOlderCursor(), 2));
+        pageRequests.add(MessagePageRequest.newerThan(first.getOlderCursor() - 2, 1));
+        pageRequests.add(MessagePageRequest.olderThan(1, 2));
+        for (MessagePageRequest pageRequest : pageRequests) {
+            MessagePage<MessageSummary> expected = this.messageRepository.findInboxPageForUser(to.getId(), pageRequest);
+            final List<MessageSummary> streamed = new ArrayList<MessageSummary>();
+            MessagePage<MessageSummary> actual = this.messageRepository.streamInboxPageForUser(to.getId(),
+                    pageRequest, new MessageSummaryCallback() {
+                        public void processSummary(MessageSummary summary) {
+                            streamed.add(summary);
+                        }
+                    });
+            assertThat(streamed).as(pageRequest.toString()).isEqualTo(expected.getContent());
+            assertThat(actual.getContent()).isEmpty();
+            assertThat(actual.getOlderCursor()).as(pageRequest.toString()).isEqualTo(expected.getOlderCursor());
+            assertThat(actual.getNewerCursor()).as(pageRequest.toString()).isEqualTo(expected.getNewerCursor());
+        }
+    }
+
+    @Test
+    public void streamSentPageForUser() throws Exception {
+        MailUser from = createUser("streamsent");
+        List<Integer> ids = createMessages(from, JdbcMailUserServiceTest.getExistingUser(), 3);
+        final List<Integer> streamed = new ArrayList<Integer>();
+
+        MessagePage<MessageSummary> page = this.messageRepository.streamSentPageForUser(from.getId(),
+                MessagePageRequest.first(2), new MessageSummaryCallback() {
+                    public void processSummary(MessageSummary summary) {
+                        streamed.add(summary.getId());
+                    }
+                });
+
+        assertThat(streamed).containsExactly(ids.get(2), ids.get(1));
+        assertThat(page.getOlderCursor()).isEqualTo(ids.get(1));
+        assertThat(page.getNewerCursor()).isNull();
+    }
+
+    @Test
+    public void streamInboxPageForUserCallbackFails() {
+        MailUser to = createUser("streamfail");
+        createMessages(JdbcMailUserServiceTest.getExistingUser(), to, 2);
+        final IOException failure = new IOException("expected");
+        try {
+            this.messageRepository.streamInboxPageForUser(to.getId(), MessagePageRequest.first(2),
+                    new MessageSummaryCallback() {
+                        public void processSummary(MessageSummary summary) throws IOException {
+                            throw failure;
+                        }
+                    });
+            fail("Expected IOException");
+        } catch (IOException e) {
+            assertThat(e).isSameAs(failure);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void streamInboxPageForUserNullCallback() throws Exception {
+        this.messageRepository.streamInboxPageForUser(1, MessagePageRequest.first(2), null);
+    }
+
+    @Test
+    public void mailboxVersions() {
+        MailUser from = createUser("versionfrom");
+        MailUser to = createUser("versionto");
+        assertThat(this.messageRepository.getInboxVersion(to.getId())).isEqualTo(0);
+        assertThat(this.messageRepository.getSentVersion(from.getId())).isEqualTo(0);
+
+        createMessages(from, to, 2);
+
+        assertThat(this.messageRepository.getInboxVersion(to.getId())).isEqualTo(2);
+        assertThat(this.messageRepository.getSentVersion(to.getId())).isEqualTo(0);
+        assertThat(this.messageRepository.getSentVersion(from.getId())).isEqualTo(2);
+        assertThat(this.messageRepository.getInboxVersion(from.getId())).isEqualTo(0);
+    }
+
+    @Test
+    public void createMessagesBumpsMailboxVersions() {
+        MailUser from = createUser("versionbulk");
+        MailUser first = createUser("versionfirst");
+        MailUser second = createUser("versionsecond");
+        createMessages(from, first, 1);
+        Message message = new Message();
+        message.setFromUser(from);
+        message.setSubject("Announcement");
+        message.setMessage("To everyone");
+
+        this.messageRepository.createMessages(message, Arrays.asList(second, first, second));
+
+        assertThat(this.messageRepository.getInboxVersion(first.getId())).isEqualTo(2);
+        assertThat(this.messageRepository.getInboxVersion(second.getId())).isEqualTo(2);
+        assertThat(this.messageRepository.getSentVersion(from.getId())).isEqualTo(4);
+    }
+
+    @Test
+    public void messageToSelfBumpsBothMailboxVersions() {
+        MailUser user = createUser("versionself");
+
+        createMessages(user, user, 1);
+
+        assertThat(this.messageRepository.getInboxVersion(user.getId())).isEqualTo(1);
+        assertThat(this.messageRepository.getSentVersion(user.getId())).isEqualTo(1);
+    }
+
     public static Message getExistingMessage() {
         Message message = new Message();
         message.setId(1);
@@ -73,7 +333,7 @@ public class JdbcMessageServiceTest {
         MailUser fromUser = new MailUser();
         fromUser.setId(2);
         fromUser.setEmail("luke@example.com");
-        fromUser.setPassword("lion");
+        fromUser.setPassword("$2a$10$CxOmDIDukyfH3Ou0ByIrjOCdDGfevvyPUn0uK5gID.yd1nN.GuEzC");
         fromUser.setFirstName("Luke");
         fromUser.setLastName("Taylor");
         message.setFromUser(fromUser);
@@ -81,6 +341,40 @@ public class JdbcMessageServiceTest {
         return message;
     }
 
+    private MailUser createUser(String name) {
+        MailUser user = new MailUser();
+        user.setEmail(name + System.nanoTime() + "@example.com");
+        user.setFirstName(name);
+        user.setLastName("User");
+        user.setPassword("password");
+        user.setId(this.userService.createUser(user));
+        return user;
+    }
+
+    private List<Integer> createMessages(MailUser from, MailUser to, int count) {
+        List<Integer> ids = new ArrayList<Integer>(count);
+        for (int i = 0; i < count; i++) {
+            Message message = new Message();
+            message.setFromUser(from);
+            message.setToUser(to);
+            message.setSubject("Subject " + i);
+            message.setMessage("Message " + i);
+            ids.add(this.messageRepository.createMessage(message));
+        }
+        return ids;
+    }
+
+    private static void assertPage(MessagePage<MessageSummary> page, Integer olderCursor, Integer newerCursor,
+            Integer... expectedIds) {
+        List<Integer> ids = new ArrayList<Integer>();
+        for (MessageSummary message : page.getContent()) {
+            ids.add(message.getId());
+        }
+        assertThat(ids).containsExactly((Object[]) expectedIds);
+        assertThat(page.getOlderCursor()).isEqualTo(olderCursor);
+        assertThat(page.getNewerCursor()).isEqualTo(newerCursor);
+    }
+
     private int countMessageRows() {
         return this.jdbcTemplate.queryForInt("select count(1) from message");
     }
@@ -0,0 +1,80 @@
+package org.springframework.security.samples.mail;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class LruCacheTest {
+    private long now;
+    private LruCache<String, String> cache;
+
+    @Before
+    public void setUp() {
+        this.cache = new LruCache<String, String>(2, 100) {
+            @Override
+            long currentTimeMillis() {
+                return now;
+            }
+        };
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorZeroSize() {
+        new LruCache<String, String>(0, 100);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorZeroTimeToLive() {
+        new LruCache<String, String>(1, 0);
+    }
+
+    @Test
+    public void getCountsHitsAndMisses() {
+        this.cache.put("a", "1");
+        assertThat(this.cache.get("a")).isEqualTo("1");
+        assertThat(this.cache.get("b")).isNull();
+        assertThat(this.cache.getHits()).isEqualTo(1);
+        assertThat(this.cache.getMisses()).isEqualTo(1);
+        assertThat(this.cache.getHitRatio()).isEqualTo(0.5);
+    }
+
+    @Test
+    public void putEvictsLeastRecentlyUsed() {
+        this.cache.put("a", "1");
+        this.cache.put("b", "2");
+        this.cache.get("a");
+        this.cache.put("c", "3");
+
+        assertThat(this.cache.get("b")).isNull();
+        assertThat(this.cache.get("a")).isEqualTo("1");
+        assertThat(this.cache.get("c")).isEqualTo("3");
+        assertThat(this.cache.getEvictions()).isEqualTo(1);
+    }
+
+    @Test
+    public void getExpired() {
+        this.cache.put("a", "1");
+        this.now = 100;
+        assertThat(this.cache.get("a")).isNull();
+        assertThat(this.cache.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void removeExpired() {
+        this.cache.put("a", "1");
+        this.now = 50;
+        this.cache.put("b", "2");
+        this.now = 100;
+        assertThat(this.cache.removeExpired()).isEqualTo(1);
+        assertThat(this.cache.get("b")).isEqualTo("2");
+    }
+
+    @Test
+    public void removeReturnsValue() {
+        this.cache.put("a", "1");
+        assertThat(this.cache.remove("a")).isEqualTo("1");
+        assertThat(this.cache.remove("a")).isNull();
+        assertThat(this.cache.size()).isEqualTo(0);
+    }
+}
@@ -0,0 +1,144 @@
+package org.springframework.security.samples.mail;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+public class MailboxNotificationHubTest {
+    private MailboxNotificationHub hub;
+
+    @Before
+    public void setUp() {
+        this.hub = new MailboxNotificationHub();
+    }
+
+    @After
+    public void tearDown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        this.hub.destroy();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void addListenerNull() {
+        this.hub.addListener(1, null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void publishAfterCommitNull() {
+        this.hub.publishAfterCommit(null);
+    }
+
+    @Test
+    public void publishWithoutTransaction() throws Exception {
+        RecordingListener listener = new RecordingListener(1);
+        RecordingListener other = new RecordingListener(1);
+        this.hub.addListener(1, listener);
+        this.hub.addListener(2, other);
+        assertThat(this.hub.getListenerCount()).isEqualTo(2);
+
+        this.hub.publishAfterCommit(Arrays.asList(1, 3));
+
+        listener.await();
+        assertThat(listener.userIds).containsExactly(1);
+        assertThat(other.userIds).isEmpty();
+        assertThat(this.hub.getListenerCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void listenersAreNotifiedOnce() throws Exception {
+        RecordingListener listener = new RecordingListener(1);
+        this.hub.addListener(1, listener);
+
+        this.hub.publishAfterCommit(Arrays.asList(1, 1));
+        listener.await();
+        this.hub.publishAfterCommit(Arrays.asList(1));
+        RecordingListener marker = new RecordingListener(1);
+        this.hub.addListener(1, marker);
+        this.hub.publishAfterCommit(Arrays.asList(1));
+        marker.await();
+
+        assertThat(listener.userIds).containsExactly(1);
+    }
+
+    @Test
+    public void publishAfterCommit() throws Exception {
+        RecordingListener listener = new RecordingListener(1);
+        this.hub.addListener(1, listener);
+        TransactionSynchronizationManager.initSynchronization();
+
+        this.hub.publishAfterCommit(Arrays.asList(1));
+        assertThat(this.hub.getListenerCount()).isEqualTo(1);
+        TransactionSynchronizationUtils.triggerAfterCommit();
+
+        listener.await();
+        assertThat(listener.userIds).containsExactly(1);
+    }
+
+    @Test
+    public void rollbackDoesNotPublish() {
+        RecordingListener listener = new RecordingListener(1);
+        this.hub.addListener(1, listener);
+        TransactionSynchronizationManager.initSynchronization();
+
+        this.hub.publishAfterCommit(Arrays.asList(1));
+        TransactionSynchronizationManager.clearSynchronization();
+
+        assertThat(this.hub.getListenerCount()).isEqualTo(1);
+        assertThat(listener.userIds).isEmpty();
+    }
+
+    @Test
+    public void removeListener() {
+        RecordingListener listener = new RecordingListener(1);
+        this.hub.addListener(1, listener);
+
+        assertThat(this.hub.removeListener(1, listener)).isTrue();
+        assertThat(this.hub.removeListener(1, listener)).isFalse();
+        assertThat(this.hub.getListenerCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void failingListenerDoesNotPreventOthers() throws Exception {
+        RecordingListener listener = new RecordingListener(1);
+        this.hub.addListener(1, new MailboxListener() {
+            public void onNewMessage(int userId) {
+                throw new IllegalStateException("expected");
+            }
+        });
+        this.hub.addListener(1, listener);
+
+        this.hub.publishAfterCommit(Arrays.asList(1));
+
+        listener.await();
+    }
+
+    private static final class RecordingListener implements MailboxListener {
+        private final List<Integer> userIds = new CopyOnWriteArrayList<Integer>();
+        private final CountDownLatch latch;
+
+        private RecordingListener(int expected) {
+            this.latch = new CountDownLatch(expected);
+        }
+
+        public void onNewMessage(int userId) {
+            this.userIds.add(userId);
+            this.latch.countDown();
+        }
+
+        private void await() throws InterruptedException {
+            assertThat(this.latch.await(5, TimeUnit.SECONDS)).isTrue();
+        }
+    }
+}
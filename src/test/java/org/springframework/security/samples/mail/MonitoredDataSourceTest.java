@@ -0,0 +1,89 @@
+package org.springframework.security.samples.mail;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import org.apache.commons.dbcp.BasicDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.init.DatabasePopulatorUtils;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+
+public class MonitoredDataSourceTest {
+    private BasicDataSource pool;
+    private MonitoredDataSource dataSource;
+
+    @Before
+    public void setup() {
+        this.pool = new BasicDataSource();
+        this.pool.setDriverClassName("org.h2.Driver");
+        this.pool.setUrl("jdbc:h2:mem:monitored;DB_CLOSE_DELAY=-1");
+        this.pool.setMaxActive(1);
+        this.pool.setMaxWait(10);
+        this.dataSource = new MonitoredDataSource(this.pool);
+    }
+
+    @After
+    public void cleanup() throws SQLException {
+        new JdbcTemplate(this.dataSource).execute("drop all objects");
+        this.pool.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorNullPool() {
+        new MonitoredDataSource(null);
+    }
+
+    @Test
+    public void getConnectionRecordsOccupancy() throws SQLException {
+        Connection connection = this.dataSource.getConnection();
+        assertThat(this.dataSource.getActiveConnections()).isEqualTo(1);
+        assertThat(this.dataSource.getConnectionRequests()).isEqualTo(1);
+        assertThat(this.dataSource.getMaxWaitMillis()).isGreaterThan(0);
+
+        connection.close();
+        assertThat(this.dataSource.getActiveConnections()).isEqualTo(0);
+        assertThat(this.dataSource.getIdleConnections()).isEqualTo(1);
+    }
+
+    @Test
+    public void getConnectionExhaustedRecordsFailure() throws SQLException {
+        Connection connection = this.dataSource.getConnection();
+        try {
+            this.dataSource.getConnection();
+            fail("Expected the pool to be exhausted");
+        } catch (SQLException success) {
+        } finally {
+            connection.close();
+        }
+        assertThat(this.dataSource.getConnectionRequests()).isEqualTo(1);
+        assertThat(this.dataSource.getConnectionFailures()).isEqualTo(1);
+    }
+
+    @Test
+    public void resetStatistics() throws SQLException {
+        this.dataSource.getConnection().close();
+        this.dataSource.resetStatistics();
+        assertThat(this.dataSource.getConnectionRequests()).isEqualTo(0);
+        assertThat(this.dataSource.getAverageWaitMillis()).isEqualTo(0);
+    }
+
+    // the production profile initializes the file based database on every startup
+    @Test
+    public void initializeScriptCanBeRunTwice() {
+        ResourceDatabasePopulator populator = new ResourceDatabasePopulator();
+        populator.addScript(new ClassPathResource("initialize.sql"));
+        DatabasePopulatorUtils.execute(populator, this.dataSource);
+        DatabasePopulatorUtils.execute(populator, this.dataSource);
+
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(this.dataSource);
+        assertThat(jdbcTemplate.queryForInt("select count(*) from mail_user")).isEqualTo(2);
+        assertThat(jdbcTemplate.queryForInt("select count(*) from message")).isEqualTo(2);
+    }
+}
@@ -0,0 +1,181 @@
+package org.springframework.security.samples.mail;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+/**
+ * Runs EXPLAIN for every query used by {@link JdbcMessageService} and
+ * {@link JdbcMailUserService} to ensure that none of them are performed with a
+ * full table scan (i.e. an index was dropped or a query no longer matches an
+ * index). The pages are also run with EXPLAIN ANALYZE against a large mailbox
+ * to ensure that they only read the rows of the page.
+ *
+ * @author Rob Winch
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = "file:src/main/webapp/WEB-INF/spring/*.xml")
+public class QueryPlanTest {
+    private static final int LARGE_MAILBOX_SIZE = 1000;
+    private static final int PAGE_SIZE = 10;
+    private static final Pattern SCAN_COUNT = Pattern.compile("scanCount: (\\d+)");
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    public void userById() {
+        assertNoTableScan(JdbcMailUserService.USER_BY_ID_QUERY);
+    }
+
+    @Test
+    public void userByEmail() {
+        assertNoTableScan(JdbcMailUserService.USER_BY_EMAIL_QUERY);
+    }
+
+    @Test
+    public void usersByEmail() {
+        assertNoTableScan(JdbcMailUserService.USERS_BY_EMAIL_QUERY);
+    }
+
+    @Test
+    public void updatePassword() {
+        assertNoTableScan(JdbcMailUserService.UPDATE_PASSWORD);
+    }
+
+    @Test
+    public void messageExists() {
+        assertNoTableScan(JdbcMessageService.MESSAGE_EXISTS_QUERY);
+    }
+
+    @Test
+    public void messageById() {
+        assertNoTableScan(JdbcMessageService.MESSAGE_BY_ID_QUERY);
+    }
+
+    @Test
+    public void messageByIdForUser() {
+        assertNoTableScan(JdbcMessageService.MESSAGE_BY_ID_FOR_USER_QUERY);
+    }
+
+    @Test
+    public void sent() {
+        assertNoTableScan(JdbcMessageService.SENT_QUERY);
+    }
+
+    @Test
+    public void inbox() {
+        assertNoTableScan(JdbcMessageService.INBOX_QUERY);
+    }
+
+    @Test
+    public void sentPages() {
+        for (MessagePageRequest pageRequest : pageRequests()) {
+            String plan = assertNoTableScan(JdbcMessageService.keysetQuery(JdbcMessageService.SENT_SUMMARY_QUERY,
+                    JdbcMessageService.SENT_OWNER, pageRequest));
+            assertThat(plan).contains("MESSAGE_FROM_USER_ID").contains("index sorted");
+        }
+    }
+
+    @Test
+    public void inboxPages() {
+        for (MessagePageRequest pageRequest : pageRequests()) {
+            String plan = assertNoTableScan(JdbcMessageService.keysetQuery(JdbcMessageService.INBOX_SUMMARY_QUERY,
+                    JdbcMessageService.INBOX_OWNER, pageRequest));
+            assertThat(plan).contains("MESSAGE_TO_USER_ID").contains("index sorted");
+        }
+    }
+
+    @Test
+    public void pagesOfLargeMailboxReadOnlyThePage() {
+        int sender = createUser("queryplan-sender@example.com");
+        int recipient = createUser("queryplan-recipient@example.com");
+        List<Object[]> messages = new ArrayList<Object[]>(LARGE_MAILBOX_SIZE);
+        for (int i = 0; i < LARGE_MAILBOX_SIZE; i++) {
+            messages.add(new Object[] { sender, recipient, "Subject " + i, "Message " + i });
+        }
+        this.jdbcTemplate.batchUpdate("insert into message (fromUser,toUser,subject,message) values (?, ?, ?, ?)",
+                messages);
+        int middle = this.jdbcTemplate.queryForInt("select min(id) from message where toUser = ?", recipient)
+                + LARGE_MAILBOX_SIZE / 2;
+
+        List<MessagePageRequest> pageRequests = Arrays.asList(MessagePageRequest.first(PAGE_SIZE),
+                MessagePageRequest.olderThan(middle, PAGE_SIZE), MessagePageRequest.newerThan(middle, PAGE_SIZE));
+        for (MessagePageRequest pageRequest : pageRequests) {
+            assertScansPage(JdbcMessageService.keysetQuery(JdbcMessageService.INBOX_SUMMARY_QUERY,
+                    JdbcMessageService.INBOX_OWNER, pageRequest), recipient, pageRequest);
+            assertScansPage(JdbcMessageService.keysetQuery(JdbcMessageService.SENT_SUMMARY_QUERY,
+                    JdbcMessageService.SENT_OWNER, pageRequest), sender, pageRequest);
+        }
+    }
+
+    @Test
+    public void mailboxVersions() {
+        assertNoTableScan(JdbcMessageService.INBOX_VERSION_QUERY);
+        assertNoTableScan(JdbcMessageService.SENT_VERSION_QUERY);
+    }
+
+    private static Iterable<MessagePageRequest> pageRequests() {
+        return Arrays.asList(MessagePageRequest.first(10), MessagePageRequest.olderThan(100, 10),
+                MessagePageRequest.newerThan(100, 10));
+    }
+
+    private int createUser(String email) {
+        this.jdbcTemplate.update("insert into mail_user (email,password,firstName,lastName) values (?, ?, ?, ?)",
+                email, "password", "Query", "Plan");
+        return this.jdbcTemplate.queryForInt("select id from mail_user where email = ?", email);
+    }
+
+    /**
+     * Runs a page with EXPLAIN ANALYZE and fails if any table of the query is
+     * read more often than the rows of the page allow (the page size, the row
+     * that determines if there is another page and a lookup of the counterpart
+     * per row), regardless of the size of the mailbox.
+     */
+    private void assertScansPage(String query, int userId, MessagePageRequest pageRequest) {
+        List<Object> args = new ArrayList<Object>(3);
+        args.add(userId);
+        if (pageRequest.getBeforeId() != null) {
+            args.add(pageRequest.getBeforeId());
+        } else if (pageRequest.getAfterId() != null) {
+            args.add(pageRequest.getAfterId());
+        }
+        args.add(pageRequest.getSize() + 1);
+        String plan = this.jdbcTemplate.queryForObject("explain analyze " + query, String.class, args.toArray());
+        int maxScanCount = 2 * (pageRequest.getSize() + 2);
+        Matcher scanCount = SCAN_COUNT.matcher(plan);
+        List<Integer> scanCounts = new ArrayList<Integer>();
+        while (scanCount.find()) {
+            scanCounts.add(Integer.valueOf(scanCount.group(1)));
+        }
+        assertThat(scanCounts).as(plan).isNotEmpty();
+        assertThat(Collections.max(scanCounts)).as(plan).isLessThanOrEqualTo(maxScanCount);
+    }
+
+    /**
+     * Explains the query using 1 for every parameter and fails if a table scan
+     * is found in the plan.
+     *
+     * @param query the query to explain
+     * @return the plan
+     */
+    private String assertNoTableScan(String query) {
+        Object[] args = new Object[query.length() - query.replace("?", "").length()];
+        Arrays.fill(args, 1);
+        String plan = this.jdbcTemplate.queryForObject("explain " + query, String.class, args);
+        assertThat(plan).as(plan).excludes("tableScan");
+        return plan;
+    }
+}
@@ -0,0 +1,334 @@
+package org.springframework.security.samples.mail.metrics;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.continuation.Continuation;
+import org.eclipse.jetty.continuation.ContinuationListener;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.filter.HiddenHttpMethodFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+public class RequestMetricsFilterTest {
+    private RequestMetrics requestMetrics;
+    private RequestMetricsFilter filter;
+    private MockHttpServletRequest request;
+    private MockHttpServletResponse response;
+
+    @Before
+    public void setup() {
+        this.requestMetrics = new RequestMetrics();
+        this.filter = new RequestMetricsFilter(this.requestMetrics);
+        this.filter.setFilterEndpoints(Collections.singletonMap("/j_spring_security_check",
+                "POST /j_spring_security_check"));
+        this.request = new MockHttpServletRequest("GET", "/mail/messages/42");
+        this.request.setContextPath("/mail");
+        this.response = new MockHttpServletResponse();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorNullRequestMetrics() {
+        new RequestMetricsFilter(null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setFilterEndpointsNull() {
+        this.filter.setFilterEndpoints(null);
+    }
+
+    @Test
+    public void handlerNamedByPattern() throws Exception {
+        this.filter.doFilter(this.request, this.response, new HandlerChain("/messages/{id}"));
+
+        EndpointStatistics statistics = statistics("GET /messages/{id}");
+        assertThat(statistics.getCount()).isEqualTo(1);
+        assertThat(statistics.getErrors()).isEqualTo(0);
+        assertThat(statistics.getInFlight()).isEqualTo(0);
+        assertThat(this.requestMetrics.getInFlight()).isEqualTo(0);
+    }
+
+    @Test
+    public void handlerNamedByOverriddenMethod() throws Exception {
+        this.request.setMethod("POST");
+        this.request.setParameter("_method", "DELETE");
+
+        this.filter.doFilter(this.request, this.response, new FilterChain() {
+            public void doFilter(ServletRequest request, ServletResponse response) throws IOException,
+                    ServletException {
+                new HiddenHttpMethodFilter().doFilter(request, response, new HandlerChain("/users/sessions"));
+            }
+        });
+
+        assertThat(statistics("DELETE /users/sessions").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void unknownMethodIsOtherMethod() throws Exception {
+        this.request.setMethod("PROPFIND");
+        this.filter.doFilter(this.request, this.response, new HandlerChain("/messages/{id}"));
+        MockHttpServletRequest lowerCase = new MockHttpServletRequest("get", "/mail/messages/42");
+        lowerCase.setContextPath("/mail");
+        this.filter.doFilter(lowerCase, new MockHttpServletResponse(), new HandlerChain("/messages/{id}"));
+
+        assertThat(statistics(EndpointInterceptor.OTHER_METHOD + " /messages/{id}").getCount()).isEqualTo(2);
+        assertThat(this.requestMetrics.getStatistics()).hasSize(1);
+    }
+
+    @Test
+    public void firstNameIsUsed() throws Exception {
+        this.filter.doFilter(this.request, this.response, new HandlerChain("/users/sessions", "/errors/403"));
+
+        assertThat(statistics("GET /users/sessions").getCount()).isEqualTo(1);
+        assertThat(this.requestMetrics.getStatistics()).hasSize(1);
+    }
+
+    @Test
+    public void filterEndpoint() throws Exception {
+        this.request.setMethod("POST");
+        this.request.setRequestURI("/mail/j_spring_security_check;jsessionid=123");
+
+        this.filter.doFilter(this.request, this.response, new HandlerChain());
+
+        assertThat(statistics("POST /j_spring_security_check").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void unnamedIsOther() throws Exception {
+        this.filter.doFilter(this.request, this.response, new HandlerChain());
+
+        assertThat(statistics(RequestMetrics.OTHER).getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void inFlight() throws Exception {
+        this.filter.doFilter(this.request, this.response, new HandlerChain("/messages/{id}") {
+            @Override
+            public void doFilter(ServletRequest request, ServletResponse response) throws IOException,
+                    ServletException {
+                super.doFilter(request, response);
+                assertThat(requestMetrics.getInFlight()).isEqualTo(1);
+                assertThat(statistics("GET /messages/{id}").getInFlight()).isEqualTo(1);
+            }
+        });
+
+        assertThat(this.requestMetrics.getInFlight()).isEqualTo(0);
+        assertThat(statistics("GET /messages/{id}").getInFlight()).isEqualTo(0);
+    }
+
+    @Test
+    public void exceptionIsError() throws Exception {
+        try {
+            this.filter.doFilter(this.request, this.response, new HandlerChain("/messages/{id}") {
+                @Override
+                public void doFilter(ServletRequest request, ServletResponse response) throws IOException,
+                        ServletException {
+                    super.doFilter(request, response);
+                    throw new ServletException("expected");
+                }
+            });
+            fail("Expected Exception");
+        } catch (ServletException success) {
+        }
+
+        EndpointStatistics statistics = statistics("GET /messages/{id}");
+        assertThat(statistics.getCount()).isEqualTo(1);
+        assertThat(statistics.getErrors()).isEqualTo(1);
+        assertThat(this.requestMetrics.getInFlight()).isEqualTo(0);
+    }
+
+    @Test
+    public void serverErrorIsError() throws Exception {
+        this.filter.doFilter(this.request, this.response, new ErrorChain(HttpServletResponse.SC_SERVICE_UNAVAILABLE));
+
+        assertThat(statistics("GET /messages/{id}").getErrors()).isEqualTo(1);
+    }
+
+    @Test
+    public void clientErrorIsNotError() throws Exception {
+        this.filter.doFilter(this.request, this.response, new ErrorChain(HttpServletResponse.SC_NOT_FOUND));
+
+        EndpointStatistics statistics = statistics("GET /messages/{id}");
+        assertThat(statistics.getCount()).isEqualTo(1);
+        assertThat(statistics.getErrors()).isEqualTo(0);
+        assertThat(this.response.getStatus()).isEqualTo(HttpServletResponse.SC_NOT_FOUND);
+    }
+
+    @Test
+    public void suspendedIsRecordedOnComplete() throws Exception {
+        StubContinuation continuation = new StubContinuation();
+        this.request.setAttribute(Continuation.ATTRIBUTE, continuation);
+
+        this.filter.doFilter(this.request, this.response, new HandlerChain("/messages/inbox/poll") {
+            @Override
+            public void doFilter(ServletRequest request, ServletResponse response) throws IOException,
+                    ServletException {
+                super.doFilter(request, response);
+                ((Continuation) request.getAttribute(Continuation.ATTRIBUTE)).suspend(response);
+            }
+        });
+
+        EndpointStatistics statistics = statistics("GET /messages/inbox/poll");
+        assertThat(statistics.getCount()).isEqualTo(0);
+        assertThat(statistics.getInFlight()).isEqualTo(1);
+        assertThat(this.requestMetrics.getInFlight()).isEqualTo(1);
+
+        continuation.complete();
+
+        statistics = statistics("GET /messages/inbox/poll");
+        assertThat(statistics.getCount()).isEqualTo(1);
+        assertThat(statistics.getInFlight()).isEqualTo(0);
+        assertThat(this.requestMetrics.getInFlight()).isEqualTo(0);
+    }
+
+    @Test
+    public void maxEndpoints() throws Exception {
+        this.requestMetrics.setMaxEndpoints(1);
+
+        this.filter.doFilter(this.request, this.response, new HandlerChain("/messages/{id}"));
+        this.filter.doFilter(new MockHttpServletRequest("GET", "/messages/inbox"), new MockHttpServletResponse(),
+                new HandlerChain("/messages/inbox"));
+
+        assertThat(statistics("GET /messages/{id}").getCount()).isEqualTo(1);
+        assertThat(statistics(RequestMetrics.OTHER).getCount()).isEqualTo(1);
+        assertThat(this.requestMetrics.getStatistics()).hasSize(2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setMaxEndpointsZero() {
+        this.requestMetrics.setMaxEndpoints(0);
+    }
+
+    @Test
+    public void endpointInterceptorWithoutFilter() throws Exception {
+        new HandlerChain("/messages/{id}").doFilter(this.request, this.response);
+
+        assertThat(this.requestMetrics.getStatistics()).isEmpty();
+    }
+
+    private EndpointStatistics statistics(String endpoint) {
+        for (EndpointStatistics statistics : this.requestMetrics.getStatistics()) {
+            if (statistics.getEndpoint().equals(endpoint)) {
+                return statistics;
+            }
+        }
+        throw new AssertionError("No statistics for " + endpoint + " in " + this.requestMetrics.getStatistics());
+    }
+
+    /**
+     * Maps the request to each pattern in turn like the DispatcherServlet and the forwards it performs.
+     */
+    private static class HandlerChain implements FilterChain {
+        private final String[] patterns;
+
+        private HandlerChain(String... patterns) {
+            this.patterns = patterns;
+        }
+
+        public void doFilter(ServletRequest request, ServletResponse response) throws IOException, ServletException {
+            for (String pattern : this.patterns) {
+                request.setAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE, pattern);
+                new EndpointInterceptor().preHandle((HttpServletRequest) request, (HttpServletResponse) response,
+                        null);
+            }
+        }
+    }
+
+    private static final class ErrorChain extends HandlerChain {
+        private final int status;
+
+        private ErrorChain(int status) {
+            super("/messages/{id}");
+            this.status = status;
+        }
+
+        @Override
+        public void doFilter(ServletRequest request, ServletResponse response) throws IOException, ServletException {
+            super.doFilter(request, response);
+            ((HttpServletResponse) response).sendError(this.status);
+        }
+    }
+
+    private static final class StubContinuation implements Continuation {
+        private final List<ContinuationListener> listeners = new ArrayList<ContinuationListener>();
+        private boolean suspended;
+
+        public void setTimeout(long timeoutMs) {
+        }
+
+        public void suspend() {
+            this.suspended = true;
+        }
+
+        public void suspend(ServletResponse response) {
+            suspend();
+        }
+
+        public void resume() {
+            throw new UnsupportedOperationException();
+        }
+
+        public void complete() {
+            this.suspended = false;
+            for (ContinuationListener listener : this.listeners) {
+                listener.onComplete(this);
+            }
+        }
+
+        public boolean isSuspended() {
+            return this.suspended;
+        }
+
+        public boolean isResumed() {
+            return false;
+        }
+
+        public boolean isExpired() {
+            return false;
+        }
+
+        public boolean isInitial() {
+            return true;
+        }
+
+        public boolean isResponseWrapped() {
+            return false;
+        }
+
+        public ServletResponse getServletResponse() {
+            return null;
+        }
+
+        public void addContinuationListener(ContinuationListener listener) {
+            this.listeners.add(listener);
+        }
+
+        public void setAttribute(String name, Object attribute) {
+        }
+
+        public Object getAttribute(String name) {
+            return null;
+        }
+
+        public void removeAttribute(String name) {
+        }
+
+        public void undispatch() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package org.springframework.security.samples.mail.mvc;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletResponse;
+
+import org.eclipse.jetty.continuation.Continuation;
+import org.eclipse.jetty.continuation.ContinuationListener;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.samples.mail.MailUser;
+import org.springframework.security.samples.mail.MailUserContext;
+import org.springframework.security.samples.mail.MailUserService;
+import org.springframework.security.samples.mail.MailboxNotificationHub;
+import org.springframework.security.samples.mail.Message;
+import org.springframework.security.samples.mail.MessageService;
+import org.springframework.security.web.context.SaveContextOnUpdateOrErrorResponseWrapper;
+import org.springframework.security.web.savedrequest.RequestCache;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = "file:src/main/webapp/WEB-INF/spring/*.xml")
+public class InboxPollControllerTest {
+    @Autowired
+    @Qualifier("jdbcMessageService")
+    private MessageService messageService;
+    @Autowired
+    @Qualifier("jdbcMailUserService")
+    private MailUserService userService;
+    @Autowired
+    private MailboxNotificationHub notificationHub;
+    @Autowired
+    private MailUserContext userContext;
+    @Autowired
+    private RequestCache requestCache;
+
+    private InboxPollController controller;
+
+    private MailUser user;
+
+    private StubContinuation continuation;
+
+    private MockHttpServletRequest request;
+
+    private MockHttpServletResponse response;
+
+    @Before
+    public void setUp() {
+        this.controller = new InboxPollController();
+        ReflectionTestUtils.setField(this.controller, "messageRespository", this.messageService);
+        ReflectionTestUtils.setField(this.controller, "notificationHub", this.notificationHub);
+        ReflectionTestUtils.setField(this.controller, "userContext", this.userContext);
+
+        this.user = new MailUser();
+        this.user.setEmail("poll" + System.nanoTime() + "@example.com");
+        this.user.setFirstName("Poll");
+        this.user.setLastName("User");
+        this.user.setPassword("password");
+        this.user.setId(this.userService.createUser(this.user));
+        SecurityContextHolder.getContext().setAuthentication(
+                new UsernamePasswordAuthenticationToken(this.user, "notused", AuthorityUtils
+                        .createAuthorityList("ROLE_USER")));
+
+        this.continuation = new StubContinuation();
+        this.request = new MockHttpServletRequest("GET", "/messages/inbox/poll");
+        this.request.setAttribute(Continuation.ATTRIBUTE, this.continuation);
+        this.response = new MockHttpServletResponse();
+    }
+
+    @After
+    public void tearDown() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    public void pollChangedAnswersImmediately() throws Exception {
+        this.controller.poll(this.messageService.getInboxVersion(this.user.getId()) - 1, this.request, this.response);
+
+        assertThat(this.continuation.suspended).isFalse();
+        assertThat(this.response.getContentAsString()).isEqualTo(InboxPollController.CHANGED);
+    }
+
+    @Test
+    public void pollWaitsForNewMessage() throws Exception {
+        int listeners = this.notificationHub.getListenerCount();
+        this.controller.poll(this.messageService.getInboxVersion(this.user.getId()), this.request, this.response);
+
+        assertThat(this.continuation.suspended).isTrue();
+        assertThat(this.continuation.timeout).isEqualTo(InboxPollController.POLL_TIMEOUT_MILLIS);
+        assertThat(this.response.getContentAsString()).isEmpty();
+        assertThat(this.notificationHub.getListenerCount()).isEqualTo(listeners + 1);
+
+        sendToUser();
+
+        this.continuation.awaitComplete();
+        assertThat(this.response.getContentAsString()).isEqualTo(InboxPollController.CHANGED);
+        assertThat(this.notificationHub.getListenerCount()).isEqualTo(listeners);
+    }
+
+    @Test
+    public void pollTimeout() throws Exception {
+        int listeners = this.notificationHub.getListenerCount();
+        this.controller.poll(this.messageService.getInboxVersion(this.user.getId()), this.request, this.response);
+
+        this.continuation.expire();
+
+        this.continuation.awaitComplete();
+        assertThat(this.response.getContentAsString()).isEqualTo(InboxPollController.UNCHANGED);
+        assertThat(this.notificationHub.getListenerCount()).isEqualTo(listeners);
+    }
+
+    @Test
+    public void pollSuspendsUnwrappedResponse() throws Exception {
+        SaveContextOnUpdateOrErrorResponseWrapper wrapper = new SaveContextOnUpdateOrErrorResponseWrapper(
+                this.response, false) {
+            @Override
+            protected void saveContext(SecurityContext context) {
+                throw new AssertionError("The SecurityContext must not be saved after the request was suspended");
+            }
+        };
+        this.controller.poll(this.messageService.getInboxVersion(this.user.getId()), this.request, wrapper);
+
+        assertThat(this.continuation.getServletResponse()).isSameAs(this.response);
+        this.continuation.expire();
+        this.continuation.awaitComplete();
+    }
+
+    @Test
+    public void pollIsNotSavedForLogin() {
+        this.request.setServletPath("/messages/inbox/poll");
+        this.request.setQueryString("version=1");
+
+        this.requestCache.saveRequest(this.request, this.response);
+
+        assertThat(this.requestCache.getRequest(this.request, this.response)).isNull();
+    }
+
+    @Test
+    public void inboxIsSavedForLogin() {
+        MockHttpServletRequest inbox = new MockHttpServletRequest("GET", "/messages/inbox");
+        inbox.setServletPath("/messages/inbox");
+
+        this.requestCache.saveRequest(inbox, this.response);
+
+        assertThat(this.requestCache.getRequest(inbox, this.response)).isNotNull();
+    }
+
+    private void sendToUser() {
+        Message message = new Message();
+        message.setFromUser(this.userService.getUser(1));
+        message.setToUser(this.user);
+        message.setSubject("Subject");
+        message.setMessage("Message");
+        this.messageService.createMessage(message);
+    }
+
+    private static final class StubContinuation implements Continuation {
+        private final List<ContinuationListener> listeners = new ArrayList<ContinuationListener>();
+        private final CountDownLatch completed = new CountDownLatch(1);
+        private boolean suspended;
+        private long timeout;
+        private ServletResponse response;
+
+        void expire() {
+            for (ContinuationListener listener : this.listeners) {
+                listener.onTimeout(this);
+            }
+        }
+
+        void awaitComplete() throws InterruptedException {
+            assertThat(this.completed.await(5, TimeUnit.SECONDS)).isTrue();
+        }
+
+        public void setTimeout(long timeoutMs) {
+            this.timeout = timeoutMs;
+        }
+
+        public void suspend() {
+            this.suspended = true;
+        }
+
+        public void suspend(ServletResponse response) {
+            this.response = response;
+            suspend();
+        }
+
+        public void resume() {
+            throw new UnsupportedOperationException();
+        }
+
+        public void complete() {
+            for (ContinuationListener listener : this.listeners) {
+                listener.onComplete(this);
+            }
+            this.completed.countDown();
+        }
+
+        public boolean isSuspended() {
+            return this.suspended;
+        }
+
+        public boolean isResumed() {
+            return false;
+        }
+
+        public boolean isExpired() {
+            return false;
+        }
+
+        public boolean isInitial() {
+            return true;
+        }
+
+        public boolean isResponseWrapped() {
+            return false;
+        }
+
+        public ServletResponse getServletResponse() {
+            return this.response;
+        }
+
+        public void addContinuationListener(ContinuationListener listener) {
+            this.listeners.add(listener);
+        }
+
+        public void setAttribute(String name, Object attribute) {
+        }
+
+        public Object getAttribute(String name) {
+            return null;
+        }
+
+        public void removeAttribute(String name) {
+        }
+
+        public void undispatch() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package org.springframework.security.samples.mail.mvc;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.util.List;
+import java.util.Map;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.samples.mail.MailUser;
+import org.springframework.security.samples.mail.MailUserContext;
+import org.springframework.security.samples.mail.MailUserService;
+import org.springframework.security.samples.mail.Message;
+import org.springframework.security.samples.mail.MessageService;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.context.request.ServletWebRequest;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = "file:src/main/webapp/WEB-INF/spring/*.xml")
+public class MessageApiControllerTest {
+    @Autowired
+    @Qualifier("jdbcMessageService")
+    private MessageService messageService;
+    @Autowired
+    @Qualifier("jdbcMailUserService")
+    private MailUserService userService;
+    @Autowired
+    private MailUserContext userContext;
+
+    private MessageApiController controller;
+
+    private MailUser user;
+
+    private MockHttpServletResponse response;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Before
+    public void setUp() {
+        this.controller = new MessageApiController();
+        ReflectionTestUtils.setField(this.controller, "messageRespository", this.messageService);
+        ReflectionTestUtils.setField(this.controller, "userRepository", this.userService);
+        ReflectionTestUtils.setField(this.controller, "userContext", this.userContext);
+
+        this.user = new MailUser();
+        this.user.setEmail("api" + System.nanoTime() + "@example.com");
+        this.user.setFirstName("Api");
+        this.user.setLastName("User");
+        this.user.setPassword("password");
+        this.user.setId(this.userService.createUser(this.user));
+        SecurityContextHolder.getContext().setAuthentication(
+                new UsernamePasswordAuthenticationToken(this.user, "notused", AuthorityUtils
+                        .createAuthorityList("ROLE_USER")));
+        this.response = new MockHttpServletResponse();
+    }
+
+    @After
+    public void tearDown() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void inbox() throws Exception {
+        int first = sendToUser("First");
+        int second = sendToUser("Second");
+        int third = sendToUser("Third");
+
+        this.controller.inbox(null, null, 2, webRequest(), this.response);
+
+        assertThat(this.response.getContentType()).startsWith("application/json");
+        Map<String, Object> page = readResponse();
+        List<Map<String, Object>> messages = (List<Map<String, Object>>) page.get("messages");
+        assertThat(messages).hasSize(2);
+        assertThat(messages.get(0).get("id")).isEqualTo(third);
+        assertThat(messages.get(0).get("subject")).isEqualTo("Third");
+        assertThat(messages.get(0).get("counterpartFirstName")).isEqualTo("Rob");
+        assertThat(messages.get(1).get("id")).isEqualTo(second);
+        assertThat(page.get("olderCursor")).isEqualTo(second);
+        assertThat(page.get("newerCursor")).isNull();
+
+        this.response = new MockHttpServletResponse();
+        this.controller.inbox(second, null, 2, webRequest(), this.response);
+
+        page = readResponse();
+        messages = (List<Map<String, Object>>) page.get("messages");
+        assertThat(messages).hasSize(1);
+        assertThat(messages.get(0).get("id")).isEqualTo(first);
+        assertThat(page.get("olderCursor")).isNull();
+        assertThat(page.get("newerCursor")).isEqualTo(first);
+    }
+
+    @Test
+    public void inboxNotModified() throws Exception {
+        sendToUser("Subject");
+        this.controller.inbox(null, null, 25, webRequest(), this.response);
+        String eTag = this.response.getHeader("ETag");
+
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/messages/inbox");
+        request.addHeader("If-None-Match", eTag);
+        this.response = new MockHttpServletResponse();
+        this.controller.inbox(null, null, 25, new ServletWebRequest(request, this.response), this.response);
+
+        assertThat(this.response.getStatus()).isEqualTo(304);
+        assertThat(this.response.getContentAsString()).isEmpty();
+    }
+
+    @Test
+    public void inboxInvalidSize() throws Exception {
+        this.controller.inbox(null, null, MessageApiController.MAX_PAGE_SIZE + 1, webRequest(), this.response);
+
+        assertThat(this.response.getStatus()).isEqualTo(400);
+        assertThat(readResponse().get("error")).isNotNull();
+    }
+
+    @Test
+    public void inboxBeforeAndAfter() throws Exception {
+        this.controller.inbox(1, 2, 25, webRequest(), this.response);
+
+        assertThat(this.response.getStatus()).isEqualTo(400);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void sent() throws Exception {
+        Message message = createMessage("Sent");
+        message.setFromUser(this.user);
+        message.setToUser(this.userService.getUser(1));
+        int id = this.messageService.createMessage(message);
+
+        this.controller.sent(null, null, 25, webRequest(), this.response);
+
+        List<Map<String, Object>> messages = (List<Map<String, Object>>) readResponse().get("messages");
+        assertThat(messages).hasSize(1);
+        assertThat(messages.get(0).get("id")).isEqualTo(id);
+        assertThat(messages.get(0).get("counterpartLastName")).isEqualTo("Winch");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void show() throws Exception {
+        int id = sendToUser("Show");
+
+        this.controller.show(id, this.response);
+
+        Map<String, Object> message = readResponse();
+        assertThat(message.get("id")).isEqualTo(id);
+        assertThat(message.get("subject")).isEqualTo("Show");
+        assertThat(message.get("message")).isEqualTo("Message");
+        Map<String, Object> to = (Map<String, Object>) message.get("to");
+        assertThat(to.get("email")).isEqualTo(this.user.getEmail());
+        assertThat(to.keySet()).excludes("password");
+        assertThat(((Map<String, Object>) message.get("from")).keySet()).excludes("password");
+    }
+
+    @Test(expected = AccessDeniedException.class)
+    public void showNotOwner() throws Exception {
+        this.controller.show(1, this.response);
+    }
+
+    @Test
+    public void create() throws Exception {
+        MessageForm form = new MessageForm();
+        form.setToEmail("rob@example.org, luke@example.com");
+        form.setSubject("Created");
+        form.setMessage("Created with the API");
+
+        this.controller.create(form, this.response);
+
+        assertThat(readResponse().get("sent")).isEqualTo(2);
+        assertThat(this.messageService.getSentVersion(this.user.getId())).isEqualTo(2);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void createUnknownRecipient() throws Exception {
+        MessageForm form = new MessageForm();
+        form.setToEmail("missing@example.com");
+        form.setSubject("Created");
+        form.setMessage("Created with the API");
+
+        this.controller.create(form, this.response);
+
+        assertThat(this.response.getStatus()).isEqualTo(400);
+        Map<String, Object> errors = (Map<String, Object>) readResponse().get("errors");
+        assertThat(errors.get("toEmail")).isEqualTo("A user with email missing@example.com was not found.");
+        assertThat(this.messageService.getSentVersion(this.user.getId())).isEqualTo(0);
+    }
+
+    @Test
+    public void notFound() throws Exception {
+        this.controller.notFound(this.response);
+
+        assertThat(this.response.getStatus()).isEqualTo(404);
+        assertThat(readResponse().get("error")).isNotNull();
+    }
+
+    @Test
+    public void accessDenied() throws Exception {
+        this.controller.accessDenied(this.response);
+
+        assertThat(this.response.getStatus()).isEqualTo(403);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> readResponse() throws Exception {
+        return this.mapper.readValue(this.response.getContentAsString(), Map.class);
+    }
+
+    private ServletWebRequest webRequest() {
+        return new ServletWebRequest(new MockHttpServletRequest("GET", "/api/messages"), this.response);
+    }
+
+    private int sendToUser(String subject) {
+        Message message = createMessage(subject);
+        message.setFromUser(this.userService.getUser(1));
+        message.setToUser(this.user);
+        return this.messageService.createMessage(message);
+    }
+
+    private static Message createMessage(String subject) {
+        Message message = new Message();
+        message.setSubject(subject);
+        message.setMessage("Message");
+        return message;
+    }
+}
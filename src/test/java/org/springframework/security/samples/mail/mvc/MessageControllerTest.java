@@ -0,0 +1,137 @@
+package org.springframework.security.samples.mail.mvc;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.samples.mail.MailUser;
+import org.springframework.security.samples.mail.MailUserContext;
+import org.springframework.security.samples.mail.MailUserService;
+import org.springframework.security.samples.mail.Message;
+import org.springframework.security.samples.mail.MessageService;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.ui.ModelMap;
+import org.springframework.web.context.request.ServletWebRequest;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = "file:src/main/webapp/WEB-INF/spring/*.xml")
+public class MessageControllerTest {
+    @Autowired
+    @Qualifier("jdbcMessageService")
+    private MessageService messageService;
+    @Autowired
+    @Qualifier("jdbcMailUserService")
+    private MailUserService userService;
+    @Autowired
+    private MailUserContext userContext;
+
+    private MessageController controller;
+
+    private MailUser user;
+
+    @Before
+    public void setUp() {
+        this.controller = new MessageController();
+        ReflectionTestUtils.setField(this.controller, "messageRespository", this.messageService);
+        ReflectionTestUtils.setField(this.controller, "userRepository", this.userService);
+        ReflectionTestUtils.setField(this.controller, "userContext", this.userContext);
+
+        this.user = new MailUser();
+        this.user.setEmail("etag" + System.nanoTime() + "@example.com");
+        this.user.setFirstName("ETag");
+        this.user.setLastName("User");
+        this.user.setPassword("password");
+        this.user.setId(this.userService.createUser(this.user));
+        SecurityContextHolder.getContext().setAuthentication(
+                new UsernamePasswordAuthenticationToken(this.user, "notused", AuthorityUtils
+                        .createAuthorityList("ROLE_USER")));
+    }
+
+    @After
+    public void tearDown() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    public void inboxNotModified() {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        assertThat(this.controller.inbox(null, null, request(null, response), new ModelMap())).isEqualTo(
+                "messages/inbox");
+        String eTag = response.getHeader("ETag");
+        assertThat(eTag).isNotNull();
+
+        response = new MockHttpServletResponse();
+        ModelMap model = new ModelMap();
+        assertThat(this.controller.inbox(null, null, request(eTag, response), model)).isNull();
+        assertThat(response.getStatus()).isEqualTo(304);
+        assertThat(model).isEmpty();
+    }
+
+    @Test
+    public void inboxModifiedByNewMessage() {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        this.controller.inbox(null, null, request(null, response), new ModelMap());
+        String eTag = response.getHeader("ETag");
+
+        sendToUser();
+
+        response = new MockHttpServletResponse();
+        assertThat(this.controller.inbox(null, null, request(eTag, response), new ModelMap())).isEqualTo(
+                "messages/inbox");
+        assertThat(response.getStatus()).isEqualTo(200);
+        assertThat(response.getHeader("ETag")).isNotEqualTo(eTag);
+    }
+
+    @Test
+    public void sentNotModifiedByReceivedMessage() {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        this.controller.sent(null, null, request(null, response), new ModelMap());
+        String eTag = response.getHeader("ETag");
+
+        sendToUser();
+
+        response = new MockHttpServletResponse();
+        assertThat(this.controller.sent(null, null, request(eTag, response), new ModelMap())).isNull();
+        assertThat(response.getStatus()).isEqualTo(304);
+    }
+
+    @Test
+    public void eTagDiffersByUser() {
+        assertThat(MessageController.eTag("inbox", 1, 3)).isNotEqualTo(MessageController.eTag("inbox", 2, 3));
+        assertThat(MessageController.eTag("inbox", 1, 3)).isNotEqualTo(MessageController.eTag("sent", 1, 3));
+    }
+
+    @Test
+    public void eTagDiffersByStartup() {
+        assertThat(MessageController.eTag("inbox", 1, 3, 1000)).isNotEqualTo(
+                MessageController.eTag("inbox", 1, 3, 2000));
+    }
+
+    private void sendToUser() {
+        Message message = new Message();
+        message.setFromUser(this.userService.getUser(1));
+        message.setToUser(this.user);
+        message.setSubject("Subject");
+        message.setMessage("Message");
+        this.messageService.createMessage(message);
+    }
+
+    private static ServletWebRequest request(String ifNoneMatch, MockHttpServletResponse response) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/messages/inbox");
+        if (ifNoneMatch != null) {
+            request.addHeader("If-None-Match", ifNoneMatch);
+        }
+        return new ServletWebRequest(request, response);
+    }
+}
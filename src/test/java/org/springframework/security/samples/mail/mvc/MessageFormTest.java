@@ -0,0 +1,70 @@
+package org.springframework.security.samples.mail.mvc;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.util.Set;
+
+import javax.validation.ConstraintViolation;
+import javax.validation.Validation;
+import javax.validation.Validator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class MessageFormTest {
+    private Validator validator;
+    private MessageForm form;
+
+    @Before
+    public void setup() {
+        this.validator = Validation.buildDefaultValidatorFactory().getValidator();
+        this.form = new MessageForm();
+        this.form.setSubject("Subject");
+        this.form.setMessage("Message");
+    }
+
+    @Test
+    public void maxRecipients() {
+        this.form.setToEmail(emails(MessageForm.MAX_RECIPIENTS));
+
+        assertThat(this.validator.validate(this.form)).isEmpty();
+    }
+
+    @Test
+    public void tooManyRecipients() {
+        this.form.setToEmail(emails(MessageForm.MAX_RECIPIENTS + 1));
+
+        Set<ConstraintViolation<MessageForm>> violations = this.validator.validate(this.form);
+
+        assertThat(violations).hasSize(1);
+        ConstraintViolation<MessageForm> violation = violations.iterator().next();
+        assertThat(violation.getPropertyPath().toString()).isEqualTo("toEmail");
+        assertThat(violation.getMessage()).isEqualTo(
+                "To cannot have more than " + MessageForm.MAX_RECIPIENTS + " email addresses.");
+    }
+
+    @Test
+    public void duplicateRecipientsAreCountedOnce() {
+        this.form.setToEmail(emails(MessageForm.MAX_RECIPIENTS) + ", user0@example.com");
+
+        assertThat(this.validator.validate(this.form)).isEmpty();
+    }
+
+    @Test
+    public void invalidRecipient() {
+        this.form.setToEmail("rob@example.org, not an email@");
+
+        Set<ConstraintViolation<MessageForm>> violations = this.validator.validate(this.form);
+
+        assertThat(violations).hasSize(1);
+        assertThat(violations.iterator().next().getMessage()).isEqualTo("To must be a valid email address.");
+    }
+
+    private static String emails(int count) {
+        StringBuilder emails = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            emails.append("user").append(i).append("@example.com ");
+        }
+        return emails.toString();
+    }
+}
@@ -0,0 +1,88 @@
+package org.springframework.security.samples.mail.mvc;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.io.IOException;
+import java.util.List;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.samples.mail.metrics.EndpointInterceptor;
+import org.springframework.security.samples.mail.metrics.EndpointStatistics;
+import org.springframework.security.samples.mail.metrics.RequestMetrics;
+import org.springframework.security.samples.mail.metrics.RequestMetricsFilter;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.servlet.ModelAndView;
+
+public class MetricsControllerTest {
+    private RequestMetrics requestMetrics;
+    private MetricsController controller;
+
+    @Before
+    public void setup() throws Exception {
+        this.requestMetrics = new RequestMetrics();
+        this.controller = new MetricsController(this.requestMetrics);
+        request("/messages/{id}", HttpServletResponse.SC_OK);
+        request("/messages/{id}", HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        request("/say/\"hi\"", HttpServletResponse.SC_OK);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorNullRequestMetrics() {
+        new MetricsController(null);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void metrics() {
+        ModelAndView result = this.controller.metrics();
+
+        assertThat(result.getViewName()).isEqualTo("user/metrics");
+        List<EndpointStatistics> endpoints = (List<EndpointStatistics>) result.getModel().get("endpoints");
+        assertThat(endpoints).hasSize(2);
+        assertThat(endpoints.get(0).getEndpoint()).isEqualTo("GET /messages/{id}");
+        assertThat(endpoints.get(0).getCount()).isEqualTo(2);
+        assertThat(endpoints.get(0).getErrors()).isEqualTo(1);
+        assertThat(result.getModel().get("inFlight")).isEqualTo(0);
+    }
+
+    @Test
+    public void scrape() throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        this.controller.scrape(response);
+
+        assertThat(response.getContentType()).startsWith(MetricsController.SCRAPE_CONTENT_TYPE);
+        String text = response.getContentAsString();
+        assertThat(text).doesNotContain("\r");
+        assertThat(text).contains("# TYPE securemail_request_duration_seconds summary\n");
+        assertThat(text).contains(
+                "securemail_request_duration_seconds{endpoint=\"GET /messages/{id}\",quantile=\"0.99\"} ");
+        assertThat(text).contains("securemail_request_duration_seconds_count{endpoint=\"GET /messages/{id}\"} 2\n");
+        assertThat(text).contains("securemail_request_errors_total{endpoint=\"GET /messages/{id}\"} 1\n");
+        assertThat(text).contains("securemail_requests_in_flight{endpoint=\"GET /messages/{id}\"} 0\n");
+        assertThat(text).contains("securemail_request_errors_total{endpoint=\"GET /say/\\\"hi\\\"\"} 0\n");
+    }
+
+    private void request(final String pattern, final int status) throws Exception {
+        new RequestMetricsFilter(this.requestMetrics).doFilter(new MockHttpServletRequest("GET", "/"),
+                new MockHttpServletResponse(), new FilterChain() {
+                    public void doFilter(ServletRequest request, ServletResponse response) throws IOException,
+                            ServletException {
+                        request.setAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE, pattern);
+                        new EndpointInterceptor().preHandle((HttpServletRequest) request,
+                                (HttpServletResponse) response, null);
+                        ((HttpServletResponse) response).setStatus(status);
+                    }
+                });
+    }
+}
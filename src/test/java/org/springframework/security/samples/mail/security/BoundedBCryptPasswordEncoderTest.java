@@ -0,0 +1,122 @@
+package org.springframework.security.samples.mail.security;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.samples.mail.security.BoundedBCryptPasswordEncoder.PasswordVerificationRejectedException;
+
+public class BoundedBCryptPasswordEncoderTest {
+    private BoundedBCryptPasswordEncoder encoder = new BoundedBCryptPasswordEncoder(4, 1, 1);
+
+    @After
+    public void cleanup() {
+        this.encoder.destroy();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorStrengthTooLow() {
+        new BoundedBCryptPasswordEncoder(3, 1, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorZeroThreads() {
+        new BoundedBCryptPasswordEncoder(4, 0, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorZeroQueueCapacity() {
+        new BoundedBCryptPasswordEncoder(4, 1, 0);
+    }
+
+    @Test
+    public void encodeAndMatches() {
+        String encoded = this.encoder.encode("penguin");
+
+        assertThat(encoded).startsWith("$2a$04$");
+        assertThat(this.encoder.matches("penguin", encoded)).isTrue();
+        assertThat(this.encoder.matches("lion", encoded)).isFalse();
+        assertThat(this.encoder.upgradeEncoding(encoded)).isFalse();
+    }
+
+    @Test
+    public void matchesPlainTextNotMigrating() {
+        assertThat(this.encoder.matches("penguin", "penguin")).isFalse();
+    }
+
+    @Test
+    public void matchesPlainText() {
+        this.encoder.setPlainTextMigration(true);
+
+        assertThat(this.encoder.matches("penguin", "penguin")).isTrue();
+        assertThat(this.encoder.matches("lion", "penguin")).isFalse();
+        assertThat(this.encoder.upgradeEncoding("penguin")).isTrue();
+    }
+
+    @Test
+    public void matchesNull() {
+        assertThat(this.encoder.matches(null, "penguin")).isFalse();
+        assertThat(this.encoder.matches("penguin", null)).isFalse();
+    }
+
+    @Test
+    public void upgradeEncodingDifferentStrength() {
+        assertThat(this.encoder.upgradeEncoding(new BCryptPasswordEncoder(5).encode("penguin"))).isTrue();
+    }
+
+    @Test
+    public void timeoutIsRejected() {
+        this.encoder = new BoundedBCryptPasswordEncoder(4, 1, 1);
+        this.encoder.setTimeoutMillis(1);
+        try {
+            this.encoder.matches("penguin", hash(14));
+            fail("Expected PasswordVerificationRejectedException");
+        } catch (PasswordVerificationRejectedException success) {
+        }
+        assertThat(this.encoder.getRejectedCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void saturatedIsRejected() throws Exception {
+        this.encoder.destroy();
+        this.encoder = new BoundedBCryptPasswordEncoder(4, 1, 1);
+        // one hash occupies the only thread and a second fills the queue
+        for (int i = 0; i < 2; i++) {
+            Thread thread = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        encoder.matches("penguin", hash(16));
+                    } catch (RuntimeException expected) {
+                    }
+                }
+            });
+            thread.setDaemon(true);
+            thread.start();
+            Thread.sleep(100);
+        }
+        try {
+            this.encoder.matches("penguin", hash(16));
+            fail("Expected PasswordVerificationRejectedException");
+        } catch (PasswordVerificationRejectedException success) {
+        }
+        // a password that is not hashed is verified like a hash, so it is rejected too
+        try {
+            this.encoder.matches("penguin", "penguin");
+            fail("Expected PasswordVerificationRejectedException");
+        } catch (PasswordVerificationRejectedException success) {
+        }
+        assertThat(this.encoder.getQueueDepth()).isEqualTo(1);
+        assertThat(this.encoder.getRejectedCount()).isEqualTo(2);
+        // new passwords are encoded on the calling thread
+        assertThat(this.encoder.encode("penguin")).startsWith("$2a$04$");
+    }
+
+    /**
+     * A hash that takes as long to verify as a real one with the given strength without computing one first.
+     */
+    private static String hash(int strength) {
+        return "$2a$" + strength + "$abcdefghijklmnopqrstuuabcdefghijklmnopqrstuvwxyzABCDE";
+    }
+}
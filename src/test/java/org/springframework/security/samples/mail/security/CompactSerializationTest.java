@@ -0,0 +1,157 @@
+package org.springframework.security.samples.mail.security;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.samples.mail.MailUser;
+import org.springframework.security.samples.mail.Message;
+
+public class CompactSerializationTest {
+    private MailUser rob;
+    private MailUser luke;
+    private Message message;
+
+    @Before
+    public void setup() {
+        this.rob = user(1, "rob@example.org", "Rob", "Winch", "penguin");
+        this.luke = user(2, "luke@example.com", "Luke", "Taylor", "lion");
+        this.message = new Message();
+        this.message.setId(1);
+        this.message.setSubject("Hi");
+        this.message.setMessage("Hello");
+        this.message.setFromUser(this.luke);
+        this.message.setToUser(this.rob);
+    }
+
+    @Test
+    public void mailUserRoundTrip() throws Exception {
+        byte[] bytes = serialize(this.rob);
+
+        assertMailUser((MailUser) deserialize(bytes), this.rob);
+        assertThat(bytes.length).isLessThan(legacy("legacy-mail-user.ser").length / 2);
+    }
+
+    @Test
+    public void mailUserNullsRoundTrip() throws Exception {
+        MailUser user = new MailUser();
+
+        MailUser result = (MailUser) deserialize(serialize(user));
+
+        assertThat(result.getId()).isNull();
+        assertThat(result.getEmail()).isNull();
+        assertThat(result.getPassword()).isNull();
+    }
+
+    @Test
+    public void messageRoundTrip() throws Exception {
+        this.message.setToUser(this.luke);
+        byte[] bytes = serialize(this.message);
+
+        Message result = (Message) deserialize(bytes);
+
+        assertThat(result.getId()).isEqualTo(1);
+        assertThat(result.getSubject()).isEqualTo("Hi");
+        assertThat(result.getMessage()).isEqualTo("Hello");
+        assertMailUser(result.getFromUser(), this.luke);
+        assertThat(result.getToUser()).isSameAs(result.getFromUser());
+        assertThat(bytes.length).isLessThan(legacy("legacy-message.ser").length / 2);
+    }
+
+    @Test
+    public void mailUserDetailsRoundTrip() throws Exception {
+        byte[] bytes = serialize(new MailUserDetails(this.luke));
+
+        MailUserDetails result = (MailUserDetails) deserialize(bytes);
+
+        assertMailUser(result, this.luke);
+        assertThat(AuthorityUtils.authorityListToSet(result.getAuthorities())).containsOnly("ROLE_USER", "ROLE_ADMIN");
+        assertThat(bytes.length).isLessThan(legacy("legacy-mail-user-details.ser").length / 4);
+    }
+
+    @Test
+    public void legacyMailUser() throws Exception {
+        assertMailUser((MailUser) deserialize(legacy("legacy-mail-user.ser")), this.rob);
+    }
+
+    @Test
+    public void legacyMessage() throws Exception {
+        Message result = (Message) deserialize(legacy("legacy-message.ser"));
+
+        assertThat(result.getSubject()).isEqualTo("Hi");
+        assertMailUser(result.getFromUser(), this.luke);
+        assertMailUser(result.getToUser(), this.rob);
+    }
+
+    @Test
+    public void legacyMailUserDetails() throws Exception {
+        MailUserDetails result = (MailUserDetails) deserialize(legacy("legacy-mail-user-details.ser"));
+
+        assertMailUser(result, this.luke);
+        assertThat(AuthorityUtils.authorityListToSet(result.getAuthorities())).containsOnly("ROLE_USER", "ROLE_ADMIN");
+    }
+
+    @Test
+    public void legacyNestedMailUserDetails() throws Exception {
+        Object result = deserialize(legacy("legacy-nested-mail-user-details.ser"));
+
+        assertThat(result).isInstanceOf(MailUserDetails.class);
+        assertMailUser((MailUser) result, this.luke);
+    }
+
+    private static void assertMailUser(MailUser actual, MailUser expected) {
+        assertThat(actual.getId()).isEqualTo(expected.getId());
+        assertThat(actual.getEmail()).isEqualTo(expected.getEmail());
+        assertThat(actual.getFirstName()).isEqualTo(expected.getFirstName());
+        assertThat(actual.getLastName()).isEqualTo(expected.getLastName());
+        assertThat(actual.getPassword()).isEqualTo(expected.getPassword());
+    }
+
+    private static MailUser user(int id, String email, String firstName, String lastName, String password) {
+        MailUser user = new MailUser();
+        user.setId(id);
+        user.setEmail(email);
+        user.setFirstName(firstName);
+        user.setLastName(lastName);
+        user.setPassword(password);
+        return user;
+    }
+
+    static byte[] serialize(Object o) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(o);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    static Object deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+        return new ObjectInputStream(new ByteArrayInputStream(bytes)).readObject();
+    }
+
+    /**
+     * Reads the bytes of an object that was serialized before the compact forms were introduced.
+     */
+    private static byte[] legacy(String name) throws IOException {
+        InputStream in = CompactSerializationTest.class.getResourceAsStream(name);
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                bytes.write(buffer, 0, read);
+            }
+            return bytes.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
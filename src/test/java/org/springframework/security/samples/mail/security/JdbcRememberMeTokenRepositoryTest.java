@@ -0,0 +1,175 @@
+package org.springframework.security.samples.mail.security;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.sql.Timestamp;
+import java.util.Date;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.samples.mail.security.JdbcRememberMeTokenRepository.IssuedRememberMeToken;
+import org.springframework.security.web.authentication.rememberme.PersistentRememberMeToken;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = "file:src/main/webapp/WEB-INF/spring/*.xml")
+public class JdbcRememberMeTokenRepositoryTest {
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private String series;
+    private String username;
+    private JdbcRememberMeTokenRepository repository;
+
+    @Before
+    public void setup() {
+        this.series = "series" + System.nanoTime();
+        this.username = "token" + System.nanoTime() + "@example.com";
+        this.repository = new JdbcRememberMeTokenRepository(this.jdbcTemplate);
+        this.repository.afterPropertiesSet();
+    }
+
+    @After
+    public void cleanup() {
+        this.repository.destroy();
+        this.repository.removeUserTokens(this.username);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorNullJdbcTemplate() {
+        new JdbcRememberMeTokenRepository(null);
+    }
+
+    @Test
+    public void createNewToken() {
+        Date issued = new Date(System.currentTimeMillis() - 1000);
+        this.repository.createNewToken(new PersistentRememberMeToken(this.username, this.series, "token", issued));
+
+        IssuedRememberMeToken token = this.repository.getTokenForSeries(this.series);
+        assertThat(token.getUsername()).isEqualTo(this.username);
+        assertThat(token.getTokenValue()).isEqualTo("token");
+        assertThat(token.getIssued().getTime()).isEqualTo(issued.getTime());
+        assertThat(token.getDate().getTime()).isEqualTo(issued.getTime());
+    }
+
+    @Test
+    public void getTokenForSeriesUnknown() {
+        assertThat(this.repository.getTokenForSeries(this.series)).isNull();
+    }
+
+    @Test
+    public void updateToken() {
+        this.repository.createNewToken(new PersistentRememberMeToken(this.username, this.series, "token", new Date(0)));
+        Date now = new Date();
+
+        this.repository.updateToken(this.series, "rotated", now);
+
+        IssuedRememberMeToken token = this.repository.getTokenForSeries(this.series);
+        assertThat(token.getTokenValue()).isEqualTo("rotated");
+        assertThat(token.getIssued().getTime()).isEqualTo(now.getTime());
+        assertThat(token.getDate().getTime()).isEqualTo(now.getTime());
+    }
+
+    @Test
+    public void rotateToken() {
+        this.repository.createNewToken(new PersistentRememberMeToken(this.username, this.series, "token", new Date(0)));
+        Date now = new Date();
+
+        assertThat(this.repository.rotateToken(this.series, "token", "rotated", now)).isTrue();
+
+        IssuedRememberMeToken token = this.repository.getTokenForSeries(this.series);
+        assertThat(token.getTokenValue()).isEqualTo("rotated");
+        assertThat(token.getPreviousTokenValue()).isEqualTo("token");
+        assertThat(token.getIssued().getTime()).isEqualTo(now.getTime());
+    }
+
+    @Test
+    public void rotateTokenRotatedConcurrently() {
+        this.repository.createNewToken(new PersistentRememberMeToken(this.username, this.series, "token", new Date(0)));
+        this.repository.rotateToken(this.series, "token", "first", new Date());
+
+        assertThat(this.repository.rotateToken(this.series, "token", "second", new Date())).isFalse();
+
+        IssuedRememberMeToken token = this.repository.getTokenForSeries(this.series);
+        assertThat(token.getTokenValue()).isEqualTo("first");
+        assertThat(token.getPreviousTokenValue()).isEqualTo("token");
+    }
+
+    @Test
+    public void touchIsWrittenOnFlush() {
+        Date issued = new Date(System.currentTimeMillis() - 1000);
+        this.repository.createNewToken(new PersistentRememberMeToken(this.username, this.series, "token", issued));
+        Date now = new Date();
+
+        this.repository.touch(this.series, now);
+
+        assertThat(this.repository.getTokenForSeries(this.series).getDate().getTime()).isEqualTo(now.getTime());
+        assertThat(lastUsed()).isEqualTo(issued.getTime());
+
+        this.repository.flush();
+
+        assertThat(lastUsed()).isEqualTo(now.getTime());
+        IssuedRememberMeToken token = this.repository.getTokenForSeries(this.series);
+        assertThat(token.getTokenValue()).isEqualTo("token");
+        assertThat(token.getIssued().getTime()).isEqualTo(issued.getTime());
+    }
+
+    @Test
+    public void touchIsDiscardedByUpdateToken() {
+        this.repository.createNewToken(new PersistentRememberMeToken(this.username, this.series, "token", new Date(0)));
+        Date now = new Date();
+        this.repository.touch(this.series, new Date(now.getTime() + 1000));
+
+        this.repository.updateToken(this.series, "rotated", now);
+        this.repository.flush();
+
+        assertThat(lastUsed()).isEqualTo(now.getTime());
+    }
+
+    @Test
+    public void removeUserTokens() {
+        this.repository.createNewToken(new PersistentRememberMeToken(this.username, this.series, "token", new Date()));
+        this.repository.createNewToken(new PersistentRememberMeToken(this.username, this.series + "other", "token",
+                new Date()));
+
+        this.repository.removeUserTokens(this.username);
+
+        assertThat(this.repository.getTokenForSeries(this.series)).isNull();
+        assertThat(this.repository.getTokenForSeries(this.series + "other")).isNull();
+    }
+
+    @Test
+    public void removeExpiredTokensInChunks() {
+        this.repository.setTokenValiditySeconds(60);
+        this.repository.setSweepChunkSize(2);
+        this.repository.removeExpiredTokens();
+        Date expired = new Date(System.currentTimeMillis() - DAY_MILLIS);
+        for (int i = 0; i < 5; i++) {
+            this.repository.createNewToken(new PersistentRememberMeToken(this.username, this.series + i, "token",
+                    expired));
+        }
+        this.repository.createNewToken(new PersistentRememberMeToken(this.username, this.series, "token", new Date()));
+
+        assertThat(this.repository.removeExpiredTokens()).isEqualTo(5);
+
+        assertThat(this.repository.getTokenForSeries(this.series + "0")).isNull();
+        assertThat(this.repository.getTokenForSeries(this.series)).isNotNull();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setSweepChunkSizeZero() {
+        this.repository.setSweepChunkSize(0);
+    }
+
+    private long lastUsed() {
+        return this.jdbcTemplate.queryForObject("select last_used from remember_me_token where series = ?",
+                Timestamp.class, this.series).getTime();
+    }
+}
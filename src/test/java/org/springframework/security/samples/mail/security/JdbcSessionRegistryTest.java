@@ -0,0 +1,254 @@
+package org.springframework.security.samples.mail.security;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.session.SessionDestroyedEvent;
+import org.springframework.security.core.session.SessionInformation;
+import org.springframework.security.samples.mail.JdbcMessageServiceTest;
+import org.springframework.security.samples.mail.MailUser;
+import org.springframework.security.web.authentication.session.SessionAuthenticationStrategy;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = "file:src/main/webapp/WEB-INF/spring/*.xml")
+public class JdbcSessionRegistryTest {
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private MailUser user;
+    private String sessionId;
+    private JdbcSessionRegistry registry;
+    private JdbcSessionRegistry otherNode;
+    private String loginSessionId;
+
+    @Autowired
+    private SessionAuthenticationStrategy sessionAuthenticationStrategy;
+
+    @Before
+    public void setup() {
+        this.user = JdbcMessageServiceTest.getExistingMessage().getToUser();
+        this.sessionId = "session" + System.nanoTime();
+        this.registry = createRegistry();
+        this.otherNode = createRegistry();
+    }
+
+    @After
+    public void cleanup() {
+        this.registry.removeSessionInformation(this.sessionId);
+        this.registry.removeSessionInformation(this.sessionId + "other");
+        if (this.loginSessionId != null) {
+            this.registry.removeSessionInformation(this.loginSessionId);
+        }
+        this.registry.destroy();
+        this.otherNode.destroy();
+    }
+
+    @Test
+    public void registerNewSession() {
+        this.registry.registerNewSession(this.sessionId, this.user);
+
+        SessionInformation session = this.otherNode.getSessionInformation(this.sessionId);
+        assertThat(session.getSessionId()).isEqualTo(this.sessionId);
+        assertThat(((MailUser) session.getPrincipal()).getId()).isEqualTo(this.user.getId());
+        assertThat(session.isExpired()).isFalse();
+        assertThat(sessionIds(this.otherNode.getAllSessions(this.user, false))).contains(this.sessionId);
+        assertThat(this.otherNode.getAllPrincipals()).contains(this.user);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void registerNewSessionNotMailUser() {
+        this.registry.registerNewSession(this.sessionId, "rob@example.org");
+    }
+
+    @Test
+    public void getSessionInformationUnknown() {
+        assertThat(this.registry.getSessionInformation(this.sessionId)).isNull();
+        assertThat(this.registry.getSessionInformation(this.sessionId)).isNull();
+        assertThat(this.registry.getCache().getHits()).isEqualTo(1);
+    }
+
+    @Test
+    public void expireNowIsSeenByOtherNodes() {
+        this.registry.registerNewSession(this.sessionId, this.user);
+        this.registry.getSessionInformation(this.sessionId).expireNow();
+
+        assertThat(this.otherNode.getSessionInformation(this.sessionId).isExpired()).isTrue();
+        assertThat(sessionIds(this.otherNode.getAllSessions(this.user, false))).excludes(this.sessionId);
+        assertThat(sessionIds(this.otherNode.getAllSessions(this.user, true))).contains(this.sessionId);
+    }
+
+    @Test
+    public void refreshLastRequestIsBatched() throws Exception {
+        this.registry.registerNewSession(this.sessionId, this.user);
+        long registered = lastRequest();
+        Thread.sleep(10);
+
+        this.registry.refreshLastRequest(this.sessionId);
+        assertThat(lastRequest()).isEqualTo(registered);
+
+        this.registry.flush();
+        assertThat(lastRequest()).isGreaterThan(registered);
+    }
+
+    @Test
+    public void sessionDestroyedRemovesSession() {
+        this.registry.registerNewSession(this.sessionId, this.user);
+        this.registry.onApplicationEvent(new SessionDestroyedEvent(this.sessionId) {
+            public String getId() {
+                return (String) getSource();
+            }
+
+            public List<SecurityContext> getSecurityContexts() {
+                return null;
+            }
+
+            private static final long serialVersionUID = 1L;
+        });
+
+        assertThat(this.otherNode.getSessionInformation(this.sessionId)).isNull();
+    }
+
+    @Test
+    public void staleSessionsAreIgnored() throws Exception {
+        this.registry.registerNewSession(this.sessionId, this.user);
+        Thread.sleep(10);
+        this.otherNode.setSessionTimeoutMillis(5);
+
+        assertThat(sessionIds(this.otherNode.getAllSessions(this.user, true))).excludes(this.sessionId);
+        assertThat(this.otherNode.removeStaleSessions()).isGreaterThanOrEqualTo(1);
+        assertThat(this.registry.getSessionInformation(this.sessionId)).isNull();
+    }
+
+    @Test
+    public void getSessionsForUser() {
+        this.registry.registerNewSession(this.sessionId, this.user);
+
+        assertThat(sessionIds(this.otherNode.getSessionsForUser(this.user.getId(), false))).contains(this.sessionId);
+        assertThat(this.otherNode.getSessionsForUser(Integer.MAX_VALUE, false)).isEmpty();
+    }
+
+    @Test
+    public void findLoggedInUsers() throws Exception {
+        MailUser other = JdbcMessageServiceTest.getExistingMessage().getFromUser();
+        this.registry.registerNewSession(this.sessionId, this.user);
+        Thread.sleep(10);
+        this.registry.registerNewSession(this.sessionId + "other", other);
+
+        List<LoggedInUser> byName = this.otherNode.findLoggedInUsers(MailUserSessionRegistry.Order.NAME, null, null,
+                10);
+        assertThat(userIds(byName)).containsExactly(other.getId(), this.user.getId());
+        assertThat(byName.get(0).getSessionCount()).isEqualTo(1);
+
+        List<LoggedInUser> byLastRequest = this.otherNode.findLoggedInUsers(
+                MailUserSessionRegistry.Order.LAST_REQUEST, null, null, 10);
+        assertThat(userIds(byLastRequest)).containsExactly(other.getId(), this.user.getId());
+
+        List<LoggedInUser> secondPage = this.otherNode.findLoggedInUsers(MailUserSessionRegistry.Order.NAME,
+                other.getId(), null, 10);
+        assertThat(userIds(secondPage)).containsExactly(this.user.getId());
+
+        LoggedInUser newest = byLastRequest.get(0);
+        secondPage = this.otherNode.findLoggedInUsers(MailUserSessionRegistry.Order.LAST_REQUEST, other.getId(),
+                newest.getLastRequest(), 10);
+        assertThat(userIds(secondPage)).containsExactly(this.user.getId());
+    }
+
+    @Test
+    public void findLoggedInUsersMostRecentSessionOnly() throws Exception {
+        this.registry.registerNewSession(this.sessionId, this.user);
+        Thread.sleep(10);
+        this.registry.registerNewSession(this.sessionId + "other", this.user);
+
+        List<LoggedInUser> byLastRequest = this.otherNode.findLoggedInUsers(
+                MailUserSessionRegistry.Order.LAST_REQUEST, null, null, 10);
+
+        assertThat(userIds(byLastRequest)).containsExactly(this.user.getId());
+        assertThat(byLastRequest.get(0).getSessionCount()).isEqualTo(2);
+        assertThat(byLastRequest.get(0).getLastRequest().getTime()).isEqualTo(lastRequest(this.sessionId + "other"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void findLoggedInUsersByLastRequestNullAfterLastRequest() {
+        this.registry.findLoggedInUsers(MailUserSessionRegistry.Order.LAST_REQUEST, this.user.getId(), null, 10);
+    }
+
+    @Test
+    public void expireSessionsForUsers() {
+        this.registry.registerNewSession(this.sessionId, this.user);
+        this.registry.getSessionInformation(this.sessionId);
+
+        assertThat(this.otherNode.expireSessionsForUsers(Arrays.asList(this.user.getId(), Integer.MAX_VALUE))).isEqualTo(1);
+        assertThat(this.otherNode.getSessionsForUser(this.user.getId(), false)).isEmpty();
+        assertThat(this.otherNode.findLoggedInUsers(MailUserSessionRegistry.Order.NAME, null, null, 10)).isEmpty();
+    }
+
+    @Test
+    public void expireSession() {
+        this.registry.registerNewSession(this.sessionId, this.user);
+
+        assertThat(this.otherNode.expireSession(this.sessionId)).isTrue();
+        assertThat(this.registry.getSessionInformation(this.sessionId).isExpired()).isTrue();
+        assertThat(this.otherNode.expireSession(this.sessionId + "unknown")).isFalse();
+    }
+
+    @Test
+    public void loginExpiresSessionOfOtherNode() {
+        this.otherNode.registerNewSession(this.sessionId, this.user);
+        MockHttpServletRequest request = new MockHttpServletRequest();
+
+        this.sessionAuthenticationStrategy.onAuthentication(new TestingAuthenticationToken(this.user, null), request,
+                new MockHttpServletResponse());
+        this.loginSessionId = request.getSession().getId();
+
+        assertThat(this.registry.getSessionInformation(this.sessionId).isExpired()).isTrue();
+        assertThat(this.registry.getSessionInformation(this.loginSessionId).isExpired()).isFalse();
+    }
+
+    private JdbcSessionRegistry createRegistry() {
+        JdbcSessionRegistry registry = new JdbcSessionRegistry(this.jdbcTemplate);
+        registry.setFlushIntervalMillis(60 * 60 * 1000);
+        registry.afterPropertiesSet();
+        return registry;
+    }
+
+    private long lastRequest() {
+        return lastRequest(this.sessionId);
+    }
+
+    private long lastRequest(String sessionId) {
+        return this.jdbcTemplate.queryForObject("select last_request from user_session where session_id = ?",
+                Timestamp.class, sessionId).getTime();
+    }
+
+    private static List<Integer> userIds(List<LoggedInUser> users) {
+        List<Integer> ids = new ArrayList<Integer>(users.size());
+        for (LoggedInUser user : users) {
+            ids.add(user.getUser().getId());
+        }
+        return ids;
+    }
+
+    private static String[] sessionIds(List<SessionInformation> sessions) {
+        String[] ids = new String[sessions.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = sessions.get(i).getSessionId();
+        }
+        return ids;
+    }
+}
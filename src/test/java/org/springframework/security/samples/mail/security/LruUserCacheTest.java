@@ -0,0 +1,112 @@
+package org.springframework.security.samples.mail.security;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.security.samples.mail.MailUser;
+import org.springframework.security.samples.mail.MailUserService;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = "file:src/main/webapp/WEB-INF/spring/*.xml")
+public class LruUserCacheTest {
+    @Autowired
+    private LruUserCache userCache;
+    @Autowired
+    private MailUserDetailsService userDetailsService;
+    @Autowired
+    private MailUserService userService;
+
+    @Before
+    public void setup() {
+        this.userCache.clear();
+    }
+
+    @Test
+    public void putAndGet() {
+        UserDetails user = new MailUserDetails(user("cache@example.com"));
+        this.userCache.putUserInCache(user);
+
+        assertThat(this.userCache.getUserFromCache("cache@example.com")).isSameAs(user);
+        assertThat(this.userCache.getUserFromCache("missing@example.com")).isNull();
+        assertThat(this.userCache.getUserFromCache(null)).isNull();
+
+        this.userCache.removeUserFromCache("cache@example.com");
+        assertThat(this.userCache.getUserFromCache("cache@example.com")).isNull();
+    }
+
+    @Test
+    public void loadUserByUsernameIsCached() {
+        long misses = this.userCache.getMisses();
+        long hits = this.userCache.getHits();
+
+        UserDetails first = this.userDetailsService.loadUserByUsername("rob@example.org");
+        UserDetails second = this.userDetailsService.loadUserByUsername("rob@example.org");
+
+        assertThat(second.getUsername()).isEqualTo(first.getUsername());
+        assertThat(second.getPassword()).isEqualTo(first.getPassword());
+        assertThat(second).isNotSameAs(first);
+        assertThat(this.userCache.getMisses()).isEqualTo(misses + 1);
+        assertThat(this.userCache.getHits()).isEqualTo(hits + 1);
+    }
+
+    @Test(expected = UsernameNotFoundException.class)
+    public void loadUserByUsernameNotFound() {
+        this.userDetailsService.loadUserByUsername("missing@example.com");
+    }
+
+    @Test
+    public void updatePasswordEvicts() {
+        MailUser user = user("evict" + System.nanoTime() + "@example.com");
+        int id = this.userService.createUser(user);
+        String oldPassword = this.userDetailsService.loadUserByUsername(user.getEmail()).getPassword();
+        assertThat(this.userCache.getUserFromCache(user.getEmail())).isNotNull();
+
+        this.userService.updatePassword(this.userService.getUser(id), "changed");
+
+        assertThat(this.userCache.getUserFromCache(user.getEmail())).isNull();
+        assertThat(this.userDetailsService.loadUserByUsername(user.getEmail()).getPassword()).isNotEqualTo(
+                oldPassword);
+    }
+
+    @Test
+    public void createUserEvicts() {
+        MailUser user = user("signup" + System.nanoTime() + "@example.com");
+        this.userCache.putUserInCache(new MailUserDetails(user));
+
+        this.userService.createUser(user);
+
+        assertThat(this.userCache.getUserFromCache(user.getEmail())).isNull();
+    }
+
+    @Test
+    public void setMaxSize() {
+        this.userCache.setMaxSize(1);
+        try {
+            long evictions = this.userCache.getEvictions();
+            this.userCache.putUserInCache(new MailUserDetails(user("one@example.com")));
+            this.userCache.putUserInCache(new MailUserDetails(user("two@example.com")));
+
+            assertThat(this.userCache.getSize()).isEqualTo(1);
+            assertThat(this.userCache.getEvictions()).isEqualTo(evictions + 1);
+            assertThat(this.userCache.getUserFromCache("one@example.com")).isNull();
+        } finally {
+            this.userCache.setMaxSize(LruUserCache.DEFAULT_MAX_SIZE);
+        }
+    }
+
+    private static MailUser user(String email) {
+        MailUser user = new MailUser();
+        user.setEmail(email);
+        user.setFirstName("Cache");
+        user.setLastName("User");
+        user.setPassword("password");
+        return user;
+    }
+}
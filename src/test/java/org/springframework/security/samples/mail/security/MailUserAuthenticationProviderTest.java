@@ -0,0 +1,172 @@
+package org.springframework.security.samples.mail.security;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.samples.mail.MailUser;
+import org.springframework.security.samples.mail.MailUserService;
+
+public class MailUserAuthenticationProviderTest {
+    private CountingPasswordEncoder passwordEncoder;
+    private StubMailUserService userService;
+    private MailUserAuthenticationProvider provider;
+
+    @Before
+    public void setup() {
+        this.passwordEncoder = new CountingPasswordEncoder();
+        // rob@example.org has a plain text password
+        this.passwordEncoder.setPlainTextMigration(true);
+        this.userService = new StubMailUserService();
+        this.userService.lukePassword = this.passwordEncoder.encode("lion");
+        this.provider = new MailUserAuthenticationProvider(this.userService, this.passwordEncoder);
+    }
+
+    @After
+    public void cleanup() {
+        this.passwordEncoder.destroy();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorNullUserService() {
+        new MailUserAuthenticationProvider(null, this.passwordEncoder);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorNullPasswordEncoder() {
+        new MailUserAuthenticationProvider(this.userService, null);
+    }
+
+    @Test
+    public void authenticate() {
+        Authentication result = this.provider.authenticate(token("rob@example.org", "penguin"));
+
+        assertThat(((MailUser) result.getPrincipal()).getId()).isEqualTo(1);
+        assertThat(AuthorityUtils.authorityListToSet(result.getAuthorities())).containsOnly("ROLE_USER");
+        assertThat(this.userService.lookups).isEqualTo(1);
+    }
+
+    @Test
+    public void authenticateUpgradesPlainTextPassword() {
+        this.provider.authenticate(token("rob@example.org", "penguin"));
+
+        assertThat(this.userService.updatedPassword).isEqualTo("penguin");
+    }
+
+    @Test
+    public void authenticateUpgradesDifferentStrength() {
+        this.userService.lukePassword = new BCryptPasswordEncoder(5).encode("lion");
+        this.provider.authenticate(token("luke@example.com", "lion"));
+
+        assertThat(this.userService.updatedPassword).isEqualTo("lion");
+    }
+
+    @Test
+    public void authenticateAdmin() {
+        Authentication result = this.provider.authenticate(token("luke@example.com", "lion"));
+
+        assertThat(AuthorityUtils.authorityListToSet(result.getAuthorities())).containsOnly("ROLE_USER", "ROLE_ADMIN");
+        assertThat(this.userService.updatedPassword).isNull();
+    }
+
+    @Test(expected = BadCredentialsException.class)
+    public void authenticateWrongPassword() {
+        this.provider.authenticate(token("rob@example.org", "notpenguin"));
+    }
+
+    @Test
+    public void authenticateUnknownUserIsHashed() {
+        try {
+            this.provider.authenticate(token("unknown@example.org", "lion"));
+            fail("Expected BadCredentialsException");
+        } catch (BadCredentialsException success) {
+        }
+        assertThat(this.passwordEncoder.hashedMatches).isEqualTo(1);
+    }
+
+    @Test
+    public void authenticateUnknownUserIsRejected() {
+        try {
+            this.provider.authenticate(token("unknown@example.org", "penguin"));
+            fail("Expected BadCredentialsException");
+        } catch (BadCredentialsException success) {
+        }
+        assertThat(this.userService.lookups).isEqualTo(1);
+    }
+
+    /**
+     * Counts the passwords that are verified against a hash (rather than compared to a plain text password).
+     */
+    private static class CountingPasswordEncoder extends BoundedBCryptPasswordEncoder {
+        private int hashedMatches;
+
+        private CountingPasswordEncoder() {
+            super(4, 1, 10);
+        }
+
+        @Override
+        public boolean matches(CharSequence rawPassword, String encodedPassword) {
+            if (encodedPassword != null && encodedPassword.startsWith("$2a$")) {
+                this.hashedMatches++;
+            }
+            return super.matches(rawPassword, encodedPassword);
+        }
+    }
+
+    private static Authentication token(String username, String password) {
+        return new UsernamePasswordAuthenticationToken(username, password);
+    }
+
+    private static class StubMailUserService implements MailUserService {
+        private int lookups;
+        private String lukePassword;
+        private String updatedPassword;
+
+        public MailUser findUserByEmail(String email) {
+            this.lookups++;
+            if ("rob@example.org".equals(email)) {
+                return user(1, email, "penguin");
+            }
+            if ("luke@example.com".equals(email)) {
+                return user(2, email, this.lukePassword);
+            }
+            return null;
+        }
+
+        public void updatePassword(MailUser mailUser, String password) {
+            this.updatedPassword = password;
+        }
+
+        public MailUser getUser(int id) {
+            throw new UnsupportedOperationException();
+        }
+
+        public int createUser(MailUser user) {
+            throw new UnsupportedOperationException();
+        }
+
+        public List<MailUser> findUsersByEmail(Collection<String> emails) {
+            throw new UnsupportedOperationException();
+        }
+
+        private static MailUser user(int id, String email, String password) {
+            MailUser user = new MailUser();
+            user.setId(id);
+            user.setEmail(email);
+            user.setPassword(password);
+            user.setFirstName("First");
+            user.setLastName("Last");
+            return user;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package org.springframework.security.samples.mail.security;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.samples.mail.JdbcMessageServiceTest;
+import org.springframework.security.samples.mail.MailUser;
+import org.springframework.security.samples.mail.Message;
+import org.springframework.security.samples.mail.MessageSummary;
+import org.springframework.security.samples.mail.security.MessageOwnerLookup.MessageOwners;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = "file:src/main/webapp/WEB-INF/spring/*.xml")
+public class MessagePermissionEvaluatorTest {
+    @Autowired
+    private MessagePermissionEvaluator evaluator;
+    @Autowired
+    private MessageOwnerLookup ownerLookup;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private Message message;
+    private Authentication owner;
+    private Authentication stranger;
+
+    @Before
+    public void setup() {
+        this.message = JdbcMessageServiceTest.getExistingMessage();
+        this.owner = authentication(this.message.getToUser().getId());
+        this.stranger = authentication(Integer.MAX_VALUE);
+    }
+
+    @Test
+    public void hasPermissionMessage() {
+        assertThat(this.evaluator.hasPermission(this.owner, this.message, "read")).isTrue();
+        assertThat(this.evaluator.hasPermission(this.stranger, this.message, "read")).isFalse();
+    }
+
+    @Test
+    public void hasPermissionNullAuthentication() {
+        assertThat(this.evaluator.hasPermission(null, this.message, "read")).isFalse();
+    }
+
+    @Test
+    public void hasPermissionIterable() {
+        List<Message> messages = new ArrayList<Message>();
+        messages.add(this.message);
+        messages.add(this.message);
+        assertThat(this.evaluator.hasPermission(this.owner, messages, "read")).isTrue();
+
+        Message other = new Message();
+        other.setFromUser((MailUser) this.stranger.getPrincipal());
+        messages.add(other);
+        assertThat(this.evaluator.hasPermission(this.owner, messages, "read")).isFalse();
+    }
+
+    @Test
+    public void hasPermissionIterableOfOtherType() {
+        assertThat(this.evaluator.hasPermission(this.owner, Arrays.asList("notamessage"), "read")).isFalse();
+    }
+
+    @Test
+    public void hasPermissionId() {
+        assertThat(this.evaluator.hasPermission(this.owner, this.message.getId(), "Message", "read")).isTrue();
+        assertThat(this.evaluator.hasPermission(this.stranger, this.message.getId(), "Message", "read")).isFalse();
+        assertThat(this.evaluator.hasPermission(this.owner, this.message.getId(), Message.class.getName(), "read")).isTrue();
+    }
+
+    @Test
+    public void hasPermissionIdCachesOwners() {
+        this.evaluator.hasPermission(this.owner, this.message.getId(), "Message", "read");
+        long hits = this.ownerLookup.getCache().getHits();
+        this.evaluator.hasPermission(this.stranger, this.message.getId(), "Message", "read");
+        assertThat(this.ownerLookup.getCache().getHits()).isEqualTo(hits + 1);
+    }
+
+    @Test
+    public void hasPermissionIdNotFound() {
+        assertThat(this.evaluator.hasPermission(this.owner, Integer.MAX_VALUE, "Message", "read")).isFalse();
+    }
+
+    @Test
+    public void hasPermissionIdOtherType() {
+        assertThat(this.evaluator.hasPermission(this.owner, this.message.getId(), "MailUser", "read")).isFalse();
+    }
+
+    @Test
+    public void hasPermissionSummary() {
+        MessageSummary summary = summary(this.message.getId());
+        assertThat(this.evaluator.hasPermission(this.owner, summary, "read")).isTrue();
+        assertThat(this.evaluator.hasPermission(this.stranger, summary, "read")).isFalse();
+        assertThat(this.evaluator.hasPermission(this.owner, Arrays.asList(summary, summary), "read")).isTrue();
+    }
+
+    @Test
+    public void filter() {
+        Message other = new Message();
+        other.setFromUser((MailUser) this.stranger.getPrincipal());
+        MessageSummary summary = summary(this.message.getId());
+        List<Object> targets = new ArrayList<Object>(Arrays.asList(this.message, other, summary,
+                summary(Integer.MAX_VALUE), null, "notamessage"));
+
+        assertThat(this.evaluator.filter(this.owner, targets, "read")).containsExactly(this.message, summary, null);
+    }
+
+    @Test
+    public void filterLooksUpOwnersOnce() {
+        final List<Collection<Integer>> lookups = new ArrayList<Collection<Integer>>();
+        MessageOwnerLookup ownerLookup = new MessageOwnerLookup(this.jdbcTemplate) {
+            @Override
+            public Map<Integer, MessageOwners> getOwners(Collection<Integer> messageIds) {
+                lookups.add(messageIds);
+                return super.getOwners(messageIds);
+            }
+        };
+        MessagePermissionEvaluator evaluator = new MessagePermissionEvaluator(ownerLookup);
+        List<MessageSummary> targets = new ArrayList<MessageSummary>();
+        for (int i = 0; i < MessageOwnerLookup.OWNERS_CHUNK_SIZE * 2; i++) {
+            targets.add(summary(i % 2 == 0 ? this.message.getId() : Integer.MAX_VALUE - i));
+        }
+
+        evaluator.filter(this.owner, targets, "read");
+
+        assertThat(lookups).hasSize(1);
+        assertThat(targets).hasSize(MessageOwnerLookup.OWNERS_CHUNK_SIZE);
+    }
+
+    @Test
+    public void filterNullAuthentication() {
+        List<Message> targets = new ArrayList<Message>(Arrays.asList(this.message));
+
+        assertThat(this.evaluator.filter(null, targets, "read")).isEmpty();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void filterNull() {
+        this.evaluator.filter(this.owner, null, "read");
+    }
+
+    @Test
+    public void getOwnersBulk() {
+        List<Integer> ids = new ArrayList<Integer>();
+        for (int i = 0; i < MessageOwnerLookup.OWNERS_CHUNK_SIZE + 1; i++) {
+            ids.add(Integer.MAX_VALUE - i);
+        }
+        ids.add(this.message.getId());
+
+        Map<Integer, MessageOwners> owners = this.ownerLookup.getOwners(ids);
+
+        assertThat(owners).hasSize(1);
+        assertThat(owners.get(this.message.getId()).isOwner(this.message.getToUser().getId())).isTrue();
+    }
+
+    static MessageSummary summary(int id) {
+        return new MessageSummary(id, "Subject", "First", "Last");
+    }
+
+    private static Authentication authentication(int userId) {
+        MailUser user = new MailUser();
+        user.setId(userId);
+        return new UsernamePasswordAuthenticationToken(user, "notused", AuthorityUtils.createAuthorityList("ROLE_USER"));
+    }
+}
@@ -0,0 +1,68 @@
+package org.springframework.security.samples.mail.security;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.expression.EvaluationContext;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.samples.mail.JdbcMessageServiceTest;
+import org.springframework.security.samples.mail.MailUser;
+import org.springframework.security.samples.mail.Message;
+import org.springframework.security.samples.mail.MessageSummary;
+import org.springframework.security.util.SimpleMethodInvocation;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = "file:src/main/webapp/WEB-INF/spring/*.xml")
+public class MessageSecurityExpressionHandlerTest {
+    @Autowired
+    private MessageSecurityExpressionHandler expressionHandler;
+
+    private Message message;
+    private EvaluationContext ctx;
+
+    @Before
+    public void setup() {
+        this.message = JdbcMessageServiceTest.getExistingMessage();
+        MailUser owner = this.message.getToUser();
+        this.ctx = this.expressionHandler.createEvaluationContext(new UsernamePasswordAuthenticationToken(owner,
+                "notused", AuthorityUtils.createAuthorityList("ROLE_USER")), new SimpleMethodInvocation());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorNullPermissionEvaluator() {
+        new MessageSecurityExpressionHandler(null);
+    }
+
+    @Test
+    public void filterHasPermission() {
+        MessageSummary summary = MessagePermissionEvaluatorTest.summary(this.message.getId());
+        List<MessageSummary> targets = new ArrayList<MessageSummary>(Arrays.asList(summary,
+                MessagePermissionEvaluatorTest.summary(Integer.MAX_VALUE)));
+
+        Object result = this.expressionHandler.filter(targets, this.expressionHandler.getExpressionParser()
+                .parseExpression("hasPermission(filterObject, 'read')"), this.ctx);
+
+        assertThat(result).isSameAs(targets);
+        assertThat(targets).containsExactly(summary);
+    }
+
+    @Test
+    public void filterOtherExpression() {
+        List<String> targets = new ArrayList<String>(Arrays.asList("a", "b"));
+
+        this.expressionHandler.filter(targets,
+                this.expressionHandler.getExpressionParser().parseExpression("filterObject == 'a'"), this.ctx);
+
+        assertThat(targets).containsExactly("a");
+    }
+}
@@ -0,0 +1,251 @@
+package org.springframework.security.samples.mail.security;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import javax.servlet.http.Cookie;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.samples.mail.JdbcMessageServiceTest;
+import org.springframework.security.samples.mail.MailUser;
+import org.springframework.security.samples.mail.MailUserService;
+import org.springframework.security.samples.mail.SpringSecurityUserContext;
+import org.springframework.security.web.context.HttpRequestResponseHolder;
+import org.springframework.security.web.context.SecurityContextRepository;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ActiveProfiles({ "default", "stateless" })
+@ContextConfiguration(locations = "file:src/main/webapp/WEB-INF/spring/*.xml")
+public class SignedCookieSecurityContextRepositoryTest {
+    private static final String COOKIE_NAME = SignedCookieSecurityContextRepository.DEFAULT_COOKIE_NAME;
+
+    @Autowired
+    private SecurityContextRepository securityContextRepository;
+    @Autowired
+    @Qualifier("cachingMailUserService")
+    private MailUserService userService;
+
+    private SignedCookieSecurityContextRepository repository;
+    private MailUser user;
+
+    @Before
+    public void setup() {
+        this.repository = new SignedCookieSecurityContextRepository(this.userService, "secret");
+        this.user = JdbcMessageServiceTest.getExistingMessage().getToUser();
+    }
+
+    @After
+    public void cleanup() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    public void statelessProfile() {
+        assertThat(this.securityContextRepository).isInstanceOf(SignedCookieSecurityContextRepository.class);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorNullUserService() {
+        new SignedCookieSecurityContextRepository(null, "secret");
+    }
+
+    @Test
+    public void loadContextNoCookie() {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+
+        assertThat(load(request, new MockHttpServletResponse()).getContext().getAuthentication()).isNull();
+        assertThat(this.repository.containsContext(request)).isFalse();
+    }
+
+    @Test
+    public void saveAndLoad() {
+        Cookie cookie = login();
+        assertThat(cookie.getMaxAge()).isEqualTo(-1);
+
+        MockHttpServletRequest request = request(cookie);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        Loaded loaded = load(request, response);
+
+        Authentication authentication = loaded.getContext().getAuthentication();
+        assertThat(this.repository.containsContext(request)).isTrue();
+        assertThat(AuthorityUtils.authorityListToSet(authentication.getAuthorities())).containsOnly("ROLE_USER");
+        SecurityContextHolder.setContext(loaded.getContext());
+        MailUser current = new SpringSecurityUserContext().getCurrentUser();
+        assertThat(current.getId()).isEqualTo(this.user.getId());
+        assertThat(current.getEmail()).isEqualTo(this.user.getEmail());
+
+        loaded.save();
+        assertThat(response.getCookie(COOKIE_NAME)).isNull();
+    }
+
+    @Test
+    public void loadContextTampered() {
+        Cookie cookie = login();
+        String value = cookie.getValue();
+        String forged = this.repository.encode(2, Long.MAX_VALUE, "password");
+        String tampered = forged.substring(0, forged.indexOf('.')) + value.substring(value.indexOf('.'));
+
+        assertThat(loadWith(tampered).getAuthentication()).isNull();
+        assertThat(loadWith(value + "x").getAuthentication()).isNull();
+        assertThat(loadWith("garbage").getAuthentication()).isNull();
+    }
+
+    @Test
+    public void loadContextOtherSecret() {
+        String value = new SignedCookieSecurityContextRepository(this.userService, "other").encode(this.user.getId(),
+                Long.MAX_VALUE, this.user.getPassword());
+
+        assertThat(loadWith(value).getAuthentication()).isNull();
+    }
+
+    @Test
+    public void loadContextExpired() {
+        String value = this.repository.encode(this.user.getId(), System.currentTimeMillis() - 1,
+                this.user.getPassword());
+
+        assertThat(loadWith(value).getAuthentication()).isNull();
+    }
+
+    @Test
+    public void loadContextUnknownUser() {
+        String value = this.repository.encode(-1, Long.MAX_VALUE, this.user.getPassword());
+
+        assertThat(loadWith(value).getAuthentication()).isNull();
+    }
+
+    @Test
+    public void loadContextAuthoritiesOfUser() {
+        String value = this.repository.encode(this.user.getId(), Long.MAX_VALUE, this.user.getPassword());
+
+        Authentication authentication = loadWith(value).getAuthentication();
+
+        assertThat(authentication.getAuthorities()).isEqualTo(new MailUserDetails(this.user).getAuthorities());
+    }
+
+    @Test
+    public void loadContextPasswordChanged() {
+        MailUser user = new MailUser();
+        user.setEmail("cookie" + System.nanoTime() + "@example.com");
+        user.setFirstName("Cookie");
+        user.setLastName("User");
+        user.setPassword("password");
+        user.setId(this.userService.createUser(user));
+        String value = this.repository.encode(user.getId(), Long.MAX_VALUE,
+                this.userService.getUser(user.getId()).getPassword());
+        assertThat(loadWith(value).getAuthentication()).isNotNull();
+
+        this.userService.updatePassword(user, "changed");
+
+        assertThat(loadWith(value).getAuthentication()).isNull();
+    }
+
+    @Test
+    public void loadContextRefreshesCookie() {
+        this.repository.setValiditySeconds(60);
+        String value = this.repository.encode(this.user.getId(), System.currentTimeMillis() + 10000,
+                this.user.getPassword());
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        load(request(new Cookie(COOKIE_NAME, value)), response);
+
+        assertThat(response.getCookie(COOKIE_NAME).getValue()).isNotEqualTo(value);
+    }
+
+    @Test
+    public void logoutRemovesCookie() {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        Loaded loaded = load(request(login()), response);
+
+        loaded.getContext().setAuthentication(null);
+        loaded.save();
+
+        assertThat(response.getCookie(COOKIE_NAME).getMaxAge()).isEqualTo(0);
+    }
+
+    @Test
+    public void anonymousIsNotSaved() {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        Loaded loaded = load(new MockHttpServletRequest(), response);
+
+        loaded.getContext().setAuthentication(
+                new AnonymousAuthenticationToken("key", "anonymous", AuthorityUtils
+                        .createAuthorityList("ROLE_ANONYMOUS")));
+        loaded.save();
+
+        assertThat(response.getCookie(COOKIE_NAME)).isNull();
+    }
+
+    @Test
+    public void redirectSavesBeforeCommit() throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        Loaded loaded = load(new MockHttpServletRequest(), response);
+        SecurityContextHolder.getContext().setAuthentication(authentication());
+
+        loaded.holder.getResponse().sendRedirect("/default");
+
+        assertThat(response.getCookie(COOKIE_NAME)).isNotNull();
+    }
+
+    private Cookie login() {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        Loaded loaded = load(new MockHttpServletRequest(), response);
+        loaded.getContext().setAuthentication(authentication());
+        loaded.save();
+        return response.getCookie(COOKIE_NAME);
+    }
+
+    private Authentication authentication() {
+        return new UsernamePasswordAuthenticationToken(new MailUserDetails(this.user), null,
+                AuthorityUtils.createAuthorityList("ROLE_USER"));
+    }
+
+    private SecurityContext loadWith(String value) {
+        return load(request(new Cookie(COOKIE_NAME, value)), new MockHttpServletResponse()).getContext();
+    }
+
+    private Loaded load(MockHttpServletRequest request, MockHttpServletResponse response) {
+        HttpRequestResponseHolder holder = new HttpRequestResponseHolder(request, response);
+        SecurityContext context = this.repository.loadContext(holder);
+        SecurityContextHolder.setContext(context);
+        return new Loaded(holder, context);
+    }
+
+    private static MockHttpServletRequest request(Cookie cookie) {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setCookies(cookie);
+        return request;
+    }
+
+    private final class Loaded {
+        private final HttpRequestResponseHolder holder;
+        private final SecurityContext context;
+
+        private Loaded(HttpRequestResponseHolder holder, SecurityContext context) {
+            this.holder = holder;
+            this.context = context;
+        }
+
+        SecurityContext getContext() {
+            return this.context;
+        }
+
+        void save() {
+            repository.saveContext(this.context, this.holder.getRequest(), this.holder.getResponse());
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package org.springframework.security.samples.mail.security;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.security.authentication.AuthenticationProvider;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.samples.mail.security.ThrottlingAuthenticationProvider.LoginThrottledException;
+import org.springframework.security.web.authentication.WebAuthenticationDetails;
+
+public class ThrottlingAuthenticationProviderTest {
+    private static final long WINDOW_MILLIS = 15 * 1000;
+
+    private StubAuthenticationProvider delegate;
+    private long now = 1000000;
+    private ThrottlingAuthenticationProvider provider;
+
+    @Before
+    public void setup() {
+        this.delegate = new StubAuthenticationProvider();
+        this.provider = new ThrottlingAuthenticationProvider(this.delegate) {
+            @Override
+            long currentTimeMillis() {
+                return now;
+            }
+        };
+        this.provider.setWindowMillis(WINDOW_MILLIS);
+        this.provider.setMaxAccountFailures(3);
+        this.provider.setMaxAddressFailures(5);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorNullDelegate() {
+        new ThrottlingAuthenticationProvider(null);
+    }
+
+    @Test
+    public void accountIsThrottledBeforeDelegate() {
+        failTimes("rob@example.org", "127.0.0.1", 3);
+
+        assertThrottled("ROB@example.org", "127.0.0.2");
+        assertThat(this.delegate.attempts).isEqualTo(3);
+        assertThat(this.provider.getAccountRejections()).isEqualTo(1);
+        assertThat(this.provider.getAddressRejections()).isEqualTo(0);
+    }
+
+    @Test
+    public void addressIsThrottledAcrossAccounts() {
+        for (int i = 0; i < 5; i++) {
+            failTimes("user" + i + "@example.com", "127.0.0.1", 1);
+        }
+
+        assertThrottled("rob@example.org", "127.0.0.1");
+        assertThat(this.provider.getAddressRejections()).isEqualTo(1);
+
+        this.delegate.exception = null;
+        assertThat(this.provider.authenticate(token("rob@example.org", "127.0.0.2"))).isNotNull();
+    }
+
+    @Test
+    public void failuresExpireAfterWindow() {
+        failTimes("rob@example.org", "127.0.0.1", 3);
+        this.now += WINDOW_MILLIS - 1000;
+        assertThrottled("rob@example.org", "127.0.0.1");
+
+        this.now += 1000;
+        this.delegate.exception = null;
+
+        assertThat(this.provider.authenticate(token("rob@example.org", "127.0.0.1"))).isNotNull();
+    }
+
+    @Test
+    public void windowSlides() {
+        failTimes("rob@example.org", "127.0.0.1", 2);
+        this.now += WINDOW_MILLIS / 2;
+        failTimes("rob@example.org", "127.0.0.1", 1);
+        assertThrottled("rob@example.org", "127.0.0.1");
+
+        // the first two failures leave the window while the third is still counted
+        this.now += WINDOW_MILLIS / 2 + 1000;
+        failTimes("rob@example.org", "127.0.0.1", 2);
+
+        assertThrottled("rob@example.org", "127.0.0.1");
+    }
+
+    @Test
+    public void successClearsAccountFailures() {
+        failTimes("rob@example.org", "127.0.0.1", 2);
+        this.delegate.exception = null;
+        this.provider.authenticate(token("rob@example.org", "127.0.0.1"));
+
+        failTimes("rob@example.org", "127.0.0.1", 2);
+
+        this.delegate.exception = null;
+        assertThat(this.provider.authenticate(token("rob@example.org", "127.0.0.1"))).isNotNull();
+    }
+
+    @Test
+    public void keysAreBounded() {
+        this.provider.setMaxKeys(10);
+        for (int i = 0; i < 25; i++) {
+            failTimes("user" + i + "@example.com", null, 1);
+        }
+
+        assertThat(this.provider.getTrackedAccounts()).isLessThanOrEqualTo(10);
+        assertThat(this.provider.getKeyEvictions()).isGreaterThan(0);
+    }
+
+    @Test
+    public void idleKeysAreEvictedFirst() {
+        this.provider.setMaxKeys(2);
+        failTimes("idle@example.com", null, 1);
+        this.now += WINDOW_MILLIS;
+        failTimes("rob@example.org", null, 2);
+
+        failTimes("luke@example.com", null, 1);
+
+        assertThat(this.provider.getTrackedAccounts()).isEqualTo(2);
+        failTimes("rob@example.org", null, 1);
+        assertThrottled("rob@example.org", null);
+    }
+
+    @Test
+    public void keysWithFewerFailuresAreEvictedFirst() {
+        this.provider.setMaxKeys(2);
+        failTimes("rob@example.org", null, 2);
+        failTimes("luke@example.com", null, 1);
+
+        failTimes("new@example.com", null, 1);
+
+        failTimes("rob@example.org", null, 1);
+        assertThrottled("rob@example.org", null);
+        assertThat(this.provider.getTrackedAccounts()).isEqualTo(2);
+    }
+
+    @Test
+    public void throttledKeysAreNotEvicted() {
+        this.provider.setMaxKeys(2);
+        failTimes("rob@example.org", null, 3);
+        failTimes("luke@example.com", null, 3);
+
+        for (int i = 0; i < 5; i++) {
+            failTimes("user" + i + "@example.com", null, 1);
+        }
+
+        assertThrottled("rob@example.org", null);
+        assertThrottled("luke@example.com", null);
+        assertThat(this.provider.getTrackedAccounts()).isEqualTo(2);
+        assertThat(this.provider.getKeyEvictions()).isEqualTo(0);
+    }
+
+    @Test
+    public void errorsAreNotCounted() {
+        this.delegate.exception = new LoginThrottledException("not bad credentials");
+        for (int i = 0; i < 5; i++) {
+            try {
+                this.provider.authenticate(token("rob@example.org", "127.0.0.1"));
+            } catch (AuthenticationException expected) {
+            }
+        }
+
+        assertThat(this.provider.getTrackedAccounts()).isEqualTo(0);
+    }
+
+    @Test
+    public void clear() {
+        failTimes("rob@example.org", "127.0.0.1", 3);
+        this.provider.clear();
+        this.delegate.exception = null;
+
+        assertThat(this.provider.authenticate(token("rob@example.org", "127.0.0.1"))).isNotNull();
+    }
+
+    private void failTimes(String username, String address, int times) {
+        this.delegate.exception = new BadCredentialsException("bad");
+        for (int i = 0; i < times; i++) {
+            try {
+                this.provider.authenticate(token(username, address));
+                fail("Expected BadCredentialsException");
+            } catch (BadCredentialsException success) {
+            }
+        }
+    }
+
+    private void assertThrottled(String username, String address) {
+        try {
+            this.provider.authenticate(token(username, address));
+            fail("Expected LoginThrottledException");
+        } catch (LoginThrottledException success) {
+        }
+    }
+
+    private static Authentication token(String username, String address) {
+        UsernamePasswordAuthenticationToken token = new UsernamePasswordAuthenticationToken(username, "password");
+        if (address != null) {
+            MockHttpServletRequest request = new MockHttpServletRequest();
+            request.setRemoteAddr(address);
+            token.setDetails(new WebAuthenticationDetails(request));
+        }
+        return token;
+    }
+
+    private static class StubAuthenticationProvider implements AuthenticationProvider {
+        private int attempts;
+        private AuthenticationException exception;
+
+        public Authentication authenticate(Authentication authentication) throws AuthenticationException {
+            this.attempts++;
+            if (this.exception != null) {
+                throw this.exception;
+            }
+            return new UsernamePasswordAuthenticationToken(authentication.getPrincipal(), "password",
+                    AuthorityUtils.createAuthorityList("ROLE_USER"));
+        }
+
+        public boolean supports(Class<?> authentication) {
+            return UsernamePasswordAuthenticationToken.class.isAssignableFrom(authentication);
+        }
+    }
+}
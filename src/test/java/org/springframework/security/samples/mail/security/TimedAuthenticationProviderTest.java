@@ -0,0 +1,105 @@
+package org.springframework.security.samples.mail.security;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.security.authentication.AuthenticationProvider;
+import org.springframework.security.authentication.AuthenticationServiceException;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.security.core.authority.AuthorityUtils;
+
+public class TimedAuthenticationProviderTest {
+    private StubAuthenticationProvider delegate;
+    private TimedAuthenticationProvider provider;
+    private Authentication authentication;
+
+    @Before
+    public void setup() {
+        this.delegate = new StubAuthenticationProvider();
+        this.provider = new TimedAuthenticationProvider(this.delegate);
+        this.authentication = new UsernamePasswordAuthenticationToken("rob@example.org", "penguin");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorNullDelegate() {
+        new TimedAuthenticationProvider(null);
+    }
+
+    @Test
+    public void authenticateSuccess() {
+        this.delegate.result = new UsernamePasswordAuthenticationToken("rob@example.org", "penguin",
+                AuthorityUtils.createAuthorityList("ROLE_USER"));
+
+        assertThat(this.provider.authenticate(this.authentication)).isSameAs(this.delegate.result);
+        assertThat(this.provider.getSuccesses()).isEqualTo(1);
+        assertThat(this.provider.getAttempts()).isEqualTo(1);
+        assertThat(this.provider.getMaxMillis()).isGreaterThan(0);
+    }
+
+    @Test
+    public void authenticateAbstain() {
+        assertThat(this.provider.authenticate(this.authentication)).isNull();
+        assertThat(this.provider.getAbstains()).isEqualTo(1);
+    }
+
+    @Test
+    public void authenticateBadCredentials() {
+        this.delegate.exception = new BadCredentialsException("bad");
+        authenticateFails();
+        assertThat(this.provider.getFailures()).isEqualTo(1);
+        assertThat(this.provider.getErrors()).isEqualTo(0);
+    }
+
+    @Test
+    public void authenticateError() {
+        this.delegate.exception = new AuthenticationServiceException("database is down");
+        authenticateFails();
+        assertThat(this.provider.getErrors()).isEqualTo(1);
+        assertThat(this.provider.getFailures()).isEqualTo(0);
+    }
+
+    @Test
+    public void resetStatistics() {
+        this.provider.authenticate(this.authentication);
+        this.provider.resetStatistics();
+        assertThat(this.provider.getAttempts()).isEqualTo(0);
+        assertThat(this.provider.getAverageMillis()).isEqualTo(0);
+    }
+
+    @Test
+    public void supports() {
+        assertThat(this.provider.supports(UsernamePasswordAuthenticationToken.class)).isTrue();
+        assertThat(this.provider.supports(Authentication.class)).isFalse();
+    }
+
+    private void authenticateFails() {
+        try {
+            this.provider.authenticate(this.authentication);
+            fail("Expected " + this.delegate.exception);
+        } catch (AuthenticationException success) {
+            assertThat(success).isSameAs(this.delegate.exception);
+        }
+        assertThat(this.provider.getAttempts()).isEqualTo(1);
+    }
+
+    private static class StubAuthenticationProvider implements AuthenticationProvider {
+        private Authentication result;
+        private AuthenticationException exception;
+
+        public Authentication authenticate(Authentication authentication) throws AuthenticationException {
+            if (this.exception != null) {
+                throw this.exception;
+            }
+            return this.result;
+        }
+
+        public boolean supports(Class<?> authentication) {
+            return UsernamePasswordAuthenticationToken.class.isAssignableFrom(authentication);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package org.springframework.security.samples.mail.security;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.Date;
+
+import javax.servlet.http.Cookie;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.crypto.codec.Base64;
+import org.springframework.security.samples.mail.security.JdbcRememberMeTokenRepository.IssuedRememberMeToken;
+import org.springframework.security.web.authentication.rememberme.AbstractRememberMeServices;
+import org.springframework.security.web.authentication.rememberme.CookieTheftException;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = "file:src/main/webapp/WEB-INF/spring/*.xml")
+public class TouchingRememberMeServicesTest {
+    private static final String USERNAME = "rob@example.org";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private MailUserDetailsService userDetailsService;
+
+    private JdbcRememberMeTokenRepository tokenRepository;
+    private TouchingRememberMeServices services;
+
+    @Before
+    public void setup() {
+        this.tokenRepository = new JdbcRememberMeTokenRepository(this.jdbcTemplate);
+        this.services = new TouchingRememberMeServices("key", this.userDetailsService, this.tokenRepository);
+        this.services.setAlwaysRemember(true);
+    }
+
+    @After
+    public void cleanup() {
+        this.tokenRepository.removeUserTokens(USERNAME);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorNullTokenRepository() {
+        new TouchingRememberMeServices("key", this.userDetailsService, null);
+    }
+
+    @Test
+    public void autoLoginWithinRotationIntervalTouches() {
+        Cookie cookie = login();
+        String series = series(cookie);
+        Date issued = this.tokenRepository.getTokenForSeries(series).getIssued();
+
+        Authentication first = autoLogin(cookie);
+        Authentication second = autoLogin(cookie);
+
+        assertThat(first.getName()).isEqualTo(USERNAME);
+        assertThat(second.getName()).isEqualTo(USERNAME);
+        assertThat(this.tokenRepository.getTokenForSeries(series).getIssued()).isEqualTo(issued);
+    }
+
+    @Test
+    public void autoLoginAfterRotationIntervalRotates() {
+        this.services.setRotationIntervalSeconds(0);
+        Cookie cookie = login();
+        String token = this.tokenRepository.getTokenForSeries(series(cookie)).getTokenValue();
+
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        assertThat(this.services.autoLogin(request(cookie), response)).isNotNull();
+
+        String rotated = this.tokenRepository.getTokenForSeries(series(cookie)).getTokenValue();
+        assertThat(rotated).isNotEqualTo(token);
+        assertThat(autoLogin(response.getCookie(AbstractRememberMeServices.SPRING_SECURITY_REMEMBER_ME_COOKIE_KEY)))
+                .isNotNull();
+    }
+
+    @Test
+    public void autoLoginPreviousTokenWithinGraceReceivesCurrentToken() {
+        this.services.setRotationIntervalSeconds(0);
+        Cookie cookie = login();
+        autoLogin(cookie);
+        String rotated = this.tokenRepository.getTokenForSeries(series(cookie)).getTokenValue();
+
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        assertThat(this.services.autoLogin(request(cookie), response)).isNotNull();
+
+        assertThat(this.tokenRepository.getTokenForSeries(series(cookie)).getTokenValue()).isEqualTo(rotated);
+        Cookie current = response.getCookie(AbstractRememberMeServices.SPRING_SECURITY_REMEMBER_ME_COOKIE_KEY);
+        assertThat(current.getValue()).isNotEqualTo(cookie.getValue());
+        assertThat(autoLogin(current)).isNotNull();
+    }
+
+    @Test
+    public void autoLoginConcurrentRotationReceivesWinningToken() {
+        this.services.setRotationIntervalSeconds(0);
+        Cookie cookie = login();
+        String series = series(cookie);
+        String token = this.tokenRepository.getTokenForSeries(series).getTokenValue();
+        JdbcRememberMeTokenRepository concurrent = new JdbcRememberMeTokenRepository(this.jdbcTemplate) {
+            @Override
+            public boolean rotateToken(String series, String currentTokenValue, String newTokenValue, Date issued) {
+                // another request rotates between reading and rotating the token
+                super.rotateToken(series, currentTokenValue, "winner", issued);
+                return super.rotateToken(series, currentTokenValue, newTokenValue, issued);
+            }
+        };
+        this.services = new TouchingRememberMeServices("key", this.userDetailsService, concurrent);
+        this.services.setRotationIntervalSeconds(0);
+
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        assertThat(this.services.autoLogin(request(cookie), response)).isNotNull();
+
+        IssuedRememberMeToken rotated = this.tokenRepository.getTokenForSeries(series);
+        assertThat(rotated.getTokenValue()).isEqualTo("winner");
+        assertThat(rotated.getPreviousTokenValue()).isEqualTo(token);
+        assertThat(response.getCookie(AbstractRememberMeServices.SPRING_SECURITY_REMEMBER_ME_COOKIE_KEY).getValue())
+                .isNotEqualTo(cookie.getValue());
+    }
+
+    @Test
+    public void autoLoginStolenCookieRemovesTokens() {
+        this.services.setRotationIntervalSeconds(0);
+        this.services.setPreviousTokenGraceSeconds(0);
+        Cookie cookie = login();
+        autoLogin(cookie);
+
+        try {
+            autoLogin(cookie);
+            fail("Expected CookieTheftException");
+        } catch (CookieTheftException success) {
+        }
+
+        assertThat(this.tokenRepository.getTokenForSeries(series(cookie))).isNull();
+    }
+
+    private Cookie login() {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        this.services.loginSuccess(new MockHttpServletRequest(), response, new UsernamePasswordAuthenticationToken(
+                USERNAME, "notused", AuthorityUtils.createAuthorityList("ROLE_USER")));
+        return response.getCookie(AbstractRememberMeServices.SPRING_SECURITY_REMEMBER_ME_COOKIE_KEY);
+    }
+
+    private Authentication autoLogin(Cookie cookie) {
+        return this.services.autoLogin(request(cookie), new MockHttpServletResponse());
+    }
+
+    private MockHttpServletRequest request(Cookie cookie) {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setCookies(cookie);
+        return request;
+    }
+
+    private String series(Cookie cookie) {
+        return new String(Base64.decode(cookie.getValue().getBytes())).split(":")[0];
+    }
+}